@@ -98,6 +98,8 @@ public class CallActivity extends Activity implements CallFragment.OnCallEvents,
     public static final String EXTRA_IS_PASSIVE = "org.elastos.carrier.webrtc.demo.apprtc.IS_PASSIVE";
 
     private static final int CAPTURE_PERMISSION_REQUEST_CODE = 1;
+    // Peer connection statistics callback period in ms.
+    private static final int STAT_CALLBACK_PERIOD = 1000;
 
     // List of mandatory application permissions.
     private static final String[] MANDATORY_PERMISSIONS = {"android.permission.MODIFY_AUDIO_SETTINGS",
@@ -268,6 +270,7 @@ public class CallActivity extends Activity implements CallFragment.OnCallEvents,
         if (cpuMonitor != null) {
             cpuMonitor.pause();
         }
+        WebrtcClient.getInstance().setInBackground(true);
     }
 
     @Override
@@ -277,6 +280,7 @@ public class CallActivity extends Activity implements CallFragment.OnCallEvents,
         if (cpuMonitor != null) {
             cpuMonitor.resume();
         }
+        WebrtcClient.getInstance().setInBackground(false);
     }
 
     @Override
@@ -384,6 +388,10 @@ public class CallActivity extends Activity implements CallFragment.OnCallEvents,
     private void startCall() {
         // show video
         WebrtcClient.getInstance().renderVideo(localRenderer, remoteRenderer);
+        if (getIntent().getBooleanExtra(EXTRA_DISPLAY_HUD, false)) {
+            WebrtcClient.getInstance().setStatsListener(hudFragment::updateStatistics,
+                    STAT_CALLBACK_PERIOD);
+        }
         // Create and audio manager that will take care of audio routing,
         // audio modes, audio device enumeration etc.
         audioManager = WebRTCAudioManager.create(getApplicationContext());
@@ -69,10 +69,17 @@ public class CarrierClient {
 	}
 
 	public void sendMessageByInvite(String fid, String message) throws CarrierException {
-		if (friendInviteResponseHandler==null){
+		sendMessageByInvite(fid, message, friendInviteResponseHandler);
+	}
+
+	/**
+	 * Send a message as a friend invite, whose reply goes to the given handler.
+	 */
+	public void sendMessageByInvite(String fid, String message, FriendInviteResponseHandler responseHandler) throws CarrierException {
+		if (responseHandler==null){
 			throw CarrierException.fromErrorCode(-1, "FriendInviteResponseHandler not initialized.");
 		}else if(fid!=null && !fid.equals(carrier.getUserId())){
-			carrier.inviteFriend(fid, message, friendInviteResponseHandler);
+			carrier.inviteFriend(fid, message, responseHandler);
 		}
 	}
 
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.demo_apprtc;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.elastos.carrier.AbstractCarrierHandler;
+import org.elastos.carrier.Carrier;
+import org.elastos.carrier.FriendInviteResponseHandler;
+import org.elastos.carrier.webrtc.CarrierPeerConnectionClient;
+import org.elastos.carrier.webrtc.WebrtcClient;
+import org.elastos.carrier.webrtc.data.DataChannelListener;
+import org.elastos.carrier.webrtc.data.Multiplexer;
+import org.elastos.carrier.webrtc.exception.WebrtcException;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.DataChannel;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Delivers the chat messages over the data channel of the call when it is open, and over
+ * Carrier friend invites otherwise. Messages stay queued until the peer acknowledges them, and
+ * those still unacknowledged are replayed on the new transport when the data channel opens or
+ * closes; the receiver drops the duplicates. The acknowledgement round trips are recorded per
+ * transport to compare peer-to-peer delivery with the Carrier network.
+ */
+public class ChatTransport extends AbstractCarrierHandler
+        implements Multiplexer.Handler, DataChannelListener {
+    private static final String TAG = "ChatTransport";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int CHAT_STREAM = 1;
+    static final int TYPE_TEXT = 1;
+    // Tells the chat invites from the other friend invites.
+    private static final String INVITE_PREFIX = "chat:";
+    private static final long ACK_TIMEOUT_MS = 5000;
+    private static final int MAX_RECEIVED_IDS = 256;
+
+    public enum Transport {
+        DATA_CHANNEL("data channel"),
+        CARRIER_INVITE("carrier invite");
+
+        private final String label;
+
+        Transport(String label) {
+            this.label = label;
+        }
+    }
+
+    private static ChatTransport instance;
+
+    private final Context context;
+    // Unacknowledged messages by id, in sending order.
+    private final Map<String, Outgoing> pending = new LinkedHashMap<>();
+    // Ids of the last messages received, for dropping the replayed ones.
+    private final Map<String, Boolean> receivedIds = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_RECEIVED_IDS;
+        }
+    };
+    private final LatencyStats[] latencies = {new LatencyStats(), new LatencyStats()};
+    private boolean dataChannelOpen;
+
+    private static class Outgoing {
+        final String id;
+        final String peerId;
+        final String text;
+        Transport transport;
+        long sentAtMs;
+
+        Outgoing(String id, String peerId, String text) {
+            this.id = id;
+            this.peerId = peerId;
+            this.text = text;
+        }
+    }
+
+    private static class LatencyStats {
+        int count;
+        long totalMs;
+        long minMs = Long.MAX_VALUE;
+        long maxMs;
+
+        void add(long ms) {
+            count++;
+            totalMs += ms;
+            minMs = Math.min(minMs, ms);
+            maxMs = Math.max(maxMs, ms);
+        }
+    }
+
+    /**
+     * Register the transport with the webrtc and carrier clients, once they are created.
+     */
+    public static synchronized ChatTransport install(Context context) {
+        if (instance == null) {
+            instance = new ChatTransport(context.getApplicationContext());
+            WebrtcClient.getInstance().setMultiplexerHandler(instance);
+            WebrtcClient.getInstance().setDataChannelListener(instance);
+            CarrierClient.getInstance(context).addCarrierHandler(instance);
+        }
+        return instance;
+    }
+
+    public static synchronized ChatTransport getInstance() {
+        return instance;
+    }
+
+    private ChatTransport(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Queue |text| for |peerId| and send it over the best transport.
+     */
+    public void send(String peerId, String text) {
+        Outgoing message = new Outgoing(Long.toString(UUID.randomUUID().getLeastSignificantBits()),
+                peerId, text);
+        synchronized (this) {
+            pending.put(message.id, message);
+        }
+        deliver(message);
+    }
+
+    /**
+     * The acknowledgement round trips per transport, for display.
+     */
+    public synchronized String getLatencyReport() {
+        StringBuilder report = new StringBuilder();
+        for (Transport transport : Transport.values()) {
+            LatencyStats stats = latencies[transport.ordinal()];
+            if (report.length() > 0) {
+                report.append('\n');
+            }
+            if (stats.count == 0) {
+                report.append(transport.label).append(": no messages");
+            } else {
+                report.append(String.format(Locale.US, "%s: %d messages, avg %d ms, min %d ms, max %d ms",
+                        transport.label, stats.count, stats.totalMs / stats.count, stats.minMs,
+                        stats.maxMs));
+            }
+        }
+        report.append(String.format(Locale.US, "\n%d pending", pending.size()));
+        return report.toString();
+    }
+
+    private void deliver(Outgoing message) {
+        Transport transport;
+        synchronized (this) {
+            transport = dataChannelOpen && message.peerId.equals(WebrtcClient.getInstance().getPeerAddress())
+                    ? Transport.DATA_CHANNEL : Transport.CARRIER_INVITE;
+            message.transport = transport;
+            message.sentAtMs = SystemClock.elapsedRealtime();
+        }
+        String payload = encode(message);
+        if (payload == null) {
+            return;
+        }
+        if (transport == Transport.DATA_CHANNEL) {
+            sendOverDataChannel(message, payload);
+        } else {
+            sendByInvite(message, payload);
+        }
+    }
+
+    private void sendOverDataChannel(Outgoing message, String payload) {
+        try {
+            WebrtcClient.getInstance().getMultiplexer().request(CHAT_STREAM, TYPE_TEXT,
+                    ByteBuffer.wrap(payload.getBytes(UTF_8)), ACK_TIMEOUT_MS,
+                    new Multiplexer.ResponseCallback() {
+                        @Override
+                        public void onResponse(ByteBuffer ack) {
+                            acknowledged(message, Transport.DATA_CHANNEL);
+                        }
+
+                        @Override
+                        public void onError(String reason) {
+                            Log.w(TAG, "sendOverDataChannel: " + message.id + " failed: " + reason);
+                            sendByInvite(message, payload);
+                        }
+                    });
+        } catch (WebrtcException e) {
+            Log.w(TAG, "sendOverDataChannel: ", e);
+            sendByInvite(message, payload);
+        }
+    }
+
+    private void sendByInvite(Outgoing message, String payload) {
+        synchronized (this) {
+            if (!pending.containsKey(message.id)) {
+                return;
+            }
+            message.transport = Transport.CARRIER_INVITE;
+            message.sentAtMs = SystemClock.elapsedRealtime();
+        }
+        try {
+            CarrierClient.getInstance(context).sendMessageByInvite(message.peerId,
+                    INVITE_PREFIX + payload, new FriendInviteResponseHandler() {
+                        @Override
+                        public void onReceived(String from, int status, String reason, String data) {
+                            if (status == 0) {
+                                acknowledged(message, Transport.CARRIER_INVITE);
+                            } else {
+                                Log.w(TAG, "sendByInvite: " + message.id + " refused: " + reason);
+                            }
+                        }
+                    });
+        } catch (Exception e) {
+            // Stays queued, for the next transport switch.
+            Log.e(TAG, "sendByInvite: ", e);
+        }
+    }
+
+    private synchronized void acknowledged(Outgoing message, Transport transport) {
+        if (pending.remove(message.id) == null) {
+            return;
+        }
+        // An ack of an earlier attempt does not time the current one.
+        if (message.transport == transport) {
+            latencies[transport.ordinal()].add(SystemClock.elapsedRealtime() - message.sentAtMs);
+        }
+    }
+
+    // Resend the unacknowledged messages on the transport now in use.
+    private void replay() {
+        List<Outgoing> messages;
+        synchronized (this) {
+            messages = new ArrayList<>(pending.values());
+        }
+        for (Outgoing message : messages) {
+            Log.d(TAG, "replay: " + message.id);
+            deliver(message);
+        }
+    }
+
+    @Override
+    public void onStateChange(String label, DataChannel.State state) {
+        if (!CarrierPeerConnectionClient.DEFAULT_DATA_CHANNEL_LABEL.equals(label)) {
+            return;
+        }
+        boolean open = state == DataChannel.State.OPEN;
+        synchronized (this) {
+            if (open == dataChannelOpen) {
+                return;
+            }
+            dataChannelOpen = open;
+        }
+        Log.d(TAG, "onStateChange: switching to " + (open ? Transport.DATA_CHANNEL : Transport.CARRIER_INVITE).label);
+        replay();
+    }
+
+    @Override
+    public void onMessage(String label, ByteBuffer data, boolean binary) {
+        Log.d(TAG, "onMessage: ignoring a message on " + label);
+    }
+
+    @Override
+    public void onMessage(int streamId, int type, ByteBuffer payload) {
+        Log.d(TAG, "onMessage: ignoring stream " + streamId + ", type " + type);
+    }
+
+    @Override
+    public void onRequest(int streamId, int type, ByteBuffer payload, Multiplexer.Responder responder) {
+        if (streamId != CHAT_STREAM || type != TYPE_TEXT) {
+            responder.fail("Unknown request " + streamId + "/" + type);
+            return;
+        }
+        String from = WebrtcClient.getInstance().getPeerAddress();
+        responder.respond(ByteBuffer.allocate(0));
+        receive(from, UTF_8.decode(payload).toString(), Transport.DATA_CHANNEL);
+    }
+
+    @Override
+    public void onFriendInviteRequest(Carrier carrier, String from, String data) {
+        if (data == null || !data.startsWith(INVITE_PREFIX)) {
+            return;
+        }
+        try {
+            carrier.replyFriendInvite(from, 0, null, "ack");
+        } catch (Exception e) {
+            Log.e(TAG, "onFriendInviteRequest: ", e);
+        }
+        receive(from, data.substring(INVITE_PREFIX.length()), Transport.CARRIER_INVITE);
+    }
+
+    private void receive(String from, String payload, Transport transport) {
+        try {
+            JSONObject json = new JSONObject(payload);
+            String id = json.getString("id");
+            synchronized (this) {
+                if (receivedIds.put(id, Boolean.TRUE) != null) {
+                    Log.d(TAG, "receive: dropping replayed " + id);
+                    return;
+                }
+            }
+            Log.d(TAG, "receive: " + id + " over " + transport.label);
+            if (DefaultMessagesActivity.INSTANCE != null) {
+                DefaultMessagesActivity.INSTANCE.receiveMessage(json.getString("text"), from);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "receive: invalid message from " + from, e);
+        }
+    }
+
+    private static String encode(Outgoing message) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("id", message.id);
+            json.put("text", message.text);
+            return json.toString();
+        } catch (JSONException e) {
+            Log.e(TAG, "encode: ", e);
+            return null;
+        }
+    }
+}
@@ -158,6 +158,7 @@ public class ConnectActivity extends Activity {
                     .enableVideo(true)
                     .build();
     WebrtcClient.createInstance(this, CarrierClient.getInstance(this).getCarrier(), new CallHandlerImpl(),  peerConnectionParameters);
+    ChatTransport.install(this);
 
     if (Build.VERSION.SDK_INT >= 23) {
       int REQUEST_CODE_CONTACT = 101;
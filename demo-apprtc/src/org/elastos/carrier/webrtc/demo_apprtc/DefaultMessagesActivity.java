@@ -1,11 +1,13 @@
 package org.elastos.carrier.webrtc.demo_apprtc;
 
+import android.app.AlertDialog;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.util.Log;
+import android.view.MenuItem;
 import android.view.View;
 
 import com.stfalcon.chatkit.messages.MessageInput;
@@ -21,7 +23,6 @@ import org.elastos.carrier.webrtc.demo_apprtc.util.AppUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.UUID;
@@ -44,6 +45,8 @@ public class DefaultMessagesActivity extends DemoMessagesActivity
     }
 
     private MessagesList messagesList;
+    // The peer of the call the chat was opened from, still reachable by invites after it ends.
+    private String talkTo;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -59,6 +62,7 @@ public class DefaultMessagesActivity extends DemoMessagesActivity
         input.setAttachmentsListener(this);
 
         INSTANCE = this;
+        talkTo = WebrtcClient.getInstance().getPeerAddress();
         sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
 
         loadMessage();
@@ -72,7 +76,7 @@ public class DefaultMessagesActivity extends DemoMessagesActivity
             String id = Long.toString(UUID.randomUUID().getLeastSignificantBits());
             Message message = new Message(id, new User(userId, userId, null, true), input.toString());
             runOnUiThread(() -> super.messagesAdapter.addToStart(message, true));
-            WebrtcClient.getInstance().sendMessage(ByteBuffer.wrap(input.toString().getBytes()), false);
+            ChatTransport.getInstance().send(talkTo, input.toString());
 
             saveMessage(message);
         } catch (Exception e) {
@@ -81,6 +85,19 @@ public class DefaultMessagesActivity extends DemoMessagesActivity
         return true;
     }
 
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_latency) {
+            new AlertDialog.Builder(this)
+                    .setTitle(R.string.action_latency)
+                    .setMessage(ChatTransport.getInstance().getLatencyReport())
+                    .setPositiveButton(android.R.string.ok, null)
+                    .show();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     @Override
     public void onAddAttachments() {
         super.messagesAdapter.addToStart(
@@ -133,7 +150,6 @@ public class DefaultMessagesActivity extends DemoMessagesActivity
 
     private void loadMessage() {
         try {
-            String talkTo = WebrtcClient.getInstance().getPeerAddress();
             String jsonString = sharedPref.getString(MESAGE_SHARE_PREF, null);
             if (jsonString != null) {
                 JSONObject jsonObject = new JSONObject(jsonString);
@@ -168,7 +184,6 @@ public class DefaultMessagesActivity extends DemoMessagesActivity
 
     private void saveMessage(String id, String text, String userId, String date) {
         try {
-            String talkTo = WebrtcClient.getInstance().getPeerAddress();
             JSONObject jsonObject;
             String jsonString = sharedPref.getString(MESAGE_SHARE_PREF, null);
             if (jsonString != null) {
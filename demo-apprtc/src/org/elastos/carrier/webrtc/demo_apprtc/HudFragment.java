@@ -20,10 +20,10 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import org.elastos.carrier.webrtc.demo_apprtc.apprtc.R;
-import org.webrtc.StatsReport;
-
-import java.util.HashMap;
-import java.util.Map;
+import org.elastos.carrier.webrtc.stats.CandidatePairStats;
+import org.elastos.carrier.webrtc.stats.InboundRtpStats;
+import org.elastos.carrier.webrtc.stats.OutboundRtpStats;
+import org.elastos.carrier.webrtc.stats.RtcStatsSnapshot;
 
 /**
  * Fragment for HUD statistics display.
@@ -104,15 +104,11 @@ public class HudFragment extends Fragment {
     hudViewVideoRecv.setTextSize(TypedValue.COMPLEX_UNIT_PT, 5);
   }
 
-  private Map<String, String> getReportMap(StatsReport report) {
-    Map<String, String> reportMap = new HashMap<>();
-    for (StatsReport.Value value : report.values) {
-      reportMap.put(value.name, value.value);
-    }
-    return reportMap;
-  }
-
-  public void updateEncoderStatistics(final StatsReport[] reports) {
+  /**
+   * Called on the peer connection executor; the snapshot is reused by the next
+   * poll, so the text is built here and only set on the UI thread.
+   */
+  public void updateStatistics(final RtcStatsSnapshot snapshot) {
     if (!isRunning || !displayHud) {
       return;
     }
@@ -121,75 +117,40 @@ public class HudFragment extends Fragment {
     StringBuilder connectionStat = new StringBuilder();
     StringBuilder videoSendStat = new StringBuilder();
     StringBuilder videoRecvStat = new StringBuilder();
-    String fps = null;
-    String targetBitrate = null;
-    String actualBitrate = null;
-
-    for (StatsReport report : reports) {
-      if (report.type.equals("ssrc") && report.id.contains("ssrc") && report.id.contains("send")) {
-        // Send video statistics.
-        Map<String, String> reportMap = getReportMap(report);
-        String trackId = reportMap.get("googTrackId");
-        if (trackId != null && trackId.contains("ARDAMSv0")) {
-          fps = reportMap.get("googFrameRateSent");
-          videoSendStat.append(report.id).append("\n");
-          for (StatsReport.Value value : report.values) {
-            String name = value.name.replace("goog", "");
-            videoSendStat.append(name).append("=").append(value.value).append("\n");
-          }
-        }
-      } else if (report.type.equals("ssrc") && report.id.contains("ssrc")
-          && report.id.contains("recv")) {
-        // Receive video statistics.
-        Map<String, String> reportMap = getReportMap(report);
-        // Check if this stat is for video track.
-        String frameWidth = reportMap.get("googFrameWidthReceived");
-        if (frameWidth != null) {
-          videoRecvStat.append(report.id).append("\n");
-          for (StatsReport.Value value : report.values) {
-            String name = value.name.replace("goog", "");
-            videoRecvStat.append(name).append("=").append(value.value).append("\n");
-          }
-        }
-      } else if (report.id.equals("bweforvideo")) {
-        // BWE statistics.
-        Map<String, String> reportMap = getReportMap(report);
-        targetBitrate = reportMap.get("googTargetEncBitrate");
-        actualBitrate = reportMap.get("googActualEncBitrate");
-
-        bweStat.append(report.id).append("\n");
-        for (StatsReport.Value value : report.values) {
-          String name = value.name.replace("goog", "").replace("Available", "");
-          bweStat.append(name).append("=").append(value.value).append("\n");
-        }
-      } else if (report.type.equals("googCandidatePair")) {
-        // Connection statistics.
-        Map<String, String> reportMap = getReportMap(report);
-        String activeConnection = reportMap.get("googActiveConnection");
-        if (activeConnection != null && activeConnection.equals("true")) {
-          connectionStat.append(report.id).append("\n");
-          for (StatsReport.Value value : report.values) {
-            String name = value.name.replace("goog", "");
-            connectionStat.append(name).append("=").append(value.value).append("\n");
-          }
-        }
-      }
+
+    OutboundRtpStats videoSend = snapshot.getOutboundRtp("video");
+    if (videoSend != null) {
+      videoSendStat.append("ssrc=").append(videoSend.getSsrc()).append("\n")
+          .append("bitrate=").append(videoSend.getBitrateBps() / 1000).append("kbps\n")
+          .append("fps=").append(Math.round(videoSend.getFrameRate())).append("\n")
+          .append("framesEncoded=").append(videoSend.getFramesEncoded()).append("\n");
     }
-    hudViewBwe.setText(bweStat.toString());
-    hudViewConnection.setText(connectionStat.toString());
-    hudViewVideoSend.setText(videoSendStat.toString());
-    hudViewVideoRecv.setText(videoRecvStat.toString());
-
-    if (videoCallEnabled) {
-      if (fps != null) {
-        encoderStat.append("Fps:  ").append(fps).append("\n");
-      }
-      if (targetBitrate != null) {
-        encoderStat.append("Target BR: ").append(targetBitrate).append("\n");
-      }
-      if (actualBitrate != null) {
-        encoderStat.append("Actual BR: ").append(actualBitrate).append("\n");
-      }
+    InboundRtpStats videoRecv = snapshot.getInboundRtp("video");
+    if (videoRecv != null) {
+      videoRecvStat.append("ssrc=").append(videoRecv.getSsrc()).append("\n")
+          .append("bitrate=").append(videoRecv.getBitrateBps() / 1000).append("kbps\n")
+          .append("fps=").append(Math.round(videoRecv.getFrameRate())).append("\n")
+          .append("loss=").append(Math.round(videoRecv.getPacketLossRate() * 100)).append("%\n")
+          .append("jitter=").append(Math.round(videoRecv.getJitterMs())).append("ms\n");
+    }
+    CandidatePairStats pair = snapshot.getCandidatePair();
+    if (pair != null) {
+      bweStat.append("send=").append(pair.getAvailableOutgoingBitrateBps() / 1000).append("kbps\n")
+          .append("recv=").append(pair.getAvailableIncomingBitrateBps() / 1000).append("kbps\n");
+      connectionStat.append(pair.getLocalCandidateType()).append("/")
+          .append(pair.getRemoteCandidateType()).append("\n")
+          .append("rtt=").append(Math.round(pair.getRoundTripTimeMs())).append("ms\n")
+          .append("sent=").append(pair.getSendBitrateBps() / 1000).append("kbps\n")
+          .append("received=").append(pair.getReceiveBitrateBps() / 1000).append("kbps\n");
+    }
+
+    if (videoCallEnabled && videoSend != null) {
+      encoderStat.append("Fps:  ").append(Math.round(videoSend.getFrameRate())).append("\n");
+      encoderStat.append("Actual BR: ").append(videoSend.getBitrateBps() / 1000).append("\n");
+    }
+    if (videoCallEnabled && pair != null) {
+      encoderStat.append("Available BR: ")
+          .append(pair.getAvailableOutgoingBitrateBps() / 1000).append("\n");
     }
 
     if (cpuMonitor != null) {
@@ -200,6 +161,15 @@ public class HudFragment extends Fragment {
           .append(". Freq: ")
           .append(cpuMonitor.getFrequencyScaleAverage());
     }
-    encoderStatView.setText(encoderStat.toString());
+    encoderStatView.post(new Runnable() {
+      @Override
+      public void run() {
+        hudViewBwe.setText(bweStat.toString());
+        hudViewConnection.setText(connectionStat.toString());
+        hudViewVideoSend.setText(videoSendStat.toString());
+        hudViewVideoRecv.setText(videoRecvStat.toString());
+        encoderStatView.setText(encoderStat.toString());
+      }
+    });
   }
 }
@@ -0,0 +1,1199 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.elastos.carrier.webrtc.call.CallHandler;
+import org.elastos.carrier.webrtc.call.CallReason;
+import org.elastos.carrier.webrtc.call.CallState;
+import org.elastos.carrier.webrtc.data.DataChannelListener;
+import org.elastos.carrier.webrtc.data.DataMessageListener;
+import org.elastos.carrier.webrtc.data.FileTransfer;
+import org.elastos.carrier.webrtc.data.FileTransferManager;
+import org.elastos.carrier.webrtc.data.Multiplexer;
+import org.elastos.carrier.webrtc.data.SendCallback;
+import org.elastos.carrier.webrtc.exception.WebrtcException;
+import org.elastos.carrier.webrtc.signaling.SignalingCodec;
+import org.elastos.carrier.webrtc.signaling.SignalingMessage;
+import org.elastos.carrier.webrtc.stats.CallQualityRecorder;
+import org.elastos.carrier.webrtc.stats.QualityController;
+import org.elastos.carrier.webrtc.stats.RtcStatsListener;
+import org.elastos.carrier.webrtc.stats.RtcStatsSnapshot;
+import org.elastos.carrier.webrtc.util.ExecutorStats;
+import org.elastos.carrier.webrtc.util.SerialExecutor;
+import org.elastos.carrier.webrtc.util.WebRTCExecutors;
+import org.webrtc.Camera1Enumerator;
+import org.webrtc.Camera2Enumerator;
+import org.webrtc.CameraEnumerator;
+import org.webrtc.DataChannel;
+import org.webrtc.IceCandidate;
+import org.webrtc.Logging;
+import org.webrtc.PeerConnection;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.SessionDescription;
+import org.webrtc.SurfaceViewRenderer;
+import org.webrtc.VideoCapturer;
+import org.webrtc.VideoSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A call with one remote peer. Sessions are created by {@link WebrtcClient}
+ * for outgoing calls and for incoming offers, keyed by the peer address, and
+ * share the peer connection factory and EglBase of the client.
+ *
+ * <p>Events of the call are delivered to the session's {@link CallHandler},
+ * which defaults to the handler the client was created with.
+ */
+public class CallSession {
+    private static final String TAG = "CallSession";
+    // With a bundled connection one pooled allocator session covers all the media.
+    private static final int PREWARM_ICE_CANDIDATE_POOL_SIZE = 1;
+    // Stats period of a recorded call without a stats listener.
+    private static final int QUALITY_STATS_PERIOD_MS = 1000;
+
+    private final CallSessionManager manager;
+    private final String peerId;
+    private final IceCandidateBatcher iceCandidateBatcher;
+    private final ProxyVideoSink localProxyVideoSink = new ProxyVideoSink();
+    private final ProxyVideoSink remoteProxyVideoSink = new ProxyVideoSink();
+    private final CallTimeline timeline;
+    private final List<VideoSink> remoteSinks;
+    @Nullable
+    private final CallQualityRecorder qualityRecorder;
+    // Adapts the sent video, fed on the executor of the client.
+    @Nullable
+    private volatile QualityController qualityController;
+    private volatile CallHandler callHandler;
+    private volatile CallState callState = CallState.INIT;
+    private volatile boolean closed;
+    private boolean initiator;
+    private ConnectionState connectionState;
+    // Codec for outgoing messages, negotiated by the manager.
+    private volatile SignalingCodec signalingCodec;
+    private CarrierPeerConnectionClient carrierPeerConnectionClient;
+    private SignalingParameters signalingParameters;
+    private SurfaceViewRenderer localVideoRenderer;
+    private SurfaceViewRenderer remoteVideoRenderer;
+    private SessionDescription remoteSdp;
+    private boolean callInitialed = false;
+    // Remote candidates until the connection takes them, shared with its client.
+    private final RemoteIceCandidateBuffer remoteCandidates =
+            new RemoteIceCandidateBuffer(RemoteIceCandidateBuffer.DEFAULT_MAX_CANDIDATES);
+    // Call setup latency, see getCallSetupStats().
+    private volatile long callStartTimeMs;
+    private volatile boolean warmFactory;
+    private volatile long factoryCreationMs = -1;
+    private volatile long timeToLocalSdpMs = -1;
+    // Runs the prewarm and everything touching the peer connection client
+    // after it, null unless the call was prewarmed.
+    @Nullable
+    private volatile SerialExecutor prewarmExecutor;
+    private volatile boolean prewarmed;
+    @Nullable
+    private volatile RtcStatsListener statsListener;
+    private volatile int statsPeriodMs;
+    // Stats polls of the released connection.
+    private volatile long statsPollCount;
+    private volatile long prewarmMs = -1;
+
+    CallSession(CallSessionManager manager, String peerId, boolean initiator,
+                CallHandler callHandler, SignalingCodec signalingCodec) {
+        this.manager = manager;
+        this.peerId = peerId;
+        this.initiator = initiator;
+        this.callHandler = callHandler;
+        this.signalingCodec = signalingCodec;
+        this.timeline = new CallTimeline(initiator, manager.getCallTimelineListener());
+        VideoSink firstFrameSink = frame -> timeline.mark(CallTimeline.Phase.FIRST_REMOTE_FRAME);
+        this.remoteSinks = Arrays.asList(remoteProxyVideoSink, firstFrameSink);
+        this.qualityRecorder = manager.createQualityRecorder();
+        this.iceCandidateBatcher = new IceCandidateBatcher(manager.getHandler(),
+                this::sendCandidates, manager.getIceCandidateBatchWindowMs(),
+                manager.getIceCandidateBatchSize());
+        // Keeps the shared factory and EglBase alive while the session exists.
+        manager.getFactoryHolder().acquire();
+    }
+
+    /**
+     * Get remote peer address
+     *
+     * @return {@link String} remote peer address.
+     */
+    public String getPeerAddress() {
+        return peerId;
+    }
+
+    /**
+     * Get the setup phase times of this call.
+     */
+    public CallTimeline getCallTimeline() {
+        return timeline;
+    }
+
+    /**
+     * if this is a passive call
+     * @return
+     */
+    public boolean isInitiator() {
+        return initiator;
+    }
+
+    public CallState getCallState() {
+        return callState;
+    }
+
+    /**
+     * Whether the call has ended and the session was removed from the client.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public CallHandler getCallHandler() {
+        return callHandler;
+    }
+
+    /**
+     * Deliver the events of this call to |callHandler|. Data channel messages
+     * go to the handler set when the call is answered, made or prewarmed.
+     */
+    public void setCallHandler(CallHandler callHandler) {
+        if (callHandler == null) {
+            throw new IllegalArgumentException("callHandler can not be null");
+        }
+        this.callHandler = callHandler;
+    }
+
+    /**
+     * Answer the call.
+     */
+    public void answerCall() {
+        this.initiator = false;
+        this.setCallState(CallState.CONNECTING);
+        callStartTimeMs = SystemClock.elapsedRealtime();
+        timeline.mark(CallTimeline.Phase.ANSWER_CALL);
+        SerialExecutor executor = prewarmExecutor;
+        if (executor != null) {
+            // Answer once the prewarm has finished.
+            executor.execute(this::answerCallInternal);
+        } else {
+            answerCallInternal();
+        }
+    }
+
+    private void answerCallInternal() {
+        if (closed) {
+            return;
+        }
+        initialCall();
+        // set remote sdp
+        carrierPeerConnectionClient.setRemoteDescription(remoteSdp);
+        // create answer
+        carrierPeerConnectionClient.createAnswer();
+    }
+
+    /**
+     * Hangup/reject the call invitation.
+     */
+    public void rejectCall() {
+        sendBye(CallReason.REJECT);
+        disconnectFromCallInternal(CallReason.REJECT);
+    }
+
+    public void hangupCall() {
+        this.setCallState(CallState.INIT);
+
+        sendBye(CallReason.NORMAL_HANGUP);
+
+        disconnectFromCallInternal(CallReason.NORMAL_HANGUP);
+        Log.d(TAG, "Disconnect the call with" + peerId);
+    }
+
+    public void renderVideo(SurfaceViewRenderer localRenderer, SurfaceViewRenderer remoteRenderer) {
+        if (localRenderer == null || remoteRenderer == null)
+            throw new IllegalArgumentException("Invalid video render");
+
+        this.localVideoRenderer = localRenderer;
+        this.remoteVideoRenderer = remoteRenderer;
+        this.localVideoRenderer.init(manager.getFactoryHolder().getEglBase().getEglBaseContext(), null);
+        this.remoteVideoRenderer.init(manager.getFactoryHolder().getEglBase().getEglBaseContext(), null);
+        swapVideoRenderer(false);
+    }
+
+    public void swapVideoRenderer(boolean isSwap) {
+        localProxyVideoSink.setTarget(isSwap ? remoteVideoRenderer : localVideoRenderer);
+        remoteProxyVideoSink.setTarget(isSwap ? localVideoRenderer : remoteVideoRenderer);
+        remoteVideoRenderer.setMirror(isSwap);
+        localVideoRenderer.setMirror(!isSwap);
+    }
+
+    public void switchCamera() {
+        if (carrierPeerConnectionClient != null)
+            carrierPeerConnectionClient.switchCamera();
+    }
+
+    public void setResolution(int width, int height, int fps) {
+        if (carrierPeerConnectionClient != null)
+            carrierPeerConnectionClient.changeCaptureFormat(width, height, fps);
+    }
+
+    public void setAudioEnable(boolean enable) {
+        if (carrierPeerConnectionClient != null)
+            carrierPeerConnectionClient.setAudioEnabled(enable);
+    }
+
+    public void setVideoEnable(boolean enable) {
+        if (carrierPeerConnectionClient != null)
+            carrierPeerConnectionClient.setVideoEnabled(enable);
+    }
+
+    /**
+     * Start sending video from the camera during the call. An audio only call
+     * becomes a video call with one offer and answer over its connection, no
+     * new call is set up.
+     */
+    public void addVideo() throws WebrtcException {
+        CarrierPeerConnectionClient client = getConnectedClient();
+        VideoCapturer capturer = createVideoCapturer();
+        if (capturer == null) {
+            throw new WebrtcException("Failed to open camera");
+        }
+        client.addVideoTrack(capturer);
+    }
+
+    /**
+     * Start sending video from |capturer| during the call, e.g. a
+     * {@code ScreenCapturerAndroid} to share the screen after
+     * {@link #removeVideo()} stopped the camera. The call releases the
+     * capturer.
+     */
+    public void addVideo(VideoCapturer capturer) throws WebrtcException {
+        getConnectedClient().addVideoTrack(capturer);
+    }
+
+    /**
+     * Stop sending video during the call, renegotiated with the peer. The
+     * video of the peer is still shown.
+     */
+    public void removeVideo() throws WebrtcException {
+        getConnectedClient().removeVideoTrack();
+    }
+
+    private CarrierPeerConnectionClient getConnectedClient() throws WebrtcException {
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client == null || !callInitialed) {
+            throw new WebrtcException("The call is not connected");
+        }
+        return client;
+    }
+
+    /**
+     * Open the default data channel, or stop accepting it. A call set up
+     * without data channels gets one through a renegotiation.
+     */
+    public void setDataEnable(boolean enable) {
+        if (carrierPeerConnectionClient != null) {
+            carrierPeerConnectionClient.setDataChannelEnabled(enable);
+        }
+    }
+
+    public void setMediaEnable(boolean video, boolean audio, boolean data) {
+        setVideoEnable(video);
+        setAudioEnable(audio);
+        setDataEnable(data);
+    }
+
+    /**
+     * send data
+     * @param byteBuffer message content
+     * @param binary binary file or plain text
+     */
+    public void sendMessage(ByteBuffer byteBuffer, boolean binary) throws WebrtcException {
+        sendMessage(byteBuffer, binary, null);
+    }
+
+    /**
+     * send data with flow control: the message is queued while the data
+     * channel buffers too much, and dropped if the queue is full.
+     * @param byteBuffer message content
+     * @param binary binary file or plain text
+     * @param callback notified once the message is handed over to the data
+     *                 channel or dropped
+     * @return false if the message was dropped right away, e.g. the queue
+     * being full; wait for the callbacks of the queued messages before
+     * sending more.
+     */
+    public boolean sendMessage(ByteBuffer byteBuffer, boolean binary,
+                               @Nullable SendCallback callback) {
+        if (byteBuffer == null) {
+            throw new IllegalArgumentException("byteBuffer can not be null");
+        }
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client == null) {
+            throw new IllegalArgumentException("carrierPeerConnectionClient is null");
+        }
+        return client.sendMessage(new DataChannel.Buffer(byteBuffer, binary), callback);
+    }
+
+    /**
+     * Get the local ICE candidate signaling metrics of this call.
+     */
+    public IceCandidateBatchStats getIceCandidateBatchStats() {
+        return iceCandidateBatcher.getStats();
+    }
+
+    /**
+     * Receive the statistics of this call. They are polled every |periodMs|
+     * while the connection ramps up or degrades, and less often while it is
+     * stable or the app is in the background.
+     *
+     * @param listener the listener, null to stop the statistics.
+     */
+    public void setStatsListener(@Nullable RtcStatsListener listener, int periodMs) {
+        if (listener != null && periodMs <= 0) {
+            throw new IllegalArgumentException("Invalid stats period: " + periodMs + "ms");
+        }
+        this.statsListener = listener;
+        this.statsPeriodMs = periodMs;
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client != null) {
+            enableStatsEvents(client);
+        }
+    }
+
+    /**
+     * Open a data channel named |label| with its own reliability, e.g. an
+     * unreliable one for telemetry besides the default reliable one. Its
+     * messages, and those of the channels the peer opens, go to the
+     * {@link DataChannelListener} of the client.
+     *
+     * <p>The first data channel of a call set up without any, see
+     * {@link PeerConnectionParametersBuilder#enableData(boolean)}, is
+     * negotiated with the peer; the next ones are not.
+     */
+    public void openDataChannel(String label, CarrierPeerConnectionClient.DataChannelParameters parameters)
+            throws WebrtcException {
+        if (label == null || label.isEmpty()
+                || CarrierPeerConnectionClient.DEFAULT_DATA_CHANNEL_LABEL.equals(label)) {
+            throw new IllegalArgumentException("Invalid data channel label: " + label);
+        }
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client == null) {
+            throw new WebrtcException("The call is not connected");
+        }
+        client.openDataChannel(label, parameters);
+    }
+
+    /**
+     * Close the data channel |label|, failing its pending sends.
+     */
+    public void closeDataChannel(String label) {
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client != null) {
+            client.closeDataChannel(label);
+        }
+    }
+
+    /**
+     * send data over the data channel |label| with flow control, see
+     * {@link #sendMessage(ByteBuffer, boolean, SendCallback)}.
+     * @return false if the message was dropped right away, e.g. the channel
+     * not being open.
+     */
+    public boolean sendMessage(String label, ByteBuffer byteBuffer, boolean binary,
+                               @Nullable SendCallback callback) {
+        if (byteBuffer == null) {
+            throw new IllegalArgumentException("byteBuffer can not be null");
+        }
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client == null) {
+            throw new IllegalArgumentException("carrierPeerConnectionClient is null");
+        }
+        return client.sendMessage(label, new DataChannel.Buffer(byteBuffer, binary), callback);
+    }
+
+    void setDataChannelListener(@Nullable DataChannelListener listener) {
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client != null) {
+            client.setDataChannelListener(listener);
+        }
+    }
+
+    void setDataMessageListener(@Nullable DataMessageListener listener) {
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client != null) {
+            client.setDataMessageListener(listener, manager.getBufferPool());
+        }
+    }
+
+    /**
+     * Send the content of |source| to the peer over the data channel, in
+     * checksummed chunks streamed from the file. The transfer is suspended
+     * if the data channel fails and resumed from the last acknowledged
+     * offset once ICE reconnects. |source| is left open.
+     *
+     * @param name the name of the file for the peer.
+     */
+    public FileTransfer sendFile(FileChannel source, String name) throws WebrtcException {
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client == null) {
+            throw new WebrtcException("The call is not connected");
+        }
+        try {
+            return client.getFileTransferManager().send(source, name);
+        } catch (IOException e) {
+            throw new WebrtcException("Failed to send file " + name, e);
+        }
+    }
+
+    void setFileTransferListener(@Nullable FileTransferManager.Listener listener) {
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client != null) {
+            client.getFileTransferManager().setListener(listener);
+        }
+    }
+
+    /**
+     * Get the streams of typed messages and requests over the data channel,
+     * coalesced into few data channel messages. The peer gets them through
+     * the {@link Multiplexer.Handler} of its client.
+     */
+    public Multiplexer getMultiplexer() throws WebrtcException {
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client == null) {
+            throw new WebrtcException("The call is not connected");
+        }
+        return client.getMultiplexer();
+    }
+
+    void setMultiplexerHandler(@Nullable Multiplexer.Handler handler) {
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client != null) {
+            client.getMultiplexer().setHandler(handler);
+        }
+    }
+
+    /**
+     * Get the quality time series of this call.
+     *
+     * @return the recorder, or null if quality recording was disabled when
+     * the call started, see {@link WebrtcClient#setQualityRecording}.
+     */
+    @Nullable
+    public CallQualityRecorder getQualityRecorder() {
+        return qualityRecorder;
+    }
+
+    /**
+     * Get the number of stats polls of this call so far, each one a timer
+     * wakeup.
+     */
+    public long getStatsPollCount() {
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        return client != null ? client.getStatsPollCount() : statsPollCount;
+    }
+
+    /**
+     * Get the metrics of the executor running the peer connection calls and
+     * events of this call.
+     *
+     * @return the metrics, or null before the call is initialized.
+     */
+    @Nullable
+    public ExecutorStats getPeerConnectionExecutorStats() {
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        return client != null ? client.getExecutorStats() : null;
+    }
+
+    /**
+     * Get the setup latency of this call, which tells whether the peer
+     * connection factory of a previous call was reused.
+     *
+     * @return the metrics, or null before the call is made or answered.
+     */
+    @Nullable
+    public CallSetupStats getCallSetupStats() {
+        if (factoryCreationMs < 0) {
+            return null;
+        }
+        return new CallSetupStats(initiator, warmFactory, factoryCreationMs, timeToLocalSdpMs,
+                prewarmed, prewarmMs);
+    }
+
+    /**
+     * Get the recoveries of the ICE connection of this call, oldest first.
+     * A lost connection is restarted rather than ending the call.
+     */
+    public List<IceRestartStats> getIceRestartStats() {
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        return client != null ? client.getIceRestartStats() : Collections.emptyList();
+    }
+
+    void onNetworkChanged() {
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client != null && callInitialed) {
+            client.onNetworkChanged();
+        }
+    }
+
+    void setStatsBackground(boolean background) {
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (client != null) {
+            client.setStatsBackground(background);
+        }
+    }
+
+    void setIceCandidateBatching(long windowMs, int maxCandidates) {
+        iceCandidateBatcher.configure(windowMs, maxCandidates);
+    }
+
+    SignalingCodec getSignalingCodec() {
+        return signalingCodec;
+    }
+
+    void setSignalingCodec(SignalingCodec signalingCodec) {
+        this.signalingCodec = signalingCodec;
+    }
+
+    // Remote candidates waiting for the connection.
+    int getPendingRemoteCandidateCount() {
+        return remoteCandidates.size();
+    }
+
+    // Runs the prewarm and the calls on the prewarmed connection, null unless prewarmed.
+    @Nullable
+    SerialExecutor getPrewarmExecutor() {
+        return prewarmExecutor;
+    }
+
+    /**
+     * Make call to remote peer, just send offer to remote peer.
+     */
+    void makeCall() {
+        this.initiator = true;
+        this.setCallState(CallState.CONNECTING);
+        callStartTimeMs = SystemClock.elapsedRealtime();
+        timeline.mark(CallTimeline.Phase.MAKE_CALL);
+        initialCall();
+        // create offer
+        carrierPeerConnectionClient.createOffer();
+    }
+
+    /**
+     * Create the factory, the video capturer and the peer connection of an
+     * incoming call in the background while the user decides, and start
+     * gathering ICE candidates into the candidate pool. The camera is opened
+     * but not started until the call is answered.
+     */
+    void prewarm() {
+        synchronized (this) {
+            if (prewarmExecutor != null || initiator || callInitialed || closed) {
+                return;
+            }
+            prewarmExecutor = WebRTCExecutors.newPeerConnectionExecutor(TAG + "-prewarm");
+        }
+        prewarmExecutor.execute(this::prewarmInternal);
+    }
+
+    void onSignalingMessage(SignalingMessage message) {
+        switch (message.getType()) {
+            case OFFER:
+                handleOffer(message);
+                break;
+            case ANSWER:
+                handleAnswer(message);
+                break;
+            case CANDIDATE:
+                handleCandidate(message);
+                break;
+            case REMOVAL_CANDIDATES:
+                handleCandidateRemoval(message);
+                break;
+            case BYE:
+                handleBye(message);
+                break;
+        }
+    }
+
+    private void setCallState(CallState callState) {
+        this.callState = callState;
+    }
+
+    private void prewarmInternal() {
+        if (closed) {
+            return;
+        }
+        long startTimeMs = SystemClock.elapsedRealtime();
+        try {
+            createPeerConnectionClient(true);
+        } catch (Exception e) {
+            // The call is set up from scratch when answered.
+            Log.e(TAG, "prewarm: error", e);
+            releasePeerConnectionClient();
+            return;
+        }
+        prewarmMs = SystemClock.elapsedRealtime() - startTimeMs;
+        prewarmed = true;
+        Log.d(TAG, "Call with " + peerId + " prewarmed in " + prewarmMs + "ms");
+    }
+
+    // accept the call invite and then send the offer.
+    private void initialCall() {
+        timeToLocalSdpMs = -1;
+        callInitialed = true;
+        if (prewarmed) {
+            Log.d(TAG, "initialCall() using the prewarmed peer connection with: " + peerId);
+            carrierPeerConnectionClient.startVideoSource();
+            return;
+        }
+        createPeerConnectionClient(false);
+    }
+
+    private void createPeerConnectionClient(boolean prewarm) {
+        iceCandidateBatcher.reset();
+        Log.d(TAG, "Connect to carrier user: " + peerId);
+        connectionState = ConnectionState.NEW;
+        List<PeerConnection.IceServer> iceServers = manager.getIceServers();
+        signalingParameters = new SignalingParameters(
+                iceServers, initiator, peerId, null, null);
+        Log.d(TAG, "initialCall() from " + (initiator ? "caller" : "callee") + " to: " + peerId);
+        if (!signalingParameters.initiator
+                && signalingParameters.offerSdp == null) {
+            Log.w(TAG, "No offer SDP from the caller.");
+        }
+        connectionState = ConnectionState.CONNECTED;
+        // init PeerConnection
+        initialWebrtc(prewarm);
+        // Fire connection and signaling parameters events.
+        initialCallInternal();
+    }
+
+    private void initialWebrtc(boolean prewarm) {
+        // Create peer connection client.
+        CarrierPeerConnectionClient client = manager.createPeerConnectionClient(
+                signalingParameters.iceServers, new PCEvents(), callHandler);
+        // Takes over the candidates buffered so far, before any is routed to it.
+        client.setRemoteCandidateBuffer(remoteCandidates);
+        client.setIceServerSource(manager::getIceServers);
+        synchronized (this) {
+            carrierPeerConnectionClient = client;
+        }
+        carrierPeerConnectionClient.getFileTransferManager()
+                .setListener(manager.getFileTransferListener());
+        carrierPeerConnectionClient.getMultiplexer().setHandler(manager.getMultiplexerHandler());
+        qualityController = manager.createQualityController(carrierPeerConnectionClient);
+        carrierPeerConnectionClient.setDataChannelListener(manager.getDataChannelListener());
+        carrierPeerConnectionClient.setDataMessageListener(manager.getDataMessageListener(),
+                manager.getBufferPool());
+        if (prewarm) {
+            carrierPeerConnectionClient.setIceCandidatePoolSize(PREWARM_ICE_CANDIDATE_POOL_SIZE);
+            carrierPeerConnectionClient.setVideoCaptureDeferred(true);
+        }
+        PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
+        warmFactory = manager.getFactoryHolder().isWarm();
+        long startTimeMs = SystemClock.elapsedRealtime();
+        carrierPeerConnectionClient.createPeerConnectionFactory(manager.getFactoryHolder(), options);
+        factoryCreationMs = SystemClock.elapsedRealtime() - startTimeMs;
+        timeline.mark(CallTimeline.Phase.FACTORY_READY);
+    }
+
+    private void initialCallInternal() {
+        VideoCapturer videoCapturer = null;
+        if (manager.getPeerConnectionParameters().videoCallEnabled) {
+            videoCapturer = createVideoCapturer();
+        }
+        carrierPeerConnectionClient.createPeerConnection(manager.getContext(),
+                localProxyVideoSink, remoteSinks, videoCapturer);
+        carrierPeerConnectionClient.setStatsBackground(manager.isInBackground());
+        if (statsListener != null || qualityRecorder != null || qualityController != null) {
+            enableStatsEvents(carrierPeerConnectionClient);
+        }
+        if (signalingParameters.offerSdp != null) {
+            carrierPeerConnectionClient.setRemoteDescription(signalingParameters.offerSdp);
+            Log.d(TAG, "initialCallInternal: creating answer");
+            // Create answer. Answer SDP will be sent to offering client in
+            // PeerConnectionEvents.onLocalDescription event.
+            carrierPeerConnectionClient.createAnswer();
+        }
+    }
+
+    // Poll the stats for the listener, the recorder and the quality controller,
+    // at the listener period if any.
+    private void enableStatsEvents(CarrierPeerConnectionClient client) {
+        boolean listening = statsListener != null;
+        client.enableStatsEvents(listening || qualityRecorder != null || qualityController != null,
+                listening ? statsPeriodMs : QUALITY_STATS_PERIOD_MS);
+    }
+
+    // Disconnect from call - the session is removed from the client.
+    private void disconnectFromCallInternal(CallReason reason) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Log.d(TAG, "Call timeline: " + timeline.end(reason, warmFactory, prewarmed));
+        callInitialed = false;
+        Log.d(TAG, "Disconnect. Connection state: " + connectionState);
+        if (connectionState == ConnectionState.CONNECTED) {
+            Log.d(TAG, "Closing call.");
+        }
+        this.setCallState(CallState.INIT);
+        connectionState = ConnectionState.CLOSED;
+        iceCandidateBatcher.cancel();
+        Log.d(TAG, "ICE candidate signaling: " + iceCandidateBatcher.getStats());
+        if (carrierPeerConnectionClient != null) {
+            Log.d(TAG, "Peer connection executor: " + carrierPeerConnectionClient.getExecutorStats());
+            statsPollCount = carrierPeerConnectionClient.getStatsPollCount();
+            Log.d(TAG, "Stats polls: " + statsPollCount);
+        }
+        if (qualityRecorder != null) {
+            Log.d(TAG, "Call quality: " + qualityRecorder);
+            CallQualityRecorder.Listener listener = manager.getQualityRecorderListener();
+            if (listener != null) {
+                try {
+                    listener.onCallEnded(qualityRecorder);
+                } catch (Exception e) {
+                    Log.e(TAG, "onCallEnded: quality listener error", e);
+                }
+            }
+        }
+        release();
+        manager.removeSession(this);
+    }
+
+    private void release() {
+        try {
+            remoteProxyVideoSink.setTarget(null);
+            localProxyVideoSink.setTarget(null);
+            if (localVideoRenderer != null) {
+                localVideoRenderer.release();
+                localVideoRenderer = null;
+            }
+            if (remoteVideoRenderer != null) {
+                remoteVideoRenderer.release();
+                remoteVideoRenderer = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "release video renderer error: ", e);
+        }
+        SerialExecutor executor = prewarmExecutor;
+        if (executor != null) {
+            // Drops the prewarmed connection, after the prewarm if it is running.
+            executor.execute(this::releasePeerConnectionClient);
+            executor.shutdown();
+        } else {
+            releasePeerConnectionClient();
+        }
+        manager.getFactoryHolder().release();
+    }
+
+    private void releasePeerConnectionClient() {
+        try {
+            if (carrierPeerConnectionClient != null) {
+                carrierPeerConnectionClient.close();
+                carrierPeerConnectionClient = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "release carrier peer connection error: ", e);
+        }
+    }
+
+    // Send local offer SDP to the other participant.
+    private void sendOfferSdp(final SessionDescription sdp) {
+        if (connectionState != ConnectionState.CONNECTED && connectionState != ConnectionState.NEW) {
+            Log.e(TAG, "sendOfferSdp: Sending offer SDP in non connected state.");
+            return;
+        }
+        CarrierPeerConnectionClient.PeerConnectionParameters parameters =
+                manager.getPeerConnectionParameters();
+        sendOffer(sdp, true, parameters.videoCallEnabled, parameters.hasDataChannels());
+        Log.d(TAG, "sendOfferSdp() to: " + peerId);
+    }
+
+    // Send local answer SDP to the other participant.
+    private void sendAnswerSdp(final SessionDescription sdp) {
+        sendAnswer(sdp);
+        Log.d(TAG, "sendAnswerSdp() to: " + peerId);
+    }
+
+    // Send Ice candidate to the other participant.
+    private void sendLocalIceCandidate(final IceCandidate candidate) {
+        if (initiator) {
+            // Call initiator sends ice candidates to peer.
+            if (connectionState != ConnectionState.CONNECTED && connectionState != ConnectionState.NEW) {
+                Log.e(TAG, "sendLocalIceCandidate: Sending ICE candidate in non connected state.");
+                return;
+            }
+            iceCandidateBatcher.add(candidate);
+            Log.d(TAG, "sendLocalIceCandidate() to: " + peerId);
+        } else {
+            // Call receiver sends ice candidates to peer.
+            iceCandidateBatcher.add(candidate);
+        }
+    }
+
+    // Send removed Ice candidates to the other participant.
+    private void sendLocalIceCandidateRemovals(final IceCandidate[] candidates) {
+        // Candidates still waiting in the batch must reach the peer before their removal.
+        iceCandidateBatcher.flush();
+        if (initiator) {
+            // Call initiator sends ice candidates to peer.
+            if (connectionState != ConnectionState.CONNECTED && connectionState != ConnectionState.NEW) {
+                Log.e(TAG, "sendLocalIceCandidateRemovals: Sending ICE candidate removals in non connected state.");
+                return;
+            }
+            sendRemovalCandidates(candidates);
+        } else {
+            // Call receiver sends ice candidates to peer.
+            sendRemovalCandidates(candidates);
+        }
+        Log.d(TAG, "sendLocalIceCandidateRemovals() to: " + peerId);
+    }
+
+    private void handleOffer(SignalingMessage message) {
+        Log.d(TAG, "handleOffer: ");
+        SessionDescription sdp = new SessionDescription(
+                SessionDescription.Type.fromCanonicalForm("offer"), message.getSdp()
+        );
+        CarrierPeerConnectionClient client = carrierPeerConnectionClient;
+        if (callInitialed && client != null) {
+            // An ICE restart of the running call, answered without ringing.
+            Log.d(TAG, "handleOffer: renegotiation from " + peerId);
+            remoteSdp = sdp;
+            client.setRemoteOffer(sdp);
+            return;
+        }
+        // save remote sdp
+        remoteSdp = sdp;
+        timeline.mark(CallTimeline.Phase.OFFER_RECEIVED);
+        this.setCallState(CallState.RINGING);
+        // emit user callback
+        callHandler.onInvite(peerId, message.isAudio(), message.isVideo(), message.isData());
+    }
+
+    private void handleAnswer(SignalingMessage message) {
+        Log.d(TAG, "handleAnswer: ");
+        SessionDescription sdp = new SessionDescription(
+                SessionDescription.Type.fromCanonicalForm("answer"), message.getSdp()
+        );
+        boolean renegotiation = remoteSdp != null;
+        remoteSdp = sdp;
+        timeline.mark(CallTimeline.Phase.ANSWER_RECEIVED);
+        // set remote sdp
+        carrierPeerConnectionClient.setRemoteDescription(sdp);
+        if (!renegotiation) {
+            callHandler.onAnswer();
+        }
+    }
+
+    private void handleCandidate(SignalingMessage message) {
+        if (!message.getCandidates().isEmpty()) {
+            timeline.mark(CallTimeline.Phase.FIRST_REMOTE_CANDIDATE);
+        }
+        try {
+            for (IceCandidate candidate : message.getCandidates()) {
+                synchronized (this) {
+                    // The client buffers them in order on its executor.
+                    if (carrierPeerConnectionClient != null) {
+                        carrierPeerConnectionClient.addRemoteIceCandidate(candidate);
+                    } else {
+                        remoteCandidates.add(candidate);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "handleCandidate: ", e);
+        }
+    }
+
+    private void handleCandidateRemoval(SignalingMessage message) {
+        List<IceCandidate> candidates = message.getCandidates();
+        if (candidates.isEmpty()) {
+            return;
+        }
+        try {
+            IceCandidate[] removals = candidates.toArray(new IceCandidate[candidates.size()]);
+            synchronized (this) {
+                if (carrierPeerConnectionClient != null) {
+                    carrierPeerConnectionClient.removeRemoteIceCandidates(removals);
+                } else {
+                    remoteCandidates.remove(removals);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "handleCandidate: ", e);
+        }
+    }
+
+    private void handleBye(SignalingMessage message) {
+        CallReason callReason = CallReason.valueOf(message.getReason());
+        Log.d(TAG, "handleBye: reason -> " + callReason);
+        if (callReason == null) {
+            callReason = CallReason.NORMAL_HANGUP;
+        }
+        Log.d(TAG, "handleBye: " + callReason);
+        this.setCallState(CallState.INIT);
+        disconnectFromCallInternal(callReason);
+        callHandler.onEndCall(callReason);
+    }
+
+    private @Nullable
+    VideoCapturer createVideoCapturer() {
+        final VideoCapturer videoCapturer;
+        if (useCamera2()) {
+            Logging.d(TAG, "Creating capturer using camera2 API.");
+            videoCapturer = createCameraCapturer(new Camera2Enumerator(manager.getContext()));
+        } else {
+            Logging.d(TAG, "Creating capturer using camera1 API.");
+            videoCapturer = createCameraCapturer(new Camera1Enumerator(false));
+        }
+        if (videoCapturer == null) {
+            reportError("Failed to open camera");
+            return null;
+        }
+        return videoCapturer;
+    }
+
+    private boolean useCamera2() {
+        return Camera2Enumerator.isSupported(manager.getContext());
+    }
+
+    private @Nullable
+    VideoCapturer createCameraCapturer(CameraEnumerator enumerator) {
+        final String[] deviceNames = enumerator.getDeviceNames();
+        // First, try to find front facing camera
+        Logging.d(TAG, "Looking for front facing cameras.");
+        for (String deviceName : deviceNames) {
+            if (enumerator.isFrontFacing(deviceName)) {
+                Logging.d(TAG, "Creating front facing camera capturer.");
+                VideoCapturer videoCapturer = enumerator.createCapturer(deviceName, null);
+                if (videoCapturer != null) {
+                    return videoCapturer;
+                }
+            }
+        }
+        // Front facing camera not found, try something else
+        Logging.d(TAG, "Looking for other cameras.");
+        for (String deviceName : deviceNames) {
+            if (!enumerator.isFrontFacing(deviceName)) {
+                Logging.d(TAG, "Creating other camera capturer.");
+                VideoCapturer videoCapturer = enumerator.createCapturer(deviceName, null);
+                if (videoCapturer != null) {
+                    return videoCapturer;
+                }
+            }
+        }
+        return null;
+    }
+
+    // --------------------------------------------------------------------
+    // Helper functions.
+    private void reportError(final String errorMessage) {
+        Log.e(TAG, errorMessage);
+        if (connectionState != ConnectionState.ERROR) {
+            connectionState = ConnectionState.ERROR;
+            callHandler.onConnectionError(errorMessage);
+        }
+    }
+
+    /**
+     * send offer sdp to remote peer
+     * @param sdp offer sdp
+     * @param audio enable audio
+     * @param video enable video
+     */
+    private void sendOffer(SessionDescription sdp, boolean audio, boolean video, boolean data) {
+        if (sdp == null) {
+            Log.e(TAG, "send offer error, offer sdp is null");
+            return;
+        }
+        manager.send(this, SignalingMessage.offer(sdp.description, audio, video, data,
+                manager.getSignalingCapabilities()));
+        timeline.mark(CallTimeline.Phase.OFFER_SENT);
+    }
+
+    /**
+     * send answer sdp to remote peer
+     * @param sdp answer sdp
+     */
+    private void sendAnswer(SessionDescription sdp) {
+        if (sdp == null) {
+            Log.e(TAG, "send answer error, answer sdp is null");
+            return;
+        }
+        manager.send(this, SignalingMessage.answer(sdp.description,
+                manager.getSignalingCapabilities()));
+        timeline.mark(CallTimeline.Phase.ANSWER_SENT);
+    }
+
+    /**
+     * send candidates to remote peer
+     * @param candidates ice candidates
+     */
+    private void sendCandidates(IceCandidate[] candidates) {
+        if (candidates == null || candidates.length <= 0) {
+            Log.e(TAG, "send IceCandidates error, candidates is empty");
+            return;
+        }
+        manager.send(this, SignalingMessage.candidates(candidates));
+    }
+
+    /**
+     * send ice candidates removal message to remote peer
+     * @param candidates removal ice candidates
+     */
+    private void sendRemovalCandidates(IceCandidate[] candidates) {
+        if (candidates == null || candidates.length <= 0) {
+            Log.e(TAG, "send removal IceCandidates error, candidates is empty");
+            return;
+        }
+        manager.send(this, SignalingMessage.removalCandidates(candidates));
+    }
+
+    /**
+     * send bye message to remote peer
+     * @param reason bye reason
+     */
+    private void sendBye(CallReason reason) {
+        manager.send(this, SignalingMessage.bye(reason.getValue()));
+    }
+
+    private enum ConnectionState {NEW, CONNECTED, CLOSED, ERROR}
+
+    /**
+     * Struct holding the signaling parameters of an webrtc communication.
+     */
+    private static class SignalingParameters {
+        final List<PeerConnection.IceServer> iceServers;
+        final String remoteUserId;
+        final SessionDescription offerSdp;
+        final List<IceCandidate> iceCandidates;
+        boolean initiator;
+
+        SignalingParameters(List<PeerConnection.IceServer> iceServers, boolean initiator,
+                            String remoteUserId, SessionDescription offerSdp,
+                            List<IceCandidate> iceCandidates) {
+            this.iceServers = iceServers;
+            this.initiator = initiator;
+            this.remoteUserId = remoteUserId;
+            this.offerSdp = offerSdp;
+            this.iceCandidates = iceCandidates;
+        }
+    }
+
+    /**
+     * PeerConnectionEvents implement
+     */
+    private class PCEvents implements PeerConnectionEvents {
+        @Override
+        public void onLocalDescription(SessionDescription sdp) {
+            timeline.mark(CallTimeline.Phase.LOCAL_SDP_CREATED);
+            if (timeToLocalSdpMs < 0) {
+                timeToLocalSdpMs = SystemClock.elapsedRealtime() - callStartTimeMs;
+                Log.d(TAG, "Call setup: " + getCallSetupStats());
+            }
+            // Either peer may renegotiate, the type tells what to send.
+            if (sdp.type == SessionDescription.Type.OFFER) {
+                sendOfferSdp(sdp);
+            } else {
+                sendAnswerSdp(sdp);
+            }
+        }
+
+        @Override
+        public void onIceCandidate(IceCandidate candidate) {
+            timeline.mark(CallTimeline.Phase.FIRST_LOCAL_CANDIDATE);
+            sendLocalIceCandidate(candidate);
+        }
+
+        @Override
+        public void onIceCandidatesRemoved(IceCandidate[] candidates) {
+            sendLocalIceCandidateRemovals(candidates);
+        }
+
+        @Override
+        public void onIceGatheringComplete() {
+            iceCandidateBatcher.flush();
+        }
+
+        @Override
+        public void onIceConnected() {
+            timeline.mark(CallTimeline.Phase.ICE_CONNECTED);
+            callHandler.onIceConnected();
+        }
+
+        @Override
+        public void onIceDisconnected() {
+            callHandler.onIceDisConnected();
+        }
+
+        @Override
+        public void onConnected() {
+            timeline.mark(CallTimeline.Phase.DTLS_CONNECTED);
+            setCallState(CallState.ACTIVE);
+            callHandler.onActive();
+        }
+
+        @Override
+        public void onDisconnected() {
+            callHandler.onEndCall(CallReason.NORMAL_HANGUP);
+        }
+
+        @Override
+        public void onPeerConnectionClosed() {
+            callHandler.onConnectionClosed();
+        }
+
+        @Override
+        public void onPeerConnectionStatsReady(RtcStatsSnapshot snapshot) {
+            // Nothing is recorded once the recorder was handed over on hangup.
+            if (qualityRecorder != null && !closed) {
+                qualityRecorder.record(snapshot);
+            }
+            QualityController controller = qualityController;
+            if (controller != null && !closed) {
+                controller.onStats(snapshot);
+            }
+            RtcStatsListener listener = statsListener;
+            if (listener != null) {
+                listener.onStats(snapshot);
+            }
+        }
+
+        @Override
+        public void onPeerConnectionError(String description) {
+            callHandler.onConnectionError(description);
+        }
+
+    }
+}
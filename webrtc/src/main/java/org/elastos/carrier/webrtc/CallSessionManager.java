@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.elastos.carrier.webrtc.call.CallHandler;
+import org.elastos.carrier.webrtc.data.BufferPool;
+import org.elastos.carrier.webrtc.data.DataChannelListener;
+import org.elastos.carrier.webrtc.data.DataMessageListener;
+import org.elastos.carrier.webrtc.data.FileTransferManager;
+import org.elastos.carrier.webrtc.data.Multiplexer;
+import org.elastos.carrier.webrtc.exception.WebrtcException;
+import org.elastos.carrier.webrtc.signaling.BinarySignalingCodec;
+import org.elastos.carrier.webrtc.signaling.JsonSignalingCodec;
+import org.elastos.carrier.webrtc.signaling.SignalingCodec;
+import org.elastos.carrier.webrtc.signaling.SignalingFragmenter;
+import org.elastos.carrier.webrtc.signaling.SignalingMessage;
+import org.elastos.carrier.webrtc.signaling.SignalingReassembler;
+import org.elastos.carrier.webrtc.stats.CallQualityRecorder;
+import org.elastos.carrier.webrtc.stats.CpuSampler;
+import org.elastos.carrier.webrtc.stats.QualityController;
+import org.webrtc.PeerConnection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the {@link CallSession}s of a {@link WebrtcClient}, keyed by peer
+ * address, and routes the signaling messages received over carrier to them.
+ *
+ * <p>The carrier side is abstracted by {@link Transport}, so the session
+ * bookkeeping and signaling can run against a loopback in tests; tests also
+ * replace the peer connection clients, see {@link #createPeerConnectionClient}.
+ */
+class CallSessionManager {
+    private static final String TAG = "CallSessionManager";
+    static final long DEFAULT_ICE_CANDIDATE_BATCH_WINDOW_MS = 100;
+    static final int DEFAULT_ICE_CANDIDATE_BATCH_SIZE = 8;
+
+    /**
+     * The carrier network as seen by the sessions.
+     */
+    interface Transport {
+        void send(String peerId, String data) throws WebrtcException;
+
+        List<PeerConnection.IceServer> getIceServers();
+    }
+
+    private final Context context;
+    private final CarrierPeerConnectionClient.PeerConnectionParameters peerConnectionParameters;
+    private final Transport transport;
+    @Nullable
+    private final Handler handler;
+    private final PeerConnectionFactoryHolder factoryHolder;
+    private final ConcurrentHashMap<String, CallSession> sessions = new ConcurrentHashMap<>();
+    private final SignalingCodec jsonSignalingCodec = new JsonSignalingCodec();
+    private final SignalingCodec binarySignalingCodec = new BinarySignalingCodec();
+    private final SignalingFragmenter signalingFragmenter;
+    private final SignalingReassembler signalingReassembler = new SignalingReassembler();
+    private volatile CallHandler defaultCallHandler;
+    private volatile boolean binarySignalingEnabled = true;
+    private volatile boolean prewarmEnabled;
+    private volatile boolean inBackground;
+    @Nullable
+    private volatile CallTimeline.Listener callTimelineListener;
+    @Nullable
+    private volatile FileTransferManager.Listener fileTransferListener;
+    @Nullable
+    private volatile Multiplexer.Handler multiplexerHandler;
+    @Nullable
+    private volatile DataChannelListener dataChannelListener;
+    @Nullable
+    private volatile DataMessageListener dataMessageListener;
+    // Shared by the calls so that the buffers outlive them.
+    private final BufferPool bufferPool = new BufferPool();
+    private volatile int qualityRecorderCapacity;
+    private volatile boolean adaptiveQuality;
+    @Nullable
+    private volatile CpuSampler cpuSampler;
+    @Nullable
+    private volatile CallQualityRecorder.Listener qualityRecorderListener;
+    private volatile long iceCandidateBatchWindowMs = DEFAULT_ICE_CANDIDATE_BATCH_WINDOW_MS;
+    private volatile int iceCandidateBatchSize = DEFAULT_ICE_CANDIDATE_BATCH_SIZE;
+    // Target of the single call API of WebrtcClient: the last call made, or
+    // the incoming call if there was no call in progress.
+    @Nullable
+    private volatile CallSession currentSession;
+
+    CallSessionManager(Context context,
+                       CarrierPeerConnectionClient.PeerConnectionParameters peerConnectionParameters,
+                       Transport transport, @Nullable Handler handler,
+                       PeerConnectionFactoryHolder factoryHolder, CallHandler defaultCallHandler,
+                       int maxFragmentSize) {
+        this.context = context;
+        this.peerConnectionParameters = peerConnectionParameters;
+        this.transport = transport;
+        this.handler = handler;
+        this.factoryHolder = factoryHolder;
+        this.defaultCallHandler = defaultCallHandler;
+        this.signalingFragmenter = new SignalingFragmenter(maxFragmentSize);
+    }
+
+    /**
+     * Create the session of an outgoing call and send the offer.
+     */
+    CallSession makeCall(String peerId, CallHandler callHandler) throws WebrtcException {
+        CallSession session = createSession(peerId, true, callHandler);
+        if (session == null) {
+            throw new WebrtcException("A call with " + peerId + " is in progress");
+        }
+        session.makeCall();
+        return session;
+    }
+
+    /**
+     * Handle data received from |from| over carrier.
+     */
+    void onInvite(String from, String data) {
+        // Returns null until every fragment of a large message has arrived.
+        String message = signalingReassembler.receive(from, data);
+        boolean binary = binarySignalingCodec.canDecode(message);
+        if (!binary && !jsonSignalingCodec.canDecode(message)) {
+            return;
+        }
+        SignalingMessage signalingMessage;
+        try {
+            signalingMessage = (binary ? binarySignalingCodec : jsonSignalingCodec).decode(message);
+        } catch (WebrtcException e) {
+            Log.e(TAG, "onInvite: error -> " + message, e);
+            return;
+        }
+        Log.d(TAG, "onInvite: handle message -> " + signalingMessage.getType() + " from " + from);
+
+        CallSession session = sessions.get(from);
+        if (session == null) {
+            if (signalingMessage.getType() != SignalingMessage.Type.OFFER) {
+                Log.w(TAG, "onInvite: no call with " + from + ", dropping "
+                        + signalingMessage.getType());
+                return;
+            }
+            session = createSession(from, false, defaultCallHandler);
+            if (session == null) {
+                // Lost the race against another offer from the same peer.
+                session = sessions.get(from);
+                if (session == null) {
+                    return;
+                }
+            }
+        }
+        negotiateSignalingCodec(session, signalingMessage, binary);
+        session.onSignalingMessage(signalingMessage);
+        if (prewarmEnabled && signalingMessage.getType() == SignalingMessage.Type.OFFER) {
+            session.prewarm();
+        }
+    }
+
+    @Nullable
+    CallSession getSession(String peerId) {
+        return sessions.get(peerId);
+    }
+
+    List<CallSession> getSessions() {
+        return Collections.unmodifiableList(new ArrayList<>(sessions.values()));
+    }
+
+    @Nullable
+    CallSession getCurrentSession() {
+        return currentSession;
+    }
+
+    void send(CallSession session, SignalingMessage message) {
+        String data = session.getSignalingCodec().encode(message);
+        try {
+            Log.d(TAG, "Calling control command : " + data);
+            // Messages larger than one invite are split, the peer reassembles them.
+            for (String fragment : signalingFragmenter.fragment(data)) {
+                transport.send(session.getPeerAddress(), fragment);
+            }
+        } catch (WebrtcException e) {
+            Log.e(TAG, "send: carrier send message error: " + e.getMessage());
+        }
+    }
+
+    synchronized void removeSession(CallSession session) {
+        sessions.remove(session.getPeerAddress(), session);
+        if (currentSession == session) {
+            // A call still ringing or in progress takes over the single call API.
+            Iterator<CallSession> remaining = sessions.values().iterator();
+            currentSession = remaining.hasNext() ? remaining.next() : null;
+        }
+    }
+
+    CallHandler getDefaultCallHandler() {
+        return defaultCallHandler;
+    }
+
+    void setBinarySignalingEnabled(boolean enabled) {
+        this.binarySignalingEnabled = enabled;
+        if (!enabled) {
+            for (CallSession session : sessions.values()) {
+                session.setSignalingCodec(jsonSignalingCodec);
+            }
+        }
+    }
+
+    void setCallTimelineListener(@Nullable CallTimeline.Listener listener) {
+        this.callTimelineListener = listener;
+        for (CallSession session : sessions.values()) {
+            session.getCallTimeline().setListener(listener);
+        }
+    }
+
+    @Nullable
+    CallTimeline.Listener getCallTimelineListener() {
+        return callTimelineListener;
+    }
+
+    void setDataChannelListener(@Nullable DataChannelListener listener) {
+        this.dataChannelListener = listener;
+        for (CallSession session : sessions.values()) {
+            session.setDataChannelListener(listener);
+        }
+    }
+
+    @Nullable
+    DataChannelListener getDataChannelListener() {
+        return dataChannelListener;
+    }
+
+    void setDataMessageListener(@Nullable DataMessageListener listener) {
+        this.dataMessageListener = listener;
+        for (CallSession session : sessions.values()) {
+            session.setDataMessageListener(listener);
+        }
+    }
+
+    @Nullable
+    DataMessageListener getDataMessageListener() {
+        return dataMessageListener;
+    }
+
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    void setFileTransferListener(@Nullable FileTransferManager.Listener listener) {
+        this.fileTransferListener = listener;
+        for (CallSession session : sessions.values()) {
+            session.setFileTransferListener(listener);
+        }
+    }
+
+    @Nullable
+    FileTransferManager.Listener getFileTransferListener() {
+        return fileTransferListener;
+    }
+
+    void setMultiplexerHandler(@Nullable Multiplexer.Handler handler) {
+        this.multiplexerHandler = handler;
+        for (CallSession session : sessions.values()) {
+            session.setMultiplexerHandler(handler);
+        }
+    }
+
+    @Nullable
+    Multiplexer.Handler getMultiplexerHandler() {
+        return multiplexerHandler;
+    }
+
+    void setQualityRecording(int capacity, @Nullable CpuSampler cpuSampler,
+                             @Nullable CallQualityRecorder.Listener listener) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Invalid quality recorder capacity: " + capacity);
+        }
+        this.cpuSampler = cpuSampler;
+        this.qualityRecorderListener = listener;
+        this.qualityRecorderCapacity = capacity;
+    }
+
+    // A recorder for a new session, null if quality recording is disabled.
+    @Nullable
+    CallQualityRecorder createQualityRecorder() {
+        int capacity = qualityRecorderCapacity;
+        return capacity > 0 ? new CallQualityRecorder(capacity, cpuSampler) : null;
+    }
+
+    @Nullable
+    CallQualityRecorder.Listener getQualityRecorderListener() {
+        return qualityRecorderListener;
+    }
+
+    void setAdaptiveQuality(boolean enabled) {
+        this.adaptiveQuality = enabled;
+    }
+
+    // A controller of the video sent by |client|, null if adaptive quality is
+    // disabled or the calls have no video.
+    @Nullable
+    QualityController createQualityController(CarrierPeerConnectionClient client) {
+        CarrierPeerConnectionClient.PeerConnectionParameters parameters = peerConnectionParameters;
+        if (!adaptiveQuality || !parameters.videoCallEnabled) {
+            return null;
+        }
+        int width = parameters.videoWidth;
+        int height = parameters.videoHeight;
+        if (width == 0 || height == 0) {
+            width = CarrierPeerConnectionClient.HD_VIDEO_WIDTH;
+            height = CarrierPeerConnectionClient.HD_VIDEO_HEIGHT;
+        }
+        int fps = parameters.videoFps != 0 ? parameters.videoFps : 30;
+        return new QualityController(QualityController.levelsUpTo(width, height, fps), level -> {
+            Log.d(TAG, "Adapting video to " + level);
+            client.changeCaptureFormat(level.width, level.height, level.fps);
+            client.setVideoMaxBitrate(level.maxBitrateKbps);
+        });
+    }
+
+    void setInBackground(boolean inBackground) {
+        this.inBackground = inBackground;
+        for (CallSession session : sessions.values()) {
+            session.setStatsBackground(inBackground);
+        }
+    }
+
+    /**
+     * The default network of the device changed, the calls restart ICE.
+     */
+    void onNetworkChanged() {
+        for (CallSession session : sessions.values()) {
+            session.onNetworkChanged();
+        }
+    }
+
+    boolean isInBackground() {
+        return inBackground;
+    }
+
+    void setPrewarmEnabled(boolean enabled) {
+        this.prewarmEnabled = enabled;
+    }
+
+    Set<String> getSignalingCapabilities() {
+        if (!binarySignalingEnabled) {
+            return Collections.emptySet();
+        }
+        return Collections.singleton(SignalingMessage.CAPABILITY_BINARY_CODEC);
+    }
+
+    void setIceCandidateBatching(long windowMs, int maxCandidates) {
+        if (windowMs < 0 || maxCandidates <= 0) {
+            throw new IllegalArgumentException("Invalid ICE candidate batching: window "
+                    + windowMs + "ms, batch size " + maxCandidates);
+        }
+        this.iceCandidateBatchWindowMs = windowMs;
+        this.iceCandidateBatchSize = maxCandidates;
+        for (CallSession session : sessions.values()) {
+            session.setIceCandidateBatching(windowMs, maxCandidates);
+        }
+    }
+
+    long getIceCandidateBatchWindowMs() {
+        return iceCandidateBatchWindowMs;
+    }
+
+    int getIceCandidateBatchSize() {
+        return iceCandidateBatchSize;
+    }
+
+    Context getContext() {
+        return context;
+    }
+
+    CarrierPeerConnectionClient.PeerConnectionParameters getPeerConnectionParameters() {
+        return peerConnectionParameters;
+    }
+
+    @Nullable
+    Handler getHandler() {
+        return handler;
+    }
+
+    PeerConnectionFactoryHolder getFactoryHolder() {
+        return factoryHolder;
+    }
+
+    List<PeerConnection.IceServer> getIceServers() {
+        return transport.getIceServers();
+    }
+
+    CarrierPeerConnectionClient createPeerConnectionClient(
+            List<PeerConnection.IceServer> iceServers,
+            PeerConnectionEvents events, CallHandler callHandler) {
+        return new CarrierPeerConnectionClient(context, iceServers, factoryHolder.getEglBase(),
+                peerConnectionParameters, events, callHandler);
+    }
+
+    // Returns null if there is a session with |peerId| already.
+    @Nullable
+    private synchronized CallSession createSession(String peerId, boolean initiator,
+                                                   CallHandler callHandler) {
+        if (sessions.containsKey(peerId)) {
+            return null;
+        }
+        // The callee may be an older peer, the offer always goes out as json.
+        CallSession session = new CallSession(this, peerId, initiator, callHandler,
+                jsonSignalingCodec);
+        sessions.put(peerId, session);
+        // An incoming call does not take over the call in progress before it is answered.
+        if (initiator || currentSession == null) {
+            currentSession = session;
+        }
+        Log.d(TAG, "createSession: " + peerId + ", " + sessions.size() + " sessions");
+        return session;
+    }
+
+    // A new offer starts from json again; a binary message or an advertised
+    // capability proves that the peer can decode the binary format.
+    private void negotiateSignalingCodec(CallSession session, SignalingMessage message,
+                                         boolean binary) {
+        if (message.getType() == SignalingMessage.Type.OFFER) {
+            session.setSignalingCodec(jsonSignalingCodec);
+        }
+        if (binarySignalingEnabled
+                && (binary || message.hasCapability(SignalingMessage.CAPABILITY_BINARY_CODEC))) {
+            session.setSignalingCodec(binarySignalingCodec);
+        }
+    }
+}
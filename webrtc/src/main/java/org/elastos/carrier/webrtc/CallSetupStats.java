@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+/**
+ * Setup latency of a call, from {@code makeCall} or {@code answerCall} to the
+ * first local session description.
+ */
+public class CallSetupStats {
+    private final boolean initiator;
+    private final boolean warmFactory;
+    private final long factoryCreationMs;
+    private final long timeToLocalSdpMs;
+    private final boolean prewarmed;
+    private final long prewarmMs;
+
+    CallSetupStats(boolean initiator, boolean warmFactory, long factoryCreationMs,
+                   long timeToLocalSdpMs, boolean prewarmed, long prewarmMs) {
+        this.initiator = initiator;
+        this.warmFactory = warmFactory;
+        this.factoryCreationMs = factoryCreationMs;
+        this.timeToLocalSdpMs = timeToLocalSdpMs;
+        this.prewarmed = prewarmed;
+        this.prewarmMs = prewarmMs;
+    }
+
+    /**
+     * Whether the call was made, rather than answered, by this peer.
+     */
+    public boolean isInitiator() {
+        return initiator;
+    }
+
+    /**
+     * Whether the call reused the peer connection factory of a previous call.
+     */
+    public boolean isWarmFactory() {
+        return warmFactory;
+    }
+
+    /**
+     * Time spent getting the peer connection factory, including its creation
+     * for a cold call.
+     */
+    public long getFactoryCreationMs() {
+        return factoryCreationMs;
+    }
+
+    /**
+     * Time from the start of the call to the first local offer or answer, or
+     * -1 if it has not been created yet.
+     */
+    public long getTimeToLocalSdpMs() {
+        return timeToLocalSdpMs;
+    }
+
+    /**
+     * Whether the connection was set up while the call was ringing.
+     */
+    public boolean isPrewarmed() {
+        return prewarmed;
+    }
+
+    /**
+     * Setup time taken off the answer path by the prewarm, or -1 if the call
+     * was not prewarmed.
+     */
+    public long getPrewarmMs() {
+        return prewarmMs;
+    }
+
+    @Override
+    public String toString() {
+        return (initiator ? "offer" : "answer") + " in " + timeToLocalSdpMs + "ms, "
+                + (warmFactory ? "warm" : "cold") + " factory in " + factoryCreationMs + "ms"
+                + (prewarmed ? ", prewarmed in " + prewarmMs + "ms" : "");
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.elastos.carrier.webrtc.call.CallReason;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Monotonic timestamps of the setup phases of a call.
+ *
+ * <p>Times are milliseconds since the session was created, that is since
+ * {@code makeCall} for an outgoing call and since the offer was received for
+ * an incoming one. Each phase is recorded the first time it is reached.
+ */
+public class CallTimeline {
+    private static final String TAG = "CallTimeline";
+
+    /**
+     * call setup phases, in the order they are usually reached
+     */
+    public enum Phase {
+        MAKE_CALL,
+        OFFER_RECEIVED,
+        ANSWER_CALL,
+        FACTORY_READY,
+        LOCAL_SDP_CREATED,
+        OFFER_SENT,
+        ANSWER_SENT,
+        ANSWER_RECEIVED,
+        FIRST_LOCAL_CANDIDATE,
+        FIRST_REMOTE_CANDIDATE,
+        ICE_CONNECTED,
+        DTLS_CONNECTED,
+        FIRST_REMOTE_FRAME,
+        CALL_ENDED,
+    }
+
+    /**
+     * Receives the phases of every call. Callbacks run on the thread reaching
+     * the phase, which may be a peer connection or carrier thread, so they
+     * must not block.
+     */
+    public interface Listener {
+        void onPhase(CallTimeline timeline, Phase phase, long elapsedMs);
+
+        void onCallEnded(Summary summary);
+    }
+
+    private final boolean initiator;
+    private final long startTimeMs;
+    private final Map<Phase, Long> phases = new EnumMap<>(Phase.class);
+    @Nullable
+    private volatile Listener listener;
+
+    CallTimeline(boolean initiator, @Nullable Listener listener) {
+        this.initiator = initiator;
+        this.startTimeMs = SystemClock.elapsedRealtime();
+        this.listener = listener;
+    }
+
+    public boolean isInitiator() {
+        return initiator;
+    }
+
+    /**
+     * Time at which |phase| was reached, or -1 if it was not.
+     */
+    public synchronized long getElapsedMs(Phase phase) {
+        Long elapsedMs = phases.get(phase);
+        return elapsedMs != null ? elapsedMs : -1;
+    }
+
+    /**
+     * Time from |from| to |to|, or -1 if either has not been reached.
+     */
+    public synchronized long getDurationMs(Phase from, Phase to) {
+        Long fromMs = phases.get(from);
+        Long toMs = phases.get(to);
+        return fromMs != null && toMs != null ? toMs - fromMs : -1;
+    }
+
+    void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    // Record |phase| unless it was reached already.
+    void mark(Phase phase) {
+        long elapsedMs;
+        synchronized (this) {
+            if (phases.containsKey(phase)) {
+                return;
+            }
+            elapsedMs = SystemClock.elapsedRealtime() - startTimeMs;
+            phases.put(phase, elapsedMs);
+        }
+        Listener listener = this.listener;
+        if (listener != null) {
+            try {
+                listener.onPhase(this, phase, elapsedMs);
+            } catch (Exception e) {
+                Log.e(TAG, "onPhase: listener error", e);
+            }
+        }
+    }
+
+    // Record the end of the call and report its summary.
+    Summary end(CallReason reason, boolean warmFactory, boolean prewarmed) {
+        mark(Phase.CALL_ENDED);
+        Summary summary;
+        synchronized (this) {
+            summary = new Summary(initiator, warmFactory, prewarmed, reason.getValue(),
+                    new EnumMap<>(phases));
+        }
+        Listener listener = this.listener;
+        if (listener != null) {
+            try {
+                listener.onCallEnded(summary);
+            } catch (Exception e) {
+                Log.e(TAG, "onCallEnded: listener error", e);
+            }
+        }
+        return summary;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return (initiator ? "outgoing" : "incoming") + " call " + phases;
+    }
+
+    /**
+     * Phase times of an ended call, with no peer identity, to be aggregated
+     * across calls.
+     */
+    public static class Summary implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean initiator;
+        private final boolean warmFactory;
+        private final boolean prewarmed;
+        private final int endReason;
+        private final EnumMap<Phase, Long> phases;
+
+        Summary(boolean initiator, boolean warmFactory, boolean prewarmed, int endReason,
+                EnumMap<Phase, Long> phases) {
+            this.initiator = initiator;
+            this.warmFactory = warmFactory;
+            this.prewarmed = prewarmed;
+            this.endReason = endReason;
+            this.phases = phases;
+        }
+
+        public boolean isInitiator() {
+            return initiator;
+        }
+
+        /**
+         * Whether the call reused the peer connection factory of a previous call.
+         */
+        public boolean isWarmFactory() {
+            return warmFactory;
+        }
+
+        public boolean isPrewarmed() {
+            return prewarmed;
+        }
+
+        /**
+         * Reason of the end of the call, see {@link CallReason}.
+         */
+        public int getEndReason() {
+            return endReason;
+        }
+
+        /**
+         * Time at which |phase| was reached, or -1 if it was not.
+         */
+        public long getElapsedMs(Phase phase) {
+            Long elapsedMs = phases.get(phase);
+            return elapsedMs != null ? elapsedMs : -1;
+        }
+
+        /**
+         * Time from |from| to |to|, or -1 if either has not been reached.
+         */
+        public long getDurationMs(Phase from, Phase to) {
+            Long fromMs = phases.get(from);
+            Long toMs = phases.get(to);
+            return fromMs != null && toMs != null ? toMs - fromMs : -1;
+        }
+
+        /**
+         * The reached phases and their times, in phase order.
+         */
+        public Map<Phase, Long> getPhases() {
+            return Collections.unmodifiableMap(phases);
+        }
+
+        /**
+         * Flat json object with a key per reached phase, e.g.
+         * {"initiator":true,...,"ICE_CONNECTED":412}.
+         */
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("initiator", initiator);
+                json.put("warmFactory", warmFactory);
+                json.put("prewarmed", prewarmed);
+                json.put("endReason", endReason);
+                for (Map.Entry<Phase, Long> entry : phases.entrySet()) {
+                    json.put(entry.getKey().name(), entry.getValue().longValue());
+                }
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return toJson().toString();
+        }
+    }
+}
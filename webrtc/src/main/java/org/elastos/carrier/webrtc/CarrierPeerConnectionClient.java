@@ -25,18 +25,32 @@ package org.elastos.carrier.webrtc;
 import android.content.Context;
 import android.os.Environment;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 
 import org.elastos.carrier.webrtc.call.CallHandler;
+import org.elastos.carrier.webrtc.data.BufferPool;
+import org.elastos.carrier.webrtc.data.DataChannelListener;
+import org.elastos.carrier.webrtc.data.DataChannelSender;
+import org.elastos.carrier.webrtc.data.DataMessage;
+import org.elastos.carrier.webrtc.data.DataMessageListener;
+import org.elastos.carrier.webrtc.data.FileTransferManager;
+import org.elastos.carrier.webrtc.data.Multiplexer;
+import org.elastos.carrier.webrtc.data.SendCallback;
+import org.elastos.carrier.webrtc.sdp.SdpMunger;
+import org.elastos.carrier.webrtc.stats.AdaptiveStatsInterval;
+import org.elastos.carrier.webrtc.stats.RtcStatsCollector;
+import org.elastos.carrier.webrtc.stats.RtcStatsSnapshot;
+import org.elastos.carrier.webrtc.util.ExecutorStats;
+import org.elastos.carrier.webrtc.util.SerialExecutor;
+import org.elastos.carrier.webrtc.util.WebRTCExecutors;
 import org.webrtc.AudioSource;
 import org.webrtc.AudioTrack;
 import org.webrtc.CameraVideoCapturer;
 import org.webrtc.CandidatePairChangeEvent;
 import org.webrtc.DataChannel;
-import org.webrtc.DefaultVideoDecoderFactory;
-import org.webrtc.DefaultVideoEncoderFactory;
 import org.webrtc.EglBase;
 import org.webrtc.IceCandidate;
 import org.webrtc.Logging;
@@ -53,23 +67,11 @@ import org.webrtc.RtpSender;
 import org.webrtc.RtpTransceiver;
 import org.webrtc.SdpObserver;
 import org.webrtc.SessionDescription;
-import org.webrtc.SoftwareVideoDecoderFactory;
-import org.webrtc.SoftwareVideoEncoderFactory;
-import org.webrtc.StatsObserver;
-import org.webrtc.StatsReport;
 import org.webrtc.SurfaceTextureHelper;
 import org.webrtc.VideoCapturer;
-import org.webrtc.VideoDecoderFactory;
-import org.webrtc.VideoEncoderFactory;
 import org.webrtc.VideoSink;
 import org.webrtc.VideoSource;
 import org.webrtc.VideoTrack;
-import org.webrtc.audio.AudioDeviceModule;
-import org.webrtc.audio.JavaAudioDeviceModule;
-import org.webrtc.audio.JavaAudioDeviceModule.AudioRecordErrorCallback;
-import org.webrtc.audio.JavaAudioDeviceModule.AudioRecordStateCallback;
-import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackErrorCallback;
-import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackStateCallback;
 
 import java.io.File;
 import java.io.IOException;
@@ -78,25 +80,22 @@ import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Peer connection client implementation.
  *
- * <p>All public methods are routed to local looper thread.
- * All PeerConnectionEvents callbacks are invoked from the same looper thread.
- * This class is a singleton.
+ * <p>Each {@link CallSession} creates its own instance, with its own serial
+ * executor. All public methods are routed to that executor, and all
+ * PeerConnectionEvents callbacks are invoked from it.
  */
 public class CarrierPeerConnectionClient {
     public static final String VIDEO_TRACK_ID = "ARDAMSv0";
@@ -109,6 +108,7 @@ public class CarrierPeerConnectionClient {
     public static final String VIDEO_CODEC_H264_HIGH = "H264 High";
     public static final String AUDIO_CODEC_OPUS = "opus";
     public static final String AUDIO_CODEC_ISAC = "ISAC";
+    public static final String DEFAULT_DATA_CHANNEL_LABEL = "Carrier webrtc data";
     public static final String VIDEO_CODEC_PARAM_START_BITRATE = "x-google-start-bitrate";
     public static final String VIDEO_FLEXFEC_FIELDTRIAL =
             "WebRTC-FlexFEC-03-Advertised/Enabled/WebRTC-FlexFEC-03/Enabled/";
@@ -127,19 +127,54 @@ public class CarrierPeerConnectionClient {
     private static final String TAG = "PCRTCClient";
     private static final String RTCEVENTLOG_OUTPUT_DIR_NAME = "rtc_event_log";
 
-    // Executor thread is started once in private ctor and is used for all
-    // peer connection API calls to ensure new peer connection factory is
-    // created on the same thread as previously destroyed factory.
-    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Runs all peer connection API calls and events of this connection in
+    // order, on the pool shared with the other connections.
+    private final SerialExecutor executor = WebRTCExecutors.newPeerConnectionExecutor(TAG);
+    // Runs the file transfers and their file I/O.
+    private final SerialExecutor fileTransferExecutor = WebRTCExecutors.newIoExecutor(TAG + "-files");
+    private final FileTransferManager fileTransferManager = new FileTransferManager(
+            (frame, callback) -> sendMessage(new DataChannel.Buffer(frame, true), callback),
+            fileTransferExecutor);
+    // Streams and requests multiplexed over the default data channel.
+    private final Multiplexer multiplexer = new Multiplexer(
+            (packet, callback) -> sendMessage(new DataChannel.Buffer(packet, true), callback),
+            WebRTCExecutors.getScheduler());
 
     private final PCObserver pcObserver = new PCObserver();
     private final SDPObserver sdpObserver = new SDPObserver();
-    private final Timer statsTimer = new Timer();
+    private final RtcStatsCollector statsCollector = new RtcStatsCollector();
+    // Stats polling state, confined to the executor; see enableStatsEvents().
+    @Nullable
+    private AdaptiveStatsInterval statsInterval;
+    @Nullable
+    private ScheduledFuture<?> statsPoll;
+    private int statsGeneration;
+    private volatile boolean statsBackground;
+    private volatile long statsPollCount;
+    // ICE restart state, confined to the executor; see restartIce().
+    private final IceRestartPolicy iceRestartPolicy = new IceRestartPolicy();
+    @Nullable
+    private ScheduledFuture<?> iceRestartTimer;
+    // Answer the next remote offer by ourselves, it renegotiates a running call.
+    private boolean answerRemoteOffer;
+    // Renegotiation state, confined to the executor; see negotiate().
+    private final PerfectNegotiation negotiation = new PerfectNegotiation();
+    private boolean iceRestartPending;
+    // Fetches fresh TURN credentials before an ICE restart, see setIceServerSource().
+    @Nullable
+    private IceServerRefresher iceServerRefresher;
+    private final SerialExecutor iceServerExecutor = WebRTCExecutors.newIoExecutor(TAG + "-ice");
+    @Nullable
+    private PeerConnection.RTCConfiguration rtcConfig;
+    private volatile List<IceRestartStats> iceRestartHistory = Collections.emptyList();
     private final Context appContext;
     private final PeerConnectionParameters peerConnectionParameters;
     private final PeerConnectionEvents events;
     private boolean dataChannelEnabled;
     private EglBase rootEglBase;
+    // Shared with the other connections, or owned by this client, see createPeerConnectionFactory().
+    @Nullable
+    private PeerConnectionFactoryHolder factoryHolder;
     @Nullable
     private PeerConnectionFactory factory;
     @Nullable
@@ -150,8 +185,12 @@ public class CarrierPeerConnectionClient {
     private SurfaceTextureHelper surfaceTextureHelper;
     @Nullable
     private VideoSource videoSource;
-    private boolean preferIsac;
     private boolean videoCapturerStopped;
+    // Video was added during the call, see addVideoTrack().
+    private boolean videoAdded;
+    // Leave the capturer stopped once created, see setVideoCaptureDeferred().
+    private boolean videoCaptureDeferred;
+    private int iceCandidatePoolSize;
     private boolean isError;
     @Nullable
     private VideoSink localRender;
@@ -162,13 +201,23 @@ public class CarrierPeerConnectionClient {
     private int videoFps;
     private MediaConstraints audioConstraints;
     private MediaConstraints sdpMediaConstraints;
-    private CallHandler callHandler;
-    // Queued remote ICE candidates are consumed only after both local and
-    // remote descriptions are set. Similarly local ICE candidates are sent to
-    // remote peer after both local and remote description are set.
+    // The later offers and answers leave the directions of the transceivers as set.
+    private MediaConstraints renegotiationConstraints;
+    private MediaConstraints iceRestartConstraints;
+    // SDP rewrites applied to local and remote descriptions, each in a single pass.
     @Nullable
-    private List<IceCandidate> queuedRemoteCandidates;
-    private boolean isInitiator;
+    private SdpMunger localSdpMunger;
+    @Nullable
+    private SdpMunger remoteSdpMunger;
+    private CallHandler callHandler;
+    // Remote ICE candidates are buffered until both local and remote
+    // descriptions are set, and again while a renegotiation is in progress.
+    // Similarly local ICE candidates are sent to remote peer after both local
+    // and remote description are set.
+    private RemoteIceCandidateBuffer remoteCandidates =
+            new RemoteIceCandidateBuffer(RemoteIceCandidateBuffer.DEFAULT_MAX_CANDIDATES);
+    private boolean remoteCandidatesReady;
+    private volatile boolean isInitiator;
     @Nullable
     private SessionDescription localSdp; // either offer or answer SDP
     @Nullable
@@ -185,12 +234,19 @@ public class CarrierPeerConnectionClient {
     private boolean enableAudio = true;
     @Nullable
     private AudioTrack localAudioTrack;
+    // The data channels by label. The default one carries sendMessage() and
+    // the file transfers, the others are opened by the app.
+    private final Map<String, NamedDataChannel> dataChannels = new ConcurrentHashMap<>();
+    @Nullable
+    private volatile DataChannelListener dataChannelListener;
+    // Set together with the pool to receive the messages in pooled buffers.
     @Nullable
-    private DataChannel dataChannel;
-    // Implements the WebRtcAudioRecordSamplesReadyCallback interface and writes
-    // recorded audio samples to an output file.
+    private volatile DataMessageListener dataMessageListener;
     @Nullable
-    private RecordedAudioToFileController saveRecordedAudioToFile;
+    private volatile BufferPool bufferPool;
+    private final NamedDataChannel.Events dataChannelEvents = new DataChannelEvents();
+    private final PeerConnectionFactoryHolder.AudioErrorListener audioErrorListener =
+            this::reportError;
 
     @Nullable
     private WebrtcClient webrtcClientClient; //inject Webrtc for using Carrier and TurnServer from the CarrierExtension.
@@ -210,13 +266,6 @@ public class CarrierPeerConnectionClient {
         this.dataChannelEnabled = (peerConnectionParameters.dataChannelParameters != null);
         this.iceServers = iceServers;
         this.callHandler = callHandler;
-        final String fieldTrials = getFieldTrials(peerConnectionParameters);
-        Log.d(TAG, "Initialize WebRTC. Field trials: " + fieldTrials);
-        PeerConnectionFactory.initialize(
-                PeerConnectionFactory.InitializationOptions.builder(appContext)
-                        .setFieldTrials(fieldTrials)
-                        .setEnableInternalTracer(true)
-                        .createInitializationOptions());
     }
 
     /**
@@ -233,13 +282,6 @@ public class CarrierPeerConnectionClient {
         this.peerConnectionParameters = peerConnectionParameters;
         this.dataChannelEnabled = peerConnectionParameters.dataChannelParameters != null;
         Log.d(TAG, "Preferred video codec: " + getSdpVideoCodecName(peerConnectionParameters));
-        final String fieldTrials = getFieldTrials(peerConnectionParameters);
-        Log.d(TAG, "Initialize WebRTC. Field trials: " + fieldTrials);
-        PeerConnectionFactory.initialize(
-                PeerConnectionFactory.InitializationOptions.builder(appContext)
-                        .setFieldTrials(fieldTrials)
-                        .setEnableInternalTracer(true)
-                        .createInitializationOptions());
     }
 
     private static String getSdpVideoCodecName(PeerConnectionParameters parameters) {
@@ -256,7 +298,7 @@ public class CarrierPeerConnectionClient {
         }
     }
 
-    private static String getFieldTrials(PeerConnectionParameters peerConnectionParameters) {
+    static String getFieldTrials(PeerConnectionParameters peerConnectionParameters) {
         String fieldTrials = "";
         if (peerConnectionParameters.videoFlexfecEnabled) {
             fieldTrials += VIDEO_FLEXFEC_FIELDTRIAL;
@@ -270,150 +312,6 @@ public class CarrierPeerConnectionClient {
         return fieldTrials;
     }
 
-    @SuppressWarnings("StringSplitter")
-    private static String setStartBitrate(
-            String codec, boolean isVideoCodec, String sdpDescription, int bitrateKbps) {
-        String[] lines = sdpDescription.split("\r\n");
-        int rtpmapLineIndex = -1;
-        boolean sdpFormatUpdated = false;
-        String codecRtpMap = null;
-        // Search for codec rtpmap in format
-        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-        String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
-        Pattern codecPattern = Pattern.compile(regex);
-        for (int i = 0; i < lines.length; i++) {
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                codecRtpMap = codecMatcher.group(1);
-                rtpmapLineIndex = i;
-                break;
-            }
-        }
-        if (codecRtpMap == null) {
-            Log.w(TAG, "No rtpmap for " + codec + " codec");
-            return sdpDescription;
-        }
-        Log.d(TAG, "Found " + codec + " rtpmap " + codecRtpMap + " at " + lines[rtpmapLineIndex]);
-        // Check if a=fmtp string already exist in remote SDP for this codec and
-        // update it with new bitrate parameter.
-        regex = "^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$";
-        codecPattern = Pattern.compile(regex);
-        for (int i = 0; i < lines.length; i++) {
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                Log.d(TAG, "Found " + codec + " " + lines[i]);
-                if (isVideoCodec) {
-                    lines[i] += "; " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
-                } else {
-                    lines[i] += "; " + AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000);
-                }
-                Log.d(TAG, "Update remote SDP line: " + lines[i]);
-                sdpFormatUpdated = true;
-                break;
-            }
-        }
-        StringBuilder newSdpDescription = new StringBuilder();
-        for (int i = 0; i < lines.length; i++) {
-            newSdpDescription.append(lines[i]).append("\r\n");
-            // Append new a=fmtp line if no such line exist for a codec.
-            if (!sdpFormatUpdated && i == rtpmapLineIndex) {
-                String bitrateSet;
-                if (isVideoCodec) {
-                    bitrateSet =
-                            "a=fmtp:" + codecRtpMap + " " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
-                } else {
-                    bitrateSet = "a=fmtp:" + codecRtpMap + " " + AUDIO_CODEC_PARAM_BITRATE + "="
-                            + (bitrateKbps * 1000);
-                }
-                Log.d(TAG, "Add remote SDP line: " + bitrateSet);
-                newSdpDescription.append(bitrateSet).append("\r\n");
-            }
-        }
-        return newSdpDescription.toString();
-    }
-
-    /**
-     * Returns the line number containing "m=audio|video", or -1 if no such line exists.
-     */
-    private static int findMediaDescriptionLine(boolean isAudio, String[] sdpLines) {
-        final String mediaDescription = isAudio ? "m=audio " : "m=video ";
-        for (int i = 0; i < sdpLines.length; ++i) {
-            if (sdpLines[i].startsWith(mediaDescription)) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    private static String joinString(
-            Iterable<? extends CharSequence> s, String delimiter, boolean delimiterAtEnd) {
-        Iterator<? extends CharSequence> iter = s.iterator();
-        if (!iter.hasNext()) {
-            return "";
-        }
-        StringBuilder buffer = new StringBuilder(iter.next());
-        while (iter.hasNext()) {
-            buffer.append(delimiter).append(iter.next());
-        }
-        if (delimiterAtEnd) {
-            buffer.append(delimiter);
-        }
-        return buffer.toString();
-    }
-
-    private static @Nullable
-    String movePayloadTypesToFront(
-            List<String> preferredPayloadTypes, String mLine) {
-        // The format of the media description line should be: m=<media> <port> <proto> <fmt> ...
-        final List<String> origLineParts = Arrays.asList(mLine.split(" "));
-        if (origLineParts.size() <= 3) {
-            Log.e(TAG, "Wrong SDP media description format: " + mLine);
-            return null;
-        }
-        final List<String> header = origLineParts.subList(0, 3);
-        final List<String> unpreferredPayloadTypes =
-                new ArrayList<>(origLineParts.subList(3, origLineParts.size()));
-        unpreferredPayloadTypes.removeAll(preferredPayloadTypes);
-        // Reconstruct the line with |preferredPayloadTypes| moved to the beginning of the payload
-        // types.
-        final List<String> newLineParts = new ArrayList<>();
-        newLineParts.addAll(header);
-        newLineParts.addAll(preferredPayloadTypes);
-        newLineParts.addAll(unpreferredPayloadTypes);
-        return joinString(newLineParts, " ", false /* delimiterAtEnd */);
-    }
-
-    private static String preferCodec(String sdpDescription, String codec, boolean isAudio) {
-        final String[] lines = sdpDescription.split("\r\n");
-        final int mLineIndex = findMediaDescriptionLine(isAudio, lines);
-        if (mLineIndex == -1) {
-            Log.w(TAG, "No mediaDescription line, so can't prefer " + codec);
-            return sdpDescription;
-        }
-        // A list with all the payload types with name |codec|. The payload types are integers in the
-        // range 96-127, but they are stored as strings here.
-        final List<String> codecPayloadTypes = new ArrayList<>();
-        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-        final Pattern codecPattern = Pattern.compile("^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$");
-        for (String line : lines) {
-            Matcher codecMatcher = codecPattern.matcher(line);
-            if (codecMatcher.matches()) {
-                codecPayloadTypes.add(codecMatcher.group(1));
-            }
-        }
-        if (codecPayloadTypes.isEmpty()) {
-            Log.w(TAG, "No payload types with name " + codec);
-            return sdpDescription;
-        }
-        final String newMLine = movePayloadTypesToFront(codecPayloadTypes, lines[mLineIndex]);
-        if (newMLine == null) {
-            return sdpDescription;
-        }
-        Log.d(TAG, "Change media description from: " + lines[mLineIndex] + " to " + newMLine);
-        lines[mLineIndex] = newMLine;
-        return joinString(Arrays.asList(lines), "\r\n", true /* delimiterAtEnd */);
-    }
-
     /**
      * This function should only be called once.
      * Create peerConnection factory with default options.
@@ -426,10 +324,42 @@ public class CarrierPeerConnectionClient {
      * This function should only be called once.
      */
     public void createPeerConnectionFactory(PeerConnectionFactory.Options options) {
+        createPeerConnectionFactory(
+                new PeerConnectionFactoryHolder(appContext, peerConnectionParameters, rootEglBase),
+                options);
+    }
+
+    /**
+     * Use the factory and EglBase of |holder|, which may be shared with other
+     * connections. The holder is acquired until the connection is closed.
+     */
+    void createPeerConnectionFactory(PeerConnectionFactoryHolder holder,
+                                     PeerConnectionFactory.Options options) {
         if (factory != null) {
             throw new IllegalStateException("PeerConnectionFactory has already been constructed");
         }
-        createPeerConnectionFactoryInternal(options);
+        isError = false;
+        holder.acquire();
+        factoryHolder = holder;
+        rootEglBase = holder.getEglBase();
+        factory = holder.getFactory(options);
+        holder.addAudioErrorListener(audioErrorListener);
+    }
+
+    /**
+     * Number of ICE candidates to gather before the local description is set,
+     * applies to connections created afterwards.
+     */
+    void setIceCandidatePoolSize(int iceCandidatePoolSize) {
+        this.iceCandidatePoolSize = iceCandidatePoolSize;
+    }
+
+    /**
+     * Initialize the video capturer of connections created afterwards without
+     * starting it; {@link #startVideoSource()} starts the capture.
+     */
+    void setVideoCaptureDeferred(boolean videoCaptureDeferred) {
+        this.videoCaptureDeferred = videoCaptureDeferred;
     }
 
     public void createPeerConnection(Context context, final VideoSink localRender, final VideoSink remoteSink,
@@ -452,6 +382,7 @@ public class CarrierPeerConnectionClient {
         this.videoCapturer = videoCapturer;
         try {
             createMediaConstraintsInternal();
+            createSdpMungers();
             createPeerConnectionInternal();
         } catch (Exception e) {
             reportError("Failed to create peer connection: " + e.getMessage());
@@ -460,162 +391,53 @@ public class CarrierPeerConnectionClient {
     }
 
     public void close() {
-        executor.execute(this::closeInternal);
+        executor.execute(() -> {
+            closeInternal();
+            executor.shutdown();
+        });
+    }
+
+    /**
+     * Metrics of the executor running the peer connection API calls and events.
+     */
+    public ExecutorStats getExecutorStats() {
+        return executor.getStats();
+    }
+
+    /**
+     * Metrics of the executor running blocking file I/O such as audio dumps.
+     *
+     * @return the metrics, or null before the factory is created.
+     */
+    @Nullable
+    public ExecutorStats getIoExecutorStats() {
+        PeerConnectionFactoryHolder holder = factoryHolder;
+        return holder != null ? holder.getIoExecutorStats() : null;
     }
 
     private boolean isVideoCallEnabled() {
-        return peerConnectionParameters.videoCallEnabled && videoCapturer != null;
+        return (peerConnectionParameters.videoCallEnabled || videoAdded) && videoCapturer != null;
     }
 
-    private void createPeerConnectionFactoryInternal(PeerConnectionFactory.Options options) {
-        isError = false;
-        if (peerConnectionParameters.tracing) {
-            PeerConnectionFactory.startInternalTracingCapture(
-                    Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator
-                            + "webrtc-trace.txt");
+    private void initVideoFormat() {
+        videoWidth = peerConnectionParameters.videoWidth;
+        videoHeight = peerConnectionParameters.videoHeight;
+        videoFps = peerConnectionParameters.videoFps;
+        // If video resolution is not specified, default to HD.
+        if (videoWidth == 0 || videoHeight == 0) {
+            videoWidth = HD_VIDEO_WIDTH;
+            videoHeight = HD_VIDEO_HEIGHT;
         }
-        // Check if ISAC is used by default.
-        preferIsac = peerConnectionParameters.audioCodec != null
-                && peerConnectionParameters.audioCodec.equals(AUDIO_CODEC_ISAC);
-        // It is possible to save a copy in raw PCM format on a file by checking
-        // the "Save input audio to file" checkbox in the Settings UI. A callback
-        // interface is set when this flag is enabled. As a result, a copy of recorded
-        // audio samples are provided to this client directly from the native audio
-        // layer in Java.
-        if (peerConnectionParameters.saveInputAudioToFile) {
-            if (!peerConnectionParameters.useOpenSLES) {
-                Log.d(TAG, "Enable recording of microphone input audio to file");
-                saveRecordedAudioToFile = new RecordedAudioToFileController(executor);
-            } else {
-                // TODO(henrika): ensure that the UI reflects that if OpenSL ES is selected,
-                // then the "Save inut audio to file" option shall be grayed out.
-                Log.e(TAG, "Recording of input audio is not supported for OpenSL ES");
-            }
+        // If fps is not specified, default to 30.
+        if (videoFps == 0) {
+            videoFps = 30;
         }
-        final AudioDeviceModule adm = createJavaAudioDevice();
-        // Create peer connection factory.
-        if (options != null) {
-            Log.d(TAG, "Factory networkIgnoreMask option: " + options.networkIgnoreMask);
-        }
-        final boolean enableH264HighProfile =
-                VIDEO_CODEC_H264_HIGH.equals(peerConnectionParameters.videoCodec);
-        final VideoEncoderFactory encoderFactory;
-        final VideoDecoderFactory decoderFactory;
-        if (peerConnectionParameters.videoCodecHwAcceleration) {
-            encoderFactory = new DefaultVideoEncoderFactory(
-                    rootEglBase.getEglBaseContext(), true /* enableIntelVp8Encoder */, enableH264HighProfile);
-            decoderFactory = new DefaultVideoDecoderFactory(rootEglBase.getEglBaseContext());
-        } else {
-            encoderFactory = new SoftwareVideoEncoderFactory();
-            decoderFactory = new SoftwareVideoDecoderFactory();
-        }
-        factory = PeerConnectionFactory.builder()
-                .setOptions(options)
-                .setAudioDeviceModule(adm)
-                .setVideoEncoderFactory(encoderFactory)
-                .setVideoDecoderFactory(decoderFactory)
-                .createPeerConnectionFactory();
-        Log.d(TAG, "Peer connection factory created.");
-        adm.release();
-    }
-
-    AudioDeviceModule createJavaAudioDevice() {
-        // Enable/disable OpenSL ES playback.
-        if (!peerConnectionParameters.useOpenSLES) {
-            Log.w(TAG, "External OpenSLES ADM not implemented yet.");
-            // TODO(magjed): Add support for external OpenSLES ADM.
-        }
-        // Set audio record error callbacks.
-        AudioRecordErrorCallback audioRecordErrorCallback = new AudioRecordErrorCallback() {
-            @Override
-            public void onWebRtcAudioRecordInitError(String errorMessage) {
-                Log.e(TAG, "onWebRtcAudioRecordInitError: " + errorMessage);
-                reportError(errorMessage);
-            }
-
-            @Override
-            public void onWebRtcAudioRecordStartError(
-                    JavaAudioDeviceModule.AudioRecordStartErrorCode errorCode, String errorMessage) {
-                Log.e(TAG, "onWebRtcAudioRecordStartError: " + errorCode + ". " + errorMessage);
-                reportError(errorMessage);
-            }
-
-            @Override
-            public void onWebRtcAudioRecordError(String errorMessage) {
-                Log.e(TAG, "onWebRtcAudioRecordError: " + errorMessage);
-                reportError(errorMessage);
-            }
-        };
-        AudioTrackErrorCallback audioTrackErrorCallback = new AudioTrackErrorCallback() {
-            @Override
-            public void onWebRtcAudioTrackInitError(String errorMessage) {
-                Log.e(TAG, "onWebRtcAudioTrackInitError: " + errorMessage);
-                reportError(errorMessage);
-            }
-
-            @Override
-            public void onWebRtcAudioTrackStartError(
-                    JavaAudioDeviceModule.AudioTrackStartErrorCode errorCode, String errorMessage) {
-                Log.e(TAG, "onWebRtcAudioTrackStartError: " + errorCode + ". " + errorMessage);
-                reportError(errorMessage);
-            }
-
-            @Override
-            public void onWebRtcAudioTrackError(String errorMessage) {
-                Log.e(TAG, "onWebRtcAudioTrackError: " + errorMessage);
-                reportError(errorMessage);
-            }
-        };
-        // Set audio record state callbacks.
-        AudioRecordStateCallback audioRecordStateCallback = new AudioRecordStateCallback() {
-            @Override
-            public void onWebRtcAudioRecordStart() {
-                Log.i(TAG, "Audio recording starts");
-            }
-
-            @Override
-            public void onWebRtcAudioRecordStop() {
-                Log.i(TAG, "Audio recording stops");
-            }
-        };
-        // Set audio track state callbacks.
-        AudioTrackStateCallback audioTrackStateCallback = new AudioTrackStateCallback() {
-            @Override
-            public void onWebRtcAudioTrackStart() {
-                Log.i(TAG, "Audio playout starts");
-            }
-
-            @Override
-            public void onWebRtcAudioTrackStop() {
-                Log.i(TAG, "Audio playout stops");
-            }
-        };
-        return JavaAudioDeviceModule.builder(appContext)
-                .setSamplesReadyCallback(saveRecordedAudioToFile)
-                .setUseHardwareAcousticEchoCanceler(!peerConnectionParameters.disableBuiltInAEC)
-                .setUseHardwareNoiseSuppressor(!peerConnectionParameters.disableBuiltInNS)
-                .setAudioRecordErrorCallback(audioRecordErrorCallback)
-                .setAudioTrackErrorCallback(audioTrackErrorCallback)
-                .setAudioRecordStateCallback(audioRecordStateCallback)
-                .setAudioTrackStateCallback(audioTrackStateCallback)
-                .createAudioDeviceModule();
     }
 
     private void createMediaConstraintsInternal() {
         // Create video constraints if video register is enabled.
         if (isVideoCallEnabled()) {
-            videoWidth = peerConnectionParameters.videoWidth;
-            videoHeight = peerConnectionParameters.videoHeight;
-            videoFps = peerConnectionParameters.videoFps;
-            // If video resolution is not specified, default to HD.
-            if (videoWidth == 0 || videoHeight == 0) {
-                videoWidth = HD_VIDEO_WIDTH;
-                videoHeight = HD_VIDEO_HEIGHT;
-            }
-            // If fps is not specified, default to 30.
-            if (videoFps == 0) {
-                videoFps = 30;
-            }
+            initVideoFormat();
             Logging.d(TAG, "Capturing format: " + videoWidth + "x" + videoHeight + "@" + videoFps);
         }
         // Create audio constraints.
@@ -638,6 +460,30 @@ public class CarrierPeerConnectionClient {
                 new MediaConstraints.KeyValuePair("OfferToReceiveAudio", "true"));
         sdpMediaConstraints.mandatory.add(new MediaConstraints.KeyValuePair(
                 "OfferToReceiveVideo", Boolean.toString(isVideoCallEnabled())));
+        renegotiationConstraints = new MediaConstraints();
+        iceRestartConstraints = new MediaConstraints();
+        iceRestartConstraints.mandatory.add(new MediaConstraints.KeyValuePair("IceRestart", "true"));
+    }
+
+    private void createSdpMungers() {
+        SdpMunger.Builder localBuilder = SdpMunger.builder();
+        SdpMunger.Builder remoteBuilder = SdpMunger.builder();
+        // Check if ISAC is used by default.
+        if (AUDIO_CODEC_ISAC.equals(peerConnectionParameters.audioCodec)) {
+            localBuilder.preferCodec(AUDIO_CODEC_ISAC, true);
+            remoteBuilder.preferCodec(AUDIO_CODEC_ISAC, true);
+        }
+        if (isVideoCallEnabled()) {
+            String videoCodec = getSdpVideoCodecName(peerConnectionParameters);
+            localBuilder.preferCodec(videoCodec, false);
+            remoteBuilder.preferCodec(videoCodec, false);
+        }
+        if (peerConnectionParameters.audioStartBitrate > 0) {
+            remoteBuilder.setFmtpParameter(AUDIO_CODEC_OPUS, AUDIO_CODEC_PARAM_BITRATE,
+                    Integer.toString(peerConnectionParameters.audioStartBitrate * 1000));
+        }
+        localSdpMunger = localBuilder.build();
+        remoteSdpMunger = remoteBuilder.build();
     }
 
     private void createPeerConnectionInternal() {
@@ -646,9 +492,7 @@ public class CarrierPeerConnectionClient {
             return;
         }
         Log.d(TAG, "Create peer connection.");
-        queuedRemoteCandidates = new ArrayList<>();
-        PeerConnection.RTCConfiguration rtcConfig =
-                new PeerConnection.RTCConfiguration(iceServers);
+        rtcConfig = new PeerConnection.RTCConfiguration(iceServers);
         // TCP candidates are only useful when connecting to a server that supports
         // ICE-TCP.
         rtcConfig.tcpCandidatePolicy = PeerConnection.TcpCandidatePolicy.DISABLED;
@@ -660,9 +504,14 @@ public class CarrierPeerConnectionClient {
         // Enable DTLS for normal calls.
         rtcConfig.enableDtlsSrtp = true;
         rtcConfig.sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN;
+        rtcConfig.iceCandidatePoolSize = iceCandidatePoolSize;
         peerConnection = factory.createPeerConnection(rtcConfig, pcObserver);
         if (dataChannelEnabled) {
-            createDataChannel();
+            createDataChannel(DEFAULT_DATA_CHANNEL_LABEL, peerConnectionParameters.dataChannelParameters);
+        }
+        for (Map.Entry<String, DataChannelParameters> entry
+                : peerConnectionParameters.dataChannels.entrySet()) {
+            createDataChannel(entry.getKey(), entry.getValue());
         }
         isInitiator = false;
         // Set INFO libjingle logging.
@@ -695,52 +544,33 @@ public class CarrierPeerConnectionClient {
                 Log.e(TAG, "Can not open aecdump file", e);
             }
         }
-        if (saveRecordedAudioToFile != null) {
-            if (saveRecordedAudioToFile.start()) {
-                Log.d(TAG, "Recording input audio to file is activated");
-            }
-        }
         Log.d(TAG, "Peer connection created.");
     }
 
-    private void createDataChannel() {
-        Log.d(TAG, "createPeerConnectionInternal: create data channel");
+    private NamedDataChannel createDataChannel(String label, DataChannelParameters parameters) {
+        Log.d(TAG, "createDataChannel: " + label);
         DataChannel.Init init = new DataChannel.Init();
-        init.ordered = peerConnectionParameters.dataChannelParameters.ordered;
-        init.negotiated = peerConnectionParameters.dataChannelParameters.negotiated;
-        init.maxRetransmits = peerConnectionParameters.dataChannelParameters.maxRetransmits;
-        init.maxRetransmitTimeMs = peerConnectionParameters.dataChannelParameters.maxRetransmitTimeMs;
-        init.id = peerConnectionParameters.dataChannelParameters.id;
-        init.protocol = peerConnectionParameters.dataChannelParameters.protocol;
-        dataChannel = peerConnection.createDataChannel("Carrier webrtc data", init);
-        dataChannel.registerObserver(new DataChannel.Observer() {
-            @Override
-            public void onBufferedAmountChange(long previousAmount) {
-                try {
-                    Log.d(TAG, "Data channel buffered amount changed(created): " + dataChannel.label() + ": " + dataChannel.state());
-                } catch (Exception e) {
-                    Log.e(TAG, "onBufferedAmountChange(created): ", e);
-                }
-            }
-
-            @Override
-            public void onStateChange() {
-                try {
-                    Log.d(TAG, "Data channel state changed(created): " + dataChannel.label() + ": " + dataChannel.state());
-                } catch (Exception e) {
-                    Log.e(TAG, "onStateChange(created): ", e);
-                }
-            }
+        init.ordered = parameters.ordered;
+        init.negotiated = parameters.negotiated;
+        init.maxRetransmits = parameters.maxRetransmits;
+        init.maxRetransmitTimeMs = parameters.maxRetransmitTimeMs;
+        init.id = parameters.id;
+        init.protocol = parameters.protocol;
+        NamedDataChannel channel = addDataChannel(peerConnection.createDataChannel(label, init));
+        Log.d(TAG, "createDataChannel: data channel state -> " + channel.getState());
+        return channel;
+    }
 
-            @Override
-            public void onMessage(final DataChannel.Buffer buffer) {
-                if (callHandler != null) {
-                    callHandler.onMessage(buffer.data, buffer.binary);
-                }
-                Log.d(TAG, "onMessage(created): binary = " + buffer.binary);
-            }
-        });
-        Log.d(TAG, "createPeerConnectionInternal: data channel state -> " + dataChannel.state());
+    private NamedDataChannel addDataChannel(DataChannel dataChannel) {
+        NamedDataChannel channel = new NamedDataChannel(dataChannel, dataChannelEvents);
+        if (DEFAULT_DATA_CHANNEL_LABEL.equals(channel.getLabel())) {
+            channel.getSender().setDrainListener(fileTransferManager::onSendQueueDrained);
+        }
+        NamedDataChannel previous = dataChannels.put(channel.getLabel(), channel);
+        if (previous != null) {
+            previous.dispose("Data channel replaced");
+        }
+        return channel;
     }
 
     private File createRtcEventLogOutputFile() {
@@ -756,15 +586,21 @@ public class CarrierPeerConnectionClient {
             factory.stopAecDump();
         }
         Log.d(TAG, "Closing peer connection.");
-        statsTimer.cancel();
-        if (dataChannel != null) {
-            dataChannel.dispose();
-            dataChannel = null;
-        }
+        cancelStatsPoll();
+        cancelIceRestartTimer();
+        for (NamedDataChannel channel : dataChannels.values()) {
+            channel.dispose("Peer connection closed");
+        }
+        dataChannels.clear();
+        fileTransferManager.close("Peer connection closed");
+        fileTransferExecutor.shutdown();
+        iceServerExecutor.shutdown();
+        multiplexer.close("Peer connection closed");
         if (peerConnection != null) {
             peerConnection.dispose();
             peerConnection = null;
         }
+        rtcConfig = null;
         Log.d(TAG, "Closing audio source.");
         if (audioSource != null) {
             audioSource.dispose();
@@ -790,17 +626,15 @@ public class CarrierPeerConnectionClient {
             surfaceTextureHelper.dispose();
             surfaceTextureHelper = null;
         }
-        if (saveRecordedAudioToFile != null) {
-            Log.d(TAG, "Closing audio file for recorded input audio.");
-            saveRecordedAudioToFile.stop();
-            saveRecordedAudioToFile = null;
-        }
         localRender = null;
         remoteSinks = null;
-        Log.d(TAG, "Closing peer connection factory.");
-        if (factory != null) {
-            factory.dispose();
-            factory = null;
+        // The holder disposes the factory and EglBase once no connection uses them.
+        factory = null;
+        rootEglBase = null;
+        if (factoryHolder != null) {
+            factoryHolder.removeAudioErrorListener(audioErrorListener);
+            factoryHolder.release();
+            factoryHolder = null;
         }
         if (webrtcClientClient != null) {
             try {
@@ -810,58 +644,95 @@ public class CarrierPeerConnectionClient {
             }
             webrtcClientClient = null;
         }
-        Log.d(TAG, "Closing carrier webrtc client.");
-        if (rootEglBase != null) {
-            try {
-                rootEglBase.release();
-                rootEglBase = null;
-            } catch (Exception e) {
-                Log.e(TAG, "closeInternal: release eglBase error", e);
-            }
-        }
         Log.d(TAG, "Closing peer connection done.");
         events.onPeerConnectionClosed();
-        PeerConnectionFactory.stopInternalTracingCapture();
-        PeerConnectionFactory.shutdownInternalTracer();
     }
 
     public boolean isHDVideo() {
         return isVideoCallEnabled() && videoWidth * videoHeight >= 1280 * 720;
     }
 
-    @SuppressWarnings("deprecation") // TODO(sakal): getStats is deprecated.
-    private void getStats() {
-        if (peerConnection == null || isError) {
-            return;
+    /**
+     * Poll the stats at most every |periodMs|, backing off while the call is
+     * stable, see {@link AdaptiveStatsInterval}. Can be called at any time to
+     * change the period or to stop and restart the polling.
+     */
+    public void enableStatsEvents(boolean enable, int periodMs) {
+        if (enable && periodMs <= 0) {
+            throw new IllegalArgumentException("Invalid stats period: " + periodMs + "ms");
         }
-        boolean success = peerConnection.getStats(new StatsObserver() {
-            @Override
-            public void onComplete(final StatsReport[] reports) {
-                events.onPeerConnectionStatsReady(reports);
+        executor.execute(() -> {
+            cancelStatsPoll();
+            if (!enable) {
+                statsInterval = null;
+                return;
             }
-        }, null);
-        if (!success) {
-            Log.e(TAG, "getStats() returns false!");
-        }
+            statsInterval = new AdaptiveStatsInterval(periodMs);
+            statsInterval.setBackground(statsBackground);
+            scheduleStatsPoll(0);
+        });
     }
 
-    public void enableStatsEvents(boolean enable, int periodMs) {
-        if (enable) {
-            try {
-                statsTimer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        executor.execute(() -> getStats());
-                    }
-                }, 0, periodMs);
-            } catch (Exception e) {
-                Log.e(TAG, "Can not schedule statistics timer", e);
+    /**
+     * Poll the stats at the background interval while the app is not visible.
+     */
+    public void setStatsBackground(boolean background) {
+        statsBackground = background;
+        executor.execute(() -> {
+            if (statsInterval == null || statsInterval.isBackground() == background) {
+                return;
             }
-        } else {
-            statsTimer.cancel();
+            statsInterval.setBackground(background);
+            if (!background) {
+                // Do not wait for the rest of a background interval.
+                cancelStatsPoll();
+                scheduleStatsPoll(0);
+            }
+        });
+    }
+
+    /**
+     * Number of stats polls of this connection, each one a timer wakeup.
+     */
+    public long getStatsPollCount() {
+        return statsPollCount;
+    }
+
+    private void scheduleStatsPoll(int delayMs) {
+        final int generation = ++statsGeneration;
+        statsPoll = WebRTCExecutors.getScheduler().schedule(
+                () -> executor.execute(() -> pollStats(generation)), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelStatsPoll() {
+        // Also drops the poll in flight, if any.
+        statsGeneration++;
+        if (statsPoll != null) {
+            statsPoll.cancel(false);
+            statsPoll = null;
         }
     }
 
+    private void pollStats(int generation) {
+        if (generation != statsGeneration || statsInterval == null) {
+            return;
+        }
+        statsPollCount++;
+        if (peerConnection == null || isError) {
+            scheduleStatsPoll(statsInterval.next(null));
+            return;
+        }
+        // Delivered on the signaling thread, parsed on the executor.
+        peerConnection.getStats(report -> executor.execute(() -> {
+            if (generation != statsGeneration || peerConnection == null || isError) {
+                return;
+            }
+            RtcStatsSnapshot snapshot = statsCollector.update(report);
+            events.onPeerConnectionStatsReady(snapshot);
+            scheduleStatsPoll(statsInterval.next(snapshot));
+        }));
+    }
+
     public void setAudioEnabled(final boolean enable) {
         executor.execute(() -> {
             enableAudio = enable;
@@ -883,15 +754,96 @@ public class CarrierPeerConnectionClient {
         });
     }
 
+    /**
+     * Start sending video from |capturer| during the call, e.g. to turn an
+     * audio only call into a video call or to share the screen with a
+     * {@code ScreenCapturerAndroid}. The video transceiver of the call is
+     * reused if there is one, and the change is negotiated with the peer in
+     * one offer and answer over the same transport.
+     */
+    public void addVideoTrack(final VideoCapturer capturer) {
+        executor.execute(() -> {
+            if (peerConnection == null || isError) {
+                Log.e(TAG, "addVideoTrack: no peer connection");
+                capturer.dispose();
+                return;
+            }
+            if (localVideoTrack != null) {
+                Log.w(TAG, "addVideoTrack: video is sent already");
+                capturer.dispose();
+                return;
+            }
+            Log.d(TAG, "Add video track.");
+            if (videoWidth == 0) {
+                initVideoFormat();
+            }
+            videoCapturer = capturer;
+            videoCapturerStopped = false;
+            videoAdded = true;
+            VideoTrack track = createVideoTrack(capturer);
+            RtpTransceiver transceiver = findVideoTransceiver();
+            if (transceiver != null) {
+                transceiver.getSender().setTrack(track, false);
+                transceiver.setDirection(RtpTransceiver.RtpTransceiverDirection.SEND_RECV);
+                localVideoSender = transceiver.getSender();
+            } else {
+                localVideoSender = peerConnection.addTrack(track, Collections.singletonList("ARDAMS"));
+            }
+            // onRenegotiationNeeded() sends the offer.
+        });
+    }
+
+    /**
+     * Stop sending video during the call and release the capturer. The video
+     * of the peer is still received.
+     */
+    public void removeVideoTrack() {
+        executor.execute(() -> {
+            if (peerConnection == null || isError || localVideoTrack == null) {
+                return;
+            }
+            Log.d(TAG, "Remove video track.");
+            if (localVideoSender != null) {
+                peerConnection.removeTrack(localVideoSender);
+                localVideoSender = null;
+            }
+            if (videoCapturer != null) {
+                try {
+                    videoCapturer.stopCapture();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                videoCapturer.dispose();
+                videoCapturer = null;
+            }
+            videoCapturerStopped = true;
+            localVideoTrack.dispose();
+            localVideoTrack = null;
+            if (videoSource != null) {
+                videoSource.dispose();
+                videoSource = null;
+            }
+            if (surfaceTextureHelper != null) {
+                surfaceTextureHelper.dispose();
+                surfaceTextureHelper = null;
+            }
+        });
+    }
+
+    /**
+     * Open the default data channel, during the call too: the first data
+     * channel of a call set up without any is negotiated with the peer.
+     */
     public void setDataChannelEnabled(final boolean enable) {
-        if (enable) {
-            dataChannelEnabled = true;
-            if (dataChannel == null) {
-                createDataChannel();
+        executor.execute(() -> {
+            dataChannelEnabled = enable;
+            if (enable && peerConnection != null && !isError
+                    && !dataChannels.containsKey(DEFAULT_DATA_CHANNEL_LABEL)) {
+                DataChannelParameters parameters = peerConnectionParameters.dataChannelParameters;
+                createDataChannel(DEFAULT_DATA_CHANNEL_LABEL,
+                        parameters != null ? parameters : DataChannelParameters.reliable());
             }
-        } else  {
-            dataChannelEnabled = false;
-        }
+        });
     }
 
     public void createOffer() {
@@ -899,6 +851,8 @@ public class CarrierPeerConnectionClient {
             if (peerConnection != null && !isError) {
                 Log.d(TAG, "PC Create OFFER");
                 isInitiator = true;
+                iceRestartPolicy.setInitiator(true);
+                negotiation.setPolite(false);
                 peerConnection.createOffer(sdpObserver, sdpMediaConstraints);
             }
         });
@@ -909,6 +863,8 @@ public class CarrierPeerConnectionClient {
             if (peerConnection != null && !isError) {
                 Log.d(TAG, "PC create ANSWER");
                 isInitiator = false;
+                iceRestartPolicy.setInitiator(false);
+                negotiation.setPolite(true);
                 peerConnection.createAnswer(sdpObserver, sdpMediaConstraints);
             }
         });
@@ -916,53 +872,206 @@ public class CarrierPeerConnectionClient {
 
     public void addRemoteIceCandidate(final IceCandidate candidate) {
         executor.execute(() -> {
-            if (peerConnection != null && !isError) {
-                if (queuedRemoteCandidates != null) {
-                    queuedRemoteCandidates.add(candidate);
-                } else {
-                    peerConnection.addIceCandidate(candidate);
-                }
+            if (isError) {
+                return;
+            }
+            if (peerConnection == null || !remoteCandidatesReady) {
+                remoteCandidates.add(candidate);
+            } else {
+                peerConnection.addIceCandidate(candidate);
             }
         });
     }
 
     public void removeRemoteIceCandidates(final IceCandidate[] candidates) {
         executor.execute(() -> {
-            if (peerConnection == null || isError) {
+            if (isError || candidates == null || candidates.length == 0) {
                 return;
             }
-            // Drain the queued remote candidates if there is any so that
-            // they are processed in the proper order.
-            drainCandidates();
-            if (candidates != null && candidates.length > 0) {
+            // Removals of buffered candidates are applied in order by the buffer.
+            if (peerConnection == null || !remoteCandidatesReady) {
+                remoteCandidates.remove(candidates);
+            } else {
                 peerConnection.removeIceCandidates(candidates);
             }
         });
     }
 
+    /**
+     * Share the buffer of the remote candidates received before this client
+     * was created, set before {@link #createPeerConnection}.
+     */
+    void setRemoteCandidateBuffer(RemoteIceCandidateBuffer buffer) {
+        executor.execute(() -> remoteCandidates = buffer);
+    }
+
     public void setRemoteDescription(final SessionDescription sdp) {
+        executor.execute(() -> setRemoteDescriptionInternal(sdp));
+    }
+
+    /**
+     * Set an offer received during the call, such as an ICE restart of the
+     * other peer, and answer it. The tracks and data channels are kept.
+     */
+    public void setRemoteOffer(final SessionDescription sdp) {
         executor.execute(() -> {
             if (peerConnection == null || isError) {
                 return;
             }
-            String sdpDescription = sdp.description;
-            if (preferIsac) {
-                sdpDescription = preferCodec(sdpDescription, AUDIO_CODEC_ISAC, true);
+            PerfectNegotiation.Decision decision = negotiation.onRemoteOffer(
+                    peerConnection.signalingState() == PeerConnection.SignalingState.STABLE);
+            Log.d(TAG, "Remote offer during the call: " + decision);
+            if (decision == PerfectNegotiation.Decision.IGNORE) {
+                return;
             }
-            if (isVideoCallEnabled()) {
-                sdpDescription =
-                        preferCodec(sdpDescription, getSdpVideoCodecName(peerConnectionParameters), false);
+            answerRemoteOffer = true;
+            remoteCandidatesReady = false;
+            if (decision == PerfectNegotiation.Decision.ROLLBACK) {
+                localSdp = null;
+                peerConnection.setLocalDescription(new RollbackObserver(sdp),
+                        new SessionDescription(SessionDescription.Type.ROLLBACK, ""));
+            } else {
+                setRemoteDescriptionInternal(sdp);
             }
-            if (peerConnectionParameters.audioStartBitrate > 0) {
-                sdpDescription = setStartBitrate(
-                        AUDIO_CODEC_OPUS, false, sdpDescription, peerConnectionParameters.audioStartBitrate);
+        });
+    }
+
+    /**
+     * Restart ICE by sending a new offer over the signaling of the call,
+     * keeping the tracks and data channels. Done when the connection is lost
+     * or the network changed, see {@link IceRestartPolicy}.
+     */
+    public void restartIce() {
+        executor.execute(() -> negotiate(true));
+    }
+
+    /**
+     * Fetch the ICE servers from |source| again before each ICE restart, the
+     * TURN credentials of the connection may have expired since it was
+     * created. To be called before the peer connection is created.
+     */
+    void setIceServerSource(IceServerRefresher.Source source) {
+        executor.execute(() -> iceServerRefresher = new IceServerRefresher(source,
+                iceServerExecutor, executor, this::onIceServersRefreshed));
+    }
+
+    /**
+     * The default network of the device changed, the current candidates may
+     * no longer work.
+     */
+    public void onNetworkChanged() {
+        executor.execute(() -> {
+            if (peerConnection == null || isError) {
+                return;
             }
-            Log.d(TAG, "Set remote SDP.");
-            SessionDescription sdpRemote = new SessionDescription(sdp.type, sdpDescription);
-            peerConnection.setRemoteDescription(sdpObserver, sdpRemote);
+            Log.d(TAG, "Network changed.");
+            applyIceRestart(iceRestartPolicy.onNetworkChange(SystemClock.elapsedRealtime()));
         });
     }
 
+    /**
+     * The ICE recoveries of this connection, oldest first.
+     */
+    public List<IceRestartStats> getIceRestartStats() {
+        return iceRestartHistory;
+    }
+
+    // Send an offer for the changes of the running call, or once the
+    // negotiation in progress completes.
+    private void negotiate(boolean iceRestart) {
+        if (peerConnection == null || isError) {
+            return;
+        }
+        iceRestartPending |= iceRestart;
+        if (iceServerRefresher != null && (iceRestart || iceServerRefresher.isRefreshing())) {
+            // Offered once the servers are fetched, see onIceServersRefreshed().
+            Log.d(TAG, "Negotiation waits for the ICE servers");
+            iceServerRefresher.refresh();
+            return;
+        }
+        if (!negotiation.onNegotiationNeeded(
+                peerConnection.signalingState() == PeerConnection.SignalingState.STABLE)) {
+            Log.d(TAG, "Negotiation deferred, signaling state " + peerConnection.signalingState());
+            return;
+        }
+        Log.d(TAG, "PC create " + (iceRestartPending ? "ICE restart " : "") + "OFFER");
+        MediaConstraints constraints = iceRestartPending
+                ? iceRestartConstraints : renegotiationConstraints;
+        iceRestartPending = false;
+        localSdp = null;
+        // The candidates of a restarted ICE must wait for the answer.
+        remoteCandidatesReady = false;
+        peerConnection.createOffer(sdpObserver, constraints);
+    }
+
+    private void onIceServersRefreshed(List<PeerConnection.IceServer> servers) {
+        if (peerConnection == null || isError) {
+            return;
+        }
+        if (servers.isEmpty()) {
+            Log.w(TAG, "No ICE servers fetched, restarting ICE with the previous ones");
+        } else {
+            iceServers = servers;
+            rtcConfig.iceServers = servers;
+            if (!peerConnection.setConfiguration(rtcConfig)) {
+                Log.e(TAG, "Failed to set the refreshed ICE servers");
+            }
+        }
+        negotiate(false);
+    }
+
+    private void applyIceRestart(IceRestartPolicy.Action action) {
+        if (action == IceRestartPolicy.Action.RESTART) {
+            negotiate(true);
+        } else if (action == IceRestartPolicy.Action.GIVE_UP) {
+            reportError("ICE connection failed.");
+        }
+        iceRestartHistory = Collections.unmodifiableList(iceRestartPolicy.getHistory());
+        scheduleIceRestartTimer();
+    }
+
+    private void scheduleIceRestartTimer() {
+        cancelIceRestartTimer();
+        long deadlineMs = iceRestartPolicy.getNextDeadlineMs();
+        if (deadlineMs < 0 || isError) {
+            return;
+        }
+        long delayMs = Math.max(0, deadlineMs - SystemClock.elapsedRealtime());
+        iceRestartTimer = WebRTCExecutors.getScheduler().schedule(
+                () -> executor.execute(this::onIceRestartTimer), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelIceRestartTimer() {
+        if (iceRestartTimer != null) {
+            iceRestartTimer.cancel(false);
+            iceRestartTimer = null;
+        }
+    }
+
+    private void onIceRestartTimer() {
+        if (peerConnection == null || isError) {
+            return;
+        }
+        applyIceRestart(iceRestartPolicy.onTimer(SystemClock.elapsedRealtime()));
+    }
+
+    private void setRemoteDescriptionInternal(SessionDescription sdp) {
+        if (peerConnection == null || isError) {
+            return;
+        }
+        if (sdp.type == SessionDescription.Type.ANSWER
+                && peerConnection.signalingState() != PeerConnection.SignalingState.HAVE_LOCAL_OFFER) {
+            // Our offer was rolled back for the one of the peer.
+            Log.d(TAG, "Dropping an answer in signaling state " + peerConnection.signalingState());
+            return;
+        }
+        String sdpDescription = remoteSdpMunger != null
+                ? remoteSdpMunger.munge(sdp.description) : sdp.description;
+        Log.d(TAG, "Set remote SDP.");
+        SessionDescription sdpRemote = new SessionDescription(sdp.type, sdpDescription);
+        peerConnection.setRemoteDescription(sdpObserver, sdpRemote);
+    }
+
     public void stopVideoSource() {
         executor.execute(() -> {
             if (videoCapturer != null && !videoCapturerStopped) {
@@ -1036,7 +1145,11 @@ public class CarrierPeerConnectionClient {
                 SurfaceTextureHelper.create("CaptureThread", rootEglBase.getEglBaseContext());
         videoSource = factory.createVideoSource(capturer.isScreencast());
         capturer.initialize(surfaceTextureHelper, appContext, videoSource.getCapturerObserver());
-        capturer.startCapture(videoWidth, videoHeight, videoFps);
+        if (videoCaptureDeferred) {
+            videoCapturerStopped = true;
+        } else {
+            capturer.startCapture(videoWidth, videoHeight, videoFps);
+        }
         localVideoTrack = factory.createVideoTrack(VIDEO_TRACK_ID, videoSource);
         localVideoTrack.setEnabled(renderVideo);
         localVideoTrack.addSink(localRender);
@@ -1055,6 +1168,19 @@ public class CarrierPeerConnectionClient {
         }
     }
 
+    // Returns the video transceiver, whose sender has no track once video was
+    // removed or when only the peer sends video.
+    @Nullable
+    private RtpTransceiver findVideoTransceiver() {
+        for (RtpTransceiver transceiver : peerConnection.getTransceivers()) {
+            if (transceiver.getMediaType() == MediaStreamTrack.MediaType.MEDIA_TYPE_VIDEO
+                    && !transceiver.isStopped()) {
+                return transceiver;
+            }
+        }
+        return null;
+    }
+
     // Returns the remote VideoTrack, assuming there is only one.
     private @Nullable
     VideoTrack getRemoteVideoTrack() {
@@ -1068,12 +1194,21 @@ public class CarrierPeerConnectionClient {
     }
 
     private void drainCandidates() {
-        if (queuedRemoteCandidates != null) {
-            Log.d(TAG, "Add " + queuedRemoteCandidates.size() + " remote candidates");
-            for (IceCandidate candidate : queuedRemoteCandidates) {
-                peerConnection.addIceCandidate(candidate);
-            }
-            queuedRemoteCandidates = null;
+        remoteCandidatesReady = true;
+        RemoteIceCandidateBuffer.Batch batch = remoteCandidates.drain();
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Candidates removed while buffered are not in the batch, the removals
+        // left name candidates added before.
+        Log.d(TAG, "Add " + batch.candidates.size() + " remote candidates, remove "
+                + batch.removals.size());
+        for (IceCandidate candidate : batch.candidates) {
+            peerConnection.addIceCandidate(candidate);
+        }
+        if (!batch.removals.isEmpty()) {
+            peerConnection.removeIceCandidates(
+                    batch.removals.toArray(new IceCandidate[batch.removals.size()]));
         }
     }
 
@@ -1111,9 +1246,137 @@ public class CarrierPeerConnectionClient {
         videoSource.adaptOutputFormat(width, height, framerate);
     }
 
-    void sendMessage(DataChannel.Buffer buffer) {
-        if (dataChannelEnabled && dataChannel != null) {
-            dataChannel.send(buffer);
+    /**
+     * The file transfers over the data channel of this connection.
+     */
+    public FileTransferManager getFileTransferManager() {
+        return fileTransferManager;
+    }
+
+    /**
+     * The streams and requests over the data channel of this connection.
+     */
+    public Multiplexer getMultiplexer() {
+        return multiplexer;
+    }
+
+    /**
+     * Send |buffer| over the data channel with flow control, see
+     * {@link DataChannelSender#send(DataChannel.Buffer, SendCallback)}.
+     */
+    boolean sendMessage(DataChannel.Buffer buffer, @Nullable SendCallback callback) {
+        if (!dataChannelEnabled) {
+            if (callback != null) {
+                callback.onFailed("Data channel not available");
+            }
+            return false;
+        }
+        return sendMessage(DEFAULT_DATA_CHANNEL_LABEL, buffer, callback);
+    }
+
+    /**
+     * Send |buffer| over the data channel |label| with flow control.
+     */
+    boolean sendMessage(String label, DataChannel.Buffer buffer, @Nullable SendCallback callback) {
+        NamedDataChannel channel = dataChannels.get(label);
+        if (channel == null) {
+            if (callback != null) {
+                callback.onFailed("No data channel " + label);
+            }
+            return false;
+        }
+        return channel.getSender().send(buffer, callback);
+    }
+
+    /**
+     * Open a data channel with its own reliability. The peer gets it through
+     * its {@code onDataChannel}; only the first data channel of a connection
+     * needs a renegotiation.
+     */
+    void openDataChannel(String label, DataChannelParameters parameters) {
+        executor.execute(() -> {
+            if (peerConnection == null || isError) {
+                Log.e(TAG, "openDataChannel: no peer connection for " + label);
+                return;
+            }
+            if (dataChannels.containsKey(label)) {
+                Log.w(TAG, "openDataChannel: " + label + " is open already");
+                return;
+            }
+            createDataChannel(label, parameters);
+        });
+    }
+
+    void closeDataChannel(String label) {
+        executor.execute(() -> {
+            NamedDataChannel channel = dataChannels.remove(label);
+            if (channel != null) {
+                channel.dispose("Data channel closed");
+            }
+        });
+    }
+
+    boolean hasDataChannel(String label) {
+        return dataChannels.containsKey(label);
+    }
+
+    void setDataChannelListener(@Nullable DataChannelListener listener) {
+        this.dataChannelListener = listener;
+    }
+
+    void setDataMessageListener(@Nullable DataMessageListener listener, BufferPool pool) {
+        this.bufferPool = pool;
+        this.dataMessageListener = listener;
+    }
+
+    // Route the messages of the default channel to the file transfers, the
+    // multiplexer and the call handler, and those of the other channels to their listener, unless
+    // the app receives them all in pooled buffers.
+    private class DataChannelEvents implements NamedDataChannel.Events {
+        @Override
+        public void onMessage(NamedDataChannel channel, DataChannel.Buffer buffer) {
+            if (DEFAULT_DATA_CHANNEL_LABEL.equals(channel.getLabel()) && buffer.binary
+                    && (fileTransferManager.onMessage(buffer.data)
+                    || multiplexer.onMessage(buffer.data))) {
+                return;
+            }
+            DataMessageListener messageListener = dataMessageListener;
+            BufferPool pool = bufferPool;
+            if (messageListener != null && pool != null) {
+                // buffer.data is only valid during the callback, copy it once
+                // into a pooled buffer the listener releases.
+                DataMessage message = pool.copyOf(channel.getLabel(), buffer.data, buffer.binary);
+                try {
+                    messageListener.onMessage(message);
+                } catch (Exception e) {
+                    Log.e(TAG, "onMessage: listener error", e);
+                }
+                return;
+            }
+            DataChannelListener listener = dataChannelListener;
+            if (listener != null && !DEFAULT_DATA_CHANNEL_LABEL.equals(channel.getLabel())) {
+                listener.onMessage(channel.getLabel(), buffer.data, buffer.binary);
+                return;
+            }
+            if (callHandler != null) {
+                callHandler.onMessage(buffer.data, buffer.binary);
+            }
+        }
+
+        @Override
+        public void onStateChange(NamedDataChannel channel, DataChannel.State state) {
+            if (DEFAULT_DATA_CHANNEL_LABEL.equals(channel.getLabel())
+                    && state == DataChannel.State.OPEN) {
+                fileTransferManager.resumeAll();
+            }
+            DataChannelListener listener = dataChannelListener;
+            if (listener != null) {
+                try {
+                    listener.onStateChange(channel.getLabel(), state);
+                } catch (Exception e) {
+                    Log.e(TAG, "onStateChange: listener error", e);
+                }
+            }
         }
     }
 
@@ -1130,6 +1393,10 @@ public class CarrierPeerConnectionClient {
 
         public DataChannelParameters(boolean ordered, int maxRetransmitTimeMs, int maxRetransmits,
                                      String protocol, boolean negotiated, int id) {
+            if (maxRetransmitTimeMs >= 0 && maxRetransmits >= 0) {
+                throw new IllegalArgumentException(
+                        "Set either maxRetransmitTimeMs or maxRetransmits, not both");
+            }
             this.ordered = ordered;
             this.maxRetransmitTimeMs = maxRetransmitTimeMs;
             this.maxRetransmits = maxRetransmits;
@@ -1137,6 +1404,40 @@ public class CarrierPeerConnectionClient {
             this.negotiated = negotiated;
             this.id = id;
         }
+
+        /**
+         * Reliable and ordered delivery, e.g. for chat.
+         */
+        public static DataChannelParameters reliable() {
+            return new DataChannelParameters(true, -1, -1, "", false, -1);
+        }
+
+        /**
+         * Messages retransmitted at most |maxRetransmits| times, 0 for a
+         * low-latency channel such as telemetry where late data is useless.
+         */
+        public static DataChannelParameters maxRetransmits(int maxRetransmits, boolean ordered) {
+            if (maxRetransmits < 0) {
+                throw new IllegalArgumentException("Invalid maxRetransmits: " + maxRetransmits);
+            }
+            return new DataChannelParameters(ordered, -1, maxRetransmits, "", false, -1);
+        }
+
+        /**
+         * Messages retransmitted for at most |maxPacketLifeTimeMs|.
+         */
+        public static DataChannelParameters maxPacketLifeTime(int maxPacketLifeTimeMs,
+                                                              boolean ordered) {
+            if (maxPacketLifeTimeMs < 0) {
+                throw new IllegalArgumentException("Invalid maxPacketLifeTime: "
+                        + maxPacketLifeTimeMs + "ms");
+            }
+            return new DataChannelParameters(ordered, maxPacketLifeTimeMs, -1, "", false, -1);
+        }
+
+        public boolean isReliable() {
+            return maxRetransmitTimeMs < 0 && maxRetransmits < 0;
+        }
     }
 
     /**
@@ -1164,6 +1465,8 @@ public class CarrierPeerConnectionClient {
         public final boolean disableWebRtcAGCAndHPF;
         public final boolean enableRtcEventLog;
         public final DataChannelParameters dataChannelParameters;
+        // Data channels besides the default one, by label, in creation order.
+        public final Map<String, DataChannelParameters> dataChannels;
 
         public PeerConnectionParameters(boolean videoCallEnabled, boolean tracing,
                                         int videoWidth, int videoHeight, int videoFps, int videoMaxBitrate, String videoCodec,
@@ -1172,6 +1475,22 @@ public class CarrierPeerConnectionClient {
                                         boolean useOpenSLES, boolean disableBuiltInAEC, boolean disableBuiltInAGC,
                                         boolean disableBuiltInNS, boolean disableWebRtcAGCAndHPF, boolean enableRtcEventLog,
                                         DataChannelParameters dataChannelParameters) {
+            this(videoCallEnabled, tracing, videoWidth, videoHeight, videoFps, videoMaxBitrate,
+                    videoCodec, videoCodecHwAcceleration, videoFlexfecEnabled, audioStartBitrate,
+                    audioCodec, noAudioProcessing, aecDump, saveInputAudioToFile, useOpenSLES,
+                    disableBuiltInAEC, disableBuiltInAGC, disableBuiltInNS, disableWebRtcAGCAndHPF,
+                    enableRtcEventLog, dataChannelParameters,
+                    Collections.<String, DataChannelParameters>emptyMap());
+        }
+
+        public PeerConnectionParameters(boolean videoCallEnabled, boolean tracing,
+                                        int videoWidth, int videoHeight, int videoFps, int videoMaxBitrate, String videoCodec,
+                                        boolean videoCodecHwAcceleration, boolean videoFlexfecEnabled, int audioStartBitrate,
+                                        String audioCodec, boolean noAudioProcessing, boolean aecDump, boolean saveInputAudioToFile,
+                                        boolean useOpenSLES, boolean disableBuiltInAEC, boolean disableBuiltInAGC,
+                                        boolean disableBuiltInNS, boolean disableWebRtcAGCAndHPF, boolean enableRtcEventLog,
+                                        DataChannelParameters dataChannelParameters,
+                                        Map<String, DataChannelParameters> dataChannels) {
             this.videoCallEnabled = videoCallEnabled;
             this.tracing = tracing;
             this.videoWidth = videoWidth;
@@ -1193,6 +1512,15 @@ public class CarrierPeerConnectionClient {
             this.disableWebRtcAGCAndHPF = disableWebRtcAGCAndHPF;
             this.enableRtcEventLog = enableRtcEventLog;
             this.dataChannelParameters = dataChannelParameters;
+            this.dataChannels = Collections.unmodifiableMap(new LinkedHashMap<>(dataChannels));
+        }
+
+        /**
+         * Whether the connection has data channels, so that the SDP has an
+         * application section.
+         */
+        public boolean hasDataChannels() {
+            return dataChannelParameters != null || !dataChannels.isEmpty();
         }
     }
 
@@ -1219,11 +1547,14 @@ public class CarrierPeerConnectionClient {
                 Log.d(TAG, "IceConnectionState: " + newState);
                 if (newState == IceConnectionState.CONNECTED) {
                     events.onIceConnected();
+                    // Resume the file transfers suspended while ICE was down.
+                    fileTransferManager.resumeAll();
                 } else if (newState == IceConnectionState.DISCONNECTED) {
                     events.onIceDisconnected();
-                } else if (newState == IceConnectionState.FAILED) {
-                    reportError("ICE connection failed.");
                 }
+                // A failed connection is restarted, or reported once given up.
+                applyIceRestart(iceRestartPolicy.onIceConnectionChange(
+                        newState, SystemClock.elapsedRealtime()));
             });
         }
 
@@ -1233,6 +1564,9 @@ public class CarrierPeerConnectionClient {
                 Log.d(TAG, "PeerConnectionState: " + newState);
                 if (newState == PeerConnectionState.CONNECTED) {
                     events.onConnected();
+                } else if (iceRestartPolicy.isRecovering()) {
+                    // The call is kept while ICE recovers.
+                    Log.d(TAG, "ICE recovering, ignoring " + newState);
                 } else if (newState == PeerConnectionState.DISCONNECTED) {
                     events.onDisconnected();
                 } else if (newState == PeerConnectionState.FAILED) {
@@ -1245,6 +1579,9 @@ public class CarrierPeerConnectionClient {
         @Override
         public void onIceGatheringChange(PeerConnection.IceGatheringState newState) {
             Log.d(TAG, "IceGatheringState: " + newState);
+            if (newState == PeerConnection.IceGatheringState.COMPLETE) {
+                executor.execute(events::onIceGatheringComplete);
+            }
         }
 
         @Override
@@ -1267,53 +1604,41 @@ public class CarrierPeerConnectionClient {
 
         @Override
         public void onDataChannel(final DataChannel dc) {
-            if (WebrtcClient.getInstance().isInitiator()) {
-                Log.d(TAG, "onDataChannel: initial call, don't do anything.");
+            String label = dc.label();
+            Log.d(TAG, "New Data channel: label = " + label + "; id = " + dc.id());
+            // Both sides create the configured channels, those of the caller are used.
+            if (isInitiator && dataChannels.containsKey(label)) {
+                Log.d(TAG, "onDataChannel: initial call, keep the own channel.");
                 return;
             }
-            dataChannel = dc;
-            Log.d(TAG, "New Data channel: label = " + dc.label() + "; id = " + dc.id());
-            if (!dataChannelEnabled) {
+            if (DEFAULT_DATA_CHANNEL_LABEL.equals(label) && !dataChannelEnabled) {
                 return;
             }
-
-            dc.registerObserver(new DataChannel.Observer() {
-                @Override
-                public void onBufferedAmountChange(long previousAmount) {
-                    try {
-                        Log.d(TAG, "Data channel buffered amount changed: " + dc.label() + ": " + dc.state());
-                    } catch (Exception e) {
-                        Log.e(TAG, "onBufferedAmountChange: ", e);
-                    }
-                }
-
-                @Override
-                public void onStateChange() {
-                    try {
-                        Log.d(TAG, "Data channel state changed: " + dc.label() + ": " + dc.state());
-                    } catch (Exception e) {
-                        Log.e(TAG, "onStateChange: ", e);
-                    }
-                }
-
-                @Override
-                public void onMessage(final DataChannel.Buffer buffer) {
-                    if (callHandler != null) {
-                        callHandler.onMessage(buffer.data, buffer.binary);
-                    }
-                    Log.d(TAG, "onMessage: binary = " + buffer.binary);
-                }
-            });
+            addDataChannel(dc);
         }
 
         @Override
         public void onRenegotiationNeeded() {
-            // No need to do anything; we follow a pre-agreed-upon
-            // signaling/negotiation protocol.
+            // The first negotiation is driven by the call, the later ones
+            // by the tracks and data channels added or removed meanwhile.
+            executor.execute(() -> negotiate(false));
         }
 
         @Override
         public void onAddTrack(final RtpReceiver receiver, final MediaStream[] mediaStreams) {
+            executor.execute(() -> {
+                MediaStreamTrack track = receiver.track();
+                if (!(track instanceof VideoTrack) || remoteVideoTrack != null || remoteSinks == null) {
+                    return;
+                }
+                // Video added by the peer to an audio only call.
+                Log.d(TAG, "Remote video track added.");
+                remoteVideoTrack = (VideoTrack) track;
+                remoteVideoTrack.setEnabled(renderVideo);
+                for (VideoSink remoteSink : remoteSinks) {
+                    remoteVideoTrack.addSink(remoteSink);
+                }
+            });
         }
     }
 
@@ -1322,25 +1647,24 @@ public class CarrierPeerConnectionClient {
     private class SDPObserver implements SdpObserver {
         @Override
         public void onCreateSuccess(final SessionDescription origSdp) {
-            if (localSdp != null) {
-                reportError("Multiple SDP create.");
-                return;
-            }
-            String sdpDescription = origSdp.description;
-            if (preferIsac) {
-                sdpDescription = preferCodec(sdpDescription, AUDIO_CODEC_ISAC, true);
-            }
-            if (isVideoCallEnabled()) {
-                sdpDescription =
-                        preferCodec(sdpDescription, getSdpVideoCodecName(peerConnectionParameters), false);
-            }
+            String sdpDescription = localSdpMunger != null
+                    ? localSdpMunger.munge(origSdp.description) : origSdp.description;
             final SessionDescription sdp = new SessionDescription(origSdp.type, sdpDescription);
-            localSdp = sdp;
             executor.execute(() -> {
-                if (peerConnection != null && !isError) {
-                    Log.d(TAG, "Set local SDP from " + sdp.type);
-                    peerConnection.setLocalDescription(sdpObserver, sdp);
+                if (peerConnection == null || isError) {
+                    return;
+                }
+                if (sdp.type == SessionDescription.Type.OFFER && negotiation.isOfferSuperseded()) {
+                    Log.d(TAG, "Dropping a local offer superseded by the one of the peer");
+                    return;
                 }
+                if (localSdp != null) {
+                    reportError("Multiple SDP create.");
+                    return;
+                }
+                localSdp = sdp;
+                Log.d(TAG, "Set local SDP from " + sdp.type);
+                peerConnection.setLocalDescription(sdpObserver, sdp);
             });
         }
 
@@ -1350,37 +1674,47 @@ public class CarrierPeerConnectionClient {
                 if (peerConnection == null || isError) {
                     return;
                 }
-                if (isInitiator) {
-                    // For offering peer connection we first create offer and set
-                    // local SDP, then after receiving answer set remote SDP.
-                    if (peerConnection.getRemoteDescription() == null) {
-                        // We've just set our local SDP so time to send it.
-                        Log.d(TAG, "Local SDP set succesfully");
-                        events.onLocalDescription(localSdp);
-                    } else {
-                        // We've just set remote description, so drain remote
-                        // and send local ICE candidates.
-                        Log.d(TAG, "Remote SDP set succesfully");
-                        drainCandidates();
+                // The signaling state tells which description was just set,
+                // for the first negotiation as for the later ones.
+                PeerConnection.SignalingState state = peerConnection.signalingState();
+                if (state == PeerConnection.SignalingState.HAVE_LOCAL_OFFER) {
+                    // We've just set our local offer so time to send it.
+                    Log.d(TAG, "Local SDP set succesfully");
+                    negotiation.onLocalOfferSet();
+                    events.onLocalDescription(localSdp);
+                } else if (state == PeerConnection.SignalingState.HAVE_REMOTE_OFFER) {
+                    // We've just set the remote offer, the answer is created
+                    // by the call for the first negotiation, by us afterwards.
+                    Log.d(TAG, "Remote SDP set succesfully");
+                    if (answerRemoteOffer) {
+                        answerRemoteOffer = false;
+                        Log.d(TAG, "PC create ANSWER to a renegotiation");
+                        localSdp = null;
+                        peerConnection.createAnswer(sdpObserver, renegotiationConstraints);
                     }
+                } else if (localSdp != null && localSdp.type == SessionDescription.Type.ANSWER) {
+                    // We've just set our local answer so time to send it, drain
+                    // remote and send local ICE candidates.
+                    Log.d(TAG, "Local SDP set succesfully");
+                    events.onLocalDescription(localSdp);
+                    drainCandidates();
+                    onNegotiationComplete();
                 } else {
-                    // For answering peer connection we set remote SDP and then
-                    // create answer and set local SDP.
-                    if (peerConnection.getLocalDescription() != null) {
-                        // We've just set our local SDP so time to send it, drain
-                        // remote and send local ICE candidates.
-                        Log.d(TAG, "Local SDP set succesfully");
-                        events.onLocalDescription(localSdp);
-                        drainCandidates();
-                    } else {
-                        // We've just set remote SDP - do nothing for now -
-                        // answer will be created soon.
-                        Log.d(TAG, "Remote SDP set succesfully");
-                    }
+                    // We've just set the remote answer, so drain remote
+                    // and send local ICE candidates.
+                    Log.d(TAG, "Remote SDP set succesfully");
+                    drainCandidates();
+                    onNegotiationComplete();
                 }
             });
         }
 
+        private void onNegotiationComplete() {
+            if (negotiation.onStable()) {
+                negotiate(false);
+            }
+        }
+
         @Override
         public void onCreateFailure(final String error) {
             reportError("createSDP error: " + error);
@@ -1391,4 +1725,34 @@ public class CarrierPeerConnectionClient {
             reportError("setSDP error: " + error);
         }
     }
+
+    // Sets the remote offer once the local one is rolled back, see setRemoteOffer().
+    private class RollbackObserver implements SdpObserver {
+        private final SessionDescription remoteOffer;
+
+        RollbackObserver(SessionDescription remoteOffer) {
+            this.remoteOffer = remoteOffer;
+        }
+
+        @Override
+        public void onCreateSuccess(SessionDescription sdp) {
+        }
+
+        @Override
+        public void onSetSuccess() {
+            executor.execute(() -> {
+                Log.d(TAG, "Local offer rolled back");
+                setRemoteDescriptionInternal(remoteOffer);
+            });
+        }
+
+        @Override
+        public void onCreateFailure(String error) {
+        }
+
+        @Override
+        public void onSetFailure(String error) {
+            reportError("rollback error: " + error);
+        }
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+/**
+ * Local ICE candidate signaling metrics of the current call.
+ */
+public class IceCandidateBatchStats {
+    private final int candidates;
+    private final int messages;
+    private final long timeToFirstCandidateMs;
+
+    IceCandidateBatchStats(int candidates, int messages, long timeToFirstCandidateMs) {
+        this.candidates = candidates;
+        this.messages = messages;
+        this.timeToFirstCandidateMs = timeToFirstCandidateMs;
+    }
+
+    /**
+     * Number of local candidates gathered.
+     */
+    public int getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Number of candidate messages sent over carrier.
+     */
+    public int getMessages() {
+        return messages;
+    }
+
+    /**
+     * Messages saved compared with sending one message per candidate.
+     */
+    public int getMessagesSaved() {
+        return candidates - messages;
+    }
+
+    /**
+     * Time from the start of the call to the first local candidate, or -1 if
+     * no candidate has been gathered yet.
+     */
+    public long getTimeToFirstCandidateMs() {
+        return timeToFirstCandidateMs;
+    }
+
+    @Override
+    public String toString() {
+        return "candidates: " + candidates + ", messages: " + messages
+                + ", saved: " + getMessagesSaved()
+                + ", first candidate: " + timeToFirstCandidateMs + "ms";
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesces local ICE candidates into batched signaling messages.
+ *
+ * <p>Pending candidates are flushed when the batch window expires, when the
+ * batch reaches its maximum size, or when ICE gathering completes, whichever
+ * happens first. A window of 0, or no timer to run the batch window on,
+ * sends every candidate on its own.
+ */
+class IceCandidateBatcher {
+    private static final String TAG = "IceCandidateBatcher";
+
+    interface Sender {
+        void sendCandidates(IceCandidate[] candidates);
+    }
+
+    /**
+     * Runs the batch timer; a {@link Handler} in the SDK, a manual clock in tests.
+     */
+    interface Timer {
+        boolean postDelayed(Runnable task, long delayMs);
+
+        void removeCallbacks(Runnable task);
+    }
+
+    @Nullable
+    private final Timer timer;
+    private final Sender sender;
+    private final List<IceCandidate> pending = new ArrayList<>();
+    private final Runnable flushTask = this::flush;
+    private long windowMs;
+    private int maxBatchSize;
+
+    private long startTimeMs;
+    private long firstCandidateTimeMs = -1;
+    private int candidateCount;
+    private int messageCount;
+
+    IceCandidateBatcher(@Nullable Handler handler, Sender sender, long windowMs, int maxBatchSize) {
+        this(handler == null ? null : new Timer() {
+            @Override
+            public boolean postDelayed(Runnable task, long delayMs) {
+                return handler.postDelayed(task, delayMs);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable task) {
+                handler.removeCallbacks(task);
+            }
+        }, sender, windowMs, maxBatchSize);
+    }
+
+    IceCandidateBatcher(@Nullable Timer timer, Sender sender, long windowMs, int maxBatchSize) {
+        this.timer = timer;
+        this.sender = sender;
+        configure(windowMs, maxBatchSize);
+    }
+
+    synchronized void configure(long windowMs, int maxBatchSize) {
+        if (windowMs < 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Invalid ICE candidate batching: window "
+                    + windowMs + "ms, batch size " + maxBatchSize);
+        }
+        this.windowMs = windowMs;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Drop pending candidates and restart the metrics for a new call.
+     */
+    synchronized void reset() {
+        cancelFlushTask();
+        pending.clear();
+        startTimeMs = SystemClock.elapsedRealtime();
+        firstCandidateTimeMs = -1;
+        candidateCount = 0;
+        messageCount = 0;
+    }
+
+    /**
+     * Drop pending candidates, keeping the metrics of the call.
+     */
+    synchronized void cancel() {
+        cancelFlushTask();
+        pending.clear();
+    }
+
+    void add(IceCandidate candidate) {
+        boolean flushNow;
+        synchronized (this) {
+            if (firstCandidateTimeMs < 0) {
+                firstCandidateTimeMs = SystemClock.elapsedRealtime();
+            }
+            candidateCount++;
+            pending.add(candidate);
+            flushNow = windowMs == 0 || timer == null || pending.size() >= maxBatchSize;
+            if (!flushNow && pending.size() == 1 && !timer.postDelayed(flushTask, windowMs)) {
+                Log.w(TAG, "Batch timer is not available, sending candidates now.");
+                flushNow = true;
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Send all pending candidates in a single message. The message is sent
+     * outside the lock, the transport may block on the carrier.
+     */
+    void flush() {
+        IceCandidate[] candidates = takePending();
+        if (candidates != null) {
+            sender.sendCandidates(candidates);
+        }
+    }
+
+    private synchronized IceCandidate[] takePending() {
+        cancelFlushTask();
+        if (pending.isEmpty()) {
+            return null;
+        }
+        IceCandidate[] candidates = pending.toArray(new IceCandidate[0]);
+        pending.clear();
+        messageCount++;
+        return candidates;
+    }
+
+    synchronized IceCandidateBatchStats getStats() {
+        return new IceCandidateBatchStats(candidateCount, messageCount,
+                firstCandidateTimeMs < 0 ? -1 : firstCandidateTimeMs - startTimeMs);
+    }
+
+    private void cancelFlushTask() {
+        if (timer != null) {
+            timer.removeCallbacks(flushTask);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.elastos.carrier.webrtc;
+
+import org.webrtc.PeerConnection.IceConnectionState;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides when a call restarts ICE instead of ending, after its connection
+ * was lost or the network of the device changed.
+ *
+ * <p>A lost connection is restarted by the initiator of the call only, so
+ * that both peers do not restart it twice; the other peer answers and gives
+ * up only when nothing came back within {@link #RECOVERY_TIMEOUT_MS}. A
+ * network change is restarted by the peer it happened to, the offers of
+ * both peers crossing are resolved by {@link PerfectNegotiation}. A
+ * DISCONNECTED connection is given {@link #DISCONNECTED_GRACE_MS} to come
+ * back by itself first, and a connection that never came up is not
+ * restarted at all.
+ *
+ * <p>Not thread safe, confined to the executor of the peer connection. The
+ * time is passed in by the caller.
+ */
+final class IceRestartPolicy {
+    static final long DISCONNECTED_GRACE_MS = 2000;
+    static final long RETRY_MS = 5000;
+    static final long RECOVERY_TIMEOUT_MS = 15000;
+    static final int MAX_HISTORY = 16;
+
+    enum Action {
+        NONE,
+        RESTART,
+        GIVE_UP
+    }
+
+    private boolean initiator;
+    private boolean connectedOnce;
+    // The recovery in progress, if any.
+    private IceRestartStats.Trigger trigger;
+    private long startMs;
+    private long nextRestartMs;
+    private int restarts;
+    private final ArrayDeque<IceRestartStats> history = new ArrayDeque<>();
+
+    void setInitiator(boolean initiator) {
+        this.initiator = initiator;
+    }
+
+    Action onIceConnectionChange(IceConnectionState state, long nowMs) {
+        switch (state) {
+            case CONNECTED:
+            case COMPLETED:
+                connectedOnce = true;
+                if (trigger != null) {
+                    finish(true, nowMs);
+                }
+                return Action.NONE;
+            case DISCONNECTED:
+                if (connectedOnce && trigger == null) {
+                    start(IceRestartStats.Trigger.DISCONNECTED, nowMs, nowMs + DISCONNECTED_GRACE_MS);
+                }
+                return Action.NONE;
+            case FAILED:
+                if (!connectedOnce) {
+                    return Action.GIVE_UP;
+                }
+                if (trigger == null) {
+                    start(IceRestartStats.Trigger.FAILED, nowMs, nowMs);
+                }
+                return onTimer(nowMs);
+            case CLOSED:
+                trigger = null;
+                return Action.NONE;
+            default:
+                return Action.NONE;
+        }
+    }
+
+    Action onNetworkChange(long nowMs) {
+        if (!connectedOnce) {
+            return Action.NONE;
+        }
+        if (trigger == null) {
+            start(IceRestartStats.Trigger.NETWORK_CHANGE, nowMs, nowMs);
+        }
+        // The candidates gathered so far belong to the previous network, only
+        // this peer knows that it has to restart.
+        restarts++;
+        nextRestartMs = nowMs + RETRY_MS;
+        return Action.RESTART;
+    }
+
+    Action onTimer(long nowMs) {
+        if (trigger == null) {
+            return Action.NONE;
+        }
+        if (nowMs - startMs >= RECOVERY_TIMEOUT_MS) {
+            finish(false, nowMs);
+            return Action.GIVE_UP;
+        }
+        if (initiator && nowMs >= nextRestartMs) {
+            restarts++;
+            nextRestartMs = nowMs + RETRY_MS;
+            return Action.RESTART;
+        }
+        return Action.NONE;
+    }
+
+    /**
+     * The time onTimer() has to be called at, or -1 if no recovery is in
+     * progress.
+     */
+    long getNextDeadlineMs() {
+        if (trigger == null) {
+            return -1;
+        }
+        long timeoutMs = startMs + RECOVERY_TIMEOUT_MS;
+        return initiator ? Math.min(nextRestartMs, timeoutMs) : timeoutMs;
+    }
+
+    boolean isRecovering() {
+        return trigger != null;
+    }
+
+    /**
+     * The finished recoveries, oldest first.
+     */
+    List<IceRestartStats> getHistory() {
+        return new ArrayList<>(history);
+    }
+
+    private void start(IceRestartStats.Trigger trigger, long nowMs, long firstRestartMs) {
+        this.trigger = trigger;
+        startMs = nowMs;
+        nextRestartMs = firstRestartMs;
+        restarts = 0;
+    }
+
+    private void finish(boolean recovered, long nowMs) {
+        if (history.size() == MAX_HISTORY) {
+            history.removeFirst();
+        }
+        history.addLast(new IceRestartStats(trigger, restarts, nowMs - startMs, recovered));
+        trigger = null;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.elastos.carrier.webrtc;
+
+/**
+ * One recovery of the ICE connection of a call, from the event that broke it
+ * to the connection coming back or the call being given up.
+ */
+public class IceRestartStats {
+    /**
+     * What started the recovery.
+     */
+    public enum Trigger {
+        DISCONNECTED,
+        FAILED,
+        NETWORK_CHANGE
+    }
+
+    private final Trigger trigger;
+    private final int restarts;
+    private final long timeToRecoverMs;
+    private final boolean recovered;
+
+    IceRestartStats(Trigger trigger, int restarts, long timeToRecoverMs, boolean recovered) {
+        this.trigger = trigger;
+        this.restarts = restarts;
+        this.timeToRecoverMs = timeToRecoverMs;
+        this.recovered = recovered;
+    }
+
+    public Trigger getTrigger() {
+        return trigger;
+    }
+
+    /**
+     * ICE restart offers sent by this peer during the recovery, 0 if the
+     * connection came back by itself or through a restart of the other peer.
+     */
+    public int getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * Time from the trigger to the connection coming back, or to the call
+     * being given up.
+     */
+    public long getTimeToRecoverMs() {
+        return timeToRecoverMs;
+    }
+
+    public boolean isRecovered() {
+        return recovered;
+    }
+
+    @Override
+    public String toString() {
+        return trigger + (recovered ? " recovered in " : " given up after ") + timeToRecoverMs
+                + "ms, " + restarts + " restarts";
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.elastos.carrier.CarrierExtension.TurnServerInfo;
+import org.elastos.carrier.exceptions.CarrierException;
+import org.webrtc.PeerConnection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the ICE servers built from the carrier TURN server credentials, so
+ * that call setup does not wait for a carrier network round trip.
+ *
+ * <p>Credentials are kept until they expire, per the timestamp of TURN REST
+ * usernames ("expiry:user") or {@link #DEFAULT_TTL_MS} otherwise, and are
+ * fetched again in the background once {@link #REFRESH_RATIO} of their
+ * lifetime has passed. Calls block only while there are no valid credentials
+ * at all, and concurrent requests then share one fetch.
+ */
+public class IceServerProvider {
+    private static final String TAG = "IceServerProvider";
+
+    public static final long DEFAULT_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+    static final double REFRESH_RATIO = 0.8;
+    // Credentials expiring sooner are not cached.
+    static final long MIN_TTL_MS = TimeUnit.SECONDS.toMillis(30);
+    // How long a call waits for the fetch of another one.
+    static final long FETCH_WAIT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Gets the credentials, blocking.
+     */
+    public interface Fetcher {
+        /**
+         * @return the credentials, null if the network has no TURN server.
+         */
+        @Nullable
+        Credentials fetch() throws CarrierException;
+    }
+
+    /**
+     * ICE servers valid until a wall clock time.
+     */
+    public static class Credentials {
+        final List<PeerConnection.IceServer> iceServers;
+        final long expiresAtMs;
+
+        public Credentials(List<PeerConnection.IceServer> iceServers, long expiresAtMs) {
+            this.iceServers = Collections.unmodifiableList(new ArrayList<>(iceServers));
+            this.expiresAtMs = expiresAtMs;
+        }
+
+        /**
+         * The STUN and TURN servers of |info|.
+         */
+        public static Credentials of(TurnServerInfo info, long nowMs) {
+            String address = info.getServer() + ":" + info.getPort();
+            List<PeerConnection.IceServer> iceServers = new ArrayList<>();
+            iceServers.add(PeerConnection.IceServer.builder("stun:" + address)
+                    .setUsername(info.getUsername()).setPassword(info.getPassword())
+                    .createIceServer());
+            iceServers.add(PeerConnection.IceServer.builder("turn:" + address)
+                    .setUsername(info.getUsername()).setPassword(info.getPassword())
+                    .createIceServer());
+            return new Credentials(iceServers, expiryOf(info.getUsername(), nowMs));
+        }
+
+        public long getExpiresAtMs() {
+            return expiresAtMs;
+        }
+    }
+
+    // A fetch in progress, which the calls needing credentials wait for.
+    private static class Fetch {
+        final CountDownLatch done = new CountDownLatch(1);
+        @Nullable
+        volatile Credentials result;
+    }
+
+    private final Fetcher fetcher;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+
+    // Guarded by this.
+    @Nullable
+    private Credentials cached;
+    private long refreshAtMs;
+    @Nullable
+    private Fetch inFlight;
+    @Nullable
+    private ScheduledFuture<?> refreshTask;
+    private long hits;
+    private long misses;
+    private long fetches;
+    private long failures;
+    private long totalFetchMs;
+    private long lastFetchMs;
+
+    /**
+     * @param executor runs the background fetches.
+     */
+    public IceServerProvider(Fetcher fetcher, Executor executor, ScheduledExecutorService scheduler) {
+        this.fetcher = fetcher;
+        this.executor = executor;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Get the ICE servers, from the cache unless they have expired.
+     *
+     * @return the servers, empty if they could not be fetched.
+     */
+    public List<PeerConnection.IceServer> getIceServers() {
+        return getIceServers(System.currentTimeMillis());
+    }
+
+    List<PeerConnection.IceServer> getIceServers(long nowMs) {
+        Fetch fetch;
+        boolean owner = false;
+        synchronized (this) {
+            if (cached != null && nowMs < cached.expiresAtMs) {
+                hits++;
+                if (nowMs >= refreshAtMs) {
+                    prefetchLocked();
+                }
+                return cached.iceServers;
+            }
+            misses++;
+            fetch = inFlight;
+            if (fetch == null) {
+                fetch = inFlight = new Fetch();
+                owner = true;
+            }
+        }
+        if (owner) {
+            runFetch(fetch);
+        } else {
+            try {
+                if (!fetch.done.await(FETCH_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "getIceServers: timed out waiting for the credentials");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Credentials credentials = fetch.result;
+        return credentials != null ? credentials.iceServers
+                : Collections.<PeerConnection.IceServer>emptyList();
+    }
+
+    /**
+     * Fetch the credentials in the background unless they are cached and
+     * fresh, e.g. once the carrier network is connected.
+     */
+    public synchronized void prefetch() {
+        long nowMs = System.currentTimeMillis();
+        if (cached == null || nowMs >= refreshAtMs) {
+            prefetchLocked();
+        }
+    }
+
+    /**
+     * Drop the credentials and stop refreshing them.
+     */
+    public synchronized void close() {
+        cached = null;
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+            refreshTask = null;
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Calls that found no valid credentials and waited for a fetch.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getFetchCount() {
+        return fetches;
+    }
+
+    public synchronized long getFailureCount() {
+        return failures;
+    }
+
+    public synchronized long getLastFetchMs() {
+        return lastFetchMs;
+    }
+
+    public synchronized long getAverageFetchMs() {
+        return fetches > 0 ? totalFetchMs / fetches : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "IceServerProvider{hits " + hits + ", misses " + misses + ", fetches " + fetches
+                + ", failures " + failures + ", avg fetch " + getAverageFetchMs() + "ms, last "
+                + lastFetchMs + "ms}";
+    }
+
+    private synchronized void refresh() {
+        refreshTask = null;
+        prefetchLocked();
+    }
+
+    private void prefetchLocked() {
+        if (inFlight != null) {
+            return;
+        }
+        Fetch fetch = inFlight = new Fetch();
+        executor.execute(() -> runFetch(fetch));
+    }
+
+    private void runFetch(Fetch fetch) {
+        long startMs = System.currentTimeMillis();
+        Credentials credentials = null;
+        try {
+            credentials = fetcher.fetch();
+        } catch (CarrierException e) {
+            Log.e(TAG, "Get Turn server from carrier network error.", e);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Fetching the turn server failed", e);
+        }
+        long nowMs = System.currentTimeMillis();
+        synchronized (this) {
+            inFlight = null;
+            lastFetchMs = nowMs - startMs;
+            totalFetchMs += lastFetchMs;
+            fetches++;
+            if (credentials == null) {
+                failures++;
+            } else if (credentials.expiresAtMs - nowMs < MIN_TTL_MS) {
+                Log.w(TAG, "Not caching credentials expiring in "
+                        + (credentials.expiresAtMs - nowMs) + "ms");
+            } else {
+                cached = credentials;
+                long refreshDelayMs = (long) ((credentials.expiresAtMs - nowMs) * REFRESH_RATIO);
+                refreshAtMs = nowMs + refreshDelayMs;
+                if (refreshTask != null) {
+                    refreshTask.cancel(false);
+                }
+                refreshTask = scheduler.schedule(this::refresh, refreshDelayMs,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+        fetch.result = credentials;
+        fetch.done.countDown();
+    }
+
+    // TURN REST usernames start with the expiry time in seconds.
+    static long expiryOf(@Nullable String username, long nowMs) {
+        if (username != null) {
+            int end = username.indexOf(':');
+            if (end > 0) {
+                try {
+                    long expiresAtMs = Long.parseLong(username.substring(0, end)) * 1000;
+                    if (expiresAtMs > nowMs) {
+                        return expiresAtMs;
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a timestamp.
+                }
+            }
+        }
+        return nowMs + DEFAULT_TTL_MS;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import android.util.Log;
+
+import org.webrtc.PeerConnection;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Fetches the ICE servers of a connection again before its ICE restarts.
+ *
+ * <p>The TURN credentials a connection was created with expire, see
+ * {@link IceServerProvider}, and a restarted ICE agent gathering relay
+ * candidates with them is refused by the TURN server. The fetch may wait for
+ * the carrier network, so it runs on |ioExecutor|, and the servers are
+ * delivered on the executor of the peer connection. The restarts requested
+ * during a fetch share it.
+ *
+ * <p>{@link #refresh()} and {@link #isRefreshing()} are confined to the
+ * executor of the peer connection.
+ */
+final class IceServerRefresher {
+    private static final String TAG = "IceServerRefresher";
+
+    /**
+     * Gets the current ICE servers, blocking.
+     */
+    interface Source {
+        List<PeerConnection.IceServer> getIceServers();
+    }
+
+    interface Listener {
+        /**
+         * @param iceServers empty if they could not be fetched.
+         */
+        void onIceServersRefreshed(List<PeerConnection.IceServer> iceServers);
+    }
+
+    private final Source source;
+    private final Executor ioExecutor;
+    private final Executor executor;
+    private final Listener listener;
+    private boolean refreshing;
+
+    IceServerRefresher(Source source, Executor ioExecutor, Executor executor, Listener listener) {
+        this.source = source;
+        this.ioExecutor = ioExecutor;
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    /**
+     * Fetch the ICE servers, unless a fetch is in progress already.
+     */
+    void refresh() {
+        if (refreshing) {
+            return;
+        }
+        refreshing = true;
+        ioExecutor.execute(() -> {
+            List<PeerConnection.IceServer> iceServers;
+            try {
+                iceServers = source.getIceServers();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Fetching the ICE servers failed", e);
+                iceServers = Collections.emptyList();
+            }
+            List<PeerConnection.IceServer> result = iceServers;
+            executor.execute(() -> {
+                refreshing = false;
+                listener.onIceServersRefreshed(result);
+            });
+        });
+    }
+
+    boolean isRefreshing() {
+        return refreshing;
+    }
+}
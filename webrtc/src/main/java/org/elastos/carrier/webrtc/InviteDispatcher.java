@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.elastos.carrier.webrtc;
+
+import android.util.Log;
+
+import org.elastos.carrier.webrtc.util.SerialExecutor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes the carrier friend invites off the carrier callback thread, which
+ * must not wait on our signaling: the invite is replied to on
+ * {@code ackExecutor}, and decoded and routed to its session on a serial
+ * executor of its peer, so that the messages of a peer keep their order
+ * while the peers are handled in parallel. The executor of a peer is
+ * dropped once its queue is empty.
+ *
+ * <p>The time the invites wait is recorded, see {@link #getStats()}.
+ */
+final class InviteDispatcher {
+    private static final String TAG = "InviteDispatcher";
+
+    interface Acknowledger {
+        void acknowledge(String from) throws Exception;
+    }
+
+    interface Sink {
+        void onInvite(String from, String data);
+    }
+
+    interface ExecutorFactory {
+        SerialExecutor create(String name);
+    }
+
+    private final Acknowledger acknowledger;
+    private final Executor ackExecutor;
+    private final Sink sink;
+    private final ExecutorFactory executorFactory;
+    // Guarded by this.
+    private final Map<String, PeerQueue> peers = new HashMap<>();
+    private int pending;
+    private long invites;
+    private long routed;
+    private long ackFailures;
+    private long acks;
+    private long totalQueueDelayNs;
+    private long maxQueueDelayNs;
+    private long totalAckDelayNs;
+    private long maxAckDelayNs;
+
+    InviteDispatcher(Acknowledger acknowledger, Executor ackExecutor, Sink sink,
+                     ExecutorFactory executorFactory) {
+        this.acknowledger = acknowledger;
+        this.ackExecutor = ackExecutor;
+        this.sink = sink;
+        this.executorFactory = executorFactory;
+    }
+
+    /**
+     * Called on the carrier callback thread, only queues the work.
+     */
+    void dispatch(final String from, final String data) {
+        final long enqueueTimeNs = System.nanoTime();
+        final PeerQueue queue;
+        synchronized (this) {
+            invites++;
+            pending++;
+            PeerQueue peerQueue = peers.get(from);
+            if (peerQueue == null) {
+                peerQueue = new PeerQueue(from);
+                peers.put(from, peerQueue);
+            }
+            peerQueue.pending++;
+            queue = peerQueue;
+        }
+        ackExecutor.execute(() -> acknowledge(from, enqueueTimeNs));
+        queue.executor.execute(() -> route(queue, from, data, enqueueTimeNs));
+    }
+
+    synchronized int getPeerQueueCount() {
+        return peers.size();
+    }
+
+    synchronized InviteDispatcherStats getStats() {
+        return new InviteDispatcherStats(invites, pending, ackFailures,
+                routed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalQueueDelayNs / routed),
+                TimeUnit.NANOSECONDS.toMicros(maxQueueDelayNs),
+                acks == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalAckDelayNs / acks),
+                TimeUnit.NANOSECONDS.toMicros(maxAckDelayNs));
+    }
+
+    private void acknowledge(String from, long enqueueTimeNs) {
+        boolean failed = false;
+        try {
+            acknowledger.acknowledge(from);
+        } catch (Exception e) {
+            Log.e(TAG, "acknowledge: " + from, e);
+            failed = true;
+        }
+        long delayNs = System.nanoTime() - enqueueTimeNs;
+        synchronized (this) {
+            acks++;
+            totalAckDelayNs += delayNs;
+            maxAckDelayNs = Math.max(maxAckDelayNs, delayNs);
+            if (failed) {
+                ackFailures++;
+            }
+        }
+    }
+
+    private void route(PeerQueue queue, String from, String data, long enqueueTimeNs) {
+        long delayNs = System.nanoTime() - enqueueTimeNs;
+        synchronized (this) {
+            routed++;
+            totalQueueDelayNs += delayNs;
+            maxQueueDelayNs = Math.max(maxQueueDelayNs, delayNs);
+        }
+        try {
+            sink.onInvite(from, data);
+        } finally {
+            synchronized (this) {
+                pending--;
+                // A later invite of the peer gets a new queue, nothing is left in this one.
+                if (--queue.pending == 0 && peers.get(from) == queue) {
+                    peers.remove(from);
+                    queue.executor.shutdown();
+                }
+            }
+        }
+    }
+
+    private class PeerQueue {
+        final SerialExecutor executor;
+        int pending;
+
+        PeerQueue(String peerId) {
+            executor = executorFactory.create(TAG + "-" + peerId);
+        }
+    }
+}
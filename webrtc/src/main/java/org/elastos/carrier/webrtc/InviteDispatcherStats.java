@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.elastos.carrier.webrtc;
+
+/**
+ * How long the carrier invites wait before they are handled, see
+ * {@link WebrtcClient#getInviteDispatcherStats()}.
+ */
+public class InviteDispatcherStats {
+    private final long invites;
+    private final int pending;
+    private final long ackFailures;
+    private final long averageQueueDelayUs;
+    private final long maxQueueDelayUs;
+    private final long averageAckDelayUs;
+    private final long maxAckDelayUs;
+
+    InviteDispatcherStats(long invites, int pending, long ackFailures,
+                          long averageQueueDelayUs, long maxQueueDelayUs,
+                          long averageAckDelayUs, long maxAckDelayUs) {
+        this.invites = invites;
+        this.pending = pending;
+        this.ackFailures = ackFailures;
+        this.averageQueueDelayUs = averageQueueDelayUs;
+        this.maxQueueDelayUs = maxQueueDelayUs;
+        this.averageAckDelayUs = averageAckDelayUs;
+        this.maxAckDelayUs = maxAckDelayUs;
+    }
+
+    /**
+     * Invites received from carrier.
+     */
+    public long getInvites() {
+        return invites;
+    }
+
+    /**
+     * Invites received but not handled yet when the snapshot was taken.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * Invites whose reply to carrier failed.
+     */
+    public long getAckFailures() {
+        return ackFailures;
+    }
+
+    /**
+     * Average time from the carrier callback until the signaling message was
+     * decoded and handed to its session, queued behind the earlier messages
+     * of the same peer.
+     */
+    public long getAverageQueueDelayUs() {
+        return averageQueueDelayUs;
+    }
+
+    public long getMaxQueueDelayUs() {
+        return maxQueueDelayUs;
+    }
+
+    /**
+     * Average time from the carrier callback until the invite was replied to.
+     */
+    public long getAverageAckDelayUs() {
+        return averageAckDelayUs;
+    }
+
+    public long getMaxAckDelayUs() {
+        return maxAckDelayUs;
+    }
+
+    @Override
+    public String toString() {
+        return invites + " invites, " + pending + " pending, " + ackFailures + " ack failures"
+                + ", queue delay avg " + averageQueueDelayUs + " us max " + maxQueueDelayUs
+                + " us, ack delay avg " + averageAckDelayUs + " us max " + maxAckDelayUs + " us";
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import android.util.Log;
+
+import org.elastos.carrier.webrtc.data.DataChannelSender;
+import org.webrtc.DataChannel;
+
+/**
+ * A data channel of a connection, identified by its label, with the flow
+ * control of its sends.
+ */
+class NamedDataChannel implements DataChannel.Observer {
+    private static final String TAG = "NamedDataChannel";
+
+    /**
+     * Events of the channel, on the webrtc signaling thread.
+     */
+    interface Events {
+        void onMessage(NamedDataChannel channel, DataChannel.Buffer buffer);
+
+        void onStateChange(NamedDataChannel channel, DataChannel.State state);
+    }
+
+    private final DataChannel channel;
+    private final String label;
+    private final DataChannelSender sender;
+    private final Events events;
+
+    NamedDataChannel(DataChannel channel, Events events) {
+        this.channel = channel;
+        this.label = channel.label();
+        this.events = events;
+        this.sender = new DataChannelSender(new DataChannelSender.Channel() {
+            @Override
+            public long bufferedAmount() {
+                return channel.bufferedAmount();
+            }
+
+            @Override
+            public boolean send(DataChannel.Buffer buffer) {
+                return channel.send(buffer);
+            }
+        });
+        channel.registerObserver(this);
+    }
+
+    String getLabel() {
+        return label;
+    }
+
+    DataChannel.State getState() {
+        return channel.state();
+    }
+
+    DataChannelSender getSender() {
+        return sender;
+    }
+
+    /**
+     * Close the channel, failing the pending sends, and release it.
+     */
+    void dispose(String reason) {
+        Log.d(TAG, "Data channel " + label + ": " + sender);
+        sender.close(reason);
+        channel.unregisterObserver();
+        channel.close();
+        channel.dispose();
+    }
+
+    @Override
+    public void onBufferedAmountChange(long previousAmount) {
+        try {
+            sender.onBufferedAmountChange();
+        } catch (Exception e) {
+            Log.e(TAG, "onBufferedAmountChange: ", e);
+        }
+    }
+
+    @Override
+    public void onStateChange() {
+        try {
+            DataChannel.State state = channel.state();
+            Log.d(TAG, "Data channel state changed: " + label + ": " + state);
+            if (state == DataChannel.State.CLOSED) {
+                sender.close("Data channel closed");
+            }
+            events.onStateChange(this, state);
+        } catch (Exception e) {
+            Log.e(TAG, "onStateChange: ", e);
+        }
+    }
+
+    @Override
+    public void onMessage(DataChannel.Buffer buffer) {
+        events.onMessage(this, buffer);
+    }
+}
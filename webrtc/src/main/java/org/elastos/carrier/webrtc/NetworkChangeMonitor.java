@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.elastos.carrier.webrtc;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Tells when the default network of the device changes, such as a handover
+ * from wifi to cellular, so that the calls restart ICE on the new network
+ * right away instead of waiting for their connection to time out.
+ *
+ * <p>Started by the {@link WebrtcClient} singleton, which lives as long as
+ * the process: the network callback is registered once and is never
+ * unregistered, holding the listener and through it the client for the
+ * process lifetime. A change with no call running costs nothing.
+ */
+final class NetworkChangeMonitor {
+    private static final String TAG = "NetworkChangeMonitor";
+
+    private final ConnectivityManager connectivityManager;
+    private final Runnable listener;
+    private final ConnectivityManager.NetworkCallback callback = new Callback();
+    // Guarded by this.
+    @Nullable
+    private Network currentNetwork;
+    private boolean started;
+
+    NetworkChangeMonitor(Context context, Runnable listener) {
+        this.connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+    }
+
+    /**
+     * Register the network callback, for the rest of the process lifetime.
+     */
+    synchronized void start() {
+        if (started || connectivityManager == null) {
+            return;
+        }
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                connectivityManager.registerDefaultNetworkCallback(callback);
+            } else {
+                // Any network with internet; a second one coming up is taken as
+                // a change too, which costs at most a spare ICE restart.
+                connectivityManager.registerNetworkCallback(new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        .build(), callback);
+            }
+            started = true;
+        } catch (SecurityException e) {
+            Log.w(TAG, "start: no ACCESS_NETWORK_STATE permission, network changes not tracked");
+        }
+    }
+
+    private class Callback extends ConnectivityManager.NetworkCallback {
+        @Override
+        public void onAvailable(Network network) {
+            boolean changed;
+            synchronized (NetworkChangeMonitor.this) {
+                // The first network is the one the calls started on.
+                changed = currentNetwork != null && !currentNetwork.equals(network);
+                currentNetwork = network;
+            }
+            if (changed) {
+                Log.d(TAG, "Default network changed to " + network);
+                listener.run();
+            }
+        }
+    }
+}
@@ -22,9 +22,9 @@
 
 package org.elastos.carrier.webrtc;
 
+import org.elastos.carrier.webrtc.stats.RtcStatsSnapshot;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
-import org.webrtc.StatsReport;
 
 /**
  * Peer connection events.
@@ -45,6 +45,11 @@ interface PeerConnectionEvents {
      */
     void onIceCandidatesRemoved(final IceCandidate[] candidates);
 
+    /**
+     * Callback fired once local ICE candidate gathering is complete.
+     */
+    void onIceGatheringComplete();
+
     /**
      * Callback fired once connection is established (IceConnectionState is
      * CONNECTED).
@@ -75,9 +80,10 @@ interface PeerConnectionEvents {
     void onPeerConnectionClosed();
 
     /**
-     * Callback fired once peer connection statistics is ready.
+     * Callback fired once peer connection statistics is ready. The snapshot is
+     * reused by the next poll.
      */
-    void onPeerConnectionStatsReady(final StatsReport[] reports);
+    void onPeerConnectionStatsReady(final RtcStatsSnapshot snapshot);
 
     /**
      * Callback fired once peer connection error happened.
@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import android.content.Context;
+import android.os.Environment;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.elastos.carrier.webrtc.util.ExecutorStats;
+import org.elastos.carrier.webrtc.util.SerialExecutor;
+import org.elastos.carrier.webrtc.util.WebRTCExecutors;
+import org.webrtc.DefaultVideoDecoderFactory;
+import org.webrtc.DefaultVideoEncoderFactory;
+import org.webrtc.EglBase;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.SoftwareVideoDecoderFactory;
+import org.webrtc.SoftwareVideoEncoderFactory;
+import org.webrtc.VideoDecoderFactory;
+import org.webrtc.VideoEncoderFactory;
+import org.webrtc.audio.AudioDeviceModule;
+import org.webrtc.audio.JavaAudioDeviceModule;
+import org.webrtc.audio.JavaAudioDeviceModule.AudioRecordErrorCallback;
+import org.webrtc.audio.JavaAudioDeviceModule.AudioRecordStateCallback;
+import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackErrorCallback;
+import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackStateCallback;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the PeerConnectionFactory, its audio device module and the EglBase
+ * shared by the peer connections of concurrent calls.
+ *
+ * <p>Users {@link #acquire()} the holder before using it and {@link #release()}
+ * it when done; the factory and EglBase are created on first use and disposed
+ * when the holder has not been acquired for the idle timeout, so that calls
+ * made in quick succession reuse a warm factory.
+ */
+class PeerConnectionFactoryHolder {
+    private static final String TAG = "PCFactoryHolder";
+    static final long DEFAULT_IDLE_TIMEOUT_MS = 30000;
+
+    /**
+     * Receives errors of the shared audio device module.
+     */
+    interface AudioErrorListener {
+        void onAudioDeviceError(String description);
+    }
+
+    private final Context appContext;
+    private final CarrierPeerConnectionClient.PeerConnectionParameters peerConnectionParameters;
+    // Blocking file writes of the input audio dump.
+    private final SerialExecutor ioExecutor = WebRTCExecutors.newIoExecutor(TAG + "-io");
+    private final List<AudioErrorListener> audioErrorListeners = new CopyOnWriteArrayList<>();
+    // Times the idle teardown, null to dispose as soon as the last user releases the holder.
+    @Nullable
+    private final ScheduledExecutorService scheduler;
+    @Nullable
+    private ScheduledFuture<?> idleDispose;
+    private long idleTimeoutMs;
+    private int refCount;
+    private int factoryCount;
+    @Nullable
+    private EglBase eglBase;
+    @Nullable
+    private PeerConnectionFactory factory;
+    @Nullable
+    private RecordedAudioToFileController saveRecordedAudioToFile;
+
+    /**
+     * Create a holder that is disposed as soon as it is released.
+     *
+     * @param eglBase EglBase to use instead of creating one, the holder takes ownership.
+     */
+    PeerConnectionFactoryHolder(Context appContext,
+                                CarrierPeerConnectionClient.PeerConnectionParameters peerConnectionParameters,
+                                @Nullable EglBase eglBase) {
+        this(appContext, peerConnectionParameters, eglBase, null, 0);
+    }
+
+    /**
+     * @param eglBase EglBase to use instead of creating one, the holder takes ownership.
+     * @param scheduler times the idle teardown, which then runs on the I/O executor.
+     * @param idleTimeoutMs time to keep the factory after the last release.
+     */
+    PeerConnectionFactoryHolder(Context appContext,
+                                CarrierPeerConnectionClient.PeerConnectionParameters peerConnectionParameters,
+                                @Nullable EglBase eglBase, @Nullable ScheduledExecutorService scheduler,
+                                long idleTimeoutMs) {
+        this.appContext = appContext;
+        this.peerConnectionParameters = peerConnectionParameters;
+        this.eglBase = eglBase;
+        this.scheduler = scheduler;
+        setIdleTimeout(idleTimeoutMs);
+    }
+
+    synchronized void acquire() {
+        refCount++;
+        cancelIdleDispose();
+    }
+
+    synchronized void release() {
+        if (refCount <= 0) {
+            Log.e(TAG, "release: holder is not acquired");
+            return;
+        }
+        if (--refCount > 0) {
+            return;
+        }
+        if (idleTimeoutMs == 0 || scheduler == null || (factory == null && eglBase == null)) {
+            dispose();
+            return;
+        }
+        try {
+            // The timer only hands the teardown over, disposing the factory takes a while.
+            idleDispose = scheduler.schedule(() -> ioExecutor.execute(this::disposeIfIdle),
+                    idleTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Idle timer is not available, disposing the factory now.");
+            dispose();
+        }
+    }
+
+    /**
+     * Keep the factory and EglBase for |idleTimeoutMs| after the last release,
+     * 0 disposes them immediately. Applies from the next release.
+     */
+    synchronized void setIdleTimeout(long idleTimeoutMs) {
+        if (idleTimeoutMs < 0) {
+            throw new IllegalArgumentException("Invalid idle timeout: " + idleTimeoutMs + "ms");
+        }
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * Dispose the factory and EglBase now if the holder is not in use.
+     */
+    synchronized void disposeIfIdle() {
+        if (refCount == 0) {
+            cancelIdleDispose();
+            dispose();
+        }
+    }
+
+    synchronized int getRefCount() {
+        return refCount;
+    }
+
+    /**
+     * Whether the factory exists already, so the next call skips its creation.
+     */
+    synchronized boolean isWarm() {
+        return factory != null;
+    }
+
+    /**
+     * Number of factories created by this holder.
+     */
+    synchronized int getFactoryCount() {
+        return factoryCount;
+    }
+
+    synchronized EglBase getEglBase() {
+        checkAcquired();
+        if (eglBase == null) {
+            eglBase = EglBase.create();
+        }
+        return eglBase;
+    }
+
+    synchronized PeerConnectionFactory getFactory(PeerConnectionFactory.Options options) {
+        checkAcquired();
+        if (factory == null) {
+            factory = createFactory(options);
+            factoryCount++;
+        }
+        return factory;
+    }
+
+    void addAudioErrorListener(AudioErrorListener listener) {
+        audioErrorListeners.add(listener);
+    }
+
+    void removeAudioErrorListener(AudioErrorListener listener) {
+        audioErrorListeners.remove(listener);
+    }
+
+    ExecutorStats getIoExecutorStats() {
+        return ioExecutor.getStats();
+    }
+
+    private void cancelIdleDispose() {
+        if (idleDispose != null) {
+            idleDispose.cancel(false);
+            idleDispose = null;
+        }
+    }
+
+    private void checkAcquired() {
+        if (refCount <= 0) {
+            throw new IllegalStateException("PeerConnectionFactoryHolder is not acquired");
+        }
+    }
+
+    // Creates the native factory, replaced in tests.
+    PeerConnectionFactory createFactory(PeerConnectionFactory.Options options) {
+        // Again for every factory, the internal tracer is shut down with the previous one.
+        final String fieldTrials = CarrierPeerConnectionClient.getFieldTrials(peerConnectionParameters);
+        Log.d(TAG, "Initialize WebRTC. Field trials: " + fieldTrials);
+        PeerConnectionFactory.initialize(
+                PeerConnectionFactory.InitializationOptions.builder(appContext)
+                        .setFieldTrials(fieldTrials)
+                        .setEnableInternalTracer(true)
+                        .createInitializationOptions());
+        if (peerConnectionParameters.tracing) {
+            PeerConnectionFactory.startInternalTracingCapture(
+                    Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator
+                            + "webrtc-trace.txt");
+        }
+        // It is possible to save a copy in raw PCM format on a file by checking
+        // the "Save input audio to file" checkbox in the Settings UI. A callback
+        // interface is set when this flag is enabled. As a result, a copy of recorded
+        // audio samples are provided to this client directly from the native audio
+        // layer in Java.
+        if (peerConnectionParameters.saveInputAudioToFile) {
+            if (!peerConnectionParameters.useOpenSLES) {
+                Log.d(TAG, "Enable recording of microphone input audio to file");
+                saveRecordedAudioToFile = new RecordedAudioToFileController(ioExecutor);
+                if (saveRecordedAudioToFile.start()) {
+                    Log.d(TAG, "Recording input audio to file is activated");
+                }
+            } else {
+                // TODO(henrika): ensure that the UI reflects that if OpenSL ES is selected,
+                // then the "Save inut audio to file" option shall be grayed out.
+                Log.e(TAG, "Recording of input audio is not supported for OpenSL ES");
+            }
+        }
+        final AudioDeviceModule adm = createJavaAudioDevice();
+        // Create peer connection factory.
+        if (options != null) {
+            Log.d(TAG, "Factory networkIgnoreMask option: " + options.networkIgnoreMask);
+        }
+        final boolean enableH264HighProfile = CarrierPeerConnectionClient.VIDEO_CODEC_H264_HIGH
+                .equals(peerConnectionParameters.videoCodec);
+        final VideoEncoderFactory encoderFactory;
+        final VideoDecoderFactory decoderFactory;
+        if (peerConnectionParameters.videoCodecHwAcceleration) {
+            EglBase.Context eglBaseContext = getEglBase().getEglBaseContext();
+            encoderFactory = new DefaultVideoEncoderFactory(
+                    eglBaseContext, true /* enableIntelVp8Encoder */, enableH264HighProfile);
+            decoderFactory = new DefaultVideoDecoderFactory(eglBaseContext);
+        } else {
+            encoderFactory = new SoftwareVideoEncoderFactory();
+            decoderFactory = new SoftwareVideoDecoderFactory();
+        }
+        PeerConnectionFactory factory = PeerConnectionFactory.builder()
+                .setOptions(options)
+                .setAudioDeviceModule(adm)
+                .setVideoEncoderFactory(encoderFactory)
+                .setVideoDecoderFactory(decoderFactory)
+                .createPeerConnectionFactory();
+        Log.d(TAG, "Peer connection factory created.");
+        adm.release();
+        return factory;
+    }
+
+    // Disposes the native factory, replaced in tests.
+    void disposeFactory(PeerConnectionFactory factory) {
+        factory.dispose();
+        PeerConnectionFactory.stopInternalTracingCapture();
+        PeerConnectionFactory.shutdownInternalTracer();
+    }
+
+    private AudioDeviceModule createJavaAudioDevice() {
+        // Enable/disable OpenSL ES playback.
+        if (!peerConnectionParameters.useOpenSLES) {
+            Log.w(TAG, "External OpenSLES ADM not implemented yet.");
+            // TODO(magjed): Add support for external OpenSLES ADM.
+        }
+        // Set audio record error callbacks.
+        AudioRecordErrorCallback audioRecordErrorCallback = new AudioRecordErrorCallback() {
+            @Override
+            public void onWebRtcAudioRecordInitError(String errorMessage) {
+                Log.e(TAG, "onWebRtcAudioRecordInitError: " + errorMessage);
+                reportError(errorMessage);
+            }
+
+            @Override
+            public void onWebRtcAudioRecordStartError(
+                    JavaAudioDeviceModule.AudioRecordStartErrorCode errorCode, String errorMessage) {
+                Log.e(TAG, "onWebRtcAudioRecordStartError: " + errorCode + ". " + errorMessage);
+                reportError(errorMessage);
+            }
+
+            @Override
+            public void onWebRtcAudioRecordError(String errorMessage) {
+                Log.e(TAG, "onWebRtcAudioRecordError: " + errorMessage);
+                reportError(errorMessage);
+            }
+        };
+        AudioTrackErrorCallback audioTrackErrorCallback = new AudioTrackErrorCallback() {
+            @Override
+            public void onWebRtcAudioTrackInitError(String errorMessage) {
+                Log.e(TAG, "onWebRtcAudioTrackInitError: " + errorMessage);
+                reportError(errorMessage);
+            }
+
+            @Override
+            public void onWebRtcAudioTrackStartError(
+                    JavaAudioDeviceModule.AudioTrackStartErrorCode errorCode, String errorMessage) {
+                Log.e(TAG, "onWebRtcAudioTrackStartError: " + errorCode + ". " + errorMessage);
+                reportError(errorMessage);
+            }
+
+            @Override
+            public void onWebRtcAudioTrackError(String errorMessage) {
+                Log.e(TAG, "onWebRtcAudioTrackError: " + errorMessage);
+                reportError(errorMessage);
+            }
+        };
+        // Set audio record state callbacks.
+        AudioRecordStateCallback audioRecordStateCallback = new AudioRecordStateCallback() {
+            @Override
+            public void onWebRtcAudioRecordStart() {
+                Log.i(TAG, "Audio recording starts");
+            }
+
+            @Override
+            public void onWebRtcAudioRecordStop() {
+                Log.i(TAG, "Audio recording stops");
+            }
+        };
+        // Set audio track state callbacks.
+        AudioTrackStateCallback audioTrackStateCallback = new AudioTrackStateCallback() {
+            @Override
+            public void onWebRtcAudioTrackStart() {
+                Log.i(TAG, "Audio playout starts");
+            }
+
+            @Override
+            public void onWebRtcAudioTrackStop() {
+                Log.i(TAG, "Audio playout stops");
+            }
+        };
+        return JavaAudioDeviceModule.builder(appContext)
+                .setSamplesReadyCallback(saveRecordedAudioToFile)
+                .setUseHardwareAcousticEchoCanceler(!peerConnectionParameters.disableBuiltInAEC)
+                .setUseHardwareNoiseSuppressor(!peerConnectionParameters.disableBuiltInNS)
+                .setAudioRecordErrorCallback(audioRecordErrorCallback)
+                .setAudioTrackErrorCallback(audioTrackErrorCallback)
+                .setAudioRecordStateCallback(audioRecordStateCallback)
+                .setAudioTrackStateCallback(audioTrackStateCallback)
+                .createAudioDeviceModule();
+    }
+
+    private void reportError(String description) {
+        for (AudioErrorListener listener : audioErrorListeners) {
+            listener.onAudioDeviceError(description);
+        }
+    }
+
+    private void dispose() {
+        if (saveRecordedAudioToFile != null) {
+            Log.d(TAG, "Closing audio file for recorded input audio.");
+            // Close the file after the queued writes.
+            ioExecutor.execute(saveRecordedAudioToFile::stop);
+            saveRecordedAudioToFile = null;
+        }
+        if (factory != null) {
+            Log.d(TAG, "Closing peer connection factory.");
+            disposeFactory(factory);
+            factory = null;
+        }
+        if (eglBase != null) {
+            try {
+                eglBase.release();
+            } catch (Exception e) {
+                Log.e(TAG, "dispose: release eglBase error", e);
+            }
+            eglBase = null;
+        }
+    }
+}
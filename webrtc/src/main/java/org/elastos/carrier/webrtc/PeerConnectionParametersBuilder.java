@@ -1,5 +1,8 @@
 package org.elastos.carrier.webrtc;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class PeerConnectionParametersBuilder {
     private boolean videoCallEnabled = true;
     private boolean tracing = false;
@@ -23,6 +26,8 @@ public class PeerConnectionParametersBuilder {
     private boolean enableRtcEventLog = false;
     private boolean enableData = false;
     private CarrierPeerConnectionClient.DataChannelParameters dataChannelParameters = null;
+    private final Map<String, CarrierPeerConnectionClient.DataChannelParameters> dataChannels =
+            new LinkedHashMap<>();
 
     private PeerConnectionParametersBuilder() {
     }
@@ -33,7 +38,7 @@ public class PeerConnectionParametersBuilder {
 
     public CarrierPeerConnectionClient.PeerConnectionParameters build() {
         // if data is enabled, create dataChannelParameter
-        if (enableData) {
+        if (enableData && this.dataChannelParameters == null) {
             this.dataChannelParameters =
                     new CarrierPeerConnectionClient.DataChannelParameters(true, -1, -1, "", false, 3);
         }
@@ -42,7 +47,7 @@ public class PeerConnectionParametersBuilder {
                 this.videoMaxBitrate, this.videoCodec, this.videoCodecHwAcceleration, this.videoFlexfecEnabled,
                 this.audioStartBitrate, this.audioCodec, this.noAudioProcessing, this.aecDump, this.saveInputAudioToFile,
                 this.useOpenSLES, this.disableBuiltInAEC, this.disableBuiltInAGC, this.disableBuiltInNS, this.disableWebRtcAGCAndHPF,
-                this.enableRtcEventLog, this.dataChannelParameters
+                this.enableRtcEventLog, this.dataChannelParameters, this.dataChannels
         );
     }
 
@@ -150,4 +155,29 @@ public class PeerConnectionParametersBuilder {
         this.enableData = enableData;
         return this;
     }
+
+    /**
+     * Enable the default data channel with the reliability of |parameters|.
+     */
+    public PeerConnectionParametersBuilder dataChannelParameters(
+            CarrierPeerConnectionClient.DataChannelParameters parameters) {
+        this.enableData = true;
+        this.dataChannelParameters = parameters;
+        return this;
+    }
+
+    /**
+     * Open a named data channel with every call besides the default one, see
+     * {@link CarrierPeerConnectionClient.DataChannelParameters#maxRetransmits(int, boolean)}
+     * for an unreliable one.
+     */
+    public PeerConnectionParametersBuilder addDataChannel(
+            String label, CarrierPeerConnectionClient.DataChannelParameters parameters) {
+        if (label == null || label.isEmpty()
+                || CarrierPeerConnectionClient.DEFAULT_DATA_CHANNEL_LABEL.equals(label)) {
+            throw new IllegalArgumentException("Invalid data channel label: " + label);
+        }
+        this.dataChannels.put(label, parameters);
+        return this;
+    }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.elastos.carrier.webrtc;
+
+/**
+ * Offer collision handling of the renegotiations of a running call, after
+ * the "perfect negotiation" pattern of the WebRTC spec: either peer may
+ * offer at any time, and when both do at once the polite peer rolls its
+ * offer back and answers the other one, while the impolite peer ignores the
+ * incoming offer and waits for the answer to its own.
+ *
+ * <p>The caller is impolite and the callee polite. The first negotiation of
+ * the call is driven by the call itself and is not tracked here. The changes
+ * wanted before it starts are carried by its offer, the ones wanted once it
+ * started go out in an offer of their own after it completes.
+ *
+ * <p>Not thread safe, confined to the executor of the peer connection.
+ */
+final class PerfectNegotiation {
+    enum Decision {
+        // Set the remote offer and answer it.
+        APPLY,
+        // Roll the local offer back, then set the remote offer and answer it.
+        ROLLBACK,
+        // Drop the remote offer, the peer answers ours instead.
+        IGNORE
+    }
+
+    private boolean polite;
+    private boolean started;
+    private boolean negotiated;
+    private boolean makingOffer;
+    // A negotiation was wanted while another one was in progress.
+    private boolean pending;
+    private int ignoredOffers;
+    private int rollbacks;
+
+    /**
+     * The first negotiation starts, the callee answering as the polite peer.
+     */
+    void setPolite(boolean polite) {
+        this.polite = polite;
+        started = true;
+    }
+
+    boolean isPolite() {
+        return polite;
+    }
+
+    /**
+     * Whether to create an offer now for a wanted negotiation, with
+     * |stable| the signaling state being stable. Otherwise it is done once
+     * the negotiation in progress completes.
+     */
+    boolean onNegotiationNeeded(boolean stable) {
+        if (!negotiated) {
+            pending |= started;
+            return false;
+        }
+        if (makingOffer || !stable) {
+            pending = true;
+            return false;
+        }
+        makingOffer = true;
+        return true;
+    }
+
+    /**
+     * The local offer was set, it can no longer be superseded without a
+     * rollback.
+     */
+    void onLocalOfferSet() {
+        makingOffer = false;
+    }
+
+    Decision onRemoteOffer(boolean stable) {
+        boolean collision = makingOffer || !stable;
+        if (!collision || !negotiated) {
+            return Decision.APPLY;
+        }
+        if (!polite) {
+            ignoredOffers++;
+            return Decision.IGNORE;
+        }
+        rollbacks++;
+        makingOffer = false;
+        // Our changes go out in an offer of their own once this one is answered.
+        pending = true;
+        return Decision.ROLLBACK;
+    }
+
+    /**
+     * Whether a local offer being created was superseded by a remote offer,
+     * it must not be set.
+     */
+    boolean isOfferSuperseded() {
+        return negotiated && !makingOffer;
+    }
+
+    /**
+     * The signaling state became stable after a negotiation, returns whether
+     * to negotiate again for the changes wanted in the meantime.
+     */
+    boolean onStable() {
+        negotiated = true;
+        if (!pending) {
+            return false;
+        }
+        pending = false;
+        return true;
+    }
+
+    int getIgnoredOffers() {
+        return ignoredOffers;
+    }
+
+    int getRollbacks() {
+        return rollbacks;
+    }
+}
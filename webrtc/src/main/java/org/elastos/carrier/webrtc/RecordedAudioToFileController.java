@@ -34,7 +34,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 
 /**
  * Implements the AudioRecordSamplesReadyCallback interface and writes
@@ -45,18 +45,17 @@ class RecordedAudioToFileController implements SamplesReadyCallback {
     private static final long MAX_FILE_SIZE_IN_BYTES = 58348800L;
 
     private final Object lock = new Object();
-    private final ExecutorService executor;
+    private final Executor executor;
     private OutputStream rawAudioFileOutputStream;
     private boolean isRunning;
     private long fileSizeInBytes;
 
-    RecordedAudioToFileController(ExecutorService executor) {
+    RecordedAudioToFileController(Executor executor) {
         this.executor = executor;
     }
 
     /**
-     * Should be called on the same executor thread as the one provided at
-     * construction.
+     * Can be called from any thread, samples are written once it returns true.
      */
     public boolean start() {
         if (!isExternalStorageWritable()) {
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.elastos.carrier.webrtc;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the remote ICE candidates of a call until its peer connection can
+ * take them, from before the connection is created until both descriptions
+ * are set, and again during a renegotiation.
+ *
+ * <p>Candidates are keyed by their media section and candidate line, so that
+ * a candidate signaled twice is kept once. A removal drops the buffered
+ * candidate it names, or is kept to be applied after the added ones when
+ * the candidate was not buffered. Beyond {@code maxCandidates} the
+ * candidate of the lowest priority is dropped.
+ *
+ * <p>Thread safe: candidates arrive on the carrier thread before the
+ * connection exists, on the executor of the connection afterwards.
+ */
+class RemoteIceCandidateBuffer {
+    static final int DEFAULT_MAX_CANDIDATES = 64;
+
+    /**
+     * The buffered candidates and removals, to be applied in this order.
+     */
+    static final class Batch {
+        final List<IceCandidate> candidates;
+        final List<IceCandidate> removals;
+
+        Batch(List<IceCandidate> candidates, List<IceCandidate> removals) {
+            this.candidates = candidates;
+            this.removals = removals;
+        }
+
+        boolean isEmpty() {
+            return candidates.isEmpty() && removals.isEmpty();
+        }
+    }
+
+    private final int maxCandidates;
+    // In arrival order.
+    private final LinkedHashMap<String, IceCandidate> candidates = new LinkedHashMap<>();
+    private final LinkedHashMap<String, IceCandidate> removals = new LinkedHashMap<>();
+    private int duplicateCount;
+    private int droppedCount;
+
+    RemoteIceCandidateBuffer(int maxCandidates) {
+        if (maxCandidates <= 0) {
+            throw new IllegalArgumentException("Invalid remote candidate buffer size: " + maxCandidates);
+        }
+        this.maxCandidates = maxCandidates;
+    }
+
+    synchronized void add(IceCandidate candidate) {
+        String key = keyOf(candidate);
+        if (candidates.containsKey(key)) {
+            duplicateCount++;
+            return;
+        }
+        // Signaled again after its removal, e.g. by a restarted gathering.
+        removals.remove(key);
+        if (candidates.size() == maxCandidates) {
+            String lowest = key;
+            long lowestPriority = priorityOf(candidate);
+            for (Map.Entry<String, IceCandidate> entry : candidates.entrySet()) {
+                long priority = priorityOf(entry.getValue());
+                if (priority < lowestPriority) {
+                    lowest = entry.getKey();
+                    lowestPriority = priority;
+                }
+            }
+            droppedCount++;
+            if (lowest.equals(key)) {
+                return;
+            }
+            candidates.remove(lowest);
+        }
+        candidates.put(key, candidate);
+    }
+
+    synchronized void remove(IceCandidate[] candidates) {
+        for (IceCandidate candidate : candidates) {
+            String key = keyOf(candidate);
+            if (this.candidates.remove(key) == null) {
+                removals.put(key, candidate);
+            }
+        }
+    }
+
+    /**
+     * Take all the buffered candidates and removals.
+     */
+    synchronized Batch drain() {
+        Batch batch = new Batch(new ArrayList<>(candidates.values()),
+                new ArrayList<>(removals.values()));
+        candidates.clear();
+        removals.clear();
+        return batch;
+    }
+
+    synchronized int size() {
+        return candidates.size();
+    }
+
+    /**
+     * Candidates signaled again while buffered.
+     */
+    synchronized int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Candidates dropped for the size cap.
+     */
+    synchronized int getDroppedCount() {
+        return droppedCount;
+    }
+
+    private static String keyOf(IceCandidate candidate) {
+        String sdp = candidate.sdp.trim();
+        if (sdp.startsWith("a=")) {
+            sdp = sdp.substring(2);
+        }
+        return candidate.sdpMid + '/' + candidate.sdpMLineIndex + '/' + sdp;
+    }
+
+    // "candidate:<foundation> <component> <transport> <priority> ...", 0 if
+    // the line can not be parsed.
+    static long priorityOf(IceCandidate candidate) {
+        String[] fields = candidate.sdp.trim().split("\\s+");
+        if (fields.length < 4) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(fields[3]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -37,30 +37,29 @@ import org.elastos.carrier.CarrierExtension;
 import org.elastos.carrier.FriendInviteResponseHandler;
 import org.elastos.carrier.exceptions.CarrierException;
 import org.elastos.carrier.webrtc.call.CallHandler;
-import org.elastos.carrier.webrtc.call.CallReason;
 import org.elastos.carrier.webrtc.call.CallState;
+import org.elastos.carrier.webrtc.data.BufferPool;
+import org.elastos.carrier.webrtc.data.DataChannelListener;
+import org.elastos.carrier.webrtc.data.DataMessage;
+import org.elastos.carrier.webrtc.data.DataMessageListener;
+import org.elastos.carrier.webrtc.data.FileTransfer;
+import org.elastos.carrier.webrtc.data.FileTransferManager;
+import org.elastos.carrier.webrtc.data.Multiplexer;
+import org.elastos.carrier.webrtc.data.SendCallback;
 import org.elastos.carrier.webrtc.exception.WebrtcException;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.webrtc.Camera1Enumerator;
-import org.webrtc.Camera2Enumerator;
-import org.webrtc.CameraEnumerator;
-import org.webrtc.DataChannel;
-import org.webrtc.EglBase;
-import org.webrtc.IceCandidate;
-import org.webrtc.Logging;
+import org.elastos.carrier.webrtc.signaling.SignalingFragmenter;
+import org.elastos.carrier.webrtc.stats.CallQualityRecorder;
+import org.elastos.carrier.webrtc.stats.CpuSampler;
+import org.elastos.carrier.webrtc.stats.RtcStatsListener;
+import org.elastos.carrier.webrtc.util.ExecutorStats;
+import org.elastos.carrier.webrtc.util.WebRTCExecutors;
 import org.webrtc.PeerConnection;
-import org.webrtc.PeerConnectionFactory;
-import org.webrtc.SessionDescription;
-import org.webrtc.StatsReport;
 import org.webrtc.SurfaceViewRenderer;
 import org.webrtc.VideoCapturer;
-import org.webrtc.VideoSink;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -79,27 +78,16 @@ public class WebrtcClient extends CarrierExtension {
 
     private static WebrtcClient INSTANCE;
     private final Handler handler;
-    private boolean initiator;
-    private ConnectionState connectionState;
-    private String remoteUserId;
     private String currentUserId;
     private Carrier carrier;
     private FriendInviteResponseHandler friendInviteResponseHandler;
-    private CallHandler callHandler;
-    private CallState callState;
     private Context context;
-    private EglBase eglBase;
-    private CarrierPeerConnectionClient carrierPeerConnectionClient;
     private CarrierPeerConnectionClient.PeerConnectionParameters peerConnectionParameters;
-    private SignalingParameters signalingParameters;
-    private ProxyVideoSink localProxyVideoSink = new ProxyVideoSink();
-    private ProxyVideoSink remoteProxyVideoSink = new ProxyVideoSink();
-    private List<VideoSink> remoteSinks = Arrays.asList(new ProxyVideoSink[]{remoteProxyVideoSink});
-    private SurfaceViewRenderer localVideoRenderer;
-    private SurfaceViewRenderer remoteVideoRenderer;
-    private SessionDescription remoteSdp;
-    private boolean callInitialed = false;
-    private List<IceCandidate> remoteIceList;
+    private final PeerConnectionFactoryHolder factoryHolder;
+    private final CallSessionManager sessionManager;
+    private final IceServerProvider iceServerProvider;
+    private final NetworkChangeMonitor networkChangeMonitor;
+    private final InviteDispatcher inviteDispatcher;
 
     private WebrtcClient(Context context,
                          Carrier carrier,
@@ -115,9 +103,7 @@ public class WebrtcClient extends CarrierExtension {
         }
         this.carrier = carrier;
         this.context = context;
-        this.callHandler = callHandler;
         this.friendInviteResponseHandler = new CarrierMessageObserver();
-        this.callState = CallState.INIT;
         if (peerConnectionParameters != null) {
             this.peerConnectionParameters = peerConnectionParameters;
         } else {
@@ -126,6 +112,26 @@ public class WebrtcClient extends CarrierExtension {
         final HandlerThread handlerThread = new HandlerThread(TAG);
         handlerThread.start();
         this.handler = new Handler(handlerThread.getLooper());
+        // One factory, EglBase and audio device module for all the calls, kept
+        // between calls until they have been idle for a while.
+        this.factoryHolder = new PeerConnectionFactoryHolder(context,
+                this.peerConnectionParameters, null, WebRTCExecutors.getScheduler(),
+                PeerConnectionFactoryHolder.DEFAULT_IDLE_TIMEOUT_MS);
+        this.iceServerProvider = new IceServerProvider(this::fetchTurnCredentials,
+                WebRTCExecutors.newIoExecutor(TAG + "-turn"), WebRTCExecutors.getScheduler());
+        this.sessionManager = new CallSessionManager(context, this.peerConnectionParameters,
+                new CarrierTransport(), handler, factoryHolder, callHandler,
+                SignalingFragmenter.DEFAULT_MAX_FRAGMENT_SIZE);
+        // The carrier callback thread only queues the invites.
+        this.inviteDispatcher = new InviteDispatcher(from -> replyFriendInvite(from, 0, "", ""),
+                WebRTCExecutors.newIoExecutor(TAG + "-acks"), sessionManager::onInvite,
+                WebRTCExecutors::newPeerConnectionExecutor);
+        // Off the critical path of the first call.
+        iceServerProvider.prefetch();
+        // The calls restart ICE on a network handover rather than dropping.
+        // Registered for the process lifetime, like this singleton.
+        this.networkChangeMonitor = new NetworkChangeMonitor(context, sessionManager::onNetworkChanged);
+        networkChangeMonitor.start();
     }
 
     public static WebrtcClient createInstance(@NonNull Context context,
@@ -154,7 +160,8 @@ public class WebrtcClient extends CarrierExtension {
      * @return
      */
     public boolean isInitiator() {
-        return initiator;
+        CallSession session = sessionManager.getCurrentSession();
+        return session != null && session.isInitiator();
     }
 
     /**
@@ -164,851 +171,554 @@ public class WebrtcClient extends CarrierExtension {
      * @param peerAddress The remote peer to which the call is going to make with.
      */
     public void makeCall(String peerAddress) throws WebrtcException {
+        makeCall(peerAddress, null);
+    }
+
+    /**
+     * Make call to remote peer, in parallel with the calls to other peers.
+     *
+     * @param peerAddress The remote peer to which the call is going to make with.
+     * @param callHandler handler of the call events, null for the handler of this client.
+     * @return the session of the call.
+     * @throws WebrtcException if a call with the peer is in progress.
+     */
+    public CallSession makeCall(String peerAddress, @Nullable CallHandler callHandler)
+            throws WebrtcException {
         if (peerAddress == null) {
             throw new IllegalArgumentException("Invalid remote address");
         }
         if (peerAddress.equals(currentUserId)) {
             throw new IllegalArgumentException("PeerAddress is current node address");
         }
+        return sessionManager.makeCall(peerAddress,
+                callHandler != null ? callHandler : sessionManager.getDefaultCallHandler());
+    }
 
-        this.initiator = true;
-        this.remoteUserId = peerAddress;
+    /**
+     * Get the session of the call with |peerAddress|.
+     *
+     * @return the session, or null if there is no call with the peer.
+     */
+    @Nullable
+    public CallSession getSession(String peerAddress) {
+        return sessionManager.getSession(peerAddress);
+    }
 
-        // make call, just send offer to remote peer
-        this.setCallState(CallState.CONNECTING);
-        initialCall();
-        // create offer
-        carrierPeerConnectionClient.createOffer();
+    /**
+     * Get the sessions of all the calls in progress.
+     */
+    public List<CallSession> getSessions() {
+        return sessionManager.getSessions();
     }
 
     /**
      * Answer the call.
      */
     public void answerCall() {
-        this.initiator = false;
-        this.setCallState(CallState.CONNECTING);
-
-        initialCall();
-        // set remote sdp
-        carrierPeerConnectionClient.setRemoteDescription(remoteSdp);
-        // create answer
-        carrierPeerConnectionClient.createAnswer();
+        CallSession session = getCurrentSession("answerCall");
+        if (session != null) {
+            session.answerCall();
+        }
     }
 
     /**
      * Hangup/reject the call invitation.
      */
     public void rejectCall() throws WebrtcException {
-        sendBye(CallReason.REJECT);
-    }
-
-    public CallState getCallState() {
-        return this.callState;
+        CallSession session = getCurrentSession("rejectCall");
+        if (session != null) {
+            session.rejectCall();
+        }
     }
 
     /**
-     * Get remote peer address
+     * Configure how local ICE candidates are coalesced before they are sent
+     * over carrier. Candidates are sent when |windowMs| has passed since the
+     * first pending candidate, when |maxCandidates| are pending, or when
+     * gathering completes.
      *
-     * @return {@link String} remote peer address.
+     * @param windowMs batch window, 0 sends every candidate immediately
+     * @param maxCandidates maximum number of candidates in one message
      */
-    public String getPeerAddress() {
-        return this.remoteUserId;
-    }
-
-    public void hangupCall() {
-        this.setCallState(CallState.INIT);
-
-        sendBye(CallReason.NORMAL_HANGUP);
-
-        disconnectFromCallInternal();
-        handler.getLooper().quit();
-        Log.d(TAG, "Disconnect the call with" + remoteUserId);
+    public void setIceCandidateBatching(long windowMs, int maxCandidates) {
+        sessionManager.setIceCandidateBatching(windowMs, maxCandidates);
     }
 
-    public void renderVideo(SurfaceViewRenderer localRenderer, SurfaceViewRenderer remoteRenderer) {
-        if (localRenderer == null || remoteRenderer == null)
-            throw new IllegalArgumentException("Invalid video render");
-
-        this.localVideoRenderer = localRenderer;
-        this.remoteVideoRenderer = remoteRenderer;
-        if (this.eglBase == null) {
-            this.eglBase = EglBase.create();
-        }
-        this.localVideoRenderer.init(eglBase.getEglBaseContext(), null);
-        this.remoteVideoRenderer.init(eglBase.getEglBaseContext(), null);
-        swapVideoRenderer(false);
-    }
-
-    public void swapVideoRenderer(boolean isSwap) {
-        localProxyVideoSink.setTarget(isSwap ? remoteVideoRenderer : localVideoRenderer);
-        remoteProxyVideoSink.setTarget(isSwap ? localVideoRenderer : remoteVideoRenderer);
-        remoteVideoRenderer.setMirror(isSwap);
-        localVideoRenderer.setMirror(!isSwap);
+    /**
+     * Get the local ICE candidate signaling metrics of the current or last call.
+     */
+    @Nullable
+    public IceCandidateBatchStats getIceCandidateBatchStats() {
+        CallSession session = sessionManager.getCurrentSession();
+        return session != null ? session.getIceCandidateBatchStats() : null;
     }
 
-    public void switchCamera() {
-        if (carrierPeerConnectionClient != null)
-            carrierPeerConnectionClient.switchCamera();
+    /**
+     * Enable or disable the compact binary signaling format. When enabled the
+     * capability is advertised in offers and answers, and the binary format is
+     * used once the remote peer advertises it too; messages are sent as json
+     * otherwise. Enabled by default.
+     */
+    public void setBinarySignalingEnabled(boolean enabled) {
+        sessionManager.setBinarySignalingEnabled(enabled);
     }
 
-    public void setResolution(int width, int height, int fps) {
-        if (carrierPeerConnectionClient != null)
-            carrierPeerConnectionClient.changeCaptureFormat(width, height, fps);
+    /**
+     * Keep the peer connection factory, audio device module and EglBase for
+     * |idleTimeoutMs| after the last call ends, so that the next call skips
+     * their creation. 0 releases them when the call ends. Defaults to 30s.
+     */
+    public void setFactoryIdleTimeout(long idleTimeoutMs) {
+        factoryHolder.setIdleTimeout(idleTimeoutMs);
     }
 
-    public void setAudioEnable(boolean enable) {
-        if (carrierPeerConnectionClient != null)
-            carrierPeerConnectionClient.setAudioEnabled(enable);
+    /**
+     * Release the idle peer connection factory now, e.g. when the app goes
+     * to the background. It is created again by the next call.
+     */
+    public void releaseIdleFactory() {
+        handler.post(factoryHolder::disposeIfIdle);
     }
 
-    public void setVideoEnable(boolean enable) {
-        if (carrierPeerConnectionClient != null)
-            carrierPeerConnectionClient.setVideoEnabled(enable);
+    /**
+     * Prepare incoming calls while they ring: the peer connection factory, the
+     * camera and the peer connection are created in the background and ICE
+     * candidates are gathered ahead of the answer, so that media flows sooner
+     * once the call is answered. The camera only starts capturing on answer,
+     * and the prepared connection is dropped if the call is rejected.
+     * Disabled by default.
+     */
+    public void setPrewarmEnabled(boolean enabled) {
+        sessionManager.setPrewarmEnabled(enabled);
     }
 
-    public void setDataEnable(boolean enable) {
-        if (carrierPeerConnectionClient != null) {
-            carrierPeerConnectionClient.setDataChannelEnabled(enable);
-        }
+    /**
+     * Receive the setup phase times of every call, and a summary of each call
+     * when it ends. The summaries carry no peer identity and are serializable,
+     * to be aggregated across calls.
+     *
+     * @param listener the listener, null to stop receiving the timelines.
+     */
+    public void setCallTimelineListener(@Nullable CallTimeline.Listener listener) {
+        sessionManager.setCallTimelineListener(listener);
     }
 
-    public void setMediaEnable(boolean video, boolean audio, boolean data) {
-        setVideoEnable(video);
-        setAudioEnable(audio);
-        setDataEnable(data);
+    /**
+     * Get the setup phase times of the current or last call.
+     */
+    @Nullable
+    public CallTimeline getCallTimeline() {
+        CallSession session = sessionManager.getCurrentSession();
+        return session != null ? session.getCallTimeline() : null;
     }
 
     /**
-     * send data
-     * @param byteBuffer message content
-     * @param binary binary file or plain text
+     * Receive the typed statistics of the current call, at most every
+     * |periodMs|, see {@link CallSession#setStatsListener(RtcStatsListener, int)}.
      */
-    public void sendMessage(ByteBuffer byteBuffer, boolean binary) throws WebrtcException {
-        if (byteBuffer == null) {
-            throw new IllegalArgumentException("byteBuffer can not be null");
+    public void setStatsListener(@Nullable RtcStatsListener listener, int periodMs) {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session != null) {
+            session.setStatsListener(listener, periodMs);
         }
-        if (carrierPeerConnectionClient == null) {
-            throw new IllegalArgumentException("carrierPeerConnectionClient is null");
-        }
-        if (carrierPeerConnectionClient != null) {
-            carrierPeerConnectionClient.sendMessage(new DataChannel.Buffer(byteBuffer, binary));
-        }
-    }
-
-    @Override
-    protected void finalize() throws Throwable {
-        super.finalize();
     }
 
     /**
-     * override CarrierExtension.onFriendInvite
+     * Record a rolling time series of the quality of every call, holding at
+     * most |capacity| stats polls whatever the length of the call, and hand
+     * it over to |listener| when the call ends. Applies to the calls started
+     * afterwards; the stats are polled every second unless a stats listener
+     * sets another period.
      *
-     * @param carrier
-     * @param from
-     * @param data
+     * @param capacity the number of samples per call, 0 to stop recording,
+     *                 see {@link CallQualityRecorder#DEFAULT_CAPACITY}.
+     * @param cpuSampler the source of the CPU usage samples, null to leave them
+     *                   unknown.
+     * @param listener the listener, null to only get the recorder through
+     *                 {@link #getQualityRecorder()}.
      */
-    @Override
-    protected void onFriendInvite(Carrier carrier, String from, String data) {
-        Log.e(TAG, "carrier friend invite onFriendInviteRequest from: " + from);
-        Log.e(TAG, "carrier friend invite onFriendInviteRequest data: " + data);
-        try {
-            replyFriendInvite(from, 0, "", "");
-        } catch (Exception e) {
-            Log.e(TAG, "onFriendInvite: ", e);
-        }
-        if (data != null && (data.contains("msg") ||  data.contains("type"))) {
-            this.remoteUserId = from;
-            onCarrierMessage(data, from);
-            Log.d(TAG, "Get the carrier message: " + data);
-        }
+    public void setQualityRecording(int capacity, @Nullable CpuSampler cpuSampler,
+                                    @Nullable CallQualityRecorder.Listener listener) {
+        sessionManager.setQualityRecording(capacity, cpuSampler, listener);
     }
 
-    // Put a |key|->|value| mapping in |json|.
-    private static void jsonPut(JSONObject json, String key, Object value) {
-        try {
-            json.put(key, value);
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Get the quality time series of the current or last call.
+     */
+    @Nullable
+    public CallQualityRecorder getQualityRecorder() {
+        CallSession session = sessionManager.getCurrentSession();
+        return session != null ? session.getQualityRecorder() : null;
     }
 
-    private void setCallState(CallState callState) {
-        this.callState = callState;
+    /**
+     * Adapt the capture format and the video bitrate of the calls set up from
+     * now on to their available send bandwidth and to the CPU load, see
+     * {@link org.elastos.carrier.webrtc.stats.QualityController}. Off by
+     * default; the capture format then stays as set with
+     * {@link #setResolution(int, int, int)}.
+     */
+    public void setAdaptiveQuality(boolean enabled) {
+        sessionManager.setAdaptiveQuality(enabled);
     }
 
-    // accept the call invite and then send the offer.
-    private void initialCall() {
-        callInitialed = true;
-        Log.d(TAG, "Connect to carrier user: " + remoteUserId);
-        connectionState = ConnectionState.NEW;
-        List<PeerConnection.IceServer> iceServers = getIceServers();
-        signalingParameters = new SignalingParameters(
-                iceServers, initiator, remoteUserId, null, null);
-        Log.d(TAG, "initialCall() from " + (initiator ? "caller" : "callee") + ": " + currentUserId + ", to: " + remoteUserId);
-        if (!signalingParameters.initiator
-                && signalingParameters.offerSdp == null) {
-            Log.w(TAG, "No offer SDP from the caller.");
-        }
-        connectionState = ConnectionState.CONNECTED;
-        // init PeerConnection
-        initialWebrtc();
-        // Fire connection and signaling parameters events.
-        initialCallInternal();
+    /**
+     * Get how long the signaling received over carrier waits before it is
+     * handled, see {@link InviteDispatcherStats}.
+     */
+    public InviteDispatcherStats getInviteDispatcherStats() {
+        return inviteDispatcher.getStats();
     }
 
-    private List<PeerConnection.IceServer> getIceServers() {
-        TurnServerInfo turnServerInfo = null;
-        try {
-            turnServerInfo = getTurnServerInfo();
-        } catch (CarrierException e) {
-            Log.e(TAG, "Get Turn server from carrier network error.");
-        }
-        List<PeerConnection.IceServer> iceServers = new ArrayList<>();
-        if (turnServerInfo != null) {
-            iceServers.add(PeerConnection.IceServer.builder("stun:" + turnServerInfo.getServer() + ":" + turnServerInfo.getPort()).setUsername(turnServerInfo.getUsername()).setPassword(turnServerInfo.getPassword()).createIceServer());
-            iceServers.add(PeerConnection.IceServer.builder("turn:" + turnServerInfo.getServer() + ":" + turnServerInfo.getPort()).setUsername(turnServerInfo.getUsername()).setPassword(turnServerInfo.getPassword()).createIceServer());
-        }
-        return iceServers;
+    /**
+     * Get the cache of the TURN server credentials, for its hit, miss and
+     * fetch latency counters.
+     */
+    public IceServerProvider getIceServerProvider() {
+        return iceServerProvider;
     }
 
-    // Disconnect from call and send bye messages - runs on a local looper thread.
-    private void disconnectFromCallInternal() {
-        callInitialed = false;
-        Log.d(TAG, "Disconnect. Connection state: " + connectionState);
-        if (connectionState == ConnectionState.CONNECTED) {
-            Log.d(TAG, "Closing call.");
-        }
-        this.setCallState(CallState.INIT);
-        connectionState = ConnectionState.CLOSED;
-        release();
+    /**
+     * Tell the client whether the app is in the background, where the calls
+     * poll their statistics much less often.
+     */
+    public void setInBackground(boolean inBackground) {
+        sessionManager.setInBackground(inBackground);
     }
 
-    private void release() {
-        try {
-            remoteProxyVideoSink.setTarget(null);
-            localProxyVideoSink.setTarget(null);
-            if (localVideoRenderer != null) {
-                localVideoRenderer.release();
-                localVideoRenderer = null;
-            }
-            if (remoteVideoRenderer != null) {
-                remoteVideoRenderer.release();
-                remoteVideoRenderer = null;
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "release video renderer error: ", e);
-        }
-        try {
-            if (carrierPeerConnectionClient != null) {
-                carrierPeerConnectionClient.close();
-                carrierPeerConnectionClient = null;
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "release carrier peer connection error: ", e);
-        }
-        try {
-            if (eglBase != null) {
-                eglBase.release();
-                eglBase = null;
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "release: Eglbase error", e);
-        }
+    /**
+     * Get the ICE recoveries of the current or last call, oldest first. A
+     * call whose connection is lost, or whose network changes, restarts ICE
+     * over carrier and is only ended when it does not come back in time.
+     */
+    public List<IceRestartStats> getIceRestartStats() {
+        CallSession session = sessionManager.getCurrentSession();
+        return session != null ? session.getIceRestartStats() : Collections.emptyList();
     }
 
-    // Send local offer SDP to the other participant.
-    private void sendOfferSdp(final SessionDescription sdp) {
-        if (connectionState != ConnectionState.CONNECTED && connectionState != ConnectionState.NEW) {
-            Log.e(TAG, "sendOfferSdp: Sending offer SDP in non connected state.");
-            return;
-        }
-
-        sendOffer(sdp, true, peerConnectionParameters.videoCallEnabled, peerConnectionParameters.dataChannelParameters != null);
-        Log.d(TAG, "sendOfferSdp() from " + currentUserId + ", to: " + remoteUserId);
+    /**
+     * Get the setup latency of the current or last call.
+     */
+    @Nullable
+    public CallSetupStats getCallSetupStats() {
+        CallSession session = sessionManager.getCurrentSession();
+        return session != null ? session.getCallSetupStats() : null;
     }
 
-    // Send local answer SDP to the other participant.
-    private void sendAnswerSdp(final SessionDescription sdp) {
-        sendAnswer(sdp);
-        Log.d(TAG, "sendAnswerSdp() from " + currentUserId + ", to: " + remoteUserId);
+    /**
+     * Get the metrics of the executor running the peer connection calls and
+     * events of the current call.
+     *
+     * @return the metrics, or null if there is no call.
+     */
+    @Nullable
+    public ExecutorStats getPeerConnectionExecutorStats() {
+        CallSession session = sessionManager.getCurrentSession();
+        return session != null ? session.getPeerConnectionExecutorStats() : null;
     }
 
-    // Send Ice candidate to the other participant.
-    private void sendLocalIceCandidate(final IceCandidate candidate) {
-        if (initiator) {
-            // Call initiator sends ice candidates to peer.
-            if (connectionState != ConnectionState.CONNECTED && connectionState != ConnectionState.NEW) {
-                Log.e(TAG, "sendLocalIceCandidate: Sending ICE candidate in non connected state.");
-                return;
-            }
-            sendCandidate(candidate);
-            Log.d(TAG, "sendLocalIceCandidate() from " + currentUserId + ", to: " + remoteUserId);
-        } else {
-            // Call receiver sends ice candidates to peer.
-            sendCandidate(candidate);
-        }
+    public CallState getCallState() {
+        CallSession session = sessionManager.getCurrentSession();
+        return session != null ? session.getCallState() : CallState.INIT;
     }
 
-    // Send removed Ice candidates to the other participant.
-    private void sendLocalIceCandidateRemovals(final IceCandidate[] candidates) {
-        if (initiator) {
-            // Call initiator sends ice candidates to peer.
-            if (connectionState != ConnectionState.CONNECTED && connectionState != ConnectionState.NEW) {
-                Log.e(TAG, "sendLocalIceCandidateRemovals: Sending ICE candidate removals in non connected state.");
-                return;
-            }
-            sendRemovalCandidates(candidates);
-        } else {
-            // Call receiver sends ice candidates to peer.
-            sendRemovalCandidates(candidates);
-        }
-        Log.d(TAG, "sendLocalIceCandidateRemovals() from " + currentUserId + ", to: " + remoteUserId);
+    /**
+     * Get remote peer address
+     *
+     * @return {@link String} remote peer address.
+     */
+    public String getPeerAddress() {
+        CallSession session = sessionManager.getCurrentSession();
+        return session != null ? session.getPeerAddress() : null;
     }
 
-    private void initialWebrtc() {
-        if (eglBase == null) {
-            eglBase = EglBase.create();
-        }
-        // Create peer connection client.
-        carrierPeerConnectionClient = new CarrierPeerConnectionClient(
-                context, getIceServers(), eglBase, peerConnectionParameters, new PCEvents(), callHandler);
-        PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
-        carrierPeerConnectionClient.createPeerConnectionFactory(options);
-    }
-
-    private void handleOffer(JSONObject json) {
-        Log.d(TAG, "handleOffer: ");
-        if (json == null) {
-            Log.e(TAG, "handleOffer: error, json message is null");
-            return;
-        }
-        String sdpStr = json.optString(MessageKey.sdp.name(), "");
-        SessionDescription sdp = new SessionDescription(
-                SessionDescription.Type.fromCanonicalForm("offer"), sdpStr
-        );
-        // save remote sdp
-        remoteSdp = sdp;
-        JSONArray options = json.optJSONArray(MessageKey.options.name());
-        boolean audio = false;
-        boolean video = false;
-        boolean data = false;
-        if (options != null && options.length() > 0) {
-            for (int i = 0; i < options.length(); i++) {
-                String o = options.optString(i, "");
-                if ("audio".equalsIgnoreCase(o)) {
-                    audio = true;
-                }
-                if ("video".equalsIgnoreCase(o)) {
-                    video = true;
-                }
-                if ("data".equalsIgnoreCase(o)) {
-                    data = true;
-                }
-            }
+    public void hangupCall() {
+        CallSession session = getCurrentSession("hangupCall");
+        if (session != null) {
+            session.hangupCall();
         }
-        this.setCallState(CallState.RINGING);
-        signalingParameters = new SignalingParameters(getIceServers(), false, remoteUserId, null, null);
-        // emit user callback
-        callHandler.onInvite(remoteUserId, audio, video, data);
     }
 
-    private void handleAnswer(JSONObject json) {
-        Log.d(TAG, "handleAnswer: ");
-        if (json == null) {
-            Log.e(TAG, "handleAnswer: error, json message is null");
-            return;
-        }
-        String sdpStr = json.optString(MessageKey.sdp.name(), "");
-        SessionDescription sdp = new SessionDescription(
-                SessionDescription.Type.fromCanonicalForm("answer"), sdpStr
-        );
-        remoteSdp = sdp;
-        // set remote sdp
-        carrierPeerConnectionClient.setRemoteDescription(sdp);
-        callHandler.onAnswer();
-    }
-
-    private void handleCandidate(JSONObject json) {
-        if (json == null) {
-            Log.e(TAG, "handleCandidate: handle candidate error, json message is null");
-            return;
-        }
-
-        try {
-            // handle candidate from json message
-            JSONArray array = json.optJSONArray(MessageKey.candidates.name());
-            if (array != null && array.length() > 0) {
-                for (int i = 0; i < array.length(); i++) {
-                    JSONObject cJson = array.optJSONObject(i);
-                    if (callInitialed) {
-                        carrierPeerConnectionClient.addRemoteIceCandidate(toJavaCandidate(cJson));
-                    } else {
-                        if (remoteIceList == null) {
-                            remoteIceList = new ArrayList<>();
-                        }
-                        Log.e(TAG, "handleCandidate: cache ice candidate");
-                        remoteIceList.add(toJavaCandidate(cJson));
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "handleCandidate: ", e);
+    public void renderVideo(SurfaceViewRenderer localRenderer, SurfaceViewRenderer remoteRenderer) {
+        CallSession session = getCurrentSession("renderVideo");
+        if (session != null) {
+            session.renderVideo(localRenderer, remoteRenderer);
         }
     }
 
-    private void handleCandidateRemoval(JSONObject json) {
-        if (json == null) {
-            Log.e(TAG, "handleCandidateRemoval: handle candidate-removal error, json message is null");
-            return;
-        }
-
-        try {
-            // handle candidate removal from json message
-            JSONArray array = json.optJSONArray(MessageKey.candidates.name());
-            if (array != null && array.length() > 0) {
-                IceCandidate[] candidates = new IceCandidate[array.length()];
-                for (int i = 0; i < array.length(); i++) {
-                    JSONObject cJson = array.optJSONObject(i);
-                    candidates[i] = toJavaCandidate(cJson);
-                }
-                carrierPeerConnectionClient.removeRemoteIceCandidates(candidates);
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "handleCandidate: ", e);
+    public void swapVideoRenderer(boolean isSwap) {
+        CallSession session = getCurrentSession("swapVideoRenderer");
+        if (session != null) {
+            session.swapVideoRenderer(isSwap);
         }
     }
 
-    private void handleBye(JSONObject json) {
-        CallReason callReason = null;
-        if (json != null) {
-            int reason = json.optInt(MessageKey.reason.name());
-            callReason = CallReason.valueOf(reason);
-            Log.d(TAG, "handleBye: reason -> " + callReason);
-        }
-        if (callReason == null) {
-            callReason = CallReason.NORMAL_HANGUP;
-        }
-        Log.d(TAG, "handleBye: " + callReason);
-        this.setCallState(CallState.INIT);
-        disconnectFromCallInternal();
-        callHandler.onEndCall(callReason);
+    public void switchCamera() {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session != null)
+            session.switchCamera();
     }
 
-    private void handleReject() {
-        Log.d(TAG, "handleReject: ");
-        this.setCallState(CallState.INIT);
-        callHandler.onEndCall(CallReason.REJECT);
+    public void setResolution(int width, int height, int fps) {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session != null)
+            session.setResolution(width, height, fps);
     }
 
-    // --------------------------------------------------------------------
-    // CarrierChannelEvents interface implementation.
-    // All events are called by CarrierChannelClient on a local looper thread
-    // (passed to Carrier client constructor).
-    private void onCarrierMessage(final String msg, String from) {
-        try {
-            Log.d(TAG, "onCarrierMessage: " + msg);
-            JSONObject json = new JSONObject(msg);
-            String type = json.optString(MessageKey.type.name(), "");
-            MessageType messageType = MessageType.getType(type);
-            if (messageType == null) {
-                Log.e(TAG, "onCarrierMessage: handle call message error, type is null -> " + msg);
-                return;
-            }
-            Log.d(TAG, "onCarrierMessage: handle message -> " + messageType);
-            switch (messageType) {
-                case OFFER:
-                    handleOffer(json);
-                    break;
-                case ANSWER:
-                    handleAnswer(json);
-                    break;
-                case CANDIDATE:
-                    handleCandidate(json);
-                    break;
-                case REMOVAL_CANDIDATES:
-                    handleCandidateRemoval(json);
-                    break;
-                case BYE:
-                    handleBye(json);
-                    break;
-            }
-        } catch (JSONException e) {
-            Log.e(TAG, "onCarrierMessage: error -> " + msg);
-        }
+    public void setAudioEnable(boolean enable) {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session != null)
+            session.setAudioEnable(enable);
     }
 
-    private void initialCallInternal() {
-        VideoCapturer videoCapturer = null;
-        if (peerConnectionParameters.videoCallEnabled) {
-            videoCapturer = createVideoCapturer();
-        }
-        carrierPeerConnectionClient.createPeerConnection(context,
-                localProxyVideoSink, remoteSinks, videoCapturer);
-        if (signalingParameters.offerSdp != null) {
-            carrierPeerConnectionClient.setRemoteDescription(signalingParameters.offerSdp);
-            Log.d(TAG, "initialCallInternal: creating answer");
-            // Create answer. Answer SDP will be sent to offering client in
-            // PeerConnectionEvents.onLocalDescription event.
-            carrierPeerConnectionClient.createAnswer();
-        }
-        if (remoteIceList != null && !remoteIceList.isEmpty()) {
-            for (IceCandidate iceCandidate : remoteIceList) {
-                carrierPeerConnectionClient.addRemoteIceCandidate(iceCandidate);
-            }
-            remoteIceList.clear();
-        }
+    public void setVideoEnable(boolean enable) {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session != null)
+            session.setVideoEnable(enable);
     }
 
-    private @Nullable
-    VideoCapturer createVideoCapturer() {
-        final VideoCapturer videoCapturer;
-        if (useCamera2()) {
-            Logging.d(TAG, "Creating capturer using camera2 API.");
-            videoCapturer = createCameraCapturer(new Camera2Enumerator(context));
-        } else {
-            Logging.d(TAG, "Creating capturer using camera1 API.");
-            videoCapturer = createCameraCapturer(new Camera1Enumerator(false));
-        }
-        if (videoCapturer == null) {
-            reportError("Failed to open camera");
-            return null;
-        }
-        return videoCapturer;
+    public void setDataEnable(boolean enable) {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session != null)
+            session.setDataEnable(enable);
     }
 
-    private boolean useCamera2() {
-        return Camera2Enumerator.isSupported(context);
+    public void setMediaEnable(boolean video, boolean audio, boolean data) {
+        setVideoEnable(video);
+        setAudioEnable(audio);
+        setDataEnable(data);
     }
 
-    private @Nullable
-    VideoCapturer createCameraCapturer(CameraEnumerator enumerator) {
-        final String[] deviceNames = enumerator.getDeviceNames();
-        // First, try to find front facing camera
-        Logging.d(TAG, "Looking for front facing cameras.");
-        for (String deviceName : deviceNames) {
-            if (enumerator.isFrontFacing(deviceName)) {
-                Logging.d(TAG, "Creating front facing camera capturer.");
-                VideoCapturer videoCapturer = enumerator.createCapturer(deviceName, null);
-                if (videoCapturer != null) {
-                    return videoCapturer;
-                }
-            }
-        }
-        // Front facing camera not found, try something else
-        Logging.d(TAG, "Looking for other cameras.");
-        for (String deviceName : deviceNames) {
-            if (!enumerator.isFrontFacing(deviceName)) {
-                Logging.d(TAG, "Creating other camera capturer.");
-                VideoCapturer videoCapturer = enumerator.createCapturer(deviceName, null);
-                if (videoCapturer != null) {
-                    return videoCapturer;
-                }
-            }
+    /**
+     * send data
+     * @param byteBuffer message content
+     * @param binary binary file or plain text
+     */
+    public void sendMessage(ByteBuffer byteBuffer, boolean binary) throws WebrtcException {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session == null) {
+            throw new IllegalArgumentException("carrierPeerConnectionClient is null");
         }
-        return null;
+        session.sendMessage(byteBuffer, binary);
     }
 
-    // --------------------------------------------------------------------
-    // Helper functions.
-    private void reportError(final String errorMessage) {
-        Log.e(TAG, errorMessage);
-        if (connectionState != ConnectionState.ERROR) {
-            connectionState = ConnectionState.ERROR;
-            // events.onChannelError(errorMessage);
-            callHandler.onConnectionError(errorMessage);
+    /**
+     * send data with flow control, see
+     * {@link CallSession#sendMessage(ByteBuffer, boolean, SendCallback)}.
+     */
+    public boolean sendMessage(ByteBuffer byteBuffer, boolean binary,
+                               @Nullable SendCallback callback) {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session == null) {
+            throw new IllegalArgumentException("carrierPeerConnectionClient is null");
         }
+        return session.sendMessage(byteBuffer, binary, callback);
     }
 
-    // Converts a Java candidate to a JSONObject.
-    private JSONObject toJsonCandidate(final IceCandidate candidate) {
-        JSONObject json = new JSONObject();
-        jsonPut(json, "sdpMLineIndex", candidate.sdpMLineIndex);
-        jsonPut(json, "sdpMid", candidate.sdpMid);
-        jsonPut(json, "sdp", candidate.sdp);
-        return json;
+    /**
+     * Start sending video from the camera in the current call, see
+     * {@link CallSession#addVideo()}.
+     */
+    public void addVideo() throws WebrtcException {
+        getCallInProgress().addVideo();
     }
 
-    // Converts a JSON candidate to a Java object.
-    private IceCandidate toJavaCandidate(JSONObject json) throws JSONException {
-        return new IceCandidate(
-                json.getString("sdpMid"), json.getInt("sdpMLineIndex"), json.getString("sdp"));
+    /**
+     * Start sending video from |capturer| in the current call, e.g. to share
+     * the screen, see {@link CallSession#addVideo(VideoCapturer)}.
+     */
+    public void addVideo(VideoCapturer capturer) throws WebrtcException {
+        getCallInProgress().addVideo(capturer);
     }
 
-    // Helper method for debugging purposes. Ensures that Carrier method is
-    // called on a looper thread.
-    private void checkIfCalledOnValidThread() {
-        if (Thread.currentThread() != handler.getLooper().getThread()) {
-            throw new IllegalStateException("Carrier method is not called on valid thread");
-        }
+    /**
+     * Stop sending video in the current call, see {@link CallSession#removeVideo()}.
+     */
+    public void removeVideo() throws WebrtcException {
+        getCallInProgress().removeVideo();
     }
 
-    private void send(String message) {
-        try {
-            // no wrap
-            Log.d(TAG, "Calling control command : " + message);
-            inviteFriend(remoteUserId, message, friendInviteResponseHandler);
-        } catch (CarrierException e) {
-            e.printStackTrace();
-            Log.e(TAG, "send: carrier send message error: " + e.getMessage());
+    private CallSession getCallInProgress() throws WebrtcException {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session == null) {
+            throw new WebrtcException("No call in progress");
         }
+        return session;
     }
 
     /**
-     * send offer sdp to remote peer
-     * @param sdp offer sdp
-     * @param audio enable audio
-     * @param video enable video
+     * Open a named data channel in the current call, see
+     * {@link CallSession#openDataChannel(String, CarrierPeerConnectionClient.DataChannelParameters)}.
      */
-    private void sendOffer(SessionDescription sdp, boolean audio, boolean video, boolean data) {
-        if (sdp == null) {
-            Log.e(TAG, "send offer error, offer sdp is null");
-            return;
-        }
-        JSONObject json = new JSONObject();
-        // offer type
-        jsonPut(json, MessageKey.type.name(), MessageType.OFFER.getValue());
-        // offer sdp
-        jsonPut(json, MessageKey.sdp.name(), sdp.description);
-        // offer options
-        JSONArray options = new JSONArray();
-        if (audio) {
-            options.put("audio");
-        }
-        if (video) {
-            options.put("video");
-        }
-        if (data) {
-            options.put("data");
+    public void openDataChannel(String label, CarrierPeerConnectionClient.DataChannelParameters parameters)
+            throws WebrtcException {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session == null) {
+            throw new WebrtcException("No call in progress");
         }
-        jsonPut(json, MessageKey.options.name(), options);
+        session.openDataChannel(label, parameters);
+    }
 
-        // send json message
-        send(json.toString());
+    public void closeDataChannel(String label) {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session != null) {
+            session.closeDataChannel(label);
+        }
     }
 
     /**
-     * send answer sdp to remote peer
-     * @param sdp answer sdp
+     * send data over the data channel |label| of the current call, see
+     * {@link CallSession#sendMessage(String, ByteBuffer, boolean, SendCallback)}.
      */
-    private void sendAnswer(SessionDescription sdp) {
-        if (sdp == null) {
-            Log.e(TAG, "send answer error, answer sdp is null");
-            return;
+    public boolean sendMessage(String label, ByteBuffer byteBuffer, boolean binary,
+                               @Nullable SendCallback callback) {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session == null) {
+            throw new IllegalArgumentException("carrierPeerConnectionClient is null");
         }
-        JSONObject json = new JSONObject();
-        // answer type
-        jsonPut(json, MessageKey.type.name(), MessageType.ANSWER.getValue());
-        // answer sdp
-        jsonPut(json, MessageKey.sdp.name(), sdp.description);
-
-        // send json message
-        send(json.toString());
+        return session.sendMessage(label, byteBuffer, binary, callback);
     }
 
     /**
-     * send candidate to remote peer
-     * @param candidate ice candidate
+     * Receive the messages of the named data channels of every call. Without
+     * a listener they go to {@link CallHandler#onMessage} like those of the
+     * default channel.
      */
-    private void sendCandidate(IceCandidate candidate) {
-        if (candidate == null) {
-            Log.e(TAG, "send IceCandidate error, candidate is null");
-            return;
-        }
-        JSONObject json = new JSONObject();
-        // candidate type
-        jsonPut(json, MessageKey.type.name(), MessageType.CANDIDATE.getValue());
-        // candidate array
-        JSONArray array = new JSONArray();
-        array.put(toJsonCandidate(candidate));
-        jsonPut(json, MessageKey.candidates.name(), array);
-
-        // send json message
-        send(json.toString());
+    public void setDataChannelListener(@Nullable DataChannelListener listener) {
+        sessionManager.setDataChannelListener(listener);
     }
 
     /**
-     * send candidates to remote peer
-     * @param candidates ice candidates
+     * Receive the messages of every data channel as {@link DataMessage}s in
+     * pooled direct buffers, which the listener must release, instead of
+     * through {@link CallHandler#onMessage} and the
+     * {@link DataChannelListener}. This spares allocating per message at high
+     * message rates. Pass null to go back to the callbacks.
      */
-    private void sendCandidates(IceCandidate[] candidates) {
-        if (candidates == null || candidates.length <= 0) {
-            Log.e(TAG, "send IceCandidates error, candidates is empty");
-            return;
-        }
-        JSONObject json = new JSONObject();
-        // candidate type
-        jsonPut(json, MessageKey.type.name(), MessageType.CANDIDATE.getValue());
-        // candidate array
-        JSONArray array = new JSONArray();
-        for (IceCandidate candidate : candidates) {
-            array.put(toJsonCandidate(candidate));
-        }
-        jsonPut(json, MessageKey.candidates.name(), array);
-
-        // send json message
-        send(json.toString());
+    public void setDataMessageListener(@Nullable DataMessageListener listener) {
+        sessionManager.setDataMessageListener(listener);
     }
 
     /**
-     * send ice candidates removal message to remote peer
-     * @param candidates removal ice candidates
+     * The pool of {@link #setDataMessageListener(DataMessageListener)}, for
+     * its hit and miss counters.
      */
-    private void sendRemovalCandidates(IceCandidate[] candidates) {
-        if (candidates == null || candidates.length <= 0) {
-            Log.e(TAG, "send removal IceCandidates error, candidates is empty");
-            return;
-        }
-
-        JSONObject json = new JSONObject();
-        // candidate type
-        jsonPut(json, MessageKey.type.name(), MessageType.REMOVAL_CANDIDATES.getValue());
-        // candidate array
-        JSONArray array = new JSONArray();
-        for (IceCandidate candidate : candidates) {
-            array.put(toJsonCandidate(candidate));
-        }
-        jsonPut(json, MessageKey.candidates.name(), array);
-
-        // send json message
-        send(json.toString());
+    public BufferPool getBufferPool() {
+        return sessionManager.getBufferPool();
     }
 
     /**
-     * send bye message to remote peer
-     * @param reason bye reason
+     * Send a file to the peer of the current call, see
+     * {@link CallSession#sendFile(FileChannel, String)}.
      */
-    private void sendBye(CallReason reason) {
-        JSONObject json = new JSONObject();
-        jsonPut(json, MessageKey.type.name(), MessageType.BYE.getValue());
-        jsonPut(json, MessageKey.reason.name(), reason.getValue());
-
-        send(json.toString());
+    public FileTransfer sendFile(FileChannel source, String name) throws WebrtcException {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session == null) {
+            throw new WebrtcException("No call in progress");
+        }
+        return session.sendFile(source, name);
     }
 
-    private enum ConnectionState {NEW, CONNECTED, CLOSED, ERROR}
-
     /**
-     * call message keys
+     * Receive the files offered by the peers of every call, and the progress
+     * of all the transfers.
+     *
+     * @param listener the listener, null to reject incoming files.
      */
-    private enum MessageKey {type, sdp, candidates, options, reason}
+    public void setFileTransferListener(@Nullable FileTransferManager.Listener listener) {
+        sessionManager.setFileTransferListener(listener);
+    }
 
     /**
-     * call message types
+     * Get the multiplexed streams of the current call, see
+     * {@link CallSession#getMultiplexer()}.
      */
-    private enum MessageType {
-        OFFER("offer"),
-        ANSWER("answer"),
-        CANDIDATE("candidate"),
-        REMOVAL_CANDIDATES("removal-candidates"),
-        BYE("bye"),
-        ;
-
-        private String value;
-
-        MessageType(String value) {
-            this.value = value;
+    public Multiplexer getMultiplexer() throws WebrtcException {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session == null) {
+            throw new WebrtcException("No call in progress");
         }
+        return session.getMultiplexer();
+    }
 
-        public String getValue() {
-            return value;
-        }
+    /**
+     * Receive the multiplexed messages and requests of the peers of every call.
+     *
+     * @param handler the handler, null to fail the incoming requests.
+     */
+    public void setMultiplexerHandler(@Nullable Multiplexer.Handler handler) {
+        sessionManager.setMultiplexerHandler(handler);
+    }
 
-        public static MessageType getType(String value) {
-            for (MessageType type : values()) {
-                if (type.getValue().equalsIgnoreCase(value)) {
-                    return type;
-                }
-            }
-            return null;
-        }
+    @Override
+    protected void finalize() throws Throwable {
+        super.finalize();
     }
 
     /**
-     * Struct holding the signaling parameters of an webrtc communication.
+     * override CarrierExtension.onFriendInvite
+     *
+     * @param carrier
+     * @param from
+     * @param data
      */
-    private static class SignalingParameters {
-        final List<PeerConnection.IceServer> iceServers;
-        final String remoteUserId;
-        final SessionDescription offerSdp;
-        final List<IceCandidate> iceCandidates;
-        boolean initiator;
+    @Override
+    protected void onFriendInvite(Carrier carrier, String from, String data) {
+        Log.d(TAG, "carrier friend invite onFriendInviteRequest from: " + from);
+        // Replied to, decoded and handled off the carrier thread.
+        inviteDispatcher.dispatch(from, data);
+    }
 
-        SignalingParameters(List<PeerConnection.IceServer> iceServers, boolean initiator,
-                            String remoteUserId, SessionDescription offerSdp,
-                            List<IceCandidate> iceCandidates) {
-            this.iceServers = iceServers;
-            this.initiator = initiator;
-            this.remoteUserId = remoteUserId;
-            this.offerSdp = offerSdp;
-            this.iceCandidates = iceCandidates;
+    // The session the single call methods act on, the most recently created one.
+    @Nullable
+    private CallSession getCurrentSession(String method) {
+        CallSession session = sessionManager.getCurrentSession();
+        if (session == null) {
+            Log.e(TAG, method + ": no call");
         }
+        return session;
     }
 
-    private class CarrierMessageObserver implements FriendInviteResponseHandler {
+    @Nullable
+    private IceServerProvider.Credentials fetchTurnCredentials() throws CarrierException {
+        TurnServerInfo turnServerInfo = getTurnServerInfo();
+        return turnServerInfo != null
+                ? IceServerProvider.Credentials.of(turnServerInfo, System.currentTimeMillis()) : null;
+    }
 
-        @Override
-        public void onReceived(String from, int status, String reason, String data) {
-            Log.e(TAG, "carrier friend invite  onReceived from: " + from);
+    // Helper method for debugging purposes. Ensures that Carrier method is
+    // called on a looper thread.
+    private void checkIfCalledOnValidThread() {
+        if (Thread.currentThread() != handler.getLooper().getThread()) {
+            throw new IllegalStateException("Carrier method is not called on valid thread");
         }
     }
 
     /**
-     * PeerConnectionEvents implement
+     * Sends the signaling of the sessions as carrier friend invites.
      */
-    private class PCEvents implements PeerConnectionEvents {
+    private class CarrierTransport implements CallSessionManager.Transport {
         @Override
-        public void onLocalDescription(SessionDescription sdp) {
-            if (initiator) {
-                sendOfferSdp(sdp);
-            } else {
-                sendAnswerSdp(sdp);
+        public void send(String peerId, String data) throws WebrtcException {
+            try {
+                inviteFriend(peerId, data, friendInviteResponseHandler);
+            } catch (CarrierException e) {
+                e.printStackTrace();
+                throw new WebrtcException("carrier send message error: " + e.getMessage());
             }
         }
 
         @Override
-        public void onIceCandidate(IceCandidate candidate) {
-            sendLocalIceCandidate(candidate);
-        }
-
-        @Override
-        public void onIceCandidatesRemoved(IceCandidate[] candidates) {
-            sendLocalIceCandidateRemovals(candidates);
-        }
-
-        @Override
-        public void onIceConnected() {
-            callHandler.onIceConnected();
-        }
-
-        @Override
-        public void onIceDisconnected() {
-            callHandler.onIceDisConnected();
-        }
-
-        @Override
-        public void onConnected() {
-            setCallState(CallState.ACTIVE);
-            callHandler.onActive();
-        }
-
-        @Override
-        public void onDisconnected() {
-            callHandler.onEndCall(CallReason.NORMAL_HANGUP);
-        }
-
-        @Override
-        public void onPeerConnectionClosed() {
-            callHandler.onConnectionClosed();
+        public List<PeerConnection.IceServer> getIceServers() {
+            return iceServerProvider.getIceServers();
         }
+    }
 
-        @Override
-        public void onPeerConnectionStatsReady(StatsReport[] reports) {
-        }
+    private class CarrierMessageObserver implements FriendInviteResponseHandler {
 
         @Override
-        public void onPeerConnectionError(String description) {
-            callHandler.onConnectionError(description);
+        public void onReceived(String from, int status, String reason, String data) {
+            Log.e(TAG, "carrier friend invite  onReceived from: " + from);
         }
-
     }
 }
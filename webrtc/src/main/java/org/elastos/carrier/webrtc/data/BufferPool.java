@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct buffers in power of two size classes, from
+ * {@link #MIN_BUFFER_SIZE} to {@link #MAX_BUFFER_SIZE}, receiving the data
+ * channel messages without allocating per message.
+ *
+ * <p>Each class keeps at most |maxPooledBytesPerClass| of free buffers, the
+ * buffers released beyond are left to the GC. Larger messages get an unpooled
+ * buffer. Buffers are handed out as ref-counted {@link DataMessage}s.
+ */
+public class BufferPool {
+    public static final int MIN_BUFFER_SIZE = 256;
+    /**
+     * The largest message libwebrtc delivers.
+     */
+    public static final int MAX_BUFFER_SIZE = 256 * 1024;
+    public static final int DEFAULT_MAX_POOLED_BYTES_PER_CLASS = 1024 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    private static final int CLASS_COUNT =
+            Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SHIFT + 1;
+
+    private final ArrayDeque<ByteBuffer>[] freeLists;
+    private final int[] maxFreeBuffers;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong oversized = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong outstanding = new AtomicLong();
+
+    public BufferPool() {
+        this(DEFAULT_MAX_POOLED_BYTES_PER_CLASS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(int maxPooledBytesPerClass) {
+        if (maxPooledBytesPerClass < 0) {
+            throw new IllegalArgumentException("Invalid pool size: " + maxPooledBytesPerClass);
+        }
+        freeLists = new ArrayDeque[CLASS_COUNT];
+        maxFreeBuffers = new int[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            freeLists[i] = new ArrayDeque<>();
+            maxFreeBuffers[i] = maxPooledBytesPerClass / classSize(i);
+        }
+    }
+
+    /**
+     * Copy a message, e.g. the buffer of {@code DataChannel.Observer.onMessage},
+     * into a pooled buffer.
+     *
+     * @param label the data channel the message was received on.
+     * @return the message, to be released once consumed.
+     */
+    public DataMessage copyOf(String label, ByteBuffer data, boolean binary) {
+        ByteBuffer buffer = acquire(data.remaining());
+        buffer.put(data.duplicate());
+        buffer.flip();
+        return new DataMessage(this, label, buffer, binary);
+    }
+
+    /**
+     * Get a cleared direct buffer whose limit is |size|.
+     */
+    ByteBuffer acquire(int size) {
+        outstanding.incrementAndGet();
+        int sizeClass = sizeClass(size);
+        if (sizeClass < 0) {
+            oversized.incrementAndGet();
+            return ByteBuffer.allocateDirect(size);
+        }
+        ByteBuffer buffer;
+        ArrayDeque<ByteBuffer> freeList = freeLists[sizeClass];
+        synchronized (freeList) {
+            buffer = freeList.poll();
+        }
+        if (buffer != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect(classSize(sizeClass));
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        outstanding.decrementAndGet();
+        int capacity = buffer.capacity();
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0 || classSize(sizeClass) != capacity) {
+            return;
+        }
+        ArrayDeque<ByteBuffer> freeList = freeLists[sizeClass];
+        synchronized (freeList) {
+            if (freeList.size() < maxFreeBuffers[sizeClass]) {
+                freeList.push(buffer);
+                return;
+            }
+        }
+        discarded.incrementAndGet();
+    }
+
+    /**
+     * Messages that reused a pooled buffer.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Messages that allocated a buffer of their size class.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Messages larger than {@link #MAX_BUFFER_SIZE}, never pooled.
+     */
+    public long getOversizedCount() {
+        return oversized.get();
+    }
+
+    /**
+     * Released buffers dropped because their class was full.
+     */
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    /**
+     * Messages not released yet, which keep growing if the app leaks them.
+     */
+    public long getOutstandingCount() {
+        return outstanding.get();
+    }
+
+    /**
+     * Bytes held by the free buffers.
+     */
+    public long getPooledBytes() {
+        long bytes = 0;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            synchronized (freeLists[i]) {
+                bytes += (long) freeLists[i].size() * classSize(i);
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{hits " + hits.get() + ", misses " + misses.get() + ", oversized "
+                + oversized.get() + ", discarded " + discarded.get() + ", outstanding "
+                + outstanding.get() + ", pooled " + getPooledBytes() + " bytes}";
+    }
+
+    // Index of the smallest class holding |size| bytes, -1 if none does.
+    private static int sizeClass(int size) {
+        if (size > MAX_BUFFER_SIZE) {
+            return -1;
+        }
+        if (size <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    private static int classSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_SHIFT);
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.DataChannel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Flow control of the messages sent over a data channel.
+ *
+ * <p>Messages are handed over to the channel while its buffered amount stays
+ * under the high watermark, and queued otherwise. The queue is drained from
+ * {@link #onBufferedAmountChange()} once the buffered amount falls to the low
+ * watermark, so that the SCTP send buffer is neither overrun, which closes the
+ * channel, nor left empty. The queue is bounded: sends that would exceed
+ * |maxPendingBytes| fail immediately, which is the backpressure signal to the
+ * caller; see {@link #isQueueFull(String)}. The drain listener tells such a
+ * caller when the queue has drained and it can send again.
+ *
+ * <p>The native channel runs its calls on the webrtc signaling thread and
+ * waits for them, and a send fires {@link #onBufferedAmountChange()} on that
+ * thread before it returns. So the channel is never called holding the lock
+ * of the sender: one thread at a time, the drainer, hands the queued messages
+ * over in order, and the other sends and drain events only queue or flag
+ * more work for it.
+ */
+public class DataChannelSender {
+    public static final long DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+    public static final long DEFAULT_LOW_WATERMARK = 256 * 1024;
+    public static final long DEFAULT_MAX_PENDING_BYTES = 8 * 1024 * 1024;
+
+    private static final String QUEUE_FULL = "Send queue full";
+
+    /**
+     * The data channel as seen by the sender.
+     */
+    public interface Channel {
+        long bufferedAmount();
+
+        boolean send(DataChannel.Buffer buffer);
+    }
+
+    private static class Pending {
+        final DataChannel.Buffer buffer;
+        final int size;
+        @Nullable
+        final SendCallback callback;
+        // Guarded by the sender.
+        boolean failed;
+
+        Pending(DataChannel.Buffer buffer, @Nullable SendCallback callback) {
+            this.buffer = buffer;
+            this.size = buffer.data.remaining();
+            this.callback = callback;
+        }
+    }
+
+    private final Channel channel;
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final long maxPendingBytes;
+    // Guarded by this.
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private long pendingBytes;
+    private long sentBytes;
+    private long sentCount;
+    private long queuedCount;
+    private long rejectedCount;
+    @Nullable
+    private String closedReason;
+    // A thread is handing the queue over to the channel, see drain().
+    private boolean draining;
+    // The buffered amount fell while draining, the drainer checks it again.
+    private boolean drainAgain;
+    // A send was rejected since the drain listener was last called.
+    private boolean rejected;
+    @Nullable
+    private Runnable drainListener;
+
+    public DataChannelSender(Channel channel) {
+        this(channel, DEFAULT_HIGH_WATERMARK, DEFAULT_LOW_WATERMARK, DEFAULT_MAX_PENDING_BYTES);
+    }
+
+    public DataChannelSender(Channel channel, long highWatermark, long lowWatermark,
+                             long maxPendingBytes) {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark || maxPendingBytes < 0) {
+            throw new IllegalArgumentException("Invalid flow control: high watermark "
+                    + highWatermark + ", low watermark " + lowWatermark
+                    + ", max pending " + maxPendingBytes);
+        }
+        this.channel = channel;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * Set the listener called, on the thread draining the queue, once the
+     * queue has drained after a send was rejected because the queue was full.
+     */
+    public synchronized void setDrainListener(@Nullable Runnable listener) {
+        this.drainListener = listener;
+    }
+
+    /**
+     * Whether the failure |reason| of a send is the queue being full, a
+     * transient failure, as opposed to the channel failing or closing.
+     */
+    public static boolean isQueueFull(String reason) {
+        return reason.startsWith(QUEUE_FULL);
+    }
+
+    /**
+     * Send |buffer| now if the channel has room for it, or queue it.
+     *
+     * @param callback notified once the message is handed over or dropped.
+     * @return false if the message was dropped right away, the queue being
+     * full, the sender closed or the channel failing.
+     */
+    public boolean send(DataChannel.Buffer buffer, @Nullable SendCallback callback) {
+        Pending message = new Pending(buffer, callback);
+        String error = null;
+        synchronized (this) {
+            if (closedReason != null) {
+                error = closedReason;
+            } else if (!pending.isEmpty() && pendingBytes + message.size > maxPendingBytes) {
+                rejectedCount++;
+                rejected = true;
+                error = QUEUE_FULL + ": " + pendingBytes + " bytes pending";
+            } else {
+                pending.add(message);
+                pendingBytes += message.size;
+                if (draining) {
+                    queuedCount++;
+                    return true;
+                }
+                draining = true;
+            }
+        }
+        if (error != null) {
+            complete(message, error);
+            return false;
+        }
+        drain();
+        synchronized (this) {
+            if (pending.contains(message)) {
+                queuedCount++;
+            }
+            return !message.failed;
+        }
+    }
+
+    /**
+     * Drain the queue once the buffered amount of the channel is back to the
+     * low watermark. To be called from {@code DataChannel.Observer}, also
+     * while a send of this sender is in progress.
+     */
+    public void onBufferedAmountChange() {
+        if (channel.bufferedAmount() > lowWatermark) {
+            return;
+        }
+        synchronized (this) {
+            if (draining) {
+                drainAgain = true;
+                return;
+            }
+            if (pending.isEmpty() && !rejected) {
+                return;
+            }
+            draining = true;
+        }
+        drain();
+    }
+
+    /**
+     * Fail the queued messages and the later sends, e.g. when the channel closes.
+     */
+    public void close(String reason) {
+        List<Pending> dropped;
+        synchronized (this) {
+            if (closedReason != null) {
+                return;
+            }
+            closedReason = reason;
+            rejected = false;
+            dropped = takeAllFailed();
+        }
+        for (Pending message : dropped) {
+            complete(message, reason);
+        }
+    }
+
+    /**
+     * Bytes queued, waiting for the channel to drain.
+     */
+    public synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Bytes handed over to the channel.
+     */
+    public synchronized long getSentBytes() {
+        return sentBytes;
+    }
+
+    public synchronized long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * Messages that had to wait for the channel to drain.
+     */
+    public synchronized long getQueuedCount() {
+        return queuedCount;
+    }
+
+    /**
+     * Messages dropped because the queue was full.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DataChannelSender{sent " + sentCount + " (" + sentBytes + " bytes), queued "
+                + queuedCount + ", rejected " + rejectedCount + ", pending " + pending.size()
+                + " (" + pendingBytes + " bytes)}";
+    }
+
+    // Hand the queue over to the channel while it has room, by the thread
+    // that set |draining|, which this clears once done.
+    private void drain() {
+        while (true) {
+            Pending message;
+            Runnable drained = null;
+            synchronized (this) {
+                message = pending.peek();
+                if (message == null) {
+                    draining = false;
+                    drainAgain = false;
+                    if (rejected && closedReason == null) {
+                        rejected = false;
+                        drained = drainListener;
+                    }
+                }
+            }
+            if (message == null) {
+                if (drained != null) {
+                    drained.run();
+                }
+                return;
+            }
+            if (!hasRoomFor(message.size)) {
+                synchronized (this) {
+                    if (drainAgain) {
+                        drainAgain = false;
+                        continue;
+                    }
+                    draining = false;
+                    return;
+                }
+            }
+            synchronized (this) {
+                if (pending.peek() != message) {
+                    // Failed by close() in the meantime.
+                    continue;
+                }
+                pending.poll();
+                pendingBytes -= message.size;
+            }
+            boolean sent = channel.send(message.buffer);
+            List<Pending> dropped = null;
+            synchronized (this) {
+                if (sent) {
+                    sentBytes += message.size;
+                    sentCount++;
+                } else {
+                    // The channel is failing, drop the rest.
+                    message.failed = true;
+                    dropped = takeAllFailed();
+                }
+            }
+            complete(message, sent ? null : "Data channel send failed");
+            if (dropped != null) {
+                for (Pending failed : dropped) {
+                    complete(failed, "Data channel send failed");
+                }
+            }
+        }
+    }
+
+    private List<Pending> takeAllFailed() {
+        List<Pending> taken = new ArrayList<>(pending);
+        for (Pending message : taken) {
+            message.failed = true;
+        }
+        pending.clear();
+        pendingBytes = 0;
+        return taken;
+    }
+
+    // A message larger than the high watermark still goes once the channel is empty.
+    private boolean hasRoomFor(int size) {
+        long bufferedAmount = channel.bufferedAmount();
+        return bufferedAmount + size <= highWatermark || bufferedAmount == 0;
+    }
+
+    private static void complete(Pending message, @Nullable String error) {
+        if (message.callback == null) {
+            return;
+        }
+        if (error == null) {
+            message.callback.onSent();
+        } else {
+            message.callback.onFailed(error);
+        }
+    }
+}
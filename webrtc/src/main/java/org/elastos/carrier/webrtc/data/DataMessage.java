@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A data channel message received into a pooled direct buffer, see
+ * {@link BufferPool}. The message starts with one reference, held by the
+ * receiver of {@link DataMessageListener#onMessage(DataMessage)}; the buffer
+ * goes back to the pool when the last reference is released, after which
+ * the data must no longer be read.
+ */
+public class DataMessage {
+    private final BufferPool pool;
+    private final String label;
+    private final ByteBuffer data;
+    private final boolean binary;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    DataMessage(BufferPool pool, String label, ByteBuffer data, boolean binary) {
+        this.pool = pool;
+        this.label = label;
+        this.data = data;
+        this.binary = binary;
+    }
+
+    /**
+     * Label of the data channel the message was received on.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * The content, a new view of the message buffer on each call.
+     */
+    public ByteBuffer getData() {
+        checkReferenced();
+        return data.asReadOnlyBuffer();
+    }
+
+    public int size() {
+        return data.limit();
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Add a reference, e.g. before handing the message over to another thread.
+     */
+    public DataMessage retain() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Message already released");
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Drop a reference, returning the buffer to the pool with the last one.
+     */
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            pool.release(data);
+        } else if (count < 0) {
+            refCount.incrementAndGet();
+            throw new IllegalStateException("Message already released");
+        }
+    }
+
+    public int getRefCount() {
+        return Math.max(refCount.get(), 0);
+    }
+
+    private void checkReferenced() {
+        if (refCount.get() <= 0) {
+            throw new IllegalStateException("Message already released");
+        }
+    }
+}
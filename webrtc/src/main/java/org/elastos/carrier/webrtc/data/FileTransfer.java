@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import androidx.annotation.Nullable;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * A file sent or received over the data channel of a call, see
+ * {@link FileTransferManager}.
+ */
+public class FileTransfer {
+    /**
+     * transfer states
+     */
+    public enum State {
+        /** offered to the receiver, waiting for its answer */
+        OFFERED,
+        TRANSFERRING,
+        /** the data channel failed, waiting to resume from the last acknowledged offset */
+        SUSPENDED,
+        COMPLETED,
+        FAILED,
+        CANCELLED,
+    }
+
+    private final FileTransferManager manager;
+    private final long id;
+    private final String name;
+    private final long size;
+    private final int chunkSize;
+    private final boolean outgoing;
+    private volatile State state;
+    private volatile long transferredBytes;
+
+    // Engine state, confined to the executor of the manager.
+    @Nullable
+    FileChannel channel;
+    // Sender: next offset to read and send. Receiver: next offset expected.
+    long nextOffset;
+    // Receiver: offset of the last NACK, not repeated for the chunks in flight.
+    long nackedOffset = -1;
+    // Sender: bumped on suspension, so that failures of the frames sent
+    // before do not suspend the resumed transfer.
+    int generation;
+    // Sender: the send queue was full, waiting for it to drain.
+    boolean paused;
+
+    FileTransfer(FileTransferManager manager, long id, String name, long size, int chunkSize,
+                 boolean outgoing, State state) {
+        this.manager = manager;
+        this.id = id;
+        this.name = name;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.outgoing = outgoing;
+        this.state = state;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Name given by the sender, not a path.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public boolean isOutgoing() {
+        return outgoing;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Bytes acknowledged by the receiver of an outgoing file, or written of
+     * an incoming one.
+     */
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    public boolean isDone() {
+        State state = this.state;
+        return state == State.COMPLETED || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    /**
+     * Stop the transfer and tell the peer. The file channel is left open.
+     */
+    public void cancel() {
+        manager.cancel(this, "Cancelled");
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    void setTransferredBytes(long transferredBytes) {
+        this.transferredBytes = transferredBytes;
+    }
+
+    @Override
+    public String toString() {
+        return (outgoing ? "outgoing" : "incoming") + " file " + name + " (" + id + "): "
+                + state + ", " + transferredBytes + "/" + size + " bytes";
+    }
+}
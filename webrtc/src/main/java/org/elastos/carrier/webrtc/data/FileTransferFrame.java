@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import androidx.annotation.Nullable;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Binary frames of the file transfer protocol, sent as binary data channel
+ * messages: the magic "CFT1", the frame type, the transfer id, then the
+ * fields of the type. Integers are big-endian, strings a short length
+ * followed by utf-8 bytes.
+ *
+ * <pre>
+ * OFFER  size:long chunkSize:int name:string   sender -> receiver
+ * ACCEPT offset:long                           receiver -> sender
+ * CHUNK  offset:long crc32:int payload         sender -> receiver
+ * ACK    offset:long                           receiver -> sender
+ * NACK   offset:long                           receiver -> sender
+ * CANCEL reason:string                         both ways
+ * </pre>
+ */
+final class FileTransferFrame {
+    static final int MAGIC = 0x43465431;
+    static final byte OFFER = 1;
+    static final byte ACCEPT = 2;
+    static final byte CHUNK = 3;
+    static final byte ACK = 4;
+    static final byte NACK = 5;
+    static final byte CANCEL = 6;
+
+    static final int HEADER_SIZE = 4 + 1 + 8;
+    static final int CHUNK_HEADER_SIZE = HEADER_SIZE + 8 + 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_STRING_BYTES = 0xffff;
+
+    final byte type;
+    final long transferId;
+    // OFFER
+    long size;
+    int chunkSize;
+    @Nullable
+    String name;
+    // ACCEPT, CHUNK, ACK and NACK
+    long offset;
+    // CHUNK
+    int crc;
+    @Nullable
+    ByteBuffer payload;
+    // CANCEL
+    @Nullable
+    String reason;
+
+    private FileTransferFrame(byte type, long transferId) {
+        this.type = type;
+        this.transferId = transferId;
+    }
+
+    /**
+     * Whether |data| starts like a frame, without consuming it.
+     */
+    static boolean isFrame(ByteBuffer data) {
+        return data.remaining() >= HEADER_SIZE && data.getInt(data.position()) == MAGIC;
+    }
+
+    /**
+     * Parse a frame, whose payload is a view of |data|.
+     *
+     * @throws IllegalArgumentException if |data| is not a valid frame.
+     */
+    static FileTransferFrame decode(ByteBuffer data) {
+        ByteBuffer in = data.slice();
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a file transfer frame");
+            }
+            FileTransferFrame frame = new FileTransferFrame(in.get(), in.getLong());
+            switch (frame.type) {
+                case OFFER:
+                    frame.size = in.getLong();
+                    frame.chunkSize = in.getInt();
+                    frame.name = getString(in);
+                    if (frame.size < 0 || frame.chunkSize <= 0) {
+                        throw new IllegalArgumentException("Invalid offer: size " + frame.size
+                                + ", chunk size " + frame.chunkSize);
+                    }
+                    break;
+                case ACCEPT:
+                case ACK:
+                case NACK:
+                    frame.offset = in.getLong();
+                    break;
+                case CHUNK:
+                    frame.offset = in.getLong();
+                    frame.crc = in.getInt();
+                    frame.payload = in.slice();
+                    break;
+                case CANCEL:
+                    frame.reason = getString(in);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown file transfer frame: " + frame.type);
+            }
+            return frame;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated file transfer frame", e);
+        }
+    }
+
+    static ByteBuffer offer(long transferId, long size, int chunkSize, String name) {
+        byte[] nameBytes = toBytes(name);
+        ByteBuffer out = header(OFFER, transferId, 8 + 4 + 2 + nameBytes.length);
+        out.putLong(size).putInt(chunkSize);
+        out.putShort((short) nameBytes.length).put(nameBytes);
+        out.flip();
+        return out;
+    }
+
+    static ByteBuffer offset(byte type, long transferId, long offset) {
+        ByteBuffer out = header(type, transferId, 8);
+        out.putLong(offset);
+        out.flip();
+        return out;
+    }
+
+    static ByteBuffer cancel(long transferId, String reason) {
+        byte[] reasonBytes = toBytes(reason);
+        ByteBuffer out = header(CANCEL, transferId, 2 + reasonBytes.length);
+        out.putShort((short) reasonBytes.length).put(reasonBytes);
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Start a CHUNK frame with room for |payloadSize| bytes: the payload is to
+     * be written at the position of the returned buffer, then the frame
+     * completed by {@link #finishChunk(ByteBuffer)}.
+     */
+    static ByteBuffer startChunk(long transferId, long offset, int payloadSize) {
+        ByteBuffer out = header(CHUNK, transferId, 8 + 4 + payloadSize);
+        out.putLong(offset);
+        out.putInt(0);
+        return out;
+    }
+
+    /**
+     * Fill in the checksum of a chunk whose payload was written, and flip it
+     * for sending.
+     */
+    static ByteBuffer finishChunk(ByteBuffer chunk) {
+        chunk.flip();
+        ByteBuffer payload = chunk.duplicate();
+        payload.position(CHUNK_HEADER_SIZE);
+        chunk.putInt(CHUNK_HEADER_SIZE - 4, crc32(payload));
+        return chunk;
+    }
+
+    static int crc32(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        if (data.hasArray()) {
+            crc.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            ByteBuffer copy = data.duplicate();
+            byte[] bytes = new byte[copy.remaining()];
+            copy.get(bytes);
+            crc.update(bytes, 0, bytes.length);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static ByteBuffer header(byte type, long transferId, int bodySize) {
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + bodySize);
+        out.putInt(MAGIC).put(type).putLong(transferId);
+        return out;
+    }
+
+    private static byte[] toBytes(String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("String too long: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,546 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * Transfers files of any size over the data channel of a call.
+ *
+ * <p>Files are streamed from and to {@link FileChannel}s in chunks of
+ * |chunkSize|, so they are never held on the heap, and each chunk carries a
+ * CRC32 checksum. The sender keeps up to |window| chunks in flight ahead of
+ * the receiver's acknowledgments; a chunk failing its checksum is
+ * acknowledged negatively and the sender goes back to it. When the data
+ * channel fails, e.g. while ICE restarts, outgoing transfers are suspended
+ * and {@link #resumeAll()} offers them again, the receiver answering with the
+ * offset it has written up to. A transfer whose frame is rejected because the
+ * send queue is full only pauses, and continues from that frame once
+ * {@link #onSendQueueDrained()} is called.
+ *
+ * <p>The frames, see {@link FileTransferFrame}, are binary messages
+ * recognized by their magic number and are not delivered to the app. All
+ * the transfers run on one serial executor, which also does the file I/O and
+ * calls the {@link Listener}. The file channels are owned by the app, which
+ * closes them once a transfer is done.
+ */
+public class FileTransferManager {
+    private static final String TAG = "FileTransferManager";
+
+    /**
+     * Chunk payload size, well under the 64 KiB message size every SCTP
+     * implementation accepts.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+    /**
+     * Chunks in flight ahead of the receiver, 256 KiB with the default chunk
+     * size, under the low watermark of {@link DataChannelSender}.
+     */
+    public static final int DEFAULT_WINDOW = 16;
+
+    // Completed incoming transfers remembered to answer a repeated offer.
+    private static final int MAX_COMPLETED_INCOMING = 64;
+
+    /**
+     * The data channel as seen by the transfers.
+     */
+    public interface Link {
+        /**
+         * Send |frame| as a binary message, see
+         * {@link DataChannelSender#send(org.webrtc.DataChannel.Buffer, SendCallback)}.
+         */
+        boolean send(ByteBuffer frame, @Nullable SendCallback callback);
+    }
+
+    /**
+     * Receives the incoming transfers and the progress of all the transfers,
+     * on the executor of the transfers. Callbacks must not block.
+     */
+    public interface Listener {
+        /**
+         * A file is offered by the peer.
+         *
+         * @return the channel to write the file to, from its start, or null to
+         * reject the file.
+         */
+        @Nullable
+        FileChannel onIncomingTransfer(FileTransfer transfer);
+
+        void onProgress(FileTransfer transfer);
+
+        void onCompleted(FileTransfer transfer);
+
+        /**
+         * The transfer failed or was cancelled by either side.
+         */
+        void onFailed(FileTransfer transfer, String reason);
+    }
+
+    private final Link link;
+    private final Executor executor;
+    private final int chunkSize;
+    private final int window;
+    private final Random random = new Random();
+    @Nullable
+    private volatile Listener listener;
+    // Confined to the executor.
+    private final Map<Long, FileTransfer> outgoing = new HashMap<>();
+    private final Map<Long, FileTransfer> incoming = new HashMap<>();
+    // Id to size of the last completed incoming transfers, to answer an offer
+    // repeated because the last acknowledgment was lost.
+    private final Map<Long, Long> completedIncoming = new LinkedHashMap<Long, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > MAX_COMPLETED_INCOMING;
+        }
+    };
+    private boolean closed;
+
+    public FileTransferManager(Link link, Executor executor) {
+        this(link, executor, DEFAULT_CHUNK_SIZE, DEFAULT_WINDOW);
+    }
+
+    public FileTransferManager(Link link, Executor executor, int chunkSize, int window) {
+        if (chunkSize <= 0 || window <= 0) {
+            throw new IllegalArgumentException("Invalid file transfer: chunk size " + chunkSize
+                    + ", window " + window);
+        }
+        this.link = link;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.window = window;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Offer the content of |source|, from its start to its current size, to
+     * the peer.
+     *
+     * @param name the name of the file for the receiver.
+     */
+    public FileTransfer send(FileChannel source, String name) throws IOException {
+        FileTransfer transfer = new FileTransfer(this, random.nextLong() & Long.MAX_VALUE, name,
+                source.size(), chunkSize, true, FileTransfer.State.OFFERED);
+        transfer.channel = source;
+        executor.execute(() -> {
+            if (closed) {
+                finish(transfer, FileTransfer.State.FAILED, "Closed");
+                return;
+            }
+            outgoing.put(transfer.getId(), transfer);
+            sendOffer(transfer);
+        });
+        return transfer;
+    }
+
+    /**
+     * Offer the suspended outgoing transfers again, once the data channel is
+     * usable again.
+     */
+    public void resumeAll() {
+        executor.execute(() -> {
+            for (FileTransfer transfer : outgoing.values()) {
+                if (transfer.getState() == FileTransfer.State.SUSPENDED) {
+                    Log.d(TAG, "Resuming " + transfer);
+                    transfer.setState(FileTransfer.State.OFFERED);
+                    sendOffer(transfer);
+                }
+            }
+        });
+    }
+
+    /**
+     * Continue the outgoing transfers paused on a full send queue, once the
+     * queue has drained, see {@link DataChannelSender#setDrainListener(Runnable)}.
+     */
+    public void onSendQueueDrained() {
+        executor.execute(() -> {
+            // Sending may finish a transfer, removing it from |outgoing|.
+            for (FileTransfer transfer : new ArrayList<>(outgoing.values())) {
+                if (transfer.paused && !transfer.isDone()) {
+                    Log.d(TAG, "Continuing " + transfer);
+                    transfer.paused = false;
+                    if (transfer.getState() == FileTransfer.State.OFFERED) {
+                        sendOffer(transfer);
+                    } else {
+                        pump(transfer);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Handle a data channel message.
+     *
+     * @return true if it was a file transfer frame, not to be delivered to the app.
+     */
+    public boolean onMessage(ByteBuffer data) {
+        if (!FileTransferFrame.isFrame(data)) {
+            return false;
+        }
+        // The message buffer is only valid during the observer callback.
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data.duplicate());
+        copy.flip();
+        executor.execute(() -> onFrame(copy));
+        return true;
+    }
+
+    /**
+     * Fail the unfinished transfers and the later ones, when the connection
+     * is closed.
+     */
+    public void close(String reason) {
+        executor.execute(() -> {
+            closed = true;
+            List<FileTransfer> transfers = new ArrayList<>(outgoing.values());
+            transfers.addAll(incoming.values());
+            outgoing.clear();
+            incoming.clear();
+            for (FileTransfer transfer : transfers) {
+                finish(transfer, FileTransfer.State.FAILED, reason);
+            }
+        });
+    }
+
+    void cancel(FileTransfer transfer, String reason) {
+        executor.execute(() -> {
+            if (!transfer.isDone()) {
+                link.send(FileTransferFrame.cancel(transfer.getId(), reason), null);
+                finish(transfer, FileTransfer.State.CANCELLED, reason);
+            }
+        });
+    }
+
+    private void onFrame(ByteBuffer data) {
+        FileTransferFrame frame;
+        try {
+            frame = FileTransferFrame.decode(data);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid file transfer frame", e);
+            return;
+        }
+        if (frame.type == FileTransferFrame.OFFER) {
+            onOffer(frame);
+            return;
+        }
+        boolean fromReceiver = frame.type != FileTransferFrame.CHUNK;
+        FileTransfer transfer = fromReceiver ? outgoing.get(frame.transferId)
+                : incoming.get(frame.transferId);
+        if (transfer == null && frame.type == FileTransferFrame.CANCEL) {
+            transfer = incoming.get(frame.transferId);
+        }
+        if (transfer == null || transfer.isDone()) {
+            Log.d(TAG, "Frame " + frame.type + " of unknown transfer " + frame.transferId);
+            return;
+        }
+        switch (frame.type) {
+            case FileTransferFrame.ACCEPT:
+                onAccept(transfer, frame.offset);
+                break;
+            case FileTransferFrame.CHUNK:
+                onChunk(transfer, frame);
+                break;
+            case FileTransferFrame.ACK:
+                onAck(transfer, frame.offset);
+                break;
+            case FileTransferFrame.NACK:
+                onNack(transfer, frame.offset);
+                break;
+            case FileTransferFrame.CANCEL:
+                finish(transfer, FileTransfer.State.CANCELLED, "Cancelled by peer: " + frame.reason);
+                break;
+        }
+    }
+
+    // Receiver side.
+
+    private void onOffer(FileTransferFrame frame) {
+        FileTransfer transfer = incoming.get(frame.transferId);
+        if (transfer != null) {
+            // The sender resumes: continue from what was written.
+            Log.d(TAG, "Resumed " + transfer);
+            transfer.nackedOffset = -1;
+            link.send(FileTransferFrame.offset(FileTransferFrame.ACCEPT, transfer.getId(),
+                    transfer.nextOffset), null);
+            return;
+        }
+        Long completedSize = completedIncoming.get(frame.transferId);
+        if (completedSize != null) {
+            link.send(FileTransferFrame.offset(FileTransferFrame.ACCEPT, frame.transferId,
+                    completedSize), null);
+            return;
+        }
+        transfer = new FileTransfer(this, frame.transferId, frame.name, frame.size,
+                frame.chunkSize, false, FileTransfer.State.OFFERED);
+        FileChannel channel = null;
+        Listener listener = this.listener;
+        if (!closed && listener != null) {
+            try {
+                channel = listener.onIncomingTransfer(transfer);
+            } catch (Exception e) {
+                Log.e(TAG, "onIncomingTransfer: listener error", e);
+            }
+        }
+        if (channel == null) {
+            Log.d(TAG, "Rejected " + transfer);
+            link.send(FileTransferFrame.cancel(transfer.getId(), "Rejected"), null);
+            return;
+        }
+        transfer.channel = channel;
+        transfer.setState(FileTransfer.State.TRANSFERRING);
+        incoming.put(transfer.getId(), transfer);
+        link.send(FileTransferFrame.offset(FileTransferFrame.ACCEPT, transfer.getId(), 0), null);
+        if (transfer.getSize() == 0) {
+            finish(transfer, FileTransfer.State.COMPLETED, null);
+        }
+    }
+
+    private void onChunk(FileTransfer transfer, FileTransferFrame frame) {
+        ByteBuffer payload = frame.payload;
+        int length = payload.remaining();
+        if (frame.offset < transfer.nextOffset) {
+            // Sent again after a NACK or a resume.
+            return;
+        }
+        if (frame.offset > transfer.nextOffset || length == 0 || length > transfer.getChunkSize()
+                || frame.offset + length > transfer.getSize()
+                || FileTransferFrame.crc32(payload) != frame.crc) {
+            // The chunks in flight behind a bad one are dropped with a single NACK.
+            if (transfer.nackedOffset != transfer.nextOffset) {
+                Log.w(TAG, "Bad chunk at " + frame.offset + " of " + transfer);
+                transfer.nackedOffset = transfer.nextOffset;
+                link.send(FileTransferFrame.offset(FileTransferFrame.NACK, transfer.getId(),
+                        transfer.nextOffset), null);
+            }
+            return;
+        }
+        try {
+            long position = frame.offset;
+            while (payload.hasRemaining()) {
+                position += transfer.channel.write(payload, position);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write " + transfer, e);
+            fail(transfer, "Write error: " + e.getMessage());
+            return;
+        }
+        transfer.nextOffset += length;
+        transfer.nackedOffset = -1;
+        transfer.setTransferredBytes(transfer.nextOffset);
+        link.send(FileTransferFrame.offset(FileTransferFrame.ACK, transfer.getId(),
+                transfer.nextOffset), null);
+        if (transfer.nextOffset == transfer.getSize()) {
+            finish(transfer, FileTransfer.State.COMPLETED, null);
+        } else {
+            notifyProgress(transfer);
+        }
+    }
+
+    // Sender side.
+
+    private void sendOffer(FileTransfer transfer) {
+        link.send(FileTransferFrame.offer(transfer.getId(), transfer.getSize(),
+                transfer.getChunkSize(), transfer.getName()), onFailure(transfer, 0));
+    }
+
+    private void onAccept(FileTransfer transfer, long offset) {
+        if (transfer.getState() != FileTransfer.State.OFFERED) {
+            return;
+        }
+        if (offset < 0 || offset > transfer.getSize()) {
+            fail(transfer, "Invalid offset accepted: " + offset);
+            return;
+        }
+        transfer.nextOffset = offset;
+        transfer.setTransferredBytes(offset);
+        transfer.setState(FileTransfer.State.TRANSFERRING);
+        if (offset == transfer.getSize()) {
+            finish(transfer, FileTransfer.State.COMPLETED, null);
+        } else {
+            pump(transfer);
+        }
+    }
+
+    private void onAck(FileTransfer transfer, long offset) {
+        if (transfer.getState() != FileTransfer.State.TRANSFERRING
+                || offset <= transfer.getTransferredBytes() || offset > transfer.nextOffset) {
+            return;
+        }
+        transfer.setTransferredBytes(offset);
+        if (offset == transfer.getSize()) {
+            finish(transfer, FileTransfer.State.COMPLETED, null);
+            return;
+        }
+        notifyProgress(transfer);
+        pump(transfer);
+    }
+
+    private void onNack(FileTransfer transfer, long offset) {
+        if (transfer.getState() != FileTransfer.State.TRANSFERRING
+                || offset < transfer.getTransferredBytes() || offset > transfer.nextOffset) {
+            return;
+        }
+        Log.w(TAG, "Sending again from " + offset + " of " + transfer);
+        transfer.setTransferredBytes(offset);
+        transfer.nextOffset = offset;
+        pump(transfer);
+    }
+
+    // Send chunks until |window| of them are in flight.
+    private void pump(FileTransfer transfer) {
+        long windowBytes = (long) window * transfer.getChunkSize();
+        while (transfer.getState() == FileTransfer.State.TRANSFERRING && !transfer.paused
+                && transfer.nextOffset < transfer.getSize()
+                && transfer.nextOffset - transfer.getTransferredBytes() < windowBytes) {
+            long offset = transfer.nextOffset;
+            int length = (int) Math.min(transfer.getChunkSize(), transfer.getSize() - offset);
+            ByteBuffer chunk = FileTransferFrame.startChunk(transfer.getId(), offset, length);
+            try {
+                long position = offset;
+                while (chunk.hasRemaining()) {
+                    int read = transfer.channel.read(chunk, position);
+                    if (read < 0) {
+                        throw new EOFException("File truncated at " + position);
+                    }
+                    position += read;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read " + transfer, e);
+                fail(transfer, "Read error: " + e.getMessage());
+                return;
+            }
+            transfer.nextOffset += length;
+            if (!link.send(FileTransferFrame.finishChunk(chunk), onFailure(transfer, offset))) {
+                // Paused or suspended by the callback.
+                return;
+            }
+        }
+    }
+
+    // Pauses |transfer| when the frame at |offset| is rejected by a full send
+    // queue, and suspends it when the data channel fails.
+    private SendCallback onFailure(FileTransfer transfer, long offset) {
+        int generation = transfer.generation;
+        return new SendCallback() {
+            @Override
+            public void onSent() {
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                if (DataChannelSender.isQueueFull(reason)) {
+                    // Rejected right away, on the executor sending the frame.
+                    pause(transfer, offset);
+                } else {
+                    executor.execute(() -> suspend(transfer, generation, reason));
+                }
+            }
+        };
+    }
+
+    private void pause(FileTransfer transfer, long offset) {
+        Log.d(TAG, "Paused " + transfer + " at " + offset + ": send queue full");
+        transfer.paused = true;
+        if (transfer.getState() == FileTransfer.State.TRANSFERRING) {
+            transfer.nextOffset = Math.min(transfer.nextOffset, offset);
+        }
+    }
+
+    private void suspend(FileTransfer transfer, int generation, String reason) {
+        if (transfer.isDone() || transfer.generation != generation) {
+            return;
+        }
+        Log.w(TAG, "Suspended " + transfer + ": " + reason);
+        transfer.generation++;
+        transfer.paused = false;
+        transfer.nextOffset = transfer.getTransferredBytes();
+        transfer.setState(FileTransfer.State.SUSPENDED);
+    }
+
+    // Both sides.
+
+    private void fail(FileTransfer transfer, String reason) {
+        link.send(FileTransferFrame.cancel(transfer.getId(), reason), null);
+        finish(transfer, FileTransfer.State.FAILED, reason);
+    }
+
+    private void finish(FileTransfer transfer, FileTransfer.State state, @Nullable String reason) {
+        if (transfer.isDone()) {
+            return;
+        }
+        transfer.setState(state);
+        transfer.channel = null;
+        if (transfer.isOutgoing()) {
+            outgoing.remove(transfer.getId());
+        } else {
+            incoming.remove(transfer.getId());
+            if (state == FileTransfer.State.COMPLETED) {
+                completedIncoming.put(transfer.getId(), transfer.getSize());
+            }
+        }
+        Log.d(TAG, "Finished " + transfer + (reason != null ? ": " + reason : ""));
+        Listener listener = this.listener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            if (state == FileTransfer.State.COMPLETED) {
+                listener.onCompleted(transfer);
+            } else {
+                listener.onFailed(transfer, reason);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "finish: listener error", e);
+        }
+    }
+
+    private void notifyProgress(FileTransfer transfer) {
+        Listener listener = this.listener;
+        if (listener != null) {
+            try {
+                listener.onProgress(transfer);
+            } catch (Exception e) {
+                Log.e(TAG, "onProgress: listener error", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,506 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams of typed messages and requests over the data channel.
+ *
+ * <p>Each message carries an app defined stream id and type, and requests
+ * are correlated with their response or error. Messages are length-prefixed
+ * and coalesced into one data channel message, see {@link MuxFrame}, until
+ * the packet reaches |maxPacketSize| or |flushDelayMs| has elapsed since the
+ * first one was queued, like Nagle's algorithm. Packets are recognized by
+ * their magic number and are not delivered to the app as raw messages.
+ *
+ * <p>The link is never called holding the lock of the multiplexer, as a send
+ * waits for the webrtc signaling thread, which may itself be answering a
+ * request. Full packets are queued in order under the lock and sent by one
+ * thread at a time, the others leaving their packets to it.
+ *
+ * <p>The {@link Handler} and the {@link ResponseCallback}s are called on the
+ * thread receiving the data channel messages, with payloads valid during the
+ * call only; a {@link ResponseCallback} may also be called on the scheduler
+ * when its request times out or on the thread sending its packet when it fails.
+ * Callbacks must not block.
+ */
+public class Multiplexer {
+    private static final String TAG = "Multiplexer";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Packet size, well under the 64 KiB message size every SCTP
+     * implementation accepts. Larger messages are sent in a packet of their own.
+     */
+    public static final int DEFAULT_MAX_PACKET_SIZE = 16 * 1024;
+    public static final long DEFAULT_FLUSH_DELAY_MS = 5;
+    public static final long DEFAULT_REQUEST_TIMEOUT_MS = 10_000;
+
+    /**
+     * The data channel as seen by the multiplexer.
+     */
+    public interface Link {
+        /**
+         * Send |packet| as a binary message, see
+         * {@link DataChannelSender#send(org.webrtc.DataChannel.Buffer, SendCallback)}.
+         */
+        boolean send(ByteBuffer packet, @Nullable SendCallback callback);
+    }
+
+    /**
+     * Receives the messages and requests of the peer.
+     */
+    public interface Handler {
+        void onMessage(int streamId, int type, ByteBuffer payload);
+
+        /**
+         * Answer through |responder|, now or later from any thread. Requests
+         * left unanswered time out on the peer.
+         */
+        void onRequest(int streamId, int type, ByteBuffer payload, Responder responder);
+    }
+
+    /**
+     * Completion of a {@link #request}, called once.
+     */
+    public interface ResponseCallback {
+        void onResponse(ByteBuffer payload);
+
+        void onError(String reason);
+    }
+
+    /**
+     * Answers one request of the peer, once.
+     */
+    public class Responder {
+        private final int streamId;
+        private final int type;
+        private final int requestId;
+        private final AtomicBoolean answered = new AtomicBoolean();
+
+        Responder(int streamId, int type, int requestId) {
+            this.streamId = streamId;
+            this.type = type;
+            this.requestId = requestId;
+        }
+
+        public boolean respond(ByteBuffer payload) {
+            return answer(MuxFrame.RESPONSE, payload);
+        }
+
+        public boolean fail(String reason) {
+            return answer(MuxFrame.ERROR, ByteBuffer.wrap(reason.getBytes(UTF_8)));
+        }
+
+        private boolean answer(byte kind, ByteBuffer payload) {
+            if (!answered.compareAndSet(false, true)) {
+                throw new IllegalStateException("Request " + requestId + " answered already");
+            }
+            return enqueue(kind, streamId, type, requestId, payload);
+        }
+    }
+
+    // A packet waiting for the link, and the requests it holds so that they
+    // fail with it.
+    private static class OutPacket {
+        final ByteBuffer data;
+        final int messages;
+        final List<Integer> requests;
+
+        OutPacket(ByteBuffer data, int messages, List<Integer> requests) {
+            this.data = data;
+            this.messages = messages;
+            this.requests = requests;
+        }
+    }
+
+    private static class PendingRequest {
+        final ResponseCallback callback;
+        @Nullable
+        ScheduledFuture<?> timeout;
+
+        PendingRequest(ResponseCallback callback) {
+            this.callback = callback;
+        }
+    }
+
+    private final Link link;
+    private final ScheduledExecutorService scheduler;
+    private final int maxPacketSize;
+    private final long flushDelayMs;
+    private final Map<Integer, PendingRequest> requests = new ConcurrentHashMap<>();
+    @Nullable
+    private volatile Handler handler;
+
+    // Guarded by this. The packet being coalesced, and the requests it holds
+    // so that they fail with it.
+    private final ByteBuffer packet;
+    private final List<Integer> packetRequests = new ArrayList<>();
+    private int packetMessages;
+    @Nullable
+    private ScheduledFuture<?> flushTask;
+    private int nextRequestId = 1;
+    @Nullable
+    private String closedReason;
+    // Packets to send in order, by the thread that set |sending|.
+    private final ArrayDeque<OutPacket> outbox = new ArrayDeque<>();
+    private boolean sending;
+
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong packetsSent = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong packetsReceived = new AtomicLong();
+
+    public Multiplexer(Link link, ScheduledExecutorService scheduler) {
+        this(link, scheduler, DEFAULT_MAX_PACKET_SIZE, DEFAULT_FLUSH_DELAY_MS);
+    }
+
+    /**
+     * @param flushDelayMs how long a message may wait for others, 0 to send
+     * each one right away.
+     */
+    public Multiplexer(Link link, ScheduledExecutorService scheduler, int maxPacketSize,
+                       long flushDelayMs) {
+        if (maxPacketSize <= MuxFrame.MAGIC_SIZE || flushDelayMs < 0) {
+            throw new IllegalArgumentException("Invalid coalescing: max packet size "
+                    + maxPacketSize + ", flush delay " + flushDelayMs);
+        }
+        this.link = link;
+        this.scheduler = scheduler;
+        this.maxPacketSize = maxPacketSize;
+        this.flushDelayMs = flushDelayMs;
+        this.packet = ByteBuffer.allocate(maxPacketSize);
+        packet.putInt(MuxFrame.MAGIC);
+    }
+
+    public void setHandler(@Nullable Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Queue a one-way message.
+     *
+     * @param streamId and |type| are app defined, non negative.
+     * @return false if the multiplexer is closed.
+     */
+    public boolean send(int streamId, int type, ByteBuffer payload) {
+        checkIds(streamId, type);
+        return enqueue(MuxFrame.MESSAGE, streamId, type, 0, payload);
+    }
+
+    /**
+     * Queue a request, whose response or error goes to |callback|.
+     *
+     * @param timeoutMs how long to wait for the response, 0 for ever.
+     */
+    public void request(int streamId, int type, ByteBuffer payload, long timeoutMs,
+                        ResponseCallback callback) {
+        checkIds(streamId, type);
+        PendingRequest pending = new PendingRequest(callback);
+        int requestId;
+        synchronized (this) {
+            requestId = nextRequestId;
+            nextRequestId = nextRequestId == Integer.MAX_VALUE ? 1 : nextRequestId + 1;
+            requests.put(requestId, pending);
+        }
+        if (timeoutMs > 0) {
+            pending.timeout = scheduler.schedule(() -> completeWithError(requestId,
+                    "Request timed out after " + timeoutMs + " ms"), timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        if (!enqueue(MuxFrame.REQUEST, streamId, type, requestId, payload)) {
+            completeWithError(requestId, "Multiplexer closed: " + closedReason);
+        }
+    }
+
+    /**
+     * Send the coalesced messages now.
+     */
+    public void flush() {
+        synchronized (this) {
+            takePacketLocked();
+        }
+        sendQueued();
+    }
+
+    /**
+     * Handle a data channel message, during the call of
+     * {@code DataChannel.Observer.onMessage}.
+     *
+     * @return false if |data| is not a packet of the multiplexer.
+     */
+    public boolean onMessage(ByteBuffer data) {
+        if (!MuxFrame.isPacket(data)) {
+            return false;
+        }
+        packetsReceived.incrementAndGet();
+        ByteBuffer in = data.slice();
+        in.position(MuxFrame.MAGIC_SIZE);
+        MuxFrame frame = new MuxFrame();
+        try {
+            while (in.hasRemaining()) {
+                dispatch(MuxFrame.next(in, frame));
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid multiplexer packet", e);
+        }
+        return true;
+    }
+
+    /**
+     * Drop the queued messages and fail the pending requests.
+     */
+    public void close(String reason) {
+        synchronized (this) {
+            if (closedReason != null) {
+                return;
+            }
+            closedReason = reason;
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            packet.clear();
+            packetRequests.clear();
+            packetMessages = 0;
+            outbox.clear();
+        }
+        for (Integer requestId : new ArrayList<>(requests.keySet())) {
+            completeWithError(requestId, reason);
+        }
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    /**
+     * Data channel messages sent, fewer than {@link #getMessagesSent()} as
+     * much as coalescing helps.
+     */
+    public long getPacketsSent() {
+        return packetsSent.get();
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived.get();
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived.get();
+    }
+
+    public int getPendingRequestCount() {
+        return requests.size();
+    }
+
+    private boolean enqueue(byte kind, int streamId, int type, int requestId,
+                            ByteBuffer payload) {
+        synchronized (this) {
+            if (closedReason != null) {
+                return false;
+            }
+            int frameSize = MuxFrame.frameSize(kind, streamId, type, requestId,
+                    payload.remaining());
+            if (frameSize > packet.remaining()) {
+                takePacketLocked();
+            }
+            if (frameSize > packet.remaining()) {
+                ByteBuffer single = ByteBuffer.allocate(MuxFrame.MAGIC_SIZE + frameSize);
+                single.putInt(MuxFrame.MAGIC);
+                MuxFrame.put(single, kind, streamId, type, requestId, payload);
+                single.flip();
+                List<Integer> sentRequests = new ArrayList<>();
+                if (kind == MuxFrame.REQUEST) {
+                    sentRequests.add(requestId);
+                }
+                outbox.add(new OutPacket(single, 1, sentRequests));
+            } else {
+                MuxFrame.put(packet, kind, streamId, type, requestId, payload);
+                packetMessages++;
+                if (kind == MuxFrame.REQUEST) {
+                    packetRequests.add(requestId);
+                }
+                if (!packet.hasRemaining() || flushDelayMs == 0) {
+                    takePacketLocked();
+                } else if (flushTask == null) {
+                    flushTask = scheduler.schedule(this::flush, flushDelayMs,
+                            TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        sendQueued();
+        return true;
+    }
+
+    // Move the packet being coalesced to the outbox.
+    private void takePacketLocked() {
+        if (packetMessages == 0) {
+            return;
+        }
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        packet.flip();
+        ByteBuffer out = ByteBuffer.allocate(packet.remaining());
+        out.put(packet).flip();
+        packet.clear();
+        packet.putInt(MuxFrame.MAGIC);
+        outbox.add(new OutPacket(out, packetMessages, new ArrayList<>(packetRequests)));
+        packetRequests.clear();
+        packetMessages = 0;
+    }
+
+    // Send the outbox, unless another thread is at it and sends ours too.
+    private void sendQueued() {
+        synchronized (this) {
+            if (sending || outbox.isEmpty()) {
+                return;
+            }
+            sending = true;
+        }
+        while (true) {
+            OutPacket out;
+            synchronized (this) {
+                out = outbox.poll();
+                if (out == null) {
+                    sending = false;
+                    return;
+                }
+            }
+            try {
+                sendPacket(out);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Sending a packet failed", e);
+                for (Integer requestId : out.requests) {
+                    completeWithError(requestId, "Send failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void sendPacket(OutPacket out) {
+        messagesSent.addAndGet(out.messages);
+        packetsSent.incrementAndGet();
+        List<Integer> sentRequests = out.requests;
+        link.send(out.data, sentRequests.isEmpty() ? null : new SendCallback() {
+            @Override
+            public void onSent() {
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                for (Integer requestId : sentRequests) {
+                    completeWithError(requestId, reason);
+                }
+            }
+        });
+    }
+
+    private void dispatch(MuxFrame frame) {
+        messagesReceived.incrementAndGet();
+        ByteBuffer payload = frame.payload.asReadOnlyBuffer();
+        switch (frame.kind) {
+            case MuxFrame.MESSAGE:
+            case MuxFrame.REQUEST: {
+                Handler handler = this.handler;
+                if (handler == null) {
+                    if (frame.kind == MuxFrame.REQUEST) {
+                        new Responder(frame.streamId, frame.type, frame.requestId)
+                                .fail("No handler");
+                    }
+                    return;
+                }
+                try {
+                    if (frame.kind == MuxFrame.MESSAGE) {
+                        handler.onMessage(frame.streamId, frame.type, payload);
+                    } else {
+                        handler.onRequest(frame.streamId, frame.type, payload,
+                                new Responder(frame.streamId, frame.type, frame.requestId));
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Handler error on stream " + frame.streamId, e);
+                }
+                break;
+            }
+            case MuxFrame.RESPONSE: {
+                PendingRequest pending = remove(frame.requestId);
+                if (pending != null) {
+                    pending.callback.onResponse(payload);
+                }
+                break;
+            }
+            case MuxFrame.ERROR: {
+                PendingRequest pending = remove(frame.requestId);
+                if (pending != null) {
+                    pending.callback.onError(UTF_8.decode(payload).toString());
+                }
+                break;
+            }
+        }
+    }
+
+    private void completeWithError(int requestId, String reason) {
+        PendingRequest pending = remove(requestId);
+        if (pending != null) {
+            pending.callback.onError(reason);
+        }
+    }
+
+    // Take a request out, once, whichever of the response, the timeout or a
+    // failure comes first.
+    @Nullable
+    private PendingRequest remove(int requestId) {
+        PendingRequest pending = requests.remove(requestId);
+        if (pending == null) {
+            Log.d(TAG, "Request " + requestId + " completed already");
+            return null;
+        }
+        if (pending.timeout != null) {
+            pending.timeout.cancel(false);
+        }
+        return pending;
+    }
+
+    private static void checkIds(int streamId, int type) {
+        if (streamId < 0 || type < 0) {
+            throw new IllegalArgumentException("Invalid stream " + streamId + " or type " + type);
+        }
+    }
+}
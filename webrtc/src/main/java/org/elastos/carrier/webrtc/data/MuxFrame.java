@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Packets of the {@link Multiplexer}, sent as binary data channel messages:
+ * the magic "CMX1" then one or more frames, each a varint length followed by
+ * that many bytes. Varints are unsigned LEB128.
+ *
+ * <pre>
+ * MESSAGE  kind:byte stream:varint type:varint payload
+ * REQUEST  kind:byte stream:varint type:varint request:varint payload
+ * RESPONSE kind:byte stream:varint type:varint request:varint payload
+ * ERROR    kind:byte stream:varint type:varint request:varint reason:utf-8
+ * </pre>
+ */
+final class MuxFrame {
+    static final int MAGIC = 0x434d5831;
+    static final int MAGIC_SIZE = 4;
+
+    static final byte MESSAGE = 0;
+    static final byte REQUEST = 1;
+    static final byte RESPONSE = 2;
+    static final byte ERROR = 3;
+
+    byte kind;
+    int streamId;
+    int type;
+    int requestId;
+    ByteBuffer payload;
+
+    /**
+     * Whether |data| starts like a packet, without consuming it.
+     */
+    static boolean isPacket(ByteBuffer data) {
+        return data.remaining() > MAGIC_SIZE && data.getInt(data.position()) == MAGIC;
+    }
+
+    /**
+     * Bytes taken by a frame with a payload of |payloadSize|, length included.
+     */
+    static int frameSize(byte kind, int streamId, int type, int requestId, int payloadSize) {
+        int bodySize = bodySize(kind, streamId, type, requestId, payloadSize);
+        return varintSize(bodySize) + bodySize;
+    }
+
+    /**
+     * Write a frame at the position of |out|, which must have room for it.
+     */
+    static void put(ByteBuffer out, byte kind, int streamId, int type, int requestId,
+                    ByteBuffer payload) {
+        putVarint(out, bodySize(kind, streamId, type, requestId, payload.remaining()));
+        out.put(kind);
+        putVarint(out, streamId);
+        putVarint(out, type);
+        if (kind != MESSAGE) {
+            putVarint(out, requestId);
+        }
+        out.put(payload.duplicate());
+    }
+
+    /**
+     * Parse the next frame of a packet whose magic was consumed; the payload
+     * is a view of |in|.
+     *
+     * @throws IllegalArgumentException if the frame is not valid.
+     */
+    static MuxFrame next(ByteBuffer in, MuxFrame frame) {
+        try {
+            int length = getVarint(in);
+            if (length > in.remaining()) {
+                throw new IllegalArgumentException("Truncated frame: " + length + " bytes, "
+                        + in.remaining() + " left");
+            }
+            ByteBuffer body = in.slice();
+            body.limit(length);
+            in.position(in.position() + length);
+            frame.kind = body.get();
+            if (frame.kind < MESSAGE || frame.kind > ERROR) {
+                throw new IllegalArgumentException("Unknown frame kind: " + frame.kind);
+            }
+            frame.streamId = getVarint(body);
+            frame.type = getVarint(body);
+            frame.requestId = frame.kind == MESSAGE ? 0 : getVarint(body);
+            frame.payload = body.slice();
+            return frame;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated frame", e);
+        }
+    }
+
+    static int varintSize(int value) {
+        return (38 - Integer.numberOfLeadingZeros(value | 1)) / 7;
+    }
+
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid varint");
+    }
+
+    private static int bodySize(byte kind, int streamId, int type, int requestId, int payloadSize) {
+        return 1 + varintSize(streamId) + varintSize(type)
+                + (kind == MESSAGE ? 0 : varintSize(requestId)) + payloadSize;
+    }
+}
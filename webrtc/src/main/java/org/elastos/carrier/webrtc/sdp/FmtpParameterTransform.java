@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.sdp;
+
+import android.util.Log;
+
+/**
+ * Adds a "key=value" format parameter to the fmtp line of the first payload
+ * type of a codec, creating the fmtp line if the codec has none.
+ */
+class FmtpParameterTransform implements SdpTransform {
+    private static final String TAG = "SdpMunger";
+
+    private final String codec;
+    private final String key;
+    private final String value;
+
+    FmtpParameterTransform(String codec, String key, String value) {
+        this.codec = codec;
+        this.key = key;
+        this.value = value;
+    }
+
+    @Override
+    public void apply(SdpSession sdp) {
+        final SdpMediaSection section = sdp.findMediaSectionWithCodec(codec);
+        if (section == null) {
+            Log.w(TAG, "No rtpmap for " + codec + " codec");
+            return;
+        }
+        final String payloadType = section.getPayloadType(codec);
+        section.addFmtpParameter(payloadType, key, value);
+        Log.d(TAG, "Update SDP line: a=fmtp:" + payloadType + " " + section.getFmtp(payloadType));
+    }
+}
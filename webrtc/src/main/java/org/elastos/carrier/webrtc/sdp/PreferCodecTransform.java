@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.sdp;
+
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Moves all payload types of a codec to the front of the format list of the
+ * first audio or video media section, making it the preferred codec.
+ */
+class PreferCodecTransform implements SdpTransform {
+    private static final String TAG = "SdpMunger";
+
+    private final String codec;
+    private final String media;
+
+    PreferCodecTransform(String codec, boolean isAudio) {
+        this.codec = codec;
+        this.media = isAudio ? "audio" : "video";
+    }
+
+    @Override
+    public void apply(SdpSession sdp) {
+        final SdpMediaSection section = sdp.findMediaSection(media);
+        if (section == null) {
+            Log.w(TAG, "No mediaDescription line, so can't prefer " + codec);
+            return;
+        }
+        final List<String> preferred = section.getPayloadTypes(codec);
+        if (preferred.isEmpty()) {
+            Log.w(TAG, "No payload types with name " + codec);
+            return;
+        }
+        final String mLine = section.getMLine();
+        if (section.preferPayloadTypes(preferred)) {
+            Log.d(TAG, "Change media description from: " + mLine + " to " + section.getMLine());
+        }
+    }
+}
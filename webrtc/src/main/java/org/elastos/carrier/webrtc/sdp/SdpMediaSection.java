@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.sdp;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One "m=" section of a {@link SdpSession}.
+ *
+ * <p>The section text is split into lines on first access, which also builds
+ * the codec name to payload type, payload type to rtpmap/fmtp and RTX lookup
+ * tables. Edits go through this class so that the tables stay in sync.
+ */
+public final class SdpMediaSection {
+    private static final String CRLF = "\r\n";
+    private static final String RTPMAP_PREFIX = "a=rtpmap:";
+    private static final String FMTP_PREFIX = "a=fmtp:";
+    private static final String RTX_APT_PREFIX = "apt=";
+    private static final int M_LINE = 0;
+    // m=<media> <port> <proto> <fmt> ...
+    private static final int M_LINE_HEADER_FIELDS = 3;
+
+    private final String raw;
+    private final String media;
+    private boolean modified;
+
+    // Lazily parsed state.
+    @Nullable
+    private List<String> lines;
+    // Upper-case encoding name -> payload types, in rtpmap order.
+    private Map<String, List<String>> codecPayloadTypes;
+    private Map<String, Integer> rtpmapLines;
+    private Map<String, Integer> fmtpLines;
+    // Associated payload type -> RTX payload type.
+    private Map<String, String> rtxPayloadTypes;
+
+    SdpMediaSection(String raw) {
+        this.raw = raw;
+        final int space = raw.indexOf(' ');
+        final int lineEnd = raw.indexOf('\n');
+        final int end = space >= 0 && (lineEnd < 0 || space < lineEnd) ? space
+                : (lineEnd < 0 ? raw.length() : lineEnd);
+        this.media = raw.substring(2, end).trim();
+    }
+
+    private void ensureParsed() {
+        if (lines != null) {
+            return;
+        }
+        lines = new ArrayList<>(48);
+        codecPayloadTypes = new HashMap<>();
+        rtpmapLines = new HashMap<>();
+        fmtpLines = new HashMap<>();
+        rtxPayloadTypes = new HashMap<>();
+        int start = 0;
+        final int end = raw.length();
+        while (start < end) {
+            int next = raw.indexOf('\n', start);
+            if (next < 0) {
+                next = end;
+            }
+            int lineEnd = next;
+            if (lineEnd > start && raw.charAt(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            final String line = raw.substring(start, lineEnd);
+            final int index = lines.size();
+            lines.add(line);
+            if (line.startsWith(RTPMAP_PREFIX)) {
+                indexRtpmap(line, index);
+            } else if (line.startsWith(FMTP_PREFIX)) {
+                indexFmtp(line, index);
+            }
+            start = next + 1;
+        }
+    }
+
+    // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
+    private void indexRtpmap(String line, int index) {
+        final int space = line.indexOf(' ', RTPMAP_PREFIX.length());
+        if (space < 0) {
+            return;
+        }
+        final int slash = line.indexOf('/', space + 1);
+        if (slash < 0) {
+            return;
+        }
+        final String payloadType = line.substring(RTPMAP_PREFIX.length(), space);
+        final String codec = line.substring(space + 1, slash).toUpperCase(Locale.US);
+        List<String> payloadTypes = codecPayloadTypes.get(codec);
+        if (payloadTypes == null) {
+            payloadTypes = new ArrayList<>(2);
+            codecPayloadTypes.put(codec, payloadTypes);
+        }
+        payloadTypes.add(payloadType);
+        rtpmapLines.put(payloadType, index);
+    }
+
+    // a=fmtp:<payload type> <format specific parameters>
+    private void indexFmtp(String line, int index) {
+        final int space = line.indexOf(' ', FMTP_PREFIX.length());
+        if (space < 0) {
+            return;
+        }
+        final String payloadType = line.substring(FMTP_PREFIX.length(), space);
+        if (fmtpLines.containsKey(payloadType)) {
+            return;
+        }
+        fmtpLines.put(payloadType, index);
+        if (line.startsWith(RTX_APT_PREFIX, space + 1)) {
+            int end = line.indexOf(';', space + 1);
+            if (end < 0) {
+                end = line.length();
+            }
+            rtxPayloadTypes.put(line.substring(space + 1 + RTX_APT_PREFIX.length(), end).trim(),
+                    payloadType);
+        }
+    }
+
+    /**
+     * Media type, e.g. "audio", "video" or "application". Does not trigger parsing.
+     */
+    public String getMedia() {
+        return media;
+    }
+
+    public String getMLine() {
+        ensureParsed();
+        return lines.get(M_LINE);
+    }
+
+    public List<String> getLines() {
+        ensureParsed();
+        return Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * Payload types listed on the m-line, in order of preference.
+     */
+    public List<String> getFormats() {
+        final String[] parts = getMLine().split(" ");
+        final List<String> formats = new ArrayList<>(parts.length);
+        for (int i = M_LINE_HEADER_FIELDS; i < parts.length; i++) {
+            if (!parts[i].isEmpty()) {
+                formats.add(parts[i]);
+            }
+        }
+        return formats;
+    }
+
+    /**
+     * Payload types mapped to |codec| in this section. Encoding names are
+     * compared case-insensitively, as required by RFC 4566.
+     */
+    public List<String> getPayloadTypes(String codec) {
+        ensureParsed();
+        final List<String> payloadTypes = codecPayloadTypes.get(codec.toUpperCase(Locale.US));
+        return payloadTypes == null ? Collections.<String>emptyList()
+                : Collections.unmodifiableList(payloadTypes);
+    }
+
+    /**
+     * Returns the first payload type mapped to |codec|, or null.
+     */
+    @Nullable
+    public String getPayloadType(String codec) {
+        final List<String> payloadTypes = getPayloadTypes(codec);
+        return payloadTypes.isEmpty() ? null : payloadTypes.get(0);
+    }
+
+    /**
+     * Returns the format parameters of |payloadType|, or null if it has no fmtp line.
+     */
+    @Nullable
+    public String getFmtp(String payloadType) {
+        ensureParsed();
+        final Integer index = fmtpLines.get(payloadType);
+        if (index == null) {
+            return null;
+        }
+        final String line = lines.get(index);
+        return line.substring(FMTP_PREFIX.length() + payloadType.length() + 1);
+    }
+
+    /**
+     * Returns the RTX payload type associated with |payloadType|, or null.
+     */
+    @Nullable
+    public String getRtxPayloadType(String payloadType) {
+        ensureParsed();
+        return rtxPayloadTypes.get(payloadType);
+    }
+
+    /**
+     * Replace the format parameters of |payloadType|. A new fmtp line is added
+     * right after the rtpmap line if there is none yet.
+     *
+     * @return false if |payloadType| has no rtpmap in this section.
+     */
+    public boolean setFmtp(String payloadType, String parameters) {
+        ensureParsed();
+        final String line = FMTP_PREFIX + payloadType + " " + parameters;
+        final Integer fmtpIndex = fmtpLines.get(payloadType);
+        if (fmtpIndex != null) {
+            if (!lines.get(fmtpIndex).equals(line)) {
+                lines.set(fmtpIndex, line);
+                modified = true;
+            }
+            return true;
+        }
+        final Integer rtpmapIndex = rtpmapLines.get(payloadType);
+        if (rtpmapIndex == null) {
+            return false;
+        }
+        insertLine(rtpmapIndex + 1, line);
+        fmtpLines.put(payloadType, rtpmapIndex + 1);
+        return true;
+    }
+
+    /**
+     * Set "key=value" in the format parameters of |payloadType|, replacing the
+     * value of an existing |key| or appending it otherwise.
+     */
+    public boolean addFmtpParameter(String payloadType, String key, String value) {
+        final String fmtp = getFmtp(payloadType);
+        final String parameter = key + "=" + value;
+        if (fmtp == null) {
+            return setFmtp(payloadType, parameter);
+        }
+        // Parameters are separated by ';', optionally followed by whitespace.
+        int start = 0;
+        while (start <= fmtp.length()) {
+            int end = fmtp.indexOf(';', start);
+            if (end < 0) {
+                end = fmtp.length();
+            }
+            while (start < end && Character.isWhitespace(fmtp.charAt(start))) {
+                start++;
+            }
+            final int separator = fmtp.indexOf('=', start);
+            final int nameEnd = separator < 0 || separator > end ? end : separator;
+            if (fmtp.substring(start, nameEnd).trim().equalsIgnoreCase(key)) {
+                return setFmtp(payloadType, fmtp.substring(0, start) + parameter + fmtp.substring(end));
+            }
+            start = end + 1;
+        }
+        return setFmtp(payloadType, fmtp + "; " + parameter);
+    }
+
+    /**
+     * Move |preferred| to the front of the m-line format list.
+     *
+     * @return true if the m-line changed.
+     */
+    public boolean preferPayloadTypes(List<String> preferred) {
+        final List<String> formats = getFormats();
+        final String mLine = getMLine();
+        int headerEnd = 0;
+        for (int i = 0; i < M_LINE_HEADER_FIELDS; i++) {
+            headerEnd = mLine.indexOf(' ', headerEnd) + 1;
+            if (headerEnd == 0) {
+                return false;
+            }
+        }
+        final StringBuilder builder = new StringBuilder(mLine.length());
+        builder.append(mLine, 0, headerEnd - 1);
+        for (String payloadType : preferred) {
+            builder.append(' ').append(payloadType);
+        }
+        for (String payloadType : formats) {
+            if (!preferred.contains(payloadType)) {
+                builder.append(' ').append(payloadType);
+            }
+        }
+        final String newMLine = builder.toString();
+        if (newMLine.equals(mLine)) {
+            return false;
+        }
+        lines.set(M_LINE, newMLine);
+        modified = true;
+        return true;
+    }
+
+    private void insertLine(int index, String line) {
+        lines.add(index, line);
+        shiftIndices(rtpmapLines, index);
+        shiftIndices(fmtpLines, index);
+        modified = true;
+    }
+
+    private static void shiftIndices(Map<String, Integer> indices, int from) {
+        for (Map.Entry<String, Integer> entry : indices.entrySet()) {
+            if (entry.getValue() >= from) {
+                entry.setValue(entry.getValue() + 1);
+            }
+        }
+    }
+
+    public boolean isModified() {
+        return modified;
+    }
+
+    void appendTo(StringBuilder builder) {
+        if (!modified) {
+            builder.append(raw);
+            return;
+        }
+        for (String line : lines) {
+            builder.append(line).append(CRLF);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(raw.length() + 64);
+        appendTo(builder);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.sdp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reusable SDP rewrite pipeline.
+ *
+ * <p>The description is parsed once into a {@link SdpSession}, every
+ * transform is applied to that model, and the result is serialized once.
+ * A description that no transform touched is returned as is.
+ *
+ * <pre>
+ *     SdpMunger munger = SdpMunger.builder()
+ *             .preferCodec("VP8", false)
+ *             .setFmtpParameter("opus", "maxaveragebitrate", "32000")
+ *             .build();
+ *     String sdp = munger.munge(origSdp.description);
+ * </pre>
+ */
+public final class SdpMunger {
+    private final List<SdpTransform> transforms;
+
+    private SdpMunger(List<SdpTransform> transforms) {
+        this.transforms = transforms;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String munge(String sdpDescription) {
+        if (transforms.isEmpty()) {
+            return sdpDescription;
+        }
+        final SdpSession sdp = SdpSession.parse(sdpDescription);
+        for (SdpTransform transform : transforms) {
+            transform.apply(sdp);
+        }
+        return sdp.toString();
+    }
+
+    public static class Builder {
+        private final List<SdpTransform> transforms = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Prefer |codec| in the first audio (|isAudio|) or video media section.
+         */
+        public Builder preferCodec(String codec, boolean isAudio) {
+            transforms.add(new PreferCodecTransform(codec, isAudio));
+            return this;
+        }
+
+        /**
+         * Add "key=value" to the format parameters of |codec|.
+         */
+        public Builder setFmtpParameter(String codec, String key, String value) {
+            transforms.add(new FmtpParameterTransform(codec, key, value));
+            return this;
+        }
+
+        public Builder transform(SdpTransform transform) {
+            transforms.add(transform);
+            return this;
+        }
+
+        public SdpMunger build() {
+            return new SdpMunger(Collections.unmodifiableList(new ArrayList<>(transforms)));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.sdp;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Session description model.
+ *
+ * <p>Parsing only locates the "m=" lines; each {@link SdpMediaSection} is
+ * parsed the first time it is inspected. Sections that are never modified
+ * keep their original text, so an untouched description serializes back to
+ * the exact input string.
+ */
+public final class SdpSession {
+    private static final String MEDIA_PREFIX = "m=";
+
+    private final String description;
+    private final String sessionPart;
+    private final List<SdpMediaSection> mediaSections;
+
+    private SdpSession(String description, String sessionPart, List<SdpMediaSection> mediaSections) {
+        this.description = description;
+        this.sessionPart = sessionPart;
+        this.mediaSections = Collections.unmodifiableList(mediaSections);
+    }
+
+    public static SdpSession parse(String description) {
+        final List<SdpMediaSection> sections = new ArrayList<>(4);
+        int start = findMediaLine(description, 0);
+        final String sessionPart = start < 0 ? description : description.substring(0, start);
+        while (start >= 0) {
+            final int next = findMediaLine(description, start + MEDIA_PREFIX.length());
+            final int end = next < 0 ? description.length() : next;
+            sections.add(new SdpMediaSection(description.substring(start, end)));
+            start = next;
+        }
+        return new SdpSession(description, sessionPart, sections);
+    }
+
+    // Returns the offset of the first "m=" line at or after |from|, or -1.
+    private static int findMediaLine(String description, int from) {
+        if (from == 0 && description.startsWith(MEDIA_PREFIX)) {
+            return 0;
+        }
+        final int index = description.indexOf("\nm=", Math.max(from - 1, 0));
+        return index < 0 ? -1 : index + 1;
+    }
+
+    public List<SdpMediaSection> getMediaSections() {
+        return mediaSections;
+    }
+
+    /**
+     * Returns the first media section of type |media| ("audio", "video" or
+     * "application"), or null if there is none.
+     */
+    @Nullable
+    public SdpMediaSection findMediaSection(String media) {
+        for (SdpMediaSection section : mediaSections) {
+            if (section.getMedia().equals(media)) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first media section that has an rtpmap for |codec|, or null.
+     */
+    @Nullable
+    public SdpMediaSection findMediaSectionWithCodec(String codec) {
+        for (SdpMediaSection section : mediaSections) {
+            if (section.getPayloadType(codec) != null) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    public boolean isModified() {
+        for (SdpMediaSection section : mediaSections) {
+            if (section.isModified()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        if (!isModified()) {
+            return description;
+        }
+        final StringBuilder builder = new StringBuilder(description.length() + 64);
+        builder.append(sessionPart);
+        for (SdpMediaSection section : mediaSections) {
+            section.appendTo(builder);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.signaling;
+
+import com.google.common.io.BaseEncoding;
+
+import org.elastos.carrier.webrtc.exception.WebrtcException;
+import org.webrtc.IceCandidate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact signaling format for peers that advertise the "binary" capability.
+ *
+ * <p>Layout: a version byte followed by a raw deflate stream of the message
+ * body, a {@link SignalingMessage.Type} code and the type specific fields. The
+ * stream is primed with {@link #DICTIONARY}, a preset dictionary of the SDP and
+ * candidate lines libwebrtc generates, so even a single candidate compresses.
+ * Carrier invites carry text, so the bytes are sent as base64 behind a
+ * {@link #PREFIX} marker that can not start a JSON message.
+ */
+public class BinarySignalingCodec implements SignalingCodec {
+    public static final String NAME = "binary";
+    static final String PREFIX = "!";
+    static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final BaseEncoding BASE64 = BaseEncoding.base64().omitPadding();
+    private static final int FLAG_AUDIO = 1;
+    private static final int FLAG_VIDEO = 1 << 1;
+    private static final int FLAG_DATA = 1 << 2;
+    // Upper bound for an inflated message body.
+    private static final int MAX_BODY_LENGTH = 256 * 1024;
+
+    // Deflate matches the end of the dictionary most cheaply, so the most
+    // frequent lines go last. Changing it requires a new VERSION.
+    private static final byte[] DICTIONARY = (""
+            + "typ relay raddr typ srflx raddr typ host tcptype active tcptype passive "
+            + "generation 0 ufrag network-id 1 network-cost 10 rport candidate:1 udp 2 tcp "
+            + "a=rtpmap:125 ulpfec/90000\r\na=rtpmap:127 red/90000\r\n"
+            + "a=rtpmap:106 CN/32000\r\na=rtpmap:105 CN/16000\r\na=rtpmap:13 CN/8000\r\n"
+            + "a=rtpmap:110 telephone-event/48000\r\na=rtpmap:112 telephone-event/32000\r\n"
+            + "a=rtpmap:113 telephone-event/16000\r\na=rtpmap:126 telephone-event/8000\r\n"
+            + "a=rtpmap:103 ISAC/16000\r\na=rtpmap:104 ISAC/32000\r\na=rtpmap:9 G722/8000\r\n"
+            + "a=rtpmap:102 ILBC/8000\r\na=rtpmap:0 PCMU/8000\r\na=rtpmap:8 PCMA/8000\r\n"
+            + "a=rtpmap:111 opus/48000/2\r\na=rtcp-fb:111 transport-cc\r\n"
+            + "a=fmtp:111 minptime=10;useinbandfec=1\r\n"
+            + "a=fmtp:100 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f\r\n"
+            + "a=rtpmap:96 VP8/90000\r\na=rtpmap:98 VP9/90000\r\na=rtpmap:100 H264/90000\r\n"
+            + "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n"
+            + "a=extmap:14 urn:ietf:params:rtp-hdrext:toffset\r\n"
+            + "a=extmap:13 urn:3gpp:video-orientation\r\n"
+            + "a=extmap:12 http://www.webrtc.org/experiments/rtp-hdrext/playout-delay\r\n"
+            + "a=extmap:11 http://www.webrtc.org/experiments/rtp-hdrext/video-content-type\r\n"
+            + "a=extmap:7 http://www.webrtc.org/experiments/rtp-hdrext/video-timing\r\n"
+            + "a=extmap:8 http://tools.ietf.org/html/draft-ietf-avtext-framemarking-07\r\n"
+            + "a=extmap:9 http://www.webrtc.org/experiments/rtp-hdrext/color-space\r\n"
+            + "a=extmap:2 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+            + "a=extmap:3 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01\r\n"
+            + "a=extmap:4 urn:ietf:params:rtp-hdrext:sdes:mid\r\n"
+            + "a=extmap:5 urn:ietf:params:rtp-hdrext:sdes:rtp-stream-id\r\n"
+            + "a=extmap:6 urn:ietf:params:rtp-hdrext:sdes:repaired-rtp-stream-id\r\n"
+            + "m=application 9 UDP/DTLS/SCTP webrtc-datachannel\r\n"
+            + "a=sctp-port:5000\r\na=max-message-size:262144\r\n"
+            + "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 102 0 8 106 105 13 110 112 113 126\r\n"
+            + "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 127 124 125\r\n"
+            + "v=0\r\no=- 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\na=group:BUNDLE 0 1 2\r\n"
+            + "a=msid-semantic: WMS ARDAMS\r\na=msid:ARDAMS ARDAMSa0\r\na=msid:ARDAMS ARDAMSv0\r\n"
+            + "mslabel:ARDAMS\r\nlabel:ARDAMSv0\r\nlabel:ARDAMSa0\r\n"
+            + "a=ssrc-group:FID \r\na=ssrc: cname:\r\na=ssrc: msid:ARDAMS \r\n"
+            + "a=sendrecv\r\na=rtcp-mux\r\na=rtcp-rsize\r\n"
+            + "a=setup:actpass\r\na=setup:active\r\na=mid:0\r\na=mid:1\r\na=mid:2\r\n"
+            + "a=ice-options:trickle renomination\r\na=fingerprint:sha-256 \r\n"
+            + "c=IN IP4 0.0.0.0\r\na=rtcp:9 IN IP4 0.0.0.0\r\na=ice-ufrag:\r\na=ice-pwd:\r\n"
+            + "a=rtpmap:97 rtx/90000\r\na=rtpmap:99 rtx/90000\r\na=rtpmap:101 rtx/90000\r\n"
+            + "a=rtpmap:124 rtx/90000\r\na=fmtp:97 apt=96\r\na=fmtp:99 apt=98\r\n"
+            + "a=fmtp:101 apt=100\r\na=fmtp:124 apt=127\r\n"
+            + "a=rtcp-fb:96 goog-remb\r\na=rtcp-fb:96 transport-cc\r\na=rtcp-fb:96 ccm fir\r\n"
+            + "a=rtcp-fb:96 nack\r\na=rtcp-fb:96 nack pli\r\n"
+            + "a=rtcp-fb:98 goog-remb\r\na=rtcp-fb:98 transport-cc\r\na=rtcp-fb:98 ccm fir\r\n"
+            + "a=rtcp-fb:98 nack\r\na=rtcp-fb:98 nack pli\r\n"
+            + "a=rtcp-fb:100 goog-remb\r\na=rtcp-fb:100 transport-cc\r\na=rtcp-fb:100 ccm fir\r\n"
+            + "a=rtcp-fb:100 nack\r\na=rtcp-fb:100 nack pli\r\n").getBytes(UTF_8);
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean canDecode(String data) {
+        return data != null && data.startsWith(PREFIX);
+    }
+
+    @Override
+    public String encode(SignalingMessage message) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(body);
+        try {
+            out.writeByte(message.getType().getCode());
+            switch (message.getType()) {
+                case OFFER:
+                    int flags = (message.isAudio() ? FLAG_AUDIO : 0)
+                            | (message.isVideo() ? FLAG_VIDEO : 0)
+                            | (message.isData() ? FLAG_DATA : 0);
+                    out.writeByte(flags);
+                    // fall through
+                case ANSWER:
+                    writeCapabilities(out, message.getCapabilities());
+                    writeString(out, message.getSdp());
+                    break;
+                case CANDIDATE:
+                case REMOVAL_CANDIDATES:
+                    out.writeShort(message.getCandidates().size());
+                    for (IceCandidate candidate : message.getCandidates()) {
+                        out.writeUTF(candidate.sdpMid);
+                        out.writeShort(candidate.sdpMLineIndex);
+                        out.writeUTF(candidate.sdp);
+                    }
+                    break;
+                case BYE:
+                    out.writeByte(message.getReason());
+                    break;
+            }
+            out.flush();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw.
+            throw new IllegalStateException(e);
+        }
+        return PREFIX + BASE64.encode(deflate(body.toByteArray()));
+    }
+
+    @Override
+    public SignalingMessage decode(String data) throws WebrtcException {
+        if (!canDecode(data)) {
+            throw new WebrtcException("Not a binary signaling message");
+        }
+        try {
+            byte[] bytes = BASE64.decode(data.substring(PREFIX.length()));
+            if (bytes.length == 0 || bytes[0] != VERSION) {
+                throw new WebrtcException("Unsupported binary signaling version");
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(inflate(bytes)));
+            SignalingMessage.Type type = SignalingMessage.Type.valueOf(in.readUnsignedByte());
+            if (type == null) {
+                throw new WebrtcException("Unknown binary signaling message type");
+            }
+            String sdp = null;
+            int flags = 0;
+            List<IceCandidate> candidates = Collections.emptyList();
+            int reason = 0;
+            Set<String> capabilities = Collections.emptySet();
+            switch (type) {
+                case OFFER:
+                    flags = in.readUnsignedByte();
+                    // fall through
+                case ANSWER:
+                    capabilities = readCapabilities(in);
+                    sdp = readString(in);
+                    break;
+                case CANDIDATE:
+                case REMOVAL_CANDIDATES:
+                    int count = in.readUnsignedShort();
+                    candidates = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        String sdpMid = in.readUTF();
+                        int sdpMLineIndex = in.readUnsignedShort();
+                        candidates.add(new IceCandidate(sdpMid, sdpMLineIndex, in.readUTF()));
+                    }
+                    break;
+                case BYE:
+                    reason = in.readByte();
+                    break;
+            }
+            return new SignalingMessage(type, sdp, (flags & FLAG_AUDIO) != 0,
+                    (flags & FLAG_VIDEO) != 0, (flags & FLAG_DATA) != 0, candidates, reason,
+                    capabilities);
+        } catch (IOException | IllegalArgumentException | DataFormatException e) {
+            throw new WebrtcException("Invalid binary signaling message", e);
+        }
+    }
+
+    private static void writeCapabilities(DataOutputStream out, Set<String> capabilities)
+            throws IOException {
+        out.writeByte(capabilities.size());
+        for (String capability : capabilities) {
+            out.writeUTF(capability);
+        }
+    }
+
+    private static Set<String> readCapabilities(DataInputStream in) throws IOException {
+        int count = in.readUnsignedByte();
+        if (count == 0) {
+            return Collections.emptySet();
+        }
+        Set<String> capabilities = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            capabilities.add(in.readUTF());
+        }
+        return Collections.unmodifiableSet(capabilities);
+    }
+
+    // writeUTF is limited to 64k and uses modified UTF-8, SDPs get a plain length prefix.
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_BODY_LENGTH) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static byte[] deflate(byte[] body) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 16);
+            out.write(VERSION);
+            byte[] buffer = new byte[512];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(bytes, 1, bytes.length - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated message");
+                }
+                out.write(buffer, 0, length);
+                if (out.size() > MAX_BODY_LENGTH) {
+                    throw new DataFormatException("Message too large");
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.signaling;
+
+import org.elastos.carrier.webrtc.exception.WebrtcException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The original org.json message format. Every peer understands it, so it is
+ * used until the remote peer advertises another codec.
+ */
+public class JsonSignalingCodec implements SignalingCodec {
+    public static final String NAME = "json";
+
+    /**
+     * call message keys
+     */
+    private enum MessageKey {type, sdp, candidates, options, reason, capabilities}
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean canDecode(String data) {
+        return data != null && data.startsWith("{");
+    }
+
+    @Override
+    public String encode(SignalingMessage message) {
+        JSONObject json = new JSONObject();
+        jsonPut(json, MessageKey.type.name(), message.getType().getValue());
+        switch (message.getType()) {
+            case OFFER:
+                jsonPut(json, MessageKey.sdp.name(), message.getSdp());
+                JSONArray options = new JSONArray();
+                if (message.isAudio()) {
+                    options.put("audio");
+                }
+                if (message.isVideo()) {
+                    options.put("video");
+                }
+                if (message.isData()) {
+                    options.put("data");
+                }
+                jsonPut(json, MessageKey.options.name(), options);
+                putCapabilities(json, message.getCapabilities());
+                break;
+            case ANSWER:
+                jsonPut(json, MessageKey.sdp.name(), message.getSdp());
+                putCapabilities(json, message.getCapabilities());
+                break;
+            case CANDIDATE:
+            case REMOVAL_CANDIDATES:
+                JSONArray array = new JSONArray();
+                for (IceCandidate candidate : message.getCandidates()) {
+                    array.put(toJsonCandidate(candidate));
+                }
+                jsonPut(json, MessageKey.candidates.name(), array);
+                break;
+            case BYE:
+                jsonPut(json, MessageKey.reason.name(), message.getReason());
+                break;
+        }
+        return json.toString();
+    }
+
+    @Override
+    public SignalingMessage decode(String data) throws WebrtcException {
+        try {
+            JSONObject json = new JSONObject(data);
+            SignalingMessage.Type type =
+                    SignalingMessage.Type.getType(json.optString(MessageKey.type.name(), ""));
+            if (type == null) {
+                throw new WebrtcException("Unknown signaling message type: " + data);
+            }
+            String sdp = null;
+            boolean audio = false;
+            boolean video = false;
+            boolean dataChannel = false;
+            List<IceCandidate> candidates = Collections.emptyList();
+            int reason = 0;
+            Set<String> capabilities = Collections.emptySet();
+            switch (type) {
+                case OFFER:
+                    JSONArray options = json.optJSONArray(MessageKey.options.name());
+                    if (options != null) {
+                        for (int i = 0; i < options.length(); i++) {
+                            String o = options.optString(i, "");
+                            if ("audio".equalsIgnoreCase(o)) {
+                                audio = true;
+                            }
+                            if ("video".equalsIgnoreCase(o)) {
+                                video = true;
+                            }
+                            if ("data".equalsIgnoreCase(o)) {
+                                dataChannel = true;
+                            }
+                        }
+                    }
+                    // fall through
+                case ANSWER:
+                    sdp = json.optString(MessageKey.sdp.name(), "");
+                    capabilities = getCapabilities(json);
+                    break;
+                case CANDIDATE:
+                case REMOVAL_CANDIDATES:
+                    JSONArray array = json.optJSONArray(MessageKey.candidates.name());
+                    if (array != null) {
+                        candidates = new ArrayList<>(array.length());
+                        for (int i = 0; i < array.length(); i++) {
+                            candidates.add(toJavaCandidate(array.getJSONObject(i)));
+                        }
+                    }
+                    break;
+                case BYE:
+                    reason = json.optInt(MessageKey.reason.name());
+                    break;
+            }
+            return new SignalingMessage(type, sdp, audio, video, dataChannel, candidates, reason,
+                    capabilities);
+        } catch (JSONException e) {
+            throw new WebrtcException("Invalid json signaling message", e);
+        }
+    }
+
+    private static void putCapabilities(JSONObject json, Set<String> capabilities) {
+        if (capabilities.isEmpty()) {
+            return;
+        }
+        JSONArray array = new JSONArray();
+        for (String capability : capabilities) {
+            array.put(capability);
+        }
+        jsonPut(json, MessageKey.capabilities.name(), array);
+    }
+
+    private static Set<String> getCapabilities(JSONObject json) {
+        JSONArray array = json.optJSONArray(MessageKey.capabilities.name());
+        if (array == null || array.length() == 0) {
+            return Collections.emptySet();
+        }
+        Set<String> capabilities = new HashSet<>();
+        for (int i = 0; i < array.length(); i++) {
+            capabilities.add(array.optString(i, ""));
+        }
+        return Collections.unmodifiableSet(capabilities);
+    }
+
+    // Put a |key|->|value| mapping in |json|.
+    private static void jsonPut(JSONObject json, String key, Object value) {
+        try {
+            json.put(key, value);
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Converts a Java candidate to a JSONObject.
+    private static JSONObject toJsonCandidate(final IceCandidate candidate) {
+        JSONObject json = new JSONObject();
+        jsonPut(json, "sdpMLineIndex", candidate.sdpMLineIndex);
+        jsonPut(json, "sdpMid", candidate.sdpMid);
+        jsonPut(json, "sdp", candidate.sdp);
+        return json;
+    }
+
+    // Converts a JSON candidate to a Java object.
+    private static IceCandidate toJavaCandidate(JSONObject json) throws JSONException {
+        return new IceCandidate(
+                json.getString("sdpMid"), json.getInt("sdpMLineIndex"), json.getString("sdp"));
+    }
+}
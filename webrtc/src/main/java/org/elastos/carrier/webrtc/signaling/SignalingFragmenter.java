@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.signaling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Splits encoded signaling messages that do not fit into one carrier friend
+ * invite into numbered fragments, see {@link SignalingReassembler}.
+ *
+ * <p>A fragment is {@code #<message id>:<sequence>:<count>:<payload>}, with
+ * the id in hex. Messages that fit are sent unchanged, so short messages stay
+ * readable by peers without reassembly support. Signaling payloads are json
+ * or base64 and therefore ASCII, so the size is counted in characters.
+ */
+public class SignalingFragmenter {
+    static final char PREFIX = '#';
+    static final char SEPARATOR = ':';
+
+    /**
+     * Default fragment size, well below the carrier invite data limit.
+     */
+    public static final int DEFAULT_MAX_FRAGMENT_SIZE = 4096;
+    // Room for the largest header: prefix, 8 hex digits and two 5 digit numbers.
+    private static final int MAX_HEADER_SIZE = 1 + 8 + 1 + 5 + 1 + 5 + 1;
+    static final int MAX_FRAGMENT_COUNT = 0xffff;
+
+    private final int maxFragmentSize;
+    private int nextMessageId;
+
+    public SignalingFragmenter() {
+        this(DEFAULT_MAX_FRAGMENT_SIZE);
+    }
+
+    public SignalingFragmenter(int maxFragmentSize) {
+        if (maxFragmentSize <= MAX_HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid fragment size " + maxFragmentSize);
+        }
+        this.maxFragmentSize = maxFragmentSize;
+        // Random start, so ids of a restarted client do not collide with stale fragments.
+        this.nextMessageId = new Random().nextInt();
+    }
+
+    public int getMaxFragmentSize() {
+        return maxFragmentSize;
+    }
+
+    /**
+     * Split |message| into carrier sized fragments, in sequence order.
+     */
+    public List<String> fragment(String message) {
+        if (message.length() <= maxFragmentSize && !isFragment(message)) {
+            return Collections.singletonList(message);
+        }
+        int payloadSize = maxFragmentSize - MAX_HEADER_SIZE;
+        int count = (message.length() + payloadSize - 1) / payloadSize;
+        if (count > MAX_FRAGMENT_COUNT) {
+            throw new IllegalArgumentException("Message too large: " + message.length());
+        }
+        String id = Integer.toHexString(nextMessageId());
+        List<String> fragments = new ArrayList<>(count);
+        for (int seq = 0; seq < count; seq++) {
+            int start = seq * payloadSize;
+            int end = Math.min(start + payloadSize, message.length());
+            StringBuilder fragment = new StringBuilder(MAX_HEADER_SIZE + end - start)
+                    .append(PREFIX).append(id)
+                    .append(SEPARATOR).append(seq)
+                    .append(SEPARATOR).append(count)
+                    .append(SEPARATOR).append(message, start, end);
+            fragments.add(fragment.toString());
+        }
+        return fragments;
+    }
+
+    static boolean isFragment(String data) {
+        return data != null && !data.isEmpty() && data.charAt(0) == PREFIX;
+    }
+
+    private synchronized int nextMessageId() {
+        return nextMessageId++;
+    }
+}
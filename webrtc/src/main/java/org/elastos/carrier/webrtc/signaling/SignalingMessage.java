@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.signaling;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.IceCandidate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A call signaling message exchanged with the remote peer over carrier,
+ * independent of its wire format (see {@link SignalingCodec}).
+ */
+public class SignalingMessage {
+    /**
+     * The peer can decode messages encoded by {@link BinarySignalingCodec}.
+     */
+    public static final String CAPABILITY_BINARY_CODEC = BinarySignalingCodec.NAME;
+
+    /**
+     * call message types
+     */
+    public enum Type {
+        OFFER("offer", 1),
+        ANSWER("answer", 2),
+        CANDIDATE("candidate", 3),
+        REMOVAL_CANDIDATES("removal-candidates", 4),
+        BYE("bye", 5),
+        ;
+
+        private String value;
+        private int code;
+
+        Type(String value, int code) {
+            this.value = value;
+            this.code = code;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public static Type getType(String value) {
+            for (Type type : values()) {
+                if (type.getValue().equalsIgnoreCase(value)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+
+        public static Type valueOf(int code) {
+            for (Type type : values()) {
+                if (type.getCode() == code) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Type type;
+    @Nullable
+    private final String sdp;
+    private final boolean audio;
+    private final boolean video;
+    private final boolean data;
+    private final List<IceCandidate> candidates;
+    private final int reason;
+    private final Set<String> capabilities;
+
+    SignalingMessage(Type type, @Nullable String sdp, boolean audio, boolean video, boolean data,
+                     List<IceCandidate> candidates, int reason, Set<String> capabilities) {
+        this.type = type;
+        this.sdp = sdp;
+        this.audio = audio;
+        this.video = video;
+        this.data = data;
+        this.candidates = candidates;
+        this.reason = reason;
+        this.capabilities = capabilities;
+    }
+
+    public static SignalingMessage offer(String sdp, boolean audio, boolean video, boolean data,
+                                         Set<String> capabilities) {
+        return new SignalingMessage(Type.OFFER, sdp, audio, video, data,
+                Collections.<IceCandidate>emptyList(), 0, capabilities);
+    }
+
+    public static SignalingMessage answer(String sdp, Set<String> capabilities) {
+        return new SignalingMessage(Type.ANSWER, sdp, false, false, false,
+                Collections.<IceCandidate>emptyList(), 0, capabilities);
+    }
+
+    public static SignalingMessage candidates(IceCandidate[] candidates) {
+        return new SignalingMessage(Type.CANDIDATE, null, false, false, false,
+                Arrays.asList(candidates), 0, Collections.<String>emptySet());
+    }
+
+    public static SignalingMessage removalCandidates(IceCandidate[] candidates) {
+        return new SignalingMessage(Type.REMOVAL_CANDIDATES, null, false, false, false,
+                Arrays.asList(candidates), 0, Collections.<String>emptySet());
+    }
+
+    public static SignalingMessage bye(int reason) {
+        return new SignalingMessage(Type.BYE, null, false, false, false,
+                Collections.<IceCandidate>emptyList(), reason, Collections.<String>emptySet());
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Offer or answer SDP, null for other message types.
+     */
+    @Nullable
+    public String getSdp() {
+        return sdp;
+    }
+
+    public boolean isAudio() {
+        return audio;
+    }
+
+    public boolean isVideo() {
+        return video;
+    }
+
+    public boolean isData() {
+        return data;
+    }
+
+    public List<IceCandidate> getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Bye reason, see {@link org.elastos.carrier.webrtc.call.CallReason}.
+     */
+    public int getReason() {
+        return reason;
+    }
+
+    /**
+     * Signaling capabilities advertised by the sender of an offer or answer.
+     */
+    public Set<String> getCapabilities() {
+        return capabilities;
+    }
+
+    public boolean hasCapability(String capability) {
+        return capabilities.contains(capability);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.signaling;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rebuilds signaling messages split by {@link SignalingFragmenter}.
+ *
+ * <p>Fragments may arrive in any order and interleaved with other messages or
+ * peers; duplicates are ignored. Incomplete messages are dropped after a
+ * timeout, and the buffer is bounded both in messages and in buffered
+ * characters, evicting the oldest partial message first.
+ */
+public class SignalingReassembler {
+    private static final String TAG = "SignalingReassembler";
+
+    public static final long DEFAULT_TIMEOUT_MS = 10000;
+    public static final int DEFAULT_MAX_PENDING_MESSAGES = 16;
+    public static final int DEFAULT_MAX_BUFFERED_CHARS = 256 * 1024;
+
+    private final long timeoutMs;
+    private final int maxPendingMessages;
+    private final int maxBufferedChars;
+    // Insertion ordered, so the first entry is the oldest partial message.
+    private final LinkedHashMap<String, PartialMessage> pending = new LinkedHashMap<>();
+    private int bufferedChars;
+    private int droppedMessages;
+
+    public SignalingReassembler() {
+        this(DEFAULT_TIMEOUT_MS, DEFAULT_MAX_PENDING_MESSAGES, DEFAULT_MAX_BUFFERED_CHARS);
+    }
+
+    public SignalingReassembler(long timeoutMs, int maxPendingMessages, int maxBufferedChars) {
+        if (timeoutMs <= 0 || maxPendingMessages <= 0 || maxBufferedChars <= 0) {
+            throw new IllegalArgumentException("Invalid reassembly limits");
+        }
+        this.timeoutMs = timeoutMs;
+        this.maxPendingMessages = maxPendingMessages;
+        this.maxBufferedChars = maxBufferedChars;
+    }
+
+    /**
+     * Handle data received from |from|.
+     *
+     * @return the complete message, or null while fragments are missing or if
+     * the data is an invalid fragment.
+     */
+    @Nullable
+    public String receive(String from, String data) {
+        return receive(from, data, SystemClock.elapsedRealtime());
+    }
+
+    synchronized String receive(String from, String data, long nowMs) {
+        if (!SignalingFragmenter.isFragment(data)) {
+            return data;
+        }
+        expire(nowMs);
+
+        int idEnd = data.indexOf(SignalingFragmenter.SEPARATOR, 1);
+        int seqEnd = idEnd < 0 ? -1 : data.indexOf(SignalingFragmenter.SEPARATOR, idEnd + 1);
+        int countEnd = seqEnd < 0 ? -1 : data.indexOf(SignalingFragmenter.SEPARATOR, seqEnd + 1);
+        int seq;
+        int count;
+        try {
+            seq = Integer.parseInt(data.substring(idEnd + 1, seqEnd));
+            count = Integer.parseInt(data.substring(seqEnd + 1, countEnd));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            Log.e(TAG, "receive: invalid fragment header from " + from);
+            return null;
+        }
+        if (count <= 0 || count > SignalingFragmenter.MAX_FRAGMENT_COUNT || seq < 0 || seq >= count) {
+            Log.e(TAG, "receive: invalid fragment " + seq + "/" + count + " from " + from);
+            return null;
+        }
+
+        String key = from + SignalingFragmenter.SEPARATOR + data.substring(1, idEnd);
+        PartialMessage message = pending.get(key);
+        if (message == null) {
+            message = new PartialMessage(count, nowMs);
+            pending.put(key, message);
+        } else if (message.fragments.length != count) {
+            Log.e(TAG, "receive: fragment count mismatch for " + key);
+            return null;
+        }
+        if (message.fragments[seq] != null) {
+            return null;
+        }
+        String payload = data.substring(countEnd + 1);
+        message.fragments[seq] = payload;
+        message.received++;
+        message.chars += payload.length();
+        bufferedChars += payload.length();
+
+        if (message.received == count) {
+            remove(key, message);
+            StringBuilder builder = new StringBuilder(message.chars);
+            for (String fragment : message.fragments) {
+                builder.append(fragment);
+            }
+            return builder.toString();
+        }
+        evictOverflow();
+        return null;
+    }
+
+    /**
+     * Number of partial messages dropped by the timeout or the buffer bounds.
+     */
+    public synchronized int getDroppedMessages() {
+        return droppedMessages;
+    }
+
+    synchronized int getPendingMessages() {
+        return pending.size();
+    }
+
+    /**
+     * Drop every partial message, e.g. when the call ends.
+     */
+    public synchronized void clear() {
+        pending.clear();
+        bufferedChars = 0;
+    }
+
+    private void expire(long nowMs) {
+        Iterator<Map.Entry<String, PartialMessage>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, PartialMessage> entry = it.next();
+            if (nowMs - entry.getValue().firstFragmentTimeMs < timeoutMs) {
+                // Later entries are younger.
+                break;
+            }
+            Log.w(TAG, "expire: incomplete message " + entry.getKey());
+            it.remove();
+            bufferedChars -= entry.getValue().chars;
+            droppedMessages++;
+        }
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, PartialMessage>> it = pending.entrySet().iterator();
+        while ((pending.size() > maxPendingMessages || bufferedChars > maxBufferedChars)
+                && it.hasNext()) {
+            Map.Entry<String, PartialMessage> entry = it.next();
+            Log.w(TAG, "evict: reassembly buffer full, dropping " + entry.getKey());
+            it.remove();
+            bufferedChars -= entry.getValue().chars;
+            droppedMessages++;
+        }
+    }
+
+    private void remove(String key, PartialMessage message) {
+        pending.remove(key);
+        bufferedChars -= message.chars;
+    }
+
+    private static class PartialMessage {
+        final String[] fragments;
+        final long firstFragmentTimeMs;
+        int received;
+        int chars;
+
+        PartialMessage(int count, long firstFragmentTimeMs) {
+            this.fragments = new String[count];
+            this.firstFragmentTimeMs = firstFragmentTimeMs;
+        }
+    }
+}
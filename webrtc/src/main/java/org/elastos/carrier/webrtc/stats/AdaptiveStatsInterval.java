@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.stats;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Chooses the delay before the next stats poll of a connection.
+ *
+ * <p>Stats are polled every minimum interval while the connection ramps up
+ * and whenever the quality degrades: packet loss, a round trip time well
+ * above its average, or a send bitrate well below it. Every stable poll then
+ * doubles the interval up to the maximum. In the background the connection
+ * is polled at the background interval only.
+ */
+public class AdaptiveStatsInterval {
+    public static final int DEFAULT_MAX_INTERVAL_MS = 8000;
+    public static final int DEFAULT_BACKGROUND_INTERVAL_MS = 30000;
+    // Polls at the minimum interval once the connection is up.
+    static final int RAMP_UP_POLLS = 5;
+    static final double DEGRADED_PACKET_LOSS_RATE = 0.02;
+    static final double DEGRADED_ROUND_TRIP_TIME_RATIO = 1.5;
+    static final double DEGRADED_SEND_BITRATE_RATIO = 0.7;
+    // Weight of the newest poll in the round trip time and bitrate averages.
+    private static final double AVERAGE_WEIGHT = 0.25;
+
+    private final int minIntervalMs;
+    private final int maxIntervalMs;
+    private final int backgroundIntervalMs;
+    private volatile boolean background;
+    private int intervalMs;
+    private int connectedPolls;
+    private double averageRoundTripTimeMs;
+    private double averageSendBitrateBps;
+
+    public AdaptiveStatsInterval(int minIntervalMs) {
+        this(minIntervalMs, Math.max(minIntervalMs, DEFAULT_MAX_INTERVAL_MS),
+                Math.max(minIntervalMs, DEFAULT_BACKGROUND_INTERVAL_MS));
+    }
+
+    public AdaptiveStatsInterval(int minIntervalMs, int maxIntervalMs, int backgroundIntervalMs) {
+        if (minIntervalMs <= 0 || maxIntervalMs < minIntervalMs || backgroundIntervalMs <= 0) {
+            throw new IllegalArgumentException("Invalid stats intervals: " + minIntervalMs
+                    + "ms, " + maxIntervalMs + "ms, " + backgroundIntervalMs + "ms");
+        }
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = maxIntervalMs;
+        this.backgroundIntervalMs = backgroundIntervalMs;
+        this.intervalMs = minIntervalMs;
+    }
+
+    /**
+     * Get the delay before the next poll.
+     *
+     * @param snapshot the stats of the poll, null if none were delivered.
+     */
+    public int next(@Nullable RtcStatsSnapshot snapshot) {
+        if (snapshot == null || snapshot.getCandidatePair() == null) {
+            // Not connected yet, or connecting again.
+            connectedPolls = 0;
+            intervalMs = minIntervalMs;
+        } else if (isDegraded(snapshot) || ++connectedPolls <= RAMP_UP_POLLS) {
+            intervalMs = minIntervalMs;
+        } else {
+            intervalMs = Math.min(maxIntervalMs, intervalMs * 2);
+        }
+        if (snapshot != null) {
+            updateAverages(snapshot);
+        }
+        return background ? Math.max(intervalMs, backgroundIntervalMs) : intervalMs;
+    }
+
+    /**
+     * Poll at the background interval while |background| is set, from the
+     * next poll on.
+     */
+    public void setBackground(boolean background) {
+        this.background = background;
+    }
+
+    public boolean isBackground() {
+        return background;
+    }
+
+    public int getMinIntervalMs() {
+        return minIntervalMs;
+    }
+
+    /**
+     * Start over, e.g. when the connection is restarted.
+     */
+    public void reset() {
+        intervalMs = minIntervalMs;
+        connectedPolls = 0;
+        averageRoundTripTimeMs = 0;
+        averageSendBitrateBps = 0;
+    }
+
+    private boolean isDegraded(RtcStatsSnapshot snapshot) {
+        for (InboundRtpStats inbound : snapshot.getInboundRtp()) {
+            if (inbound.getPacketLossRate() > DEGRADED_PACKET_LOSS_RATE) {
+                return true;
+            }
+        }
+        CandidatePairStats pair = snapshot.getCandidatePair();
+        if (pair != null && averageRoundTripTimeMs > 0 && pair.getRoundTripTimeMs()
+                > averageRoundTripTimeMs * DEGRADED_ROUND_TRIP_TIME_RATIO) {
+            return true;
+        }
+        return averageSendBitrateBps > 0 && getSendBitrateBps(snapshot)
+                < averageSendBitrateBps * DEGRADED_SEND_BITRATE_RATIO;
+    }
+
+    private void updateAverages(RtcStatsSnapshot snapshot) {
+        CandidatePairStats pair = snapshot.getCandidatePair();
+        if (pair != null && pair.getRoundTripTimeMs() > 0) {
+            averageRoundTripTimeMs = average(averageRoundTripTimeMs, pair.getRoundTripTimeMs());
+        }
+        long sendBitrateBps = getSendBitrateBps(snapshot);
+        if (sendBitrateBps > 0) {
+            averageSendBitrateBps = average(averageSendBitrateBps, sendBitrateBps);
+        }
+    }
+
+    private static double average(double average, double value) {
+        return average > 0 ? average + (value - average) * AVERAGE_WEIGHT : value;
+    }
+
+    private static long getSendBitrateBps(RtcStatsSnapshot snapshot) {
+        long bitrateBps = 0;
+        for (OutboundRtpStats outbound : snapshot.getOutboundRtp()) {
+            bitrateBps += outbound.getBitrateBps();
+        }
+        return bitrateBps;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.stats;
+
+import androidx.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Rolling time series of the quality of a call, for post-mortems of bad calls.
+ *
+ * <p>Every stats poll appends one sample to fixed-capacity ring buffers, one
+ * primitive array per metric, so the memory used is bounded by the capacity
+ * whatever the length of the call; the oldest samples are overwritten once it
+ * is full. Metrics that are not known for a sample, e.g. the round trip time
+ * before ICE has selected a candidate pair, are {@link Float#NaN}.
+ *
+ * <p>The series can be exported as csv, or as a compact binary that
+ * {@link #readBinary(InputStream)} reads back.
+ */
+public class CallQualityRecorder {
+    /**
+     * 15 minutes of samples at a 1 second stats period, more once the period
+     * backs off.
+     */
+    public static final int DEFAULT_CAPACITY = 900;
+
+    // "CQR1", then the format version.
+    private static final int BINARY_MAGIC = 0x43515231;
+    private static final int BINARY_VERSION = 1;
+    // A day of samples at a 1 second stats period, 3MB. Bounds what a corrupt
+    // sample count makes readBinary allocate.
+    static final int MAX_BINARY_SAMPLES = 24 * 60 * 60;
+
+    /**
+     * Receives the recorded quality of every call when it ends.
+     */
+    public interface Listener {
+        /**
+         * Called once the call has ended and no more samples are recorded.
+         * Runs on the thread ending the call, export in the background.
+         */
+        void onCallEnded(CallQualityRecorder recorder);
+    }
+
+    /**
+     * recorded metrics, one column each
+     */
+    public enum Metric {
+        ROUND_TRIP_TIME_MS("rtt_ms"),
+        SEND_BITRATE_KBPS("send_kbps"),
+        RECEIVE_BITRATE_KBPS("receive_kbps"),
+        /** received video frames per second */
+        FRAME_RATE("fps"),
+        /** cumulative received video freezes */
+        FREEZE_COUNT("freezes"),
+        /** worst packet loss of the received streams */
+        PACKET_LOSS_PERCENT("loss_pct"),
+        JITTER_BUFFER_DELAY_MS("jitter_buffer_ms"),
+        CPU_PERCENT("cpu_pct");
+
+        private final String columnName;
+
+        Metric(String columnName) {
+            this.columnName = columnName;
+        }
+
+        /**
+         * Name of the metric column in the csv export.
+         */
+        public String getColumnName() {
+            return columnName;
+        }
+    }
+
+    private static final Metric[] METRICS = Metric.values();
+
+    private final int capacity;
+    @Nullable
+    private final CpuSampler cpuSampler;
+    private final long[] timestampsMs;
+    private final float[][] columns;
+    // Index of the next sample to write.
+    private int head;
+    private int size;
+    private long recordedCount;
+
+    public CallQualityRecorder(int capacity, @Nullable CpuSampler cpuSampler) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.cpuSampler = cpuSampler;
+        this.timestampsMs = new long[capacity];
+        this.columns = new float[METRICS.length][capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of samples held, at most the capacity.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Number of samples overwritten because the buffers were full.
+     */
+    public synchronized long getDroppedCount() {
+        return recordedCount - size;
+    }
+
+    /**
+     * Stats timestamp of the |index|th sample held, 0 being the oldest.
+     */
+    public synchronized long getTimestampMs(int index) {
+        return timestampsMs[position(index)];
+    }
+
+    /**
+     * Value of |metric| in the |index|th sample held, 0 being the oldest.
+     */
+    public synchronized float getValue(Metric metric, int index) {
+        return columns[metric.ordinal()][position(index)];
+    }
+
+    /**
+     * Append a sample of the key metrics of |snapshot|.
+     */
+    public void record(RtcStatsSnapshot snapshot) {
+        float cpuUsage = cpuSampler != null ? cpuSampler.getCpuUsage() : Float.NaN;
+        float rttMs = Float.NaN;
+        float sendKbps = Float.NaN;
+        float receiveKbps = Float.NaN;
+        CandidatePairStats pair = snapshot.getCandidatePair();
+        if (pair != null) {
+            rttMs = (float) pair.getRoundTripTimeMs();
+            sendKbps = pair.getSendBitrateBps() / 1000f;
+            receiveKbps = pair.getReceiveBitrateBps() / 1000f;
+        }
+        float frameRate = Float.NaN;
+        float freezeCount = Float.NaN;
+        float packetLoss = Float.NaN;
+        float jitterBufferDelayMs = Float.NaN;
+        List<InboundRtpStats> inboundRtp = snapshot.getInboundRtp();
+        for (int i = 0; i < inboundRtp.size(); i++) {
+            InboundRtpStats stats = inboundRtp.get(i);
+            float loss = (float) stats.getPacketLossRate() * 100;
+            if (Float.isNaN(packetLoss) || loss > packetLoss) {
+                packetLoss = loss;
+            }
+            // The video stream when there is one, its frames are what freeze.
+            if (stats.isVideo() && Float.isNaN(frameRate)) {
+                frameRate = (float) stats.getFrameRate();
+                freezeCount = stats.getFreezeCount();
+                jitterBufferDelayMs = (float) stats.getJitterBufferDelayMs();
+            } else if (Float.isNaN(jitterBufferDelayMs)) {
+                jitterBufferDelayMs = (float) stats.getJitterBufferDelayMs();
+            }
+        }
+
+        synchronized (this) {
+            timestampsMs[head] = snapshot.getTimestampUs() / 1000;
+            columns[Metric.ROUND_TRIP_TIME_MS.ordinal()][head] = rttMs;
+            columns[Metric.SEND_BITRATE_KBPS.ordinal()][head] = sendKbps;
+            columns[Metric.RECEIVE_BITRATE_KBPS.ordinal()][head] = receiveKbps;
+            columns[Metric.FRAME_RATE.ordinal()][head] = frameRate;
+            columns[Metric.FREEZE_COUNT.ordinal()][head] = freezeCount;
+            columns[Metric.PACKET_LOSS_PERCENT.ordinal()][head] = packetLoss;
+            columns[Metric.JITTER_BUFFER_DELAY_MS.ordinal()][head] = jitterBufferDelayMs;
+            columns[Metric.CPU_PERCENT.ordinal()][head] = cpuUsage;
+            head = (head + 1) % capacity;
+            if (size < capacity) {
+                size++;
+            }
+            recordedCount++;
+        }
+    }
+
+    /**
+     * Drop all the samples.
+     */
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+        recordedCount = 0;
+    }
+
+    /**
+     * Write the samples, oldest first, as csv with a header line. Unknown
+     * values are empty fields.
+     */
+    public synchronized void writeCsv(Writer writer) throws IOException {
+        writer.write("timestamp_ms");
+        for (Metric metric : METRICS) {
+            writer.write(',');
+            writer.write(metric.getColumnName());
+        }
+        writer.write('\n');
+        for (int i = 0; i < size; i++) {
+            int position = position(i);
+            writer.write(Long.toString(timestampsMs[position]));
+            for (float[] column : columns) {
+                writer.write(',');
+                writer.write(formatValue(column[position]));
+            }
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    /**
+     * Write the samples, oldest first, as a compact big-endian binary: the
+     * magic "CQR1", a version byte, the metric count byte, the sample and
+     * dropped counts, the first timestamp followed by the int deltas of the
+     * next ones, then a float column per metric. 36 bytes per sample.
+     */
+    public synchronized void writeBinary(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(BINARY_MAGIC);
+        data.writeByte(BINARY_VERSION);
+        data.writeByte(METRICS.length);
+        data.writeInt(size);
+        data.writeLong(recordedCount - size);
+        long previousMs = 0;
+        for (int i = 0; i < size; i++) {
+            long timestampMs = timestampsMs[position(i)];
+            if (i == 0) {
+                data.writeLong(timestampMs);
+            } else {
+                data.writeInt((int) (timestampMs - previousMs));
+            }
+            previousMs = timestampMs;
+        }
+        for (float[] column : columns) {
+            for (int i = 0; i < size; i++) {
+                data.writeFloat(column[position(i)]);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Read a series written by {@link #writeBinary(OutputStream)}, into a
+     * recorder holding exactly its samples.
+     *
+     * @throws IOException if the input is not such a series.
+     */
+    public static CallQualityRecorder readBinary(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != BINARY_MAGIC) {
+            throw new IOException("Not a call quality series");
+        }
+        int version = data.readUnsignedByte();
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unsupported call quality series version: " + version);
+        }
+        int metricCount = data.readUnsignedByte();
+        int size = data.readInt();
+        long droppedCount = data.readLong();
+        if (metricCount != METRICS.length || size < 0 || size > MAX_BINARY_SAMPLES
+                || droppedCount < 0) {
+            throw new IOException("Malformed call quality series");
+        }
+        CallQualityRecorder recorder = new CallQualityRecorder(Math.max(size, 1), null);
+        long timestampMs = 0;
+        for (int i = 0; i < size; i++) {
+            timestampMs = i == 0 ? data.readLong() : timestampMs + data.readInt();
+            recorder.timestampsMs[i] = timestampMs;
+        }
+        for (float[] column : recorder.columns) {
+            for (int i = 0; i < size; i++) {
+                column[i] = data.readFloat();
+            }
+        }
+        recorder.head = size % recorder.capacity;
+        recorder.size = size;
+        recorder.recordedCount = size + droppedCount;
+        return recorder;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CallQualityRecorder{" + size + "/" + capacity + " samples, "
+                + (recordedCount - size) + " dropped}";
+    }
+
+    // Position in the buffers of the |index|th sample held.
+    private int position(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Sample " + index + " of " + size);
+        }
+        return (head - size + index + capacity) % capacity;
+    }
+
+    private static String formatValue(float value) {
+        if (Float.isNaN(value)) {
+            return "";
+        }
+        if (value == (long) value) {
+            return Long.toString((long) value);
+        }
+        return Float.toString(value);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.stats;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.RTCStats;
+
+import java.util.Map;
+
+/**
+ * The selected "candidate-pair" of the connection, with the rates computed
+ * since the previous poll.
+ */
+public class CandidatePairStats {
+    @Nullable
+    private String id;
+    private String state;
+    private boolean nominated;
+    @Nullable
+    private String localCandidateType;
+    @Nullable
+    private String remoteCandidateType;
+    private long timestampUs;
+    private long bytesSent;
+    private long bytesReceived;
+    private double roundTripTimeMs;
+    private long availableOutgoingBitrateBps;
+    private long availableIncomingBitrateBps;
+    private long sendBitrateBps;
+    private long receiveBitrateBps;
+
+    CandidatePairStats() {
+    }
+
+    void update(RTCStats stats, @Nullable String localCandidateType,
+                @Nullable String remoteCandidateType) {
+        Map<String, Object> members = stats.getMembers();
+        if (!stats.getId().equals(id)) {
+            // Another pair was selected, its counters do not follow the previous ones.
+            id = stats.getId();
+            timestampUs = 0;
+        }
+        long timestampUs = stats.getTimestampUs();
+        long bytesSent = RtcStatsCollector.getLong(members, "bytesSent");
+        long bytesReceived = RtcStatsCollector.getLong(members, "bytesReceived");
+        long elapsedUs = this.timestampUs > 0 ? timestampUs - this.timestampUs : 0;
+        sendBitrateBps = RtcStatsCollector.bitrate(bytesSent - this.bytesSent, elapsedUs);
+        receiveBitrateBps = RtcStatsCollector.bitrate(bytesReceived - this.bytesReceived, elapsedUs);
+        this.state = RtcStatsCollector.getString(members, "state");
+        this.nominated = Boolean.TRUE.equals(members.get("nominated"));
+        this.localCandidateType = localCandidateType;
+        this.remoteCandidateType = remoteCandidateType;
+        this.roundTripTimeMs = RtcStatsCollector.getDouble(members, "currentRoundTripTime") * 1000;
+        this.availableOutgoingBitrateBps =
+                (long) RtcStatsCollector.getDouble(members, "availableOutgoingBitrate");
+        this.availableIncomingBitrateBps =
+                (long) RtcStatsCollector.getDouble(members, "availableIncomingBitrate");
+        this.timestampUs = timestampUs;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+    }
+
+    @Nullable
+    public String getId() {
+        return id;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public boolean isNominated() {
+        return nominated;
+    }
+
+    /**
+     * "host", "srflx", "prflx" or "relay", null if unknown.
+     */
+    @Nullable
+    public String getLocalCandidateType() {
+        return localCandidateType;
+    }
+
+    @Nullable
+    public String getRemoteCandidateType() {
+        return remoteCandidateType;
+    }
+
+    /**
+     * Whether the media goes through a TURN server.
+     */
+    public boolean isRelayed() {
+        return "relay".equals(localCandidateType) || "relay".equals(remoteCandidateType);
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public double getRoundTripTimeMs() {
+        return roundTripTimeMs;
+    }
+
+    /**
+     * Send bandwidth estimate, 0 if unknown.
+     */
+    public long getAvailableOutgoingBitrateBps() {
+        return availableOutgoingBitrateBps;
+    }
+
+    /**
+     * Receive bandwidth estimate, 0 if unknown.
+     */
+    public long getAvailableIncomingBitrateBps() {
+        return availableIncomingBitrateBps;
+    }
+
+    public long getSendBitrateBps() {
+        return sendBitrateBps;
+    }
+
+    public long getReceiveBitrateBps() {
+        return receiveBitrateBps;
+    }
+
+    @Override
+    public String toString() {
+        return "pair " + localCandidateType + "/" + remoteCandidateType + " " + state
+                + ": rtt " + Math.round(roundTripTimeMs) + "ms, bwe "
+                + availableOutgoingBitrateBps / 1000 + "kbps";
+    }
+}
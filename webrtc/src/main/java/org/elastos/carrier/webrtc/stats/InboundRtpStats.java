@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.stats;
+
+import org.webrtc.RTCStats;
+
+import java.util.Map;
+
+/**
+ * An "inbound-rtp" stream, with the rates computed since the previous poll.
+ */
+public class InboundRtpStats {
+    private final long ssrc;
+    private String kind;
+    private long timestampUs;
+    private long bytesReceived;
+    private long packetsReceived;
+    private long packetsLost;
+    private long framesDecoded;
+    private long freezeCount;
+    private double jitterBufferDelay;
+    private long jitterBufferEmittedCount;
+    private double jitterMs;
+    private double jitterBufferDelayMs;
+    private long bitrateBps;
+    private double packetLossRate;
+    private double frameRate;
+
+    InboundRtpStats(long ssrc) {
+        this.ssrc = ssrc;
+    }
+
+    void update(RTCStats stats) {
+        Map<String, Object> members = stats.getMembers();
+        long timestampUs = stats.getTimestampUs();
+        long bytesReceived = RtcStatsCollector.getLong(members, "bytesReceived");
+        long packetsReceived = RtcStatsCollector.getLong(members, "packetsReceived");
+        long packetsLost = RtcStatsCollector.getLong(members, "packetsLost");
+        long framesDecoded = RtcStatsCollector.getLong(members, "framesDecoded");
+        double jitterBufferDelay = RtcStatsCollector.getDouble(members, "jitterBufferDelay");
+        long jitterBufferEmittedCount =
+                RtcStatsCollector.getLong(members, "jitterBufferEmittedCount");
+        long elapsedUs = this.timestampUs > 0 ? timestampUs - this.timestampUs : 0;
+        bitrateBps = RtcStatsCollector.bitrate(bytesReceived - this.bytesReceived, elapsedUs);
+        frameRate = RtcStatsCollector.rate(framesDecoded - this.framesDecoded, elapsedUs);
+        long lost = packetsLost - this.packetsLost;
+        long expected = lost + packetsReceived - this.packetsReceived;
+        // packetsLost goes down when late packets arrive, which is no loss.
+        packetLossRate = elapsedUs > 0 && lost > 0 && expected > 0 ? (double) lost / expected : 0;
+        jitterMs = RtcStatsCollector.getDouble(members, "jitter") * 1000;
+        // jitterBufferDelay is the total delay in seconds of the emitted samples.
+        long emitted = jitterBufferEmittedCount - this.jitterBufferEmittedCount;
+        jitterBufferDelayMs = emitted > 0
+                ? (jitterBufferDelay - this.jitterBufferDelay) * 1000 / emitted : 0;
+        freezeCount = RtcStatsCollector.getLong(members, "freezeCount");
+        this.kind = RtcStatsCollector.getKind(members);
+        this.timestampUs = timestampUs;
+        this.bytesReceived = bytesReceived;
+        this.packetsReceived = packetsReceived;
+        this.packetsLost = packetsLost;
+        this.framesDecoded = framesDecoded;
+        this.jitterBufferDelay = jitterBufferDelay;
+        this.jitterBufferEmittedCount = jitterBufferEmittedCount;
+    }
+
+    public long getSsrc() {
+        return ssrc;
+    }
+
+    /**
+     * "audio" or "video".
+     */
+    public String getKind() {
+        return kind;
+    }
+
+    public boolean isVideo() {
+        return RtcStatsCollector.KIND_VIDEO.equals(kind);
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    /**
+     * Cumulative packets lost, as reported by the stream.
+     */
+    public long getPacketsLost() {
+        return packetsLost;
+    }
+
+    public long getFramesDecoded() {
+        return framesDecoded;
+    }
+
+    /**
+     * Cumulative video freezes, 0 for audio or when not reported.
+     */
+    public long getFreezeCount() {
+        return freezeCount;
+    }
+
+    /**
+     * Current interarrival jitter.
+     */
+    public double getJitterMs() {
+        return jitterMs;
+    }
+
+    /**
+     * Average time the samples emitted since the previous poll spent in the
+     * jitter buffer, 0 when none were emitted or it is not reported.
+     */
+    public double getJitterBufferDelayMs() {
+        return jitterBufferDelayMs;
+    }
+
+    /**
+     * Payload bitrate since the previous poll, 0 on the first poll.
+     */
+    public long getBitrateBps() {
+        return bitrateBps;
+    }
+
+    /**
+     * Fraction of the packets expected since the previous poll that were lost.
+     */
+    public double getPacketLossRate() {
+        return packetLossRate;
+    }
+
+    /**
+     * Decoded frames per second since the previous poll, 0 for audio.
+     */
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    @Override
+    public String toString() {
+        return "in " + kind + " " + ssrc + ": " + bitrateBps / 1000 + "kbps, "
+                + Math.round(frameRate) + "fps, loss " + Math.round(packetLossRate * 100)
+                + "%, jitter " + Math.round(jitterMs) + "ms";
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.stats;
+
+import org.webrtc.RTCStats;
+
+import java.util.Map;
+
+/**
+ * An "outbound-rtp" stream, with the rates computed since the previous poll.
+ */
+public class OutboundRtpStats {
+    private final long ssrc;
+    private String kind;
+    private long timestampUs;
+    private long bytesSent;
+    private long packetsSent;
+    private long framesEncoded;
+    private long bitrateBps;
+    private double packetRate;
+    private double frameRate;
+    private String qualityLimitationReason;
+
+    OutboundRtpStats(long ssrc) {
+        this.ssrc = ssrc;
+    }
+
+    void update(RTCStats stats) {
+        Map<String, Object> members = stats.getMembers();
+        long timestampUs = stats.getTimestampUs();
+        long bytesSent = RtcStatsCollector.getLong(members, "bytesSent");
+        long packetsSent = RtcStatsCollector.getLong(members, "packetsSent");
+        long framesEncoded = RtcStatsCollector.getLong(members, "framesEncoded");
+        long elapsedUs = this.timestampUs > 0 ? timestampUs - this.timestampUs : 0;
+        bitrateBps = RtcStatsCollector.bitrate(bytesSent - this.bytesSent, elapsedUs);
+        packetRate = RtcStatsCollector.rate(packetsSent - this.packetsSent, elapsedUs);
+        frameRate = RtcStatsCollector.rate(framesEncoded - this.framesEncoded, elapsedUs);
+        this.kind = RtcStatsCollector.getKind(members);
+        this.qualityLimitationReason = RtcStatsCollector.getString(members, "qualityLimitationReason");
+        this.timestampUs = timestampUs;
+        this.bytesSent = bytesSent;
+        this.packetsSent = packetsSent;
+        this.framesEncoded = framesEncoded;
+    }
+
+    public long getSsrc() {
+        return ssrc;
+    }
+
+    /**
+     * "audio" or "video".
+     */
+    public String getKind() {
+        return kind;
+    }
+
+    public boolean isVideo() {
+        return RtcStatsCollector.KIND_VIDEO.equals(kind);
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    public long getFramesEncoded() {
+        return framesEncoded;
+    }
+
+    /**
+     * Payload bitrate since the previous poll, 0 on the first poll.
+     */
+    public long getBitrateBps() {
+        return bitrateBps;
+    }
+
+    public double getPacketRate() {
+        return packetRate;
+    }
+
+    /**
+     * Encoded frames per second since the previous poll, 0 for audio.
+     */
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * Why the encoder currently lowers the resolution or frame rate: "none",
+     * "cpu", "bandwidth" or "other", null for audio or older reports.
+     */
+    public String getQualityLimitationReason() {
+        return qualityLimitationReason;
+    }
+
+    public boolean isCpuLimited() {
+        return "cpu".equals(qualityLimitationReason);
+    }
+
+    @Override
+    public String toString() {
+        return "out " + kind + " " + ssrc + ": " + bitrateBps / 1000 + "kbps, "
+                + Math.round(frameRate) + "fps";
+    }
+}
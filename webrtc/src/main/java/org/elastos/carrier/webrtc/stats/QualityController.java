@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.stats;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Adapts the sent video to the connection: steps down a ladder of capture
+ * formats and encoder bitrates when the available send bandwidth no longer
+ * covers the current level or the encoder is limited by the CPU, and back up
+ * once the connection has been stable for a while, so that quality degrades
+ * gradually instead of freezing.
+ *
+ * <p>Downgrades need the connection to stay short for
+ * {@link #DOWNGRADE_DELAY_MS}, upgrades to keep bandwidth to spare for the
+ * next level for {@link #UPGRADE_DELAY_MS}. An upgrade that is undone soon
+ * after doubles the delay of the next one, up to
+ * {@link #MAX_UPGRADE_DELAY_MS}, to stop oscillating at the edge of the
+ * bandwidth. The delays are measured with the timestamps of the stats, from
+ * the first poll of a run, so that they hold whatever the poll interval, see
+ * {@link AdaptiveStatsInterval}. Fed with the stats of one connection, on one
+ * thread.
+ */
+public class QualityController {
+    // A level is kept while the estimate covers this share of its bitrate.
+    static final double DOWNGRADE_BANDWIDTH_RATIO = 0.85;
+    // The next level is tried once the estimate exceeds its bitrate by this ratio.
+    static final double UPGRADE_BANDWIDTH_RATIO = 1.25;
+    static final long DOWNGRADE_DELAY_MS = 1000;
+    static final long CPU_DOWNGRADE_DELAY_MS = 2000;
+    static final long UPGRADE_DELAY_MS = 4000;
+    static final long MAX_UPGRADE_DELAY_MS = 60000;
+    // A downgrade within this time of an upgrade backs off the next one.
+    static final long FAILED_UPGRADE_MS = 10000;
+    private static final long NEVER = Long.MIN_VALUE;
+
+    /**
+     * A capture format and the max bitrate of its encodings.
+     */
+    public static class Level {
+        public final int width;
+        public final int height;
+        public final int fps;
+        public final int maxBitrateKbps;
+
+        public Level(int width, int height, int fps, int maxBitrateKbps) {
+            if (width <= 0 || height <= 0 || fps <= 0 || maxBitrateKbps <= 0) {
+                throw new IllegalArgumentException("Invalid level: " + width + "x" + height
+                        + "@" + fps + ", " + maxBitrateKbps + "kbps");
+            }
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+            this.maxBitrateKbps = maxBitrateKbps;
+        }
+
+        boolean fits(int width, int height, int fps) {
+            return this.width <= width && this.height <= height && this.fps <= fps;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + fps + " " + maxBitrateKbps + "kbps";
+        }
+    }
+
+    /**
+     * Applies a level to the connection.
+     */
+    public interface Actuator {
+        void apply(Level level);
+    }
+
+    /**
+     * Levels from 720p down, halving the pixel rate about every two steps.
+     */
+    public static final List<Level> DEFAULT_LEVELS = Collections.unmodifiableList(Arrays.asList(
+            new Level(1280, 720, 30, 2500),
+            new Level(960, 540, 30, 1500),
+            new Level(640, 480, 30, 1000),
+            new Level(640, 480, 15, 600),
+            new Level(480, 360, 15, 400),
+            new Level(320, 240, 15, 250),
+            new Level(320, 240, 10, 150)));
+
+    private final List<Level> levels;
+    private final Actuator actuator;
+    private int index;
+    private boolean started;
+    // Stats timestamps of the first poll of the current runs, or NEVER.
+    private long bandwidthShortSinceMs = NEVER;
+    private long cpuLimitedSinceMs = NEVER;
+    private long stableSinceMs = NEVER;
+    private long upgradedAtMs = NEVER;
+    private long upgradeDelayMs = UPGRADE_DELAY_MS;
+
+    /**
+     * @param levels from the best to the worst.
+     */
+    public QualityController(List<Level> levels, Actuator actuator) {
+        if (levels.isEmpty()) {
+            throw new IllegalArgumentException("No quality levels");
+        }
+        this.levels = new ArrayList<>(levels);
+        this.actuator = actuator;
+    }
+
+    /**
+     * The {@link #DEFAULT_LEVELS} within a capture format, starting with it.
+     */
+    public static List<Level> levelsUpTo(int width, int height, int fps) {
+        List<Level> levels = new ArrayList<>();
+        for (Level level : DEFAULT_LEVELS) {
+            if (level.fits(width, height, fps)) {
+                levels.add(level);
+            }
+        }
+        Level top = levels.isEmpty() ? null : levels.get(0);
+        if (top == null || top.width != width || top.height != height || top.fps != fps) {
+            // Scale the bitrate of 720p30 with the pixel rate.
+            Level reference = DEFAULT_LEVELS.get(0);
+            long bitrate = (long) reference.maxBitrateKbps * width * height * fps
+                    / ((long) reference.width * reference.height * reference.fps);
+            levels.add(0, new Level(width, height, fps, (int) Math.max(100, bitrate)));
+        }
+        return levels;
+    }
+
+    /**
+     * Adapt to the stats of a poll, applying the new level if it changes.
+     */
+    public void onStats(@Nullable RtcStatsSnapshot snapshot) {
+        CandidatePairStats pair = snapshot != null ? snapshot.getCandidatePair() : null;
+        OutboundRtpStats video = snapshot != null ? snapshot.getOutboundRtp("video") : null;
+        if (pair == null || video == null) {
+            // Not connected, or not sending video.
+            return;
+        }
+        if (!started) {
+            started = true;
+            actuator.apply(levels.get(index));
+        }
+        long nowMs = snapshot.getTimestampUs() / 1000;
+        long availableKbps = pair.getAvailableOutgoingBitrateBps() / 1000;
+        Level level = levels.get(index);
+
+        boolean bandwidthShort = availableKbps > 0
+                && availableKbps < level.maxBitrateKbps * DOWNGRADE_BANDWIDTH_RATIO;
+        bandwidthShortSinceMs = bandwidthShort ? since(bandwidthShortSinceMs, nowMs) : NEVER;
+        cpuLimitedSinceMs = video.isCpuLimited() ? since(cpuLimitedSinceMs, nowMs) : NEVER;
+        if (lasted(bandwidthShortSinceMs, nowMs, DOWNGRADE_DELAY_MS)
+                && index < levels.size() - 1) {
+            // Straight to the first level within the estimate, but at least one step.
+            int target = index + 1;
+            while (target < levels.size() - 1 && availableKbps < levels.get(target).maxBitrateKbps) {
+                target++;
+            }
+            setLevel(target, nowMs);
+            return;
+        }
+        if (lasted(cpuLimitedSinceMs, nowMs, CPU_DOWNGRADE_DELAY_MS)
+                && index < levels.size() - 1) {
+            setLevel(index + 1, nowMs);
+            return;
+        }
+
+        boolean roomForNext = index > 0 && !bandwidthShort && cpuLimitedSinceMs == NEVER
+                && (availableKbps == 0
+                || availableKbps >= levels.get(index - 1).maxBitrateKbps * UPGRADE_BANDWIDTH_RATIO);
+        stableSinceMs = roomForNext ? since(stableSinceMs, nowMs) : NEVER;
+        if (lasted(stableSinceMs, nowMs, upgradeDelayMs)) {
+            setLevel(index - 1, nowMs);
+        }
+    }
+
+    public Level getLevel() {
+        return levels.get(index);
+    }
+
+    public int getLevelIndex() {
+        return index;
+    }
+
+    /**
+     * How long the connection currently has to stay good before an upgrade.
+     */
+    public long getUpgradeDelayMs() {
+        return upgradeDelayMs;
+    }
+
+    private void setLevel(int newIndex, long nowMs) {
+        boolean upgrade = newIndex < index;
+        if (upgrade) {
+            upgradedAtMs = nowMs;
+        } else if (upgradedAtMs != NEVER && nowMs - upgradedAtMs <= FAILED_UPGRADE_MS) {
+            upgradeDelayMs = Math.min(upgradeDelayMs * 2, MAX_UPGRADE_DELAY_MS);
+        } else {
+            upgradeDelayMs = UPGRADE_DELAY_MS;
+        }
+        index = newIndex;
+        bandwidthShortSinceMs = NEVER;
+        cpuLimitedSinceMs = NEVER;
+        stableSinceMs = NEVER;
+        actuator.apply(levels.get(index));
+    }
+
+    // Start of a run that goes on at |nowMs|; a run starts over if the stats
+    // clock went back.
+    private static long since(long sinceMs, long nowMs) {
+        return sinceMs == NEVER || sinceMs > nowMs ? nowMs : sinceMs;
+    }
+
+    private static boolean lasted(long sinceMs, long nowMs, long delayMs) {
+        return sinceMs != NEVER && nowMs - sinceMs >= delayMs;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.stats;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the {@link RTCStatsReport}s of a peer connection into a typed
+ * {@link RtcStatsSnapshot}, computing bitrates, packet loss and frame rates
+ * from the previous report.
+ *
+ * <p>The snapshot and its entries are reused by every update, so polling
+ * allocates next to nothing beyond the report itself. Not thread safe, use it
+ * from the peer connection executor.
+ */
+public class RtcStatsCollector {
+    static final String KIND_VIDEO = "video";
+
+    private final RtcStatsSnapshot snapshot = new RtcStatsSnapshot();
+    // Streams seen so far, dropped when they are no longer reported.
+    private final List<OutboundRtpStats> outboundRtp = new ArrayList<>();
+    private final List<InboundRtpStats> inboundRtp = new ArrayList<>();
+    private CandidatePairStats candidatePair = new CandidatePairStats();
+    private TransportStats transport = new TransportStats();
+
+    /**
+     * Update the snapshot with |report|.
+     *
+     * @return the updated snapshot, valid until the next update.
+     */
+    public RtcStatsSnapshot update(RTCStatsReport report) {
+        snapshot.clear(report.getTimestampUs());
+        Map<String, RTCStats> statsMap = report.getStatsMap();
+        RTCStats transportStats = null;
+        RTCStats nominatedPair = null;
+        for (RTCStats stats : statsMap.values()) {
+            switch (stats.getType()) {
+                case "outbound-rtp":
+                    OutboundRtpStats outbound = getOutboundRtp(getLong(stats.getMembers(), "ssrc"));
+                    outbound.update(stats);
+                    snapshot.outboundRtp.add(outbound);
+                    break;
+                case "inbound-rtp":
+                    InboundRtpStats inbound = getInboundRtp(getLong(stats.getMembers(), "ssrc"));
+                    inbound.update(stats);
+                    snapshot.inboundRtp.add(inbound);
+                    break;
+                case "transport":
+                    transportStats = stats;
+                    break;
+                case "candidate-pair":
+                    if (Boolean.TRUE.equals(stats.getMembers().get("nominated"))
+                            && "succeeded".equals(getString(stats.getMembers(), "state"))) {
+                        nominatedPair = stats;
+                    }
+                    break;
+            }
+        }
+        outboundRtp.retainAll(snapshot.outboundRtp);
+        inboundRtp.retainAll(snapshot.inboundRtp);
+
+        RTCStats selectedPair = null;
+        if (transportStats != null) {
+            transport.update(transportStats);
+            snapshot.transport = transport;
+            String pairId = transport.getSelectedCandidatePairId();
+            if (pairId != null) {
+                selectedPair = statsMap.get(pairId);
+            }
+        }
+        if (selectedPair == null) {
+            selectedPair = nominatedPair;
+        }
+        if (selectedPair != null) {
+            Map<String, Object> members = selectedPair.getMembers();
+            candidatePair.update(selectedPair,
+                    getCandidateType(statsMap, getString(members, "localCandidateId")),
+                    getCandidateType(statsMap, getString(members, "remoteCandidateId")));
+            snapshot.candidatePair = candidatePair;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Forget the previous report, e.g. for a new connection.
+     */
+    public void reset() {
+        snapshot.clear(0);
+        outboundRtp.clear();
+        inboundRtp.clear();
+        candidatePair = new CandidatePairStats();
+        transport = new TransportStats();
+    }
+
+    private OutboundRtpStats getOutboundRtp(long ssrc) {
+        for (int i = 0; i < outboundRtp.size(); i++) {
+            if (outboundRtp.get(i).getSsrc() == ssrc) {
+                return outboundRtp.get(i);
+            }
+        }
+        OutboundRtpStats stats = new OutboundRtpStats(ssrc);
+        outboundRtp.add(stats);
+        return stats;
+    }
+
+    private InboundRtpStats getInboundRtp(long ssrc) {
+        for (int i = 0; i < inboundRtp.size(); i++) {
+            if (inboundRtp.get(i).getSsrc() == ssrc) {
+                return inboundRtp.get(i);
+            }
+        }
+        InboundRtpStats stats = new InboundRtpStats(ssrc);
+        inboundRtp.add(stats);
+        return stats;
+    }
+
+    @Nullable
+    private static String getCandidateType(Map<String, RTCStats> statsMap,
+                                           @Nullable String candidateId) {
+        RTCStats candidate = candidateId != null ? statsMap.get(candidateId) : null;
+        return candidate != null ? getString(candidate.getMembers(), "candidateType") : null;
+    }
+
+    // Stats members are Long, BigInteger, Integer or Double depending on their type.
+    static long getLong(Map<String, Object> members, String key) {
+        Object value = members.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    static double getDouble(Map<String, Object> members, String key) {
+        Object value = members.get(key);
+        return value instanceof Number ? ((Number) value).doubleValue() : 0;
+    }
+
+    @Nullable
+    static String getString(Map<String, Object> members, String key) {
+        Object value = members.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    // Older reports use "mediaType".
+    @Nullable
+    static String getKind(Map<String, Object> members) {
+        String kind = getString(members, "kind");
+        return kind != null ? kind : getString(members, "mediaType");
+    }
+
+    static long bitrate(long bytes, long elapsedUs) {
+        return elapsedUs > 0 && bytes > 0 ? bytes * 8 * 1000000 / elapsedUs : 0;
+    }
+
+    static double rate(long count, long elapsedUs) {
+        return elapsedUs > 0 && count > 0 ? count * 1000000.0 / elapsedUs : 0;
+    }
+}
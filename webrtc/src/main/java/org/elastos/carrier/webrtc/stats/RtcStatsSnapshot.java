@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.stats;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parsed statistics of one poll of a peer connection. Instances are
+ * reused from poll to poll by {@link RtcStatsCollector}.
+ */
+public class RtcStatsSnapshot {
+    final List<OutboundRtpStats> outboundRtp = new ArrayList<>();
+    final List<InboundRtpStats> inboundRtp = new ArrayList<>();
+    private final List<OutboundRtpStats> outboundRtpView = Collections.unmodifiableList(outboundRtp);
+    private final List<InboundRtpStats> inboundRtpView = Collections.unmodifiableList(inboundRtp);
+    private long timestampUs;
+    @Nullable
+    CandidatePairStats candidatePair;
+    @Nullable
+    TransportStats transport;
+
+    RtcStatsSnapshot() {
+    }
+
+    void clear(long timestampUs) {
+        this.timestampUs = timestampUs;
+        outboundRtp.clear();
+        inboundRtp.clear();
+        candidatePair = null;
+        transport = null;
+    }
+
+    public long getTimestampUs() {
+        return timestampUs;
+    }
+
+    public List<OutboundRtpStats> getOutboundRtp() {
+        return outboundRtpView;
+    }
+
+    public List<InboundRtpStats> getInboundRtp() {
+        return inboundRtpView;
+    }
+
+    /**
+     * The first sent stream of |kind|, "audio" or "video".
+     */
+    @Nullable
+    public OutboundRtpStats getOutboundRtp(String kind) {
+        for (int i = 0; i < outboundRtp.size(); i++) {
+            if (kind.equals(outboundRtp.get(i).getKind())) {
+                return outboundRtp.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The first received stream of |kind|, "audio" or "video".
+     */
+    @Nullable
+    public InboundRtpStats getInboundRtp(String kind) {
+        for (int i = 0; i < inboundRtp.size(); i++) {
+            if (kind.equals(inboundRtp.get(i).getKind())) {
+                return inboundRtp.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The selected candidate pair, null before ICE has selected one.
+     */
+    @Nullable
+    public CandidatePairStats getCandidatePair() {
+        return candidatePair;
+    }
+
+    @Nullable
+    public TransportStats getTransport() {
+        return transport;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (OutboundRtpStats stats : outboundRtp) {
+            builder.append(stats).append('\n');
+        }
+        for (InboundRtpStats stats : inboundRtp) {
+            builder.append(stats).append('\n');
+        }
+        if (candidatePair != null) {
+            builder.append(candidatePair).append('\n');
+        }
+        if (transport != null) {
+            builder.append(transport).append('\n');
+        }
+        return builder.toString();
+    }
+}
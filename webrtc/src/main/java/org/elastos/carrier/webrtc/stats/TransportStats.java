@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.stats;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.RTCStats;
+
+import java.util.Map;
+
+/**
+ * The "transport" of the connection, with the rates computed since the
+ * previous poll. The connection is bundled, so there is one transport.
+ */
+public class TransportStats {
+    @Nullable
+    private String dtlsState;
+    @Nullable
+    private String selectedCandidatePairId;
+    private long timestampUs;
+    private long bytesSent;
+    private long bytesReceived;
+    private long sendBitrateBps;
+    private long receiveBitrateBps;
+
+    TransportStats() {
+    }
+
+    void update(RTCStats stats) {
+        Map<String, Object> members = stats.getMembers();
+        long timestampUs = stats.getTimestampUs();
+        long bytesSent = RtcStatsCollector.getLong(members, "bytesSent");
+        long bytesReceived = RtcStatsCollector.getLong(members, "bytesReceived");
+        long elapsedUs = this.timestampUs > 0 ? timestampUs - this.timestampUs : 0;
+        sendBitrateBps = RtcStatsCollector.bitrate(bytesSent - this.bytesSent, elapsedUs);
+        receiveBitrateBps = RtcStatsCollector.bitrate(bytesReceived - this.bytesReceived, elapsedUs);
+        this.dtlsState = RtcStatsCollector.getString(members, "dtlsState");
+        this.selectedCandidatePairId = RtcStatsCollector.getString(members, "selectedCandidatePairId");
+        this.timestampUs = timestampUs;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+    }
+
+    /**
+     * "new", "connecting", "connected", "closed" or "failed".
+     */
+    @Nullable
+    public String getDtlsState() {
+        return dtlsState;
+    }
+
+    @Nullable
+    public String getSelectedCandidatePairId() {
+        return selectedCandidatePairId;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Total bitrate sent since the previous poll, including RTCP and data.
+     */
+    public long getSendBitrateBps() {
+        return sendBitrateBps;
+    }
+
+    public long getReceiveBitrateBps() {
+        return receiveBitrateBps;
+    }
+
+    @Override
+    public String toString() {
+        return "transport " + dtlsState + ": send " + sendBitrateBps / 1000 + "kbps, receive "
+                + receiveBitrateBps / 1000 + "kbps";
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.util;
+
+/**
+ * Snapshot of the metrics of a {@link SerialExecutor}.
+ */
+public class ExecutorStats {
+    private final String name;
+    private final int queueDepth;
+    private final int maxQueueDepth;
+    private final long completedTasks;
+    private final long stalledTasks;
+    private final long averageQueueDelayUs;
+    private final long maxQueueDelayUs;
+    private final long maxRunTimeUs;
+
+    ExecutorStats(String name, int queueDepth, int maxQueueDepth, long completedTasks,
+                  long stalledTasks, long averageQueueDelayUs, long maxQueueDelayUs,
+                  long maxRunTimeUs) {
+        this.name = name;
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.completedTasks = completedTasks;
+        this.stalledTasks = stalledTasks;
+        this.averageQueueDelayUs = averageQueueDelayUs;
+        this.maxQueueDelayUs = maxQueueDelayUs;
+        this.maxRunTimeUs = maxRunTimeUs;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Tasks waiting to run when the snapshot was taken.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getCompletedTasks() {
+        return completedTasks;
+    }
+
+    /**
+     * Tasks that ran longer than {@link SerialExecutor#STALL_THRESHOLD_MS}.
+     */
+    public long getStalledTasks() {
+        return stalledTasks;
+    }
+
+    /**
+     * Average time from submission until a task started running.
+     */
+    public long getAverageQueueDelayUs() {
+        return averageQueueDelayUs;
+    }
+
+    public long getMaxQueueDelayUs() {
+        return maxQueueDelayUs;
+    }
+
+    public long getMaxRunTimeUs() {
+        return maxRunTimeUs;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": queue " + queueDepth + " (max " + maxQueueDepth + "), tasks "
+                + completedTasks + ", stalled " + stalledTasks + ", queue delay avg "
+                + averageQueueDelayUs + " us max " + maxQueueDelayUs + " us, run time max "
+                + maxRunTimeUs + " us";
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.util;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks one at a time and in submission order on a shared thread pool,
+ * so every peer connection gets the ordering of a single thread without
+ * owning one. A turn is limited to {@link #MAX_TASKS_PER_TURN} tasks before
+ * the pool thread is yielded to other executors.
+ *
+ * <p>Queue depth, queueing delay and run time of the tasks are recorded, see
+ * {@link #getStats()}; tasks running longer than {@link #STALL_THRESHOLD_MS}
+ * are logged since they hold up everything queued behind them.
+ */
+public class SerialExecutor implements Executor {
+    private static final String TAG = "SerialExecutor";
+    static final int MAX_TASKS_PER_TURN = 32;
+    public static final long STALL_THRESHOLD_MS = 100;
+    private static final long STALL_THRESHOLD_NS = TimeUnit.MILLISECONDS.toNanos(STALL_THRESHOLD_MS);
+
+    private final String name;
+    private final Executor pool;
+    private final ArrayDeque<Task> queue = new ArrayDeque<>();
+    private final Runnable drainTask = this::drain;
+    private boolean scheduled;
+    private boolean shutdown;
+
+    private int maxQueueDepth;
+    private long completedTasks;
+    private long stalledTasks;
+    private long totalQueueDelayNs;
+    private long maxQueueDelayNs;
+    private long maxRunTimeNs;
+
+    public SerialExecutor(String name, Executor pool) {
+        this.name = name;
+        this.pool = pool;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        synchronized (this) {
+            if (shutdown) {
+                Log.w(TAG, name + ": executor is shut down, dropping task");
+                return;
+            }
+            queue.add(new Task(command, System.nanoTime()));
+            maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        pool.execute(drainTask);
+    }
+
+    /**
+     * Reject new tasks. Tasks already queued still run.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+    }
+
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    public synchronized ExecutorStats getStats() {
+        return new ExecutorStats(name, queue.size(), maxQueueDepth, completedTasks, stalledTasks,
+                completedTasks == 0 ? 0 : totalQueueDelayNs / completedTasks / 1000,
+                maxQueueDelayNs / 1000, maxRunTimeNs / 1000);
+    }
+
+    private void drain() {
+        for (int i = 0; i < MAX_TASKS_PER_TURN; i++) {
+            Task task;
+            synchronized (this) {
+                task = queue.poll();
+                if (task == null) {
+                    scheduled = false;
+                    return;
+                }
+            }
+            long startNs = System.nanoTime();
+            try {
+                task.command.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, name + ": task failed", e);
+            } catch (Error e) {
+                // Still scheduled: hand the tasks behind to another turn,
+                // then let the pool thread die of the error.
+                Log.e(TAG, name + ": task failed", e);
+                pool.execute(drainTask);
+                throw e;
+            } finally {
+                record(task, startNs, System.nanoTime());
+            }
+        }
+        // Remaining tasks keep their order, other executors get the thread meanwhile.
+        pool.execute(drainTask);
+    }
+
+    private void record(Task task, long startNs, long endNs) {
+        long queueDelayNs = startNs - task.enqueueTimeNs;
+        long runTimeNs = endNs - startNs;
+        boolean stalled = runTimeNs > STALL_THRESHOLD_NS;
+        int queueDepth;
+        synchronized (this) {
+            completedTasks++;
+            totalQueueDelayNs += queueDelayNs;
+            maxQueueDelayNs = Math.max(maxQueueDelayNs, queueDelayNs);
+            maxRunTimeNs = Math.max(maxRunTimeNs, runTimeNs);
+            if (stalled) {
+                stalledTasks++;
+            }
+            queueDepth = queue.size();
+        }
+        if (stalled) {
+            Log.w(TAG, name + ": task ran " + TimeUnit.NANOSECONDS.toMillis(runTimeNs)
+                    + " ms, " + queueDepth + " tasks waiting");
+        }
+    }
+
+    private static class Task {
+        final Runnable command;
+        final long enqueueTimeNs;
+
+        Task(Runnable command, long enqueueTimeNs) {
+            this.command = command;
+            this.enqueueTimeNs = enqueueTimeNs;
+        }
+    }
+}
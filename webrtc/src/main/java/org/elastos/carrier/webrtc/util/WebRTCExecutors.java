@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide thread pools shared by the peer connections.
+ *
+ * <p>Peer connection API calls and events run on the bounded peer connection
+ * pool through one {@link SerialExecutor} per connection. Blocking file I/O
+ * such as audio dumps has a pool of its own, so a slow disk never delays
+ * signaling. Periodic work of all the connections shares a single timer
+ * thread. Idle threads exit after {@link #KEEP_ALIVE_SECONDS}.
+ */
+public final class WebRTCExecutors {
+    private static final int PEER_CONNECTION_POOL_SIZE =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int IO_POOL_SIZE = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor peerConnectionPool =
+            createPool("webrtc-pc-%d", PEER_CONNECTION_POOL_SIZE);
+    private static final ThreadPoolExecutor ioPool = createPool("webrtc-io-%d", IO_POOL_SIZE);
+    private static final ScheduledThreadPoolExecutor scheduler = createScheduler("webrtc-timer-%d");
+
+    private WebRTCExecutors() {
+    }
+
+    /**
+     * Serial executor for the peer connection API calls and events of one connection.
+     */
+    public static SerialExecutor newPeerConnectionExecutor(String name) {
+        return new SerialExecutor(name, peerConnectionPool);
+    }
+
+    /**
+     * Serial executor for the blocking file I/O of one connection.
+     */
+    public static SerialExecutor newIoExecutor(String name) {
+        return new SerialExecutor(name, ioPool);
+    }
+
+    /**
+     * Timer shared by the connections. Its tasks must be short, they should
+     * hand the actual work to the serial executor of their connection.
+     */
+    public static ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    private static ScheduledThreadPoolExecutor createScheduler(String nameFormat) {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
+        scheduler.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+        // Cancelled polls must not pile up in the queue until their deadline.
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    private static ThreadPoolExecutor createPool(String nameFormat, int size) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import org.elastos.carrier.webrtc.call.CallHandler;
+import org.elastos.carrier.webrtc.call.CallReason;
+import org.elastos.carrier.webrtc.call.CallState;
+import org.elastos.carrier.webrtc.exception.WebrtcException;
+import org.elastos.carrier.webrtc.sdp.SdpFixtures;
+import org.elastos.carrier.webrtc.signaling.BinarySignalingCodec;
+import org.elastos.carrier.webrtc.signaling.JsonSignalingCodec;
+import org.elastos.carrier.webrtc.signaling.SignalingCodec;
+import org.elastos.carrier.webrtc.signaling.SignalingFragmenter;
+import org.elastos.carrier.webrtc.signaling.SignalingMessage;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+import org.webrtc.PeerConnection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs many concurrent call sessions against a loopback signaling stand-in.
+ * Remote peers are simulated by encoding their messages directly, and the
+ * local peer connections are recorded rather than created.
+ */
+public class CallSessionManagerTest {
+    private static final int PEERS = 64;
+    private static final int MAX_FRAGMENT_SIZE = 512;
+    private static final IceCandidate[] CANDIDATES = {
+            new IceCandidate("0", 0, "candidate:1510613869 1 udp 2122260223 192.168.1.23 51734 typ host generation 0"),
+            new IceCandidate("0", 0, "candidate:842163049 1 udp 1677729535 203.0.113.7 51734 typ srflx raddr 192.168.1.23 rport 51734 generation 0"),
+            new IceCandidate("1", 1, "candidate:3885250869 1 tcp 1518280447 192.168.1.23 9 typ host tcptype active generation 0"),
+    };
+
+    private final SignalingCodec json = new JsonSignalingCodec();
+    private final SignalingCodec binary = new BinarySignalingCodec();
+    private final SignalingFragmenter peerFragmenter = new SignalingFragmenter(MAX_FRAGMENT_SIZE);
+    private final LoopbackTransport transport = new LoopbackTransport();
+    private final RecordingCallHandler callHandler = new RecordingCallHandler();
+    private TestFactoryHolder factoryHolder;
+    private TestCallSessionManager manager;
+    private ExecutorService peers;
+
+    @Before
+    public void setUp() {
+        CarrierPeerConnectionClient.PeerConnectionParameters parameters =
+                PeerConnectionParametersBuilder.builder().enableVideo(false).build();
+        factoryHolder = new TestFactoryHolder(parameters);
+        manager = new TestCallSessionManager(parameters, transport, factoryHolder, callHandler,
+                MAX_FRAGMENT_SIZE);
+        peers = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        peers.shutdownNow();
+    }
+
+    @Test
+    public void concurrentIncomingCalls() throws Exception {
+        // Every peer sends an offer and its candidates, fragmented, from its own thread.
+        runPeers((i, peer) -> {
+            boolean binaryPeer = isBinaryPeer(peer);
+            deliver(peer, binaryPeer ? binary : json, SignalingMessage.offer(SdpFixtures.OFFER,
+                    true, binaryPeer, false, binaryPeer
+                            ? Collections.singleton(SignalingMessage.CAPABILITY_BINARY_CODEC)
+                            : Collections.<String>emptySet()));
+            deliver(peer, binaryPeer ? binary : json, SignalingMessage.candidates(CANDIDATES));
+        });
+
+        assertEquals(PEERS, manager.getSessions().size());
+        assertEquals(PEERS, callHandler.inviteCount.get());
+        assertEquals(PEERS, factoryHolder.getRefCount());
+        for (int i = 0; i < PEERS; i++) {
+            String peer = peerId(i);
+            CallSession session = manager.getSession(peer);
+            assertNotNull(peer, session);
+            assertEquals(CallState.RINGING, session.getCallState());
+            assertEquals(CANDIDATES.length, session.getPendingRemoteCandidateCount());
+            assertEquals(isBinaryPeer(peer), callHandler.invites.get(peer));
+            assertSame(isBinaryPeer(peer) ? BinarySignalingCodec.class : JsonSignalingCodec.class,
+                    session.getSignalingCodec().getClass());
+        }
+
+        // Reject the calls of even peers while odd peers hang up concurrently.
+        runPeers((i, peer) -> {
+            if (i % 2 == 0) {
+                manager.getSession(peer).rejectCall();
+            } else {
+                deliver(peer, json, SignalingMessage.bye(CallReason.NORMAL_HANGUP.getValue()));
+            }
+        });
+
+        assertTrue(manager.getSessions().isEmpty());
+        assertEquals(0, factoryHolder.getRefCount());
+        assertEquals(PEERS / 2, callHandler.endedCalls.size());
+        for (int i = 0; i < PEERS; i++) {
+            String peer = peerId(i);
+            if (i % 2 == 0) {
+                // The reject reached the peer in the codec it negotiated.
+                List<String> sent = transport.sent.get(peer);
+                assertEquals(1, sent.size());
+                SignalingCodec codec = isBinaryPeer(peer) ? binary : json;
+                assertTrue(codec.canDecode(sent.get(0)));
+                SignalingMessage bye = codec.decode(sent.get(0));
+                assertEquals(SignalingMessage.Type.BYE, bye.getType());
+                assertEquals(CallReason.REJECT.getValue(), bye.getReason());
+            } else {
+                assertNull(transport.sent.get(peer));
+            }
+        }
+    }
+
+    @Test
+    public void routesMessagesOfKnownPeersOnly() throws WebrtcException {
+        deliver("unknown", json, SignalingMessage.candidates(CANDIDATES));
+        deliver("unknown", json, SignalingMessage.bye(0));
+        assertTrue(manager.getSessions().isEmpty());
+
+        deliver("peer", json, SignalingMessage.offer(SdpFixtures.OFFER, true, false, false,
+                Collections.<String>emptySet()));
+        CallSession session = manager.getSession("peer");
+        assertNotNull(session);
+        assertSame(session, manager.getCurrentSession());
+        // A repeated offer goes to the same session.
+        deliver("peer", json, SignalingMessage.offer(SdpFixtures.OFFER, true, false, false,
+                Collections.<String>emptySet()));
+        assertEquals(2, callHandler.inviteCount.get());
+        assertEquals(1, manager.getSessions().size());
+        assertSame(session, manager.getSession("peer"));
+
+        try {
+            manager.makeCall("peer", callHandler);
+            throw new AssertionError("second call with the same peer");
+        } catch (WebrtcException expected) {
+        }
+    }
+
+    @Test
+    public void makeCallOffersAndHangsUp() throws Exception {
+        CallSession session = manager.makeCall("callee", callHandler);
+        assertTrue(session.isInitiator());
+        assertEquals(CallState.CONNECTING, session.getCallState());
+        assertSame(session, manager.getSession("callee"));
+        assertSame(session, manager.getCurrentSession());
+        assertEquals(1, manager.clients.size());
+        assertEquals(1, manager.clients.get(0).createdConnections.get());
+        assertEquals(1, manager.clients.get(0).offers.get());
+
+        session.hangupCall();
+        assertTrue(manager.getSessions().isEmpty());
+        assertNull(manager.getCurrentSession());
+        assertEquals(1, manager.clients.get(0).closes.get());
+        assertTrue(factoryHolder.awaitRefCount(0, 5000));
+        SignalingMessage bye = json.decode(transport.sent.get("callee").get(0));
+        assertEquals(SignalingMessage.Type.BYE, bye.getType());
+        assertEquals(CallReason.NORMAL_HANGUP.getValue(), bye.getReason());
+    }
+
+    @Test
+    public void incomingCallDoesNotReplaceTheCallInProgress() throws Exception {
+        CallSession outgoing = manager.makeCall("callee", callHandler);
+        deliver("caller", json, SignalingMessage.offer(SdpFixtures.OFFER, true, false, false,
+                Collections.<String>emptySet()));
+        CallSession incoming = manager.getSession("caller");
+        assertEquals(CallState.RINGING, incoming.getCallState());
+        assertSame(outgoing, manager.getCurrentSession());
+
+        // Once the call in progress ends, the ringing call is the current one.
+        outgoing.hangupCall();
+        assertSame(incoming, manager.getCurrentSession());
+        incoming.rejectCall();
+        assertNull(manager.getCurrentSession());
+        assertTrue(manager.getSessions().isEmpty());
+        assertTrue(factoryHolder.awaitRefCount(0, 5000));
+
+        // A call made while one is ringing is the current one.
+        deliver("caller", json, SignalingMessage.offer(SdpFixtures.OFFER, true, false, false,
+                Collections.<String>emptySet()));
+        incoming = manager.getSession("caller");
+        assertSame(incoming, manager.getCurrentSession());
+        outgoing = manager.makeCall("callee", callHandler);
+        assertSame(outgoing, manager.getCurrentSession());
+        outgoing.hangupCall();
+        incoming.rejectCall();
+        assertNull(manager.getCurrentSession());
+    }
+
+    @Test
+    public void concurrentOutgoingAndIncomingCalls() throws Exception {
+        // Even peers are called while odd peers call in.
+        runPeers((i, peer) -> {
+            if (i % 2 == 0) {
+                manager.makeCall(peer, callHandler);
+            } else {
+                deliver(peer, json, SignalingMessage.offer(SdpFixtures.OFFER, true, false, false,
+                        Collections.<String>emptySet()));
+            }
+        });
+
+        assertEquals(PEERS, manager.getSessions().size());
+        assertEquals(PEERS / 2, callHandler.inviteCount.get());
+        assertEquals(PEERS / 2, manager.clients.size());
+        for (int i = 0; i < PEERS; i++) {
+            CallSession session = manager.getSession(peerId(i));
+            assertEquals(i % 2 == 0, session.isInitiator());
+            assertEquals(i % 2 == 0 ? CallState.CONNECTING : CallState.RINGING,
+                    session.getCallState());
+        }
+        // The incoming calls never take over from a call made.
+        assertTrue(manager.getCurrentSession().isInitiator());
+
+        // Hang up the calls made while the callers give up concurrently.
+        runPeers((i, peer) -> {
+            if (i % 2 == 0) {
+                manager.getSession(peer).hangupCall();
+            } else {
+                deliver(peer, json, SignalingMessage.bye(CallReason.NORMAL_HANGUP.getValue()));
+            }
+        });
+
+        assertTrue(manager.getSessions().isEmpty());
+        assertNull(manager.getCurrentSession());
+        assertTrue(factoryHolder.awaitRefCount(0, 5000));
+        for (TestCallSessionManager.TestPeerConnectionClient client : manager.clients) {
+            assertEquals(1, client.closes.get());
+        }
+    }
+
+    @Test
+    public void reportsCallTimelines() throws Exception {
+        List<CallTimeline.Phase> phases = new CopyOnWriteArrayList<>();
+        List<CallTimeline.Summary> summaries = new CopyOnWriteArrayList<>();
+        manager.setCallTimelineListener(new CallTimeline.Listener() {
+            @Override
+            public void onPhase(CallTimeline timeline, CallTimeline.Phase phase, long elapsedMs) {
+                phases.add(phase);
+            }
+
+            @Override
+            public void onCallEnded(CallTimeline.Summary summary) {
+                summaries.add(summary);
+            }
+        });
+
+        deliver("peer", json, SignalingMessage.offer(SdpFixtures.OFFER, true, false, false,
+                Collections.<String>emptySet()));
+        deliver("peer", json, SignalingMessage.candidates(CANDIDATES));
+        deliver("peer", json, SignalingMessage.candidates(CANDIDATES));
+        CallSession session = manager.getSession("peer");
+        assertFalse(session.getCallTimeline().isInitiator());
+        session.rejectCall();
+
+        assertEquals(Arrays.asList(CallTimeline.Phase.OFFER_RECEIVED,
+                CallTimeline.Phase.FIRST_REMOTE_CANDIDATE, CallTimeline.Phase.CALL_ENDED), phases);
+        assertEquals(1, summaries.size());
+
+        // The summary survives serialization for aggregation elsewhere.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(summaries.get(0));
+        }
+        CallTimeline.Summary summary;
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            summary = (CallTimeline.Summary) in.readObject();
+        }
+        assertFalse(summary.isInitiator());
+        assertEquals(CallReason.REJECT.getValue(), summary.getEndReason());
+        assertEquals(3, summary.getPhases().size());
+        assertEquals(0, summary.getElapsedMs(CallTimeline.Phase.OFFER_RECEIVED));
+        assertEquals(-1, summary.getElapsedMs(CallTimeline.Phase.ICE_CONNECTED));
+        assertEquals(-1, summary.getDurationMs(CallTimeline.Phase.OFFER_RECEIVED,
+                CallTimeline.Phase.ICE_CONNECTED));
+        JSONObject json = summary.toJson();
+        assertEquals(0, json.getLong(CallTimeline.Phase.CALL_ENDED.name()));
+        assertFalse(json.has(CallTimeline.Phase.ICE_CONNECTED.name()));
+    }
+
+    private void deliver(String peer, SignalingCodec codec, SignalingMessage message) {
+        for (String fragment : peerFragmenter.fragment(codec.encode(message))) {
+            manager.onInvite(peer, fragment);
+        }
+    }
+
+    private void runPeers(PeerTask task) throws Exception {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < PEERS; i++) {
+            final int index = i;
+            final String peer = peerId(i);
+            futures.add(peers.submit(() -> {
+                task.run(index, peer);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private static String peerId(int i) {
+        return "peer-" + i;
+    }
+
+    private static boolean isBinaryPeer(String peer) {
+        return peer.endsWith("0") || peer.endsWith("5");
+    }
+
+    private interface PeerTask {
+        void run(int index, String peer) throws Exception;
+    }
+
+    private static class LoopbackTransport implements CallSessionManager.Transport {
+        final Map<String, List<String>> sent = new ConcurrentHashMap<>();
+
+        @Override
+        public void send(String peerId, String data) {
+            List<String> messages = sent.get(peerId);
+            if (messages == null) {
+                sent.putIfAbsent(peerId, new CopyOnWriteArrayList<String>());
+                messages = sent.get(peerId);
+            }
+            messages.add(data);
+        }
+
+        @Override
+        public List<PeerConnection.IceServer> getIceServers() {
+            return Collections.emptyList();
+        }
+    }
+
+    private static class RecordingCallHandler implements CallHandler {
+        // Peer -> whether video was offered.
+        final Map<String, Boolean> invites = new ConcurrentHashMap<>();
+        final AtomicInteger inviteCount = new AtomicInteger();
+        final List<CallReason> endedCalls = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onInvite(String friendId, boolean audio, boolean video, boolean data) {
+            invites.put(friendId, video);
+            inviteCount.incrementAndGet();
+        }
+
+        @Override
+        public void onAnswer() {
+        }
+
+        @Override
+        public void onActive() {
+        }
+
+        @Override
+        public void onEndCall(CallReason reason) {
+            assertEquals(CallReason.NORMAL_HANGUP, reason);
+            endedCalls.add(reason);
+        }
+
+        @Override
+        public void onIceConnected() {
+        }
+
+        @Override
+        public void onIceDisConnected() {
+        }
+
+        @Override
+        public void onConnectionError(String description) {
+        }
+
+        @Override
+        public void onConnectionClosed() {
+        }
+
+        @Override
+        public void onMessage(ByteBuffer buffer, boolean binary) {
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import org.elastos.carrier.webrtc.call.CallHandler;
+import org.elastos.carrier.webrtc.call.CallState;
+import org.elastos.carrier.webrtc.sdp.SdpFixtures;
+import org.elastos.carrier.webrtc.signaling.JsonSignalingCodec;
+import org.elastos.carrier.webrtc.signaling.SignalingFragmenter;
+import org.elastos.carrier.webrtc.signaling.SignalingMessage;
+import org.elastos.carrier.webrtc.util.SerialExecutor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Prewarming the peer connection of an incoming call while it rings.
+ */
+public class CallSessionPrewarmTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private final CarrierPeerConnectionClient.PeerConnectionParameters parameters =
+            PeerConnectionParametersBuilder.builder().enableVideo(false).build();
+    private final CallHandler callHandler = mock(CallHandler.class);
+    private TestFactoryHolder factoryHolder;
+    private TestCallSessionManager manager;
+
+    @Before
+    public void setUp() {
+        factoryHolder = new TestFactoryHolder(parameters);
+        manager = new TestCallSessionManager(parameters, mock(CallSessionManager.Transport.class),
+                factoryHolder, callHandler, SignalingFragmenter.DEFAULT_MAX_FRAGMENT_SIZE);
+        manager.setPrewarmEnabled(true);
+    }
+
+    @Test
+    public void answerTakesTheFastPathOnAPrewarmedCall() throws Exception {
+        CallSession session = receiveCall();
+        TestCallSessionManager.TestPeerConnectionClient client = awaitPrewarm();
+        assertEquals(CallState.RINGING, session.getCallState());
+        assertEquals(0, client.answers.get());
+
+        session.answerCall();
+        assertTrue(await(client.answers, 1));
+        // The prewarmed connection answers, no other one is created.
+        assertEquals(1, manager.clients.size());
+        assertEquals(1, client.createdConnections.get());
+        CallSetupStats stats = session.getCallSetupStats();
+        assertTrue(stats.isPrewarmed());
+        assertTrue(stats.getPrewarmMs() >= 0);
+        assertFalse(stats.isInitiator());
+
+        session.hangupCall();
+        assertTrue(await(client.closes, 1));
+        assertTrue(factoryHolder.awaitRefCount(0, TIMEOUT_MS));
+        assertTrue(session.getPrewarmExecutor().isShutdown());
+    }
+
+    @Test
+    public void answerWaitsForTheRunningPrewarm() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        manager.createGate = gate;
+        CallSession session = receiveCall();
+        assertTrue(awaitClients(1));
+        TestCallSessionManager.TestPeerConnectionClient client = manager.clients.get(0);
+
+        // Queued behind the prewarm blocked in createPeerConnection().
+        session.answerCall();
+        assertEquals(CallState.CONNECTING, session.getCallState());
+        Thread.sleep(50);
+        assertEquals(0, client.answers.get());
+
+        gate.countDown();
+        assertTrue(await(client.answers, 1));
+        assertEquals(1, manager.clients.size());
+        assertEquals(1, client.createdConnections.get());
+        assertTrue(session.getCallSetupStats().isPrewarmed());
+        session.hangupCall();
+        assertTrue(factoryHolder.awaitRefCount(0, TIMEOUT_MS));
+    }
+
+    @Test
+    public void rejectDisposesThePrewarmedConnection() throws Exception {
+        CallSession session = receiveCall();
+        TestCallSessionManager.TestPeerConnectionClient client = awaitPrewarm();
+        SerialExecutor prewarmExecutor = session.getPrewarmExecutor();
+        assertNotNull(prewarmExecutor);
+
+        session.rejectCall();
+        assertTrue(await(client.closes, 1));
+        assertTrue(factoryHolder.awaitRefCount(0, TIMEOUT_MS));
+        assertTrue(prewarmExecutor.isShutdown());
+        assertNull(manager.getSession("caller"));
+        assertEquals(0, client.answers.get());
+    }
+
+    @Test
+    public void hangupDuringThePrewarmDisposesTheConnection() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        manager.createGate = gate;
+        CallSession session = receiveCall();
+        assertTrue(awaitClients(1));
+        TestCallSessionManager.TestPeerConnectionClient client = manager.clients.get(0);
+
+        // The caller gives up while the connection is still being created.
+        manager.onInvite("caller", new JsonSignalingCodec().encode(SignalingMessage.bye(0)));
+        assertNull(manager.getSession("caller"));
+        assertTrue(session.getPrewarmExecutor().isShutdown());
+        assertEquals(0, client.closes.get());
+
+        // The connection is closed once the prewarm has finished.
+        gate.countDown();
+        assertTrue(await(client.closes, 1));
+        assertTrue(factoryHolder.awaitRefCount(0, TIMEOUT_MS));
+        assertEquals(1, manager.clients.size());
+    }
+
+    private CallSession receiveCall() {
+        manager.onInvite("caller", new JsonSignalingCodec().encode(SignalingMessage.offer(
+                SdpFixtures.OFFER, true, false, false, Collections.<String>emptySet())));
+        CallSession session = manager.getSession("caller");
+        assertNotNull(session.getPrewarmExecutor());
+        return session;
+    }
+
+    private TestCallSessionManager.TestPeerConnectionClient awaitPrewarm() throws Exception {
+        assertTrue(awaitClients(1));
+        TestCallSessionManager.TestPeerConnectionClient client = manager.clients.get(0);
+        assertTrue(await(client.createdConnections, 1));
+        return client;
+    }
+
+    private boolean awaitClients(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (manager.clients.size() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private static boolean await(AtomicInteger counter, int value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (counter.get() < value) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import org.elastos.carrier.webrtc.call.CallHandler;
+import org.elastos.carrier.webrtc.sdp.SdpFixtures;
+import org.elastos.carrier.webrtc.signaling.JsonSignalingCodec;
+import org.elastos.carrier.webrtc.signaling.SignalingFragmenter;
+import org.elastos.carrier.webrtc.signaling.SignalingMessage;
+import org.junit.Test;
+import org.webrtc.SessionDescription;
+
+import java.util.Collections;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class CallSetupStatsTest {
+    private final CarrierPeerConnectionClient.PeerConnectionParameters parameters =
+            PeerConnectionParametersBuilder.builder().enableVideo(false).build();
+    private final CallHandler callHandler = mock(CallHandler.class);
+
+    @Test
+    public void attributesTheFactoryOfAPreviousCall() throws Exception {
+        ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        doReturn(mock(ScheduledFuture.class)).when(scheduler).schedule(any(Runnable.class),
+                anyLong(), any(TimeUnit.class));
+        TestFactoryHolder holder = new TestFactoryHolder(parameters, scheduler,
+                PeerConnectionFactoryHolder.DEFAULT_IDLE_TIMEOUT_MS);
+        TestCallSessionManager manager = newManager(holder);
+
+        CallSession first = manager.makeCall("peer", callHandler);
+        CallSetupStats cold = first.getCallSetupStats();
+        assertTrue(cold.isInitiator());
+        assertFalse(cold.isWarmFactory());
+        assertTrue(cold.getFactoryCreationMs() >= 0);
+        assertEquals(-1, cold.getTimeToLocalSdpMs());
+        assertFalse(cold.isPrewarmed());
+        assertEquals(-1, cold.getPrewarmMs());
+        manager.clients.get(0).events.onLocalDescription(
+                new SessionDescription(SessionDescription.Type.OFFER, SdpFixtures.OFFER));
+        assertTrue(first.getCallSetupStats().getTimeToLocalSdpMs() >= 0);
+        first.hangupCall();
+        assertTrue(holder.awaitRefCount(0, 5000));
+
+        // The factory outlives the first call for the idle timeout.
+        CallSession second = manager.makeCall("peer", callHandler);
+        assertTrue(second.getCallSetupStats().isWarmFactory());
+        assertEquals(1, holder.getFactoryCount());
+        second.hangupCall();
+    }
+
+    @Test
+    public void attributesAFactoryCreatedForTheCall() throws Exception {
+        // Without an idle timeout every call creates its factory.
+        TestFactoryHolder holder = new TestFactoryHolder(parameters);
+        TestCallSessionManager manager = newManager(holder);
+        for (int i = 0; i < 2; i++) {
+            CallSession session = manager.makeCall("peer", callHandler);
+            assertFalse(session.getCallSetupStats().isWarmFactory());
+            session.hangupCall();
+            assertTrue(holder.awaitRefCount(0, 5000));
+        }
+        assertEquals(2, holder.getFactoryCount());
+        assertEquals(2, holder.disposedFactories.get());
+    }
+
+    @Test
+    public void noStatsBeforeTheCallIsMadeOrAnswered() {
+        TestCallSessionManager manager = newManager(new TestFactoryHolder(parameters));
+        manager.onInvite("caller", new JsonSignalingCodec().encode(SignalingMessage.offer(
+                SdpFixtures.OFFER, true, false, false, Collections.<String>emptySet())));
+        assertNull(manager.getSession("caller").getCallSetupStats());
+    }
+
+    private TestCallSessionManager newManager(TestFactoryHolder holder) {
+        return new TestCallSessionManager(parameters, mock(CallSessionManager.Transport.class),
+                holder, callHandler, SignalingFragmenter.DEFAULT_MAX_FRAGMENT_SIZE);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DataChannelParametersTest {
+    @Test
+    public void buildsNamedChannels() {
+        CarrierPeerConnectionClient.PeerConnectionParameters parameters =
+                PeerConnectionParametersBuilder.builder()
+                        .addDataChannel("chat", CarrierPeerConnectionClient.DataChannelParameters.reliable())
+                        .addDataChannel("telemetry",
+                                CarrierPeerConnectionClient.DataChannelParameters.maxRetransmits(0, false))
+                        .build();
+
+        assertNull(parameters.dataChannelParameters);
+        assertTrue(parameters.hasDataChannels());
+        assertEquals(Arrays.asList("chat", "telemetry"), new ArrayList<>(parameters.dataChannels.keySet()));
+        assertTrue(parameters.dataChannels.get("chat").isReliable());
+        CarrierPeerConnectionClient.DataChannelParameters telemetry =
+                parameters.dataChannels.get("telemetry");
+        assertFalse(telemetry.isReliable());
+        assertFalse(telemetry.ordered);
+        assertEquals(0, telemetry.maxRetransmits);
+        assertEquals(-1, telemetry.maxRetransmitTimeMs);
+    }
+
+    @Test
+    public void keepsTheDefaultChannel() {
+        CarrierPeerConnectionClient.PeerConnectionParameters parameters =
+                PeerConnectionParametersBuilder.builder().enableData(true).build();
+        assertTrue(parameters.dataChannelParameters.isReliable());
+        assertTrue(parameters.dataChannels.isEmpty());
+
+        parameters = PeerConnectionParametersBuilder.builder()
+                .dataChannelParameters(
+                        CarrierPeerConnectionClient.DataChannelParameters.maxPacketLifeTime(500, true))
+                .build();
+        assertEquals(500, parameters.dataChannelParameters.maxRetransmitTimeMs);
+
+        assertFalse(PeerConnectionParametersBuilder.builder().build().hasDataChannels());
+    }
+
+    @Test
+    public void rejectsInvalidChannels() {
+        try {
+            PeerConnectionParametersBuilder.builder().addDataChannel(
+                    CarrierPeerConnectionClient.DEFAULT_DATA_CHANNEL_LABEL,
+                    CarrierPeerConnectionClient.DataChannelParameters.reliable());
+            fail("added the default channel");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new CarrierPeerConnectionClient.DataChannelParameters(false, 100, 2, "", false, -1);
+            fail("limited both the retransmissions and their time");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.elastos.carrier.webrtc;
+
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IceCandidateBatcherTest {
+    /**
+     * A batch timer that only fires when the test says so.
+     */
+    private static class ManualTimer implements IceCandidateBatcher.Timer {
+        Runnable task;
+        long delayMs;
+        boolean available = true;
+
+        @Override
+        public boolean postDelayed(Runnable task, long delayMs) {
+            if (!available) {
+                return false;
+            }
+            this.task = task;
+            this.delayMs = delayMs;
+            return true;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            if (this.task == task) {
+                this.task = null;
+            }
+        }
+
+        void fire() {
+            Runnable task = this.task;
+            this.task = null;
+            task.run();
+        }
+    }
+
+    private static class RecordingSender implements IceCandidateBatcher.Sender {
+        final List<String> sent = new ArrayList<>();
+
+        @Override
+        public void sendCandidates(IceCandidate[] candidates) {
+            StringBuilder message = new StringBuilder();
+            for (IceCandidate candidate : candidates) {
+                message.append(message.length() == 0 ? "" : ",").append(candidate.sdpMid);
+            }
+            sent.add(message.toString());
+        }
+    }
+
+    private static IceCandidate candidate(int i) {
+        return new IceCandidate("c" + i, 0, "candidate:" + i + " 1 udp 2122260223 192.168.1."
+                + i + " " + (50000 + i) + " typ host generation 0");
+    }
+
+    @Test
+    public void sendsEachCandidateWithoutATimer() {
+        RecordingSender sender = new RecordingSender();
+        IceCandidateBatcher batcher = new IceCandidateBatcher((IceCandidateBatcher.Timer) null,
+                sender, 100, 8);
+        batcher.reset();
+        for (int i = 1; i <= 3; i++) {
+            batcher.add(candidate(i));
+        }
+
+        assertEquals(Arrays.asList("c1", "c2", "c3"), sender.sent);
+        IceCandidateBatchStats stats = batcher.getStats();
+        assertEquals(3, stats.getCandidates());
+        assertEquals(3, stats.getMessages());
+        assertEquals(0, stats.getMessagesSaved());
+    }
+
+    @Test
+    public void sendsEachCandidateWithAZeroWindow() {
+        ManualTimer timer = new ManualTimer();
+        RecordingSender sender = new RecordingSender();
+        IceCandidateBatcher batcher = new IceCandidateBatcher(timer, sender, 0, 8);
+        batcher.add(candidate(1));
+        batcher.add(candidate(2));
+
+        assertEquals(Arrays.asList("c1", "c2"), sender.sent);
+        assertNull(timer.task);
+    }
+
+    @Test
+    public void batchesCandidatesWithinTheWindow() {
+        ManualTimer timer = new ManualTimer();
+        RecordingSender sender = new RecordingSender();
+        IceCandidateBatcher batcher = new IceCandidateBatcher(timer, sender, 100, 8);
+        batcher.reset();
+        for (int i = 1; i <= 3; i++) {
+            batcher.add(candidate(i));
+        }
+
+        assertTrue(sender.sent.isEmpty());
+        assertEquals(100, timer.delayMs);
+        timer.fire();
+        assertEquals(Arrays.asList("c1,c2,c3"), sender.sent);
+
+        // The next candidate opens a new window.
+        batcher.add(candidate(4));
+        assertTrue(timer.task != null);
+        timer.fire();
+        assertEquals(Arrays.asList("c1,c2,c3", "c4"), sender.sent);
+
+        IceCandidateBatchStats stats = batcher.getStats();
+        assertEquals(4, stats.getCandidates());
+        assertEquals(2, stats.getMessages());
+        assertEquals(2, stats.getMessagesSaved());
+        assertEquals(0, stats.getTimeToFirstCandidateMs());
+    }
+
+    @Test
+    public void flushesAFullBatchAtOnce() {
+        ManualTimer timer = new ManualTimer();
+        RecordingSender sender = new RecordingSender();
+        IceCandidateBatcher batcher = new IceCandidateBatcher(timer, sender, 100, 2);
+        batcher.add(candidate(1));
+        batcher.add(candidate(2));
+
+        assertEquals(Arrays.asList("c1,c2"), sender.sent);
+        // The window of the flushed batch is cancelled.
+        assertNull(timer.task);
+
+        batcher.add(candidate(3));
+        batcher.configure(100, 1);
+        batcher.add(candidate(4));
+        assertEquals(Arrays.asList("c1,c2", "c3,c4"), sender.sent);
+    }
+
+    @Test
+    public void sendsNowWithoutAnAvailableTimer() {
+        ManualTimer timer = new ManualTimer();
+        timer.available = false;
+        RecordingSender sender = new RecordingSender();
+        IceCandidateBatcher batcher = new IceCandidateBatcher(timer, sender, 100, 8);
+        batcher.add(candidate(1));
+
+        assertEquals(Arrays.asList("c1"), sender.sent);
+    }
+
+    // The session flushes pending candidates before it signals a removal, so
+    // the peer never receives the removal of a candidate it has not seen.
+    @Test
+    public void flushSendsPendingCandidatesBeforeTheNextMessage() {
+        ManualTimer timer = new ManualTimer();
+        final RecordingSender sender = new RecordingSender();
+        IceCandidateBatcher batcher = new IceCandidateBatcher(timer, sender, 100, 8);
+        batcher.add(candidate(1));
+        batcher.add(candidate(2));
+
+        batcher.flush();
+        sender.sent.add("removal");
+        assertEquals(Arrays.asList("c1,c2", "removal"), sender.sent);
+        assertNull(timer.task);
+
+        // Nothing pending, nothing sent.
+        batcher.flush();
+        assertEquals(2, sender.sent.size());
+        assertEquals(1, batcher.getStats().getMessages());
+    }
+
+    @Test
+    public void cancelKeepsTheStatsAndResetClearsThem() {
+        ManualTimer timer = new ManualTimer();
+        RecordingSender sender = new RecordingSender();
+        IceCandidateBatcher batcher = new IceCandidateBatcher(timer, sender, 100, 8);
+        batcher.reset();
+        batcher.add(candidate(1));
+        batcher.flush();
+        batcher.add(candidate(2));
+
+        batcher.cancel();
+        assertNull(timer.task);
+        batcher.flush();
+        assertEquals(Arrays.asList("c1"), sender.sent);
+        IceCandidateBatchStats stats = batcher.getStats();
+        assertEquals(2, stats.getCandidates());
+        assertEquals(1, stats.getMessages());
+
+        batcher.add(candidate(3));
+        batcher.reset();
+        assertNull(timer.task);
+        stats = batcher.getStats();
+        assertEquals(0, stats.getCandidates());
+        assertEquals(0, stats.getMessages());
+        assertEquals(-1, stats.getTimeToFirstCandidateMs());
+        batcher.flush();
+        assertEquals(1, sender.sent.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyBatchSize() {
+        new IceCandidateBatcher(new ManualTimer(), new RecordingSender(), 100, 0);
+    }
+
+    // The transport may block on the carrier while it sends, and the
+    // candidates of the peer connection keep coming on another thread.
+    @Test(timeout = 10000)
+    public void sendsOutsideTheLock() throws Exception {
+        final ExecutorService signaling = Executors.newSingleThreadExecutor();
+        final List<IceCandidate[]> sent = new ArrayList<>();
+        final IceCandidateBatcher[] batcher = new IceCandidateBatcher[1];
+        batcher[0] = new IceCandidateBatcher((IceCandidateBatcher.Timer) null,
+                new IceCandidateBatcher.Sender() {
+                    @Override
+                    public void sendCandidates(IceCandidate[] candidates) {
+                        assertFalse(Thread.holdsLock(batcher[0]));
+                        sent.add(candidates);
+                        if (sent.size() == 1) {
+                            try {
+                                signaling.submit(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        batcher[0].getStats();
+                                        batcher[0].cancel();
+                                    }
+                                }).get(5, TimeUnit.SECONDS);
+                            } catch (Exception e) {
+                                throw new AssertionError(e);
+                            }
+                        }
+                    }
+                }, 100, 8);
+        try {
+            batcher[0].add(candidate(1));
+            assertEquals(1, sent.size());
+        } finally {
+            signaling.shutdownNow();
+        }
+    }
+}
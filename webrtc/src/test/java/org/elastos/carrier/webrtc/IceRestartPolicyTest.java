@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.elastos.carrier.webrtc;
+
+import org.junit.Test;
+import org.webrtc.PeerConnection.IceConnectionState;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IceRestartPolicyTest {
+    private final IceRestartPolicy policy = new IceRestartPolicy();
+
+    private IceRestartPolicy connected(boolean initiator) {
+        policy.setInitiator(initiator);
+        policy.onIceConnectionChange(IceConnectionState.CHECKING, 0);
+        policy.onIceConnectionChange(IceConnectionState.CONNECTED, 100);
+        return policy;
+    }
+
+    @Test
+    public void failureBeforeConnectingGivesUp() {
+        policy.setInitiator(true);
+        policy.onIceConnectionChange(IceConnectionState.CHECKING, 0);
+
+        assertEquals(IceRestartPolicy.Action.GIVE_UP,
+                policy.onIceConnectionChange(IceConnectionState.FAILED, 5000));
+        assertTrue(policy.getHistory().isEmpty());
+    }
+
+    @Test
+    public void disconnectionRecoversWithinGraceWithoutRestart() {
+        connected(true);
+
+        assertEquals(IceRestartPolicy.Action.NONE,
+                policy.onIceConnectionChange(IceConnectionState.DISCONNECTED, 1000));
+        assertEquals(1000 + IceRestartPolicy.DISCONNECTED_GRACE_MS, policy.getNextDeadlineMs());
+        assertEquals(IceRestartPolicy.Action.NONE, policy.onTimer(2000));
+        policy.onIceConnectionChange(IceConnectionState.CONNECTED, 2500);
+
+        assertFalse(policy.isRecovering());
+        assertEquals(-1, policy.getNextDeadlineMs());
+        List<IceRestartStats> history = policy.getHistory();
+        assertEquals(1, history.size());
+        assertEquals(IceRestartStats.Trigger.DISCONNECTED, history.get(0).getTrigger());
+        assertEquals(0, history.get(0).getRestarts());
+        assertEquals(1500, history.get(0).getTimeToRecoverMs());
+        assertTrue(history.get(0).isRecovered());
+    }
+
+    @Test
+    public void initiatorRestartsAfterGraceAndRetries() {
+        connected(true);
+        policy.onIceConnectionChange(IceConnectionState.DISCONNECTED, 1000);
+
+        assertEquals(IceRestartPolicy.Action.RESTART,
+                policy.onTimer(1000 + IceRestartPolicy.DISCONNECTED_GRACE_MS));
+        long retryMs = 1000 + IceRestartPolicy.DISCONNECTED_GRACE_MS + IceRestartPolicy.RETRY_MS;
+        assertEquals(retryMs, policy.getNextDeadlineMs());
+        // Still restarting, the connection failing does not restart again right away.
+        assertEquals(IceRestartPolicy.Action.NONE,
+                policy.onIceConnectionChange(IceConnectionState.FAILED, 4000));
+        assertEquals(IceRestartPolicy.Action.RESTART, policy.onTimer(retryMs));
+        policy.onIceConnectionChange(IceConnectionState.CONNECTED, 9000);
+
+        IceRestartStats stats = policy.getHistory().get(0);
+        assertEquals(2, stats.getRestarts());
+        assertEquals(8000, stats.getTimeToRecoverMs());
+    }
+
+    @Test
+    public void failureRestartsRightAway() {
+        connected(true);
+
+        assertEquals(IceRestartPolicy.Action.RESTART,
+                policy.onIceConnectionChange(IceConnectionState.FAILED, 1000));
+        assertEquals(IceRestartStats.Trigger.FAILED, recoverAt(3000).getTrigger());
+    }
+
+    @Test
+    public void answererWaitsForTheRestartOfTheInitiator() {
+        connected(false);
+
+        assertEquals(IceRestartPolicy.Action.NONE,
+                policy.onIceConnectionChange(IceConnectionState.FAILED, 1000));
+        assertEquals(1000 + IceRestartPolicy.RECOVERY_TIMEOUT_MS, policy.getNextDeadlineMs());
+        assertEquals(IceRestartPolicy.Action.NONE, policy.onTimer(7000));
+        assertEquals(0, recoverAt(8000).getRestarts());
+    }
+
+    @Test
+    public void answererRestartsOnItsOwnNetworkChange() {
+        connected(false);
+
+        assertEquals(IceRestartPolicy.Action.RESTART, policy.onNetworkChange(1000));
+        // No retries, the initiator restarts if the connection fails.
+        assertEquals(IceRestartPolicy.Action.NONE, policy.onTimer(1000 + IceRestartPolicy.RETRY_MS));
+        assertEquals(1, recoverAt(7000).getRestarts());
+    }
+
+    @Test
+    public void givesUpAfterRecoveryTimeout() {
+        connected(true);
+        policy.onIceConnectionChange(IceConnectionState.FAILED, 1000);
+
+        long timeoutMs = 1000 + IceRestartPolicy.RECOVERY_TIMEOUT_MS;
+        long nowMs = 1000;
+        while (policy.getNextDeadlineMs() < timeoutMs) {
+            nowMs = policy.getNextDeadlineMs();
+            assertEquals(IceRestartPolicy.Action.RESTART, policy.onTimer(nowMs));
+        }
+        assertEquals(IceRestartPolicy.Action.GIVE_UP, policy.onTimer(timeoutMs));
+
+        assertFalse(policy.isRecovering());
+        IceRestartStats stats = policy.getHistory().get(0);
+        assertFalse(stats.isRecovered());
+        assertEquals(IceRestartPolicy.RECOVERY_TIMEOUT_MS, stats.getTimeToRecoverMs());
+        // At the failure, then every RETRY_MS until the timeout.
+        assertEquals(3, stats.getRestarts());
+    }
+
+    @Test
+    public void networkChangeRestartsRightAway() {
+        assertEquals(IceRestartPolicy.Action.NONE, policy.onNetworkChange(0));
+        connected(true);
+
+        assertEquals(IceRestartPolicy.Action.RESTART, policy.onNetworkChange(1000));
+        // A second handover during the recovery restarts on the newest network.
+        assertEquals(IceRestartPolicy.Action.RESTART, policy.onNetworkChange(1200));
+        IceRestartStats stats = recoverAt(2000);
+        assertEquals(IceRestartStats.Trigger.NETWORK_CHANGE, stats.getTrigger());
+        assertEquals(2, stats.getRestarts());
+        assertEquals(1000, stats.getTimeToRecoverMs());
+    }
+
+    @Test
+    public void historyIsBounded() {
+        connected(true);
+        for (int i = 0; i < IceRestartPolicy.MAX_HISTORY + 3; i++) {
+            policy.onIceConnectionChange(IceConnectionState.DISCONNECTED, i * 1000);
+            policy.onIceConnectionChange(IceConnectionState.CONNECTED, i * 1000 + i);
+        }
+
+        List<IceRestartStats> history = policy.getHistory();
+        assertEquals(IceRestartPolicy.MAX_HISTORY, history.size());
+        assertEquals(3, history.get(0).getTimeToRecoverMs());
+    }
+
+    private IceRestartStats recoverAt(long nowMs) {
+        policy.onIceConnectionChange(IceConnectionState.CONNECTED, nowMs);
+        List<IceRestartStats> history = policy.getHistory();
+        return history.get(history.size() - 1);
+    }
+}
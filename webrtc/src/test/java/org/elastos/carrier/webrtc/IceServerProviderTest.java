@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import org.junit.After;
+import org.junit.Test;
+import org.webrtc.PeerConnection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IceServerProviderTest {
+    private static final long TTL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    private final List<Runnable> background = new ArrayList<>();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private volatile boolean failing;
+
+    private final IceServerProvider provider = new IceServerProvider(() -> {
+        fetches.incrementAndGet();
+        if (failing) {
+            throw new IllegalStateException("carrier offline");
+        }
+        return credentials(System.currentTimeMillis() + TTL_MS);
+    }, background::add, scheduler);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static IceServerProvider.Credentials credentials(long expiresAtMs) {
+        List<PeerConnection.IceServer> servers = new ArrayList<>();
+        servers.add(PeerConnection.IceServer.builder("stun:turn.example.org:3478").createIceServer());
+        return new IceServerProvider.Credentials(servers, expiresAtMs);
+    }
+
+    private void runBackground() {
+        List<Runnable> tasks = new ArrayList<>(background);
+        background.clear();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void servesCachedCredentialsUntilTheyExpire() {
+        long nowMs = System.currentTimeMillis();
+        List<PeerConnection.IceServer> servers = provider.getIceServers(nowMs);
+        assertEquals(1, servers.size());
+        assertEquals(1, provider.getMissCount());
+        assertEquals(1, fetches.get());
+
+        assertSame(servers, provider.getIceServers(nowMs + 1000));
+        assertSame(servers, provider.getIceServers(nowMs + 2000));
+        assertEquals(2, provider.getHitCount());
+        assertEquals(1, fetches.get());
+        assertTrue(background.isEmpty());
+
+        // Past expiry, the call waits for new credentials.
+        provider.getIceServers(nowMs + TTL_MS + 1000);
+        assertEquals(2, provider.getMissCount());
+        assertEquals(2, fetches.get());
+        assertEquals(2, provider.getFetchCount());
+    }
+
+    @Test
+    public void refreshesInTheBackgroundBeforeExpiry() {
+        long nowMs = System.currentTimeMillis();
+        List<PeerConnection.IceServer> servers = provider.getIceServers(nowMs);
+        // The refresh is scheduled at 80% of the lifetime.
+        assertEquals(1, scheduler.getQueue().size());
+        long delayMs = ((Delayed) scheduler.getQueue().peek()).getDelay(TimeUnit.MILLISECONDS);
+        assertTrue(delayMs > TTL_MS * 0.75 && delayMs <= TTL_MS * 0.8);
+
+        // A call past the refresh point still gets the cached servers at once.
+        long refreshMs = nowMs + (long) (TTL_MS * 0.9);
+        assertSame(servers, provider.getIceServers(refreshMs));
+        assertSame(servers, provider.getIceServers(refreshMs));
+        assertEquals(1, background.size());
+        assertEquals(1, fetches.get());
+        runBackground();
+        assertEquals(2, fetches.get());
+        assertEquals(1, provider.getMissCount());
+    }
+
+    @Test
+    public void prefetchesOnce() {
+        provider.prefetch();
+        provider.prefetch();
+        assertEquals(1, background.size());
+        runBackground();
+        provider.prefetch();
+        assertTrue(background.isEmpty());
+        assertEquals(1, fetches.get());
+        provider.getIceServers();
+        assertEquals(1, provider.getHitCount());
+    }
+
+    @Test
+    public void coalescesConcurrentFetches() throws InterruptedException {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger slowFetches = new AtomicInteger();
+        IceServerProvider slow = new IceServerProvider(() -> {
+            slowFetches.incrementAndGet();
+            fetching.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return credentials(System.currentTimeMillis() + TTL_MS);
+        }, Runnable::run, scheduler);
+
+        List<List<PeerConnection.IceServer>> results =
+                Collections.synchronizedList(new ArrayList<>());
+        Thread first = new Thread(() -> results.add(slow.getIceServers()));
+        first.start();
+        assertTrue(fetching.await(5, TimeUnit.SECONDS));
+        Thread second = new Thread(() -> results.add(slow.getIceServers()));
+        second.start();
+        while (slow.getMissCount() < 2) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        first.join(5000);
+        second.join(5000);
+
+        assertEquals(1, slowFetches.get());
+        assertEquals(2, results.size());
+        assertSame(results.get(0), results.get(1));
+    }
+
+    @Test
+    public void returnsNoServersWhenTheFetchFails() {
+        failing = true;
+        assertTrue(provider.getIceServers().isEmpty());
+        assertEquals(1, provider.getFailureCount());
+        // Nothing cached, the next call fetches again.
+        failing = false;
+        assertEquals(1, provider.getIceServers().size());
+        assertEquals(2, fetches.get());
+        assertEquals(2, provider.getMissCount());
+    }
+
+    @Test
+    public void readsTheExpiryOfTurnRestUsernames() {
+        long nowMs = 1600000000000L;
+        assertEquals(1600003600000L, IceServerProvider.expiryOf("1600003600:alice", nowMs));
+        assertEquals(nowMs + IceServerProvider.DEFAULT_TTL_MS,
+                IceServerProvider.expiryOf("alice", nowMs));
+        assertEquals(nowMs + IceServerProvider.DEFAULT_TTL_MS,
+                IceServerProvider.expiryOf("x:alice", nowMs));
+        // Expired already, likely not a timestamp.
+        assertEquals(nowMs + IceServerProvider.DEFAULT_TTL_MS,
+                IceServerProvider.expiryOf("1500000000:alice", nowMs));
+        assertEquals(nowMs + IceServerProvider.DEFAULT_TTL_MS,
+                IceServerProvider.expiryOf(null, nowMs));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import org.junit.After;
+import org.junit.Test;
+import org.webrtc.PeerConnection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IceServerRefresherTest {
+    private static final long TTL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    private final List<IceServerProvider.Credentials> fetched = new CopyOnWriteArrayList<>();
+    private final long startMs = System.currentTimeMillis();
+    private volatile long nowMs = startMs;
+    private final IceServerProvider provider = new IceServerProvider(() -> {
+        List<PeerConnection.IceServer> servers = new ArrayList<>();
+        servers.add(PeerConnection.IceServer.builder("turn:turn.example.org:3478")
+                .setUsername("user-" + fetched.size()).setPassword("secret").createIceServer());
+        IceServerProvider.Credentials credentials =
+                new IceServerProvider.Credentials(servers, startMs + TTL_MS);
+        fetched.add(credentials);
+        return credentials;
+    }, Runnable::run, scheduler);
+    // The fetches, run by the test.
+    private final List<Runnable> io = new ArrayList<>();
+    private final List<List<PeerConnection.IceServer>> refreshed = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void restartsWithNewCredentialsOnceTheCachedOnesExpired() {
+        IceServerRefresher refresher = new IceServerRefresher(() -> provider.getIceServers(nowMs),
+                io::add, Runnable::run, refreshed::add);
+        // The connection is created with the cached credentials.
+        List<PeerConnection.IceServer> initial = provider.getIceServers(startMs);
+
+        nowMs = startMs + TTL_MS + 1000;
+        refresher.refresh();
+        // A second restart during the fetch shares it.
+        refresher.refresh();
+        assertTrue(refresher.isRefreshing());
+        assertEquals(1, io.size());
+        io.remove(0).run();
+
+        assertFalse(refresher.isRefreshing());
+        assertEquals(1, refreshed.size());
+        assertEquals(2, fetched.size());
+        assertNotSame(initial, refreshed.get(0));
+        assertSame(fetched.get(1).iceServers, refreshed.get(0));
+    }
+
+    @Test
+    public void deliversNoServersWhenTheFetchFails() {
+        IceServerRefresher refresher = new IceServerRefresher(() -> {
+            throw new IllegalStateException("carrier offline");
+        }, io::add, Runnable::run, refreshed::add);
+        refresher.refresh();
+        io.remove(0).run();
+
+        assertEquals(Collections.<PeerConnection.IceServer>emptyList(), refreshed.get(0));
+        // The next restart fetches again.
+        refresher.refresh();
+        assertEquals(1, io.size());
+    }
+}
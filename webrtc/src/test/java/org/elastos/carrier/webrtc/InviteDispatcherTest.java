@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.elastos.carrier.webrtc;
+
+import org.elastos.carrier.webrtc.util.SerialExecutor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class InviteDispatcherTest {
+    private static final int PEERS = 8;
+    private static final int MESSAGES = 200;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+    private final List<Runnable> acks = new ArrayList<>();
+    private final Map<String, List<String>> received = new ConcurrentHashMap<>();
+    private final List<String> acknowledged = Collections.synchronizedList(new ArrayList<>());
+
+    private InviteDispatcher dispatcher(InviteDispatcher.Sink sink) {
+        return new InviteDispatcher(acknowledged::add, acks::add, sink,
+                name -> new SerialExecutor(name, pool));
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void messagesOfAPeerKeepTheirOrder() throws Exception {
+        CountDownLatch done = new CountDownLatch(PEERS * MESSAGES);
+        InviteDispatcher dispatcher = dispatcher((from, data) -> {
+            received.computeIfAbsent(from, peer -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(data);
+            done.countDown();
+        });
+
+        for (int i = 0; i < MESSAGES; i++) {
+            for (int peer = 0; peer < PEERS; peer++) {
+                dispatcher.dispatch("peer" + peer, Integer.toString(i));
+            }
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int peer = 0; peer < PEERS; peer++) {
+            List<String> messages = received.get("peer" + peer);
+            assertEquals(MESSAGES, messages.size());
+            for (int i = 0; i < MESSAGES; i++) {
+                assertEquals(Integer.toString(i), messages.get(i));
+            }
+        }
+        waitForIdle(dispatcher);
+        assertEquals(0, dispatcher.getPeerQueueCount());
+        InviteDispatcherStats stats = dispatcher.getStats();
+        assertEquals(PEERS * MESSAGES, stats.getInvites());
+        assertEquals(0, stats.getPending());
+        assertTrue(stats.getMaxQueueDelayUs() >= stats.getAverageQueueDelayUs());
+    }
+
+    @Test
+    public void acknowledgesOffTheCallingThread() throws Exception {
+        CountDownLatch routed = new CountDownLatch(1);
+        InviteDispatcher dispatcher = dispatcher((from, data) -> routed.countDown());
+
+        dispatcher.dispatch("peer", "offer");
+
+        assertTrue(routed.await(5, TimeUnit.SECONDS));
+        // Not replied to until the ack executor runs.
+        assertTrue(acknowledged.isEmpty());
+        assertEquals(1, acks.size());
+        acks.get(0).run();
+        assertEquals(Collections.singletonList("peer"), acknowledged);
+        assertEquals(0, dispatcher.getStats().getAckFailures());
+    }
+
+    @Test
+    public void failedAcknowledgementStillRoutes() throws Exception {
+        CountDownLatch routed = new CountDownLatch(1);
+        InviteDispatcher dispatcher = new InviteDispatcher(from -> {
+            throw new IllegalStateException("carrier offline");
+        }, Runnable::run, (from, data) -> routed.countDown(), name -> new SerialExecutor(name, pool));
+
+        dispatcher.dispatch("peer", "offer");
+
+        assertTrue(routed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, dispatcher.getStats().getAckFailures());
+    }
+
+    @Test
+    public void slowPeerDoesNotHoldUpOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(1);
+        InviteDispatcher dispatcher = dispatcher((from, data) -> {
+            if (from.equals("slow")) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                fastDone.countDown();
+            }
+        });
+
+        dispatcher.dispatch("slow", "offer");
+        dispatcher.dispatch("slow", "candidates");
+        dispatcher.dispatch("fast", "offer");
+
+        assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+        assertTrue(dispatcher.getStats().getPending() >= 1);
+        release.countDown();
+        waitForIdle(dispatcher);
+        assertEquals(0, dispatcher.getPeerQueueCount());
+    }
+
+    @Test
+    public void idlePeerGetsANewQueue() throws Exception {
+        List<SerialExecutor> executors = new ArrayList<>();
+        InviteDispatcher dispatcher = new InviteDispatcher(acknowledged::add, acks::add,
+                (from, data) -> {
+                }, name -> {
+                    SerialExecutor executor = new SerialExecutor(name, Runnable::run);
+                    executors.add(executor);
+                    return executor;
+                });
+
+        dispatcher.dispatch("peer", "offer");
+        dispatcher.dispatch("peer", "bye");
+
+        assertEquals(2, executors.size());
+        assertNotSame(executors.get(0), executors.get(1));
+        assertTrue(executors.get(0).isShutdown());
+        assertEquals(0, dispatcher.getPeerQueueCount());
+    }
+
+    private static void waitForIdle(InviteDispatcher dispatcher) throws InterruptedException {
+        for (int i = 0; i < 500 && dispatcher.getStats().getPending() > 0; i++) {
+            Thread.sleep(10);
+        }
+    }
+}
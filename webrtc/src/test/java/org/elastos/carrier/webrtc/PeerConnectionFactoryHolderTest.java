@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.webrtc.PeerConnectionFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class PeerConnectionFactoryHolderTest {
+    private final CarrierPeerConnectionClient.PeerConnectionParameters parameters =
+            PeerConnectionParametersBuilder.builder().enableVideo(false).build();
+    private final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+    private final ScheduledFuture<?> idleDispose = mock(ScheduledFuture.class);
+
+    @Test
+    public void disposesWhenTheLastUserReleases() {
+        TestFactoryHolder holder = new TestFactoryHolder(parameters);
+        try {
+            holder.getFactory(new PeerConnectionFactory.Options());
+            fail("used the holder without acquiring it");
+        } catch (IllegalStateException expected) {
+        }
+
+        holder.acquire();
+        holder.acquire();
+        PeerConnectionFactory factory = holder.getFactory(new PeerConnectionFactory.Options());
+        assertSame(factory, holder.getFactory(new PeerConnectionFactory.Options()));
+        assertEquals(1, holder.getFactoryCount());
+        assertEquals(2, holder.getRefCount());
+
+        holder.release();
+        assertTrue(holder.isWarm());
+        verify(holder.eglBase, never()).release();
+        holder.release();
+        assertEquals(0, holder.getRefCount());
+        assertFalse(holder.isWarm());
+        assertEquals(1, holder.disposedFactories.get());
+        verify(holder.eglBase).release();
+
+        // An unbalanced release is ignored.
+        holder.release();
+        assertEquals(0, holder.getRefCount());
+    }
+
+    @Test
+    public void keepsTheFactoryForTheIdleTimeout() {
+        doReturn(idleDispose).when(scheduler).schedule(any(Runnable.class), anyLong(),
+                any(TimeUnit.class));
+        TestFactoryHolder holder = new TestFactoryHolder(parameters, scheduler,
+                PeerConnectionFactoryHolder.DEFAULT_IDLE_TIMEOUT_MS);
+        holder.acquire();
+        holder.getFactory(new PeerConnectionFactory.Options());
+        holder.release();
+
+        ArgumentCaptor<Runnable> teardown = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(teardown.capture(),
+                eq(PeerConnectionFactoryHolder.DEFAULT_IDLE_TIMEOUT_MS), eq(TimeUnit.MILLISECONDS));
+        assertTrue(holder.isWarm());
+
+        teardown.getValue().run();
+        verify(holder.eglBase, timeout(5000)).release();
+        assertFalse(holder.isWarm());
+        assertEquals(1, holder.disposedFactories.get());
+
+        // The next user creates a new factory.
+        holder.acquire();
+        holder.getFactory(new PeerConnectionFactory.Options());
+        assertEquals(2, holder.getFactoryCount());
+    }
+
+    @Test
+    public void reacquiringCancelsTheIdleTeardown() {
+        doReturn(idleDispose).when(scheduler).schedule(any(Runnable.class), anyLong(),
+                any(TimeUnit.class));
+        TestFactoryHolder holder = new TestFactoryHolder(parameters, scheduler,
+                PeerConnectionFactoryHolder.DEFAULT_IDLE_TIMEOUT_MS);
+        holder.acquire();
+        holder.getFactory(new PeerConnectionFactory.Options());
+        holder.release();
+
+        holder.acquire();
+        verify(idleDispose).cancel(false);
+        assertTrue(holder.isWarm());
+        holder.getFactory(new PeerConnectionFactory.Options());
+        assertEquals(1, holder.getFactoryCount());
+        assertEquals(0, holder.disposedFactories.get());
+    }
+
+    @Test
+    public void disposeIfIdleKeepsTheFactoryInUse() {
+        doReturn(idleDispose).when(scheduler).schedule(any(Runnable.class), anyLong(),
+                any(TimeUnit.class));
+        TestFactoryHolder holder = new TestFactoryHolder(parameters, scheduler,
+                PeerConnectionFactoryHolder.DEFAULT_IDLE_TIMEOUT_MS);
+        holder.acquire();
+        holder.getFactory(new PeerConnectionFactory.Options());
+        holder.disposeIfIdle();
+        assertTrue(holder.isWarm());
+        verify(holder.eglBase, never()).release();
+
+        // Once idle, the factory goes right away rather than after the timeout.
+        holder.release();
+        holder.disposeIfIdle();
+        verify(idleDispose).cancel(false);
+        assertFalse(holder.isWarm());
+        assertEquals(1, holder.disposedFactories.get());
+        verify(holder.eglBase).release();
+    }
+}
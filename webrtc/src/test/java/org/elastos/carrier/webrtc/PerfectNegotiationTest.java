@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.elastos.carrier.webrtc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PerfectNegotiationTest {
+    // The two peers of a call, after their first offer and answer.
+    private final PerfectNegotiation caller = negotiated(false);
+    private final PerfectNegotiation callee = negotiated(true);
+
+    private static PerfectNegotiation negotiated(boolean polite) {
+        PerfectNegotiation negotiation = new PerfectNegotiation();
+        negotiation.setPolite(polite);
+        negotiation.onStable();
+        return negotiation;
+    }
+
+    @Test
+    public void firstNegotiationIsLeftToTheCall() {
+        PerfectNegotiation negotiation = new PerfectNegotiation();
+        // The tracks added with the peer connection are in the first offer.
+        assertFalse(negotiation.onNegotiationNeeded(true));
+        negotiation.setPolite(true);
+
+        assertEquals(PerfectNegotiation.Decision.APPLY, negotiation.onRemoteOffer(true));
+        assertFalse(negotiation.onStable());
+    }
+
+    // A track added once the first offer is being created may not be in it.
+    @Test
+    public void negotiationDuringFirstNegotiationIsDeferred() {
+        PerfectNegotiation negotiation = new PerfectNegotiation();
+        negotiation.setPolite(false);
+
+        assertFalse(negotiation.onNegotiationNeeded(true));
+        assertFalse(negotiation.onNegotiationNeeded(false));
+        assertTrue(negotiation.onStable());
+        assertTrue(negotiation.onNegotiationNeeded(true));
+        negotiation.onLocalOfferSet();
+        assertFalse(negotiation.onStable());
+    }
+
+    @Test
+    public void offerWithoutCollisionIsApplied() {
+        assertTrue(caller.onNegotiationNeeded(true));
+        caller.onLocalOfferSet();
+
+        assertEquals(PerfectNegotiation.Decision.APPLY, callee.onRemoteOffer(true));
+        assertFalse(callee.onStable());
+        assertFalse(caller.onStable());
+    }
+
+    @Test
+    public void negotiationDuringNegotiationIsDeferred() {
+        assertTrue(caller.onNegotiationNeeded(true));
+        assertFalse(caller.onNegotiationNeeded(true));
+        caller.onLocalOfferSet();
+        assertFalse(caller.onNegotiationNeeded(false));
+
+        // Once answered, a single offer carries the changes made meanwhile.
+        assertTrue(caller.onStable());
+        assertTrue(caller.onNegotiationNeeded(true));
+        caller.onLocalOfferSet();
+        assertFalse(caller.onStable());
+    }
+
+    @Test
+    public void impoliteCallerIgnoresCollidingOffer() {
+        assertTrue(caller.onNegotiationNeeded(true));
+        assertTrue(callee.onNegotiationNeeded(true));
+
+        // Still creating its offer, or with its offer set.
+        assertEquals(PerfectNegotiation.Decision.IGNORE, caller.onRemoteOffer(true));
+        assertFalse(caller.isOfferSuperseded());
+        caller.onLocalOfferSet();
+        assertEquals(PerfectNegotiation.Decision.IGNORE, caller.onRemoteOffer(false));
+        assertEquals(2, caller.getIgnoredOffers());
+    }
+
+    @Test
+    public void politeCalleeRollsBackAndOffersAgain() {
+        assertTrue(caller.onNegotiationNeeded(true));
+        caller.onLocalOfferSet();
+        assertTrue(callee.onNegotiationNeeded(true));
+
+        assertEquals(PerfectNegotiation.Decision.ROLLBACK, callee.onRemoteOffer(true));
+        assertEquals(1, callee.getRollbacks());
+        // The offer being created is dropped.
+        assertTrue(callee.isOfferSuperseded());
+
+        // Its own changes go out once the offer of the caller is answered.
+        assertTrue(callee.onStable());
+        assertTrue(callee.onNegotiationNeeded(true));
+        assertFalse(callee.isOfferSuperseded());
+        callee.onLocalOfferSet();
+        assertEquals(PerfectNegotiation.Decision.APPLY, caller.onRemoteOffer(true));
+    }
+
+    @Test
+    public void politeCalleeRollsBackSetOffer() {
+        assertTrue(callee.onNegotiationNeeded(true));
+        callee.onLocalOfferSet();
+
+        assertEquals(PerfectNegotiation.Decision.ROLLBACK, callee.onRemoteOffer(false));
+        assertTrue(callee.onStable());
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.elastos.carrier.webrtc;
+
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteIceCandidateBufferTest {
+    private static IceCandidate candidate(int i, long priority) {
+        return new IceCandidate("0", 0, "candidate:" + i + " 1 udp " + priority
+                + " 192.168.1." + i + " " + (50000 + i) + " typ host generation 0");
+    }
+
+    private static List<String> sdps(List<IceCandidate> candidates) {
+        List<String> sdps = new ArrayList<>();
+        for (IceCandidate candidate : candidates) {
+            sdps.add(candidate.sdp);
+        }
+        return sdps;
+    }
+
+    @Test
+    public void duplicatesAreKeptOnce() {
+        RemoteIceCandidateBuffer buffer = new RemoteIceCandidateBuffer(8);
+        buffer.add(candidate(1, 100));
+        buffer.add(candidate(2, 200));
+        // The same candidate as signaled again, with an a= prefix this time.
+        buffer.add(new IceCandidate("0", 0, "a=" + candidate(1, 100).sdp));
+
+        RemoteIceCandidateBuffer.Batch batch = buffer.drain();
+        assertEquals(2, batch.candidates.size());
+        assertEquals(1, buffer.getDuplicateCount());
+        assertEquals(0, buffer.size());
+        assertTrue(buffer.drain().isEmpty());
+    }
+
+    @Test
+    public void removalOfUnbufferedCandidateIsKept() {
+        RemoteIceCandidateBuffer buffer = new RemoteIceCandidateBuffer(8);
+        buffer.add(candidate(1, 100));
+        buffer.remove(new IceCandidate[] {candidate(1, 100), candidate(2, 200)});
+
+        RemoteIceCandidateBuffer.Batch batch = buffer.drain();
+        assertTrue(batch.candidates.isEmpty());
+        assertEquals(Collections.singletonList(candidate(2, 200).sdp), sdps(batch.removals));
+    }
+
+    @Test
+    public void capDropsLowestPriority() {
+        RemoteIceCandidateBuffer buffer = new RemoteIceCandidateBuffer(2);
+        buffer.add(candidate(1, 300));
+        buffer.add(candidate(2, 100));
+        buffer.add(candidate(3, 200));
+        buffer.add(candidate(4, 50));
+
+        assertEquals(2, buffer.getDroppedCount());
+        assertEquals(sdps(Arrays.asList(candidate(1, 300), candidate(3, 200))),
+                sdps(buffer.drain().candidates));
+    }
+
+    @Test
+    public void priorityOfUnparsableCandidateIsZero() {
+        assertEquals(0, RemoteIceCandidateBuffer.priorityOf(new IceCandidate("0", 0, "candidate:1")));
+        assertEquals(2122260223L, RemoteIceCandidateBuffer.priorityOf(candidate(1, 2122260223L)));
+    }
+
+    // Arrivals with duplicates and removals in random orders give the same
+    // batch as applying them one by one.
+    @Test
+    public void randomArrivalOrdersMatchInOrderApplication() {
+        for (int seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            int count = 1 + random.nextInt(20);
+            List<Object[]> events = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                IceCandidate candidate = candidate(i, 1000 + random.nextInt(1000));
+                events.add(new Object[] {true, candidate});
+                if (random.nextInt(4) == 0) {
+                    events.add(new Object[] {true, candidate});
+                }
+                if (random.nextInt(3) == 0) {
+                    events.add(new Object[] {false, candidate});
+                }
+            }
+            Collections.shuffle(events, random);
+
+            RemoteIceCandidateBuffer buffer = new RemoteIceCandidateBuffer(64);
+            // Model: the candidates added and not removed since, and the
+            // removals of the candidates not buffered at the time.
+            Map<String, IceCandidate> added = new LinkedHashMap<>();
+            Map<String, IceCandidate> removed = new LinkedHashMap<>();
+            for (Object[] event : events) {
+                IceCandidate candidate = (IceCandidate) event[1];
+                if ((Boolean) event[0]) {
+                    buffer.add(candidate);
+                    removed.remove(candidate.sdp);
+                    if (!added.containsKey(candidate.sdp)) {
+                        added.put(candidate.sdp, candidate);
+                    }
+                } else {
+                    buffer.remove(new IceCandidate[] {candidate});
+                    if (added.remove(candidate.sdp) == null) {
+                        removed.put(candidate.sdp, candidate);
+                    }
+                }
+            }
+
+            RemoteIceCandidateBuffer.Batch batch = buffer.drain();
+            assertEquals("seed " + seed, new ArrayList<>(added.keySet()), sdps(batch.candidates));
+            assertEquals("seed " + seed, new ArrayList<>(removed.keySet()), sdps(batch.removals));
+        }
+    }
+
+    // However many candidates arrive in whatever order, the buffer keeps the
+    // ones of the highest priorities, in arrival order.
+    @Test
+    public void randomArrivalOrdersKeepHighestPriorities() {
+        for (int seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            int max = 1 + random.nextInt(8);
+            int count = random.nextInt(3 * max);
+            List<IceCandidate> candidates = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                // Distinct priorities.
+                candidates.add(candidate(i, 10 * i + 1));
+            }
+            Collections.shuffle(candidates, random);
+
+            RemoteIceCandidateBuffer buffer = new RemoteIceCandidateBuffer(max);
+            for (IceCandidate candidate : candidates) {
+                buffer.add(candidate);
+            }
+
+            List<IceCandidate> expected = new ArrayList<>();
+            for (IceCandidate candidate : candidates) {
+                if (RemoteIceCandidateBuffer.priorityOf(candidate) > 10 * (count - max)) {
+                    expected.add(candidate);
+                }
+            }
+            assertEquals("seed " + seed, sdps(expected), sdps(buffer.drain().candidates));
+            assertEquals("seed " + seed, Math.max(0, count - max), buffer.getDroppedCount());
+        }
+    }
+}
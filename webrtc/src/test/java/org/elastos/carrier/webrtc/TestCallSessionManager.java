@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import android.content.Context;
+import android.os.Handler;
+
+import androidx.annotation.Nullable;
+
+import org.elastos.carrier.webrtc.call.CallHandler;
+import org.webrtc.PeerConnection;
+import org.webrtc.VideoCapturer;
+import org.webrtc.VideoSink;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Session manager whose calls run without native peer connections: the
+ * clients record the calls made to them and leave the connection unset.
+ */
+class TestCallSessionManager extends CallSessionManager {
+    final List<TestPeerConnectionClient> clients = new CopyOnWriteArrayList<>();
+    // Holds createPeerConnection() until counted down, null to return at once.
+    @Nullable
+    volatile CountDownLatch createGate;
+
+    TestCallSessionManager(CarrierPeerConnectionClient.PeerConnectionParameters parameters,
+                           Transport transport, TestFactoryHolder factoryHolder,
+                           CallHandler defaultCallHandler, int maxFragmentSize) {
+        super(null, parameters, transport, (Handler) null, factoryHolder, defaultCallHandler,
+                maxFragmentSize);
+    }
+
+    @Override
+    CarrierPeerConnectionClient createPeerConnectionClient(
+            List<PeerConnection.IceServer> iceServers, PeerConnectionEvents events,
+            CallHandler callHandler) {
+        TestPeerConnectionClient client = new TestPeerConnectionClient(iceServers,
+                getFactoryHolder(), getPeerConnectionParameters(), events, callHandler);
+        clients.add(client);
+        return client;
+    }
+
+    class TestPeerConnectionClient extends CarrierPeerConnectionClient {
+        // Raise the connection events on the session.
+        final PeerConnectionEvents events;
+        final AtomicInteger createdConnections = new AtomicInteger();
+        final AtomicInteger offers = new AtomicInteger();
+        final AtomicInteger answers = new AtomicInteger();
+        final AtomicInteger closes = new AtomicInteger();
+
+        TestPeerConnectionClient(List<PeerConnection.IceServer> iceServers,
+                                 PeerConnectionFactoryHolder holder,
+                                 PeerConnectionParameters parameters, PeerConnectionEvents events,
+                                 CallHandler callHandler) {
+            super(null, iceServers, holder.getEglBase(), parameters, events, callHandler);
+            this.events = events;
+        }
+
+        @Override
+        public void createPeerConnection(Context context, VideoSink localRender,
+                                         List<VideoSink> remoteSinks, VideoCapturer videoCapturer) {
+            CountDownLatch gate = createGate;
+            if (gate != null) {
+                try {
+                    if (!gate.await(10, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("createPeerConnection gate timed out");
+                    }
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            createdConnections.incrementAndGet();
+        }
+
+        @Override
+        public void createOffer() {
+            offers.incrementAndGet();
+            super.createOffer();
+        }
+
+        @Override
+        public void createAnswer() {
+            answers.incrementAndGet();
+            super.createAnswer();
+        }
+
+        @Override
+        public void close() {
+            closes.incrementAndGet();
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.EglBase;
+import org.webrtc.PeerConnectionFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Factory holder handing out mock factories, so that calls run without the
+ * native library.
+ */
+class TestFactoryHolder extends PeerConnectionFactoryHolder {
+    final EglBase eglBase;
+    final AtomicInteger disposedFactories = new AtomicInteger();
+
+    TestFactoryHolder(CarrierPeerConnectionClient.PeerConnectionParameters parameters) {
+        this(parameters, null, 0);
+    }
+
+    TestFactoryHolder(CarrierPeerConnectionClient.PeerConnectionParameters parameters,
+                      @Nullable ScheduledExecutorService scheduler, long idleTimeoutMs) {
+        this(parameters, mock(EglBase.class), scheduler, idleTimeoutMs);
+    }
+
+    private TestFactoryHolder(CarrierPeerConnectionClient.PeerConnectionParameters parameters,
+                              EglBase eglBase, @Nullable ScheduledExecutorService scheduler,
+                              long idleTimeoutMs) {
+        super((Context) null, parameters, eglBase, scheduler, idleTimeoutMs);
+        this.eglBase = eglBase;
+    }
+
+    @Override
+    PeerConnectionFactory createFactory(PeerConnectionFactory.Options options) {
+        return mock(PeerConnectionFactory.class);
+    }
+
+    @Override
+    void disposeFactory(PeerConnectionFactory factory) {
+        disposedFactories.incrementAndGet();
+    }
+
+    /**
+     * Wait for the connections closing in the background to release the holder.
+     */
+    boolean awaitRefCount(int refCount, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (getRefCount() != refCount) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+}
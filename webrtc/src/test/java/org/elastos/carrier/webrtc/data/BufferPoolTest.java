@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BufferPoolTest {
+    private final BufferPool pool = new BufferPool(4 * 1024);
+
+    private static ByteBuffer bytes(int size) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) i);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void copiesIntoADirectBufferOfTheSizeClass() {
+        ByteBuffer source = bytes(300);
+        DataMessage message = pool.copyOf("chat", source, true);
+
+        ByteBuffer data = message.getData();
+        assertTrue(data.isDirect());
+        assertTrue(data.isReadOnly());
+        assertEquals(300, data.remaining());
+        assertEquals(300, message.size());
+        assertEquals(source, data);
+        assertEquals(0, source.position());
+        assertEquals("chat", message.getLabel());
+        assertTrue(message.isBinary());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, pool.getOutstandingCount());
+
+        message.release();
+        assertEquals(0, pool.getOutstandingCount());
+        assertEquals(512, pool.getPooledBytes());
+    }
+
+    @Test
+    public void reusesReleasedBuffers() {
+        pool.copyOf("chat", bytes(100), false).release();
+        DataMessage message = pool.copyOf("chat", bytes(256), false);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(256, message.getData().remaining());
+
+        // Another size class misses.
+        pool.copyOf("chat", bytes(257), false).release();
+        assertEquals(2, pool.getMissCount());
+        message.release();
+        assertEquals(256 + 512, pool.getPooledBytes());
+    }
+
+    @Test
+    public void returnsTheBufferWithTheLastReference() {
+        DataMessage message = pool.copyOf("chat", bytes(10), false);
+        assertSame(message, message.retain());
+        assertEquals(2, message.getRefCount());
+
+        message.release();
+        assertEquals(0, pool.getPooledBytes());
+        message.release();
+        assertEquals(256, pool.getPooledBytes());
+        assertEquals(0, message.getRefCount());
+
+        try {
+            message.release();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            message.retain();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            message.getData();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(256, pool.getPooledBytes());
+    }
+
+    @Test
+    public void boundsTheFreeBuffersPerClass() {
+        DataMessage[] messages = new DataMessage[3];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = pool.copyOf("chat", bytes(2000), false);
+        }
+        for (DataMessage message : messages) {
+            message.release();
+        }
+        // Two 2 KiB buffers fit in 4 KiB.
+        assertEquals(4096, pool.getPooledBytes());
+        assertEquals(1, pool.getDiscardedCount());
+    }
+
+    @Test
+    public void doesNotPoolOversizedMessages() {
+        DataMessage message = pool.copyOf("chat", bytes(BufferPool.MAX_BUFFER_SIZE + 1), false);
+        assertEquals(BufferPool.MAX_BUFFER_SIZE + 1, message.getData().remaining());
+        assertEquals(1, pool.getOversizedCount());
+        assertEquals(0, pool.getMissCount());
+        message.release();
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(0, pool.getOutstandingCount());
+        assertFalse(pool.toString().isEmpty());
+    }
+}
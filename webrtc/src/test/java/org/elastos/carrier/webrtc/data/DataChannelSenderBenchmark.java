@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import org.elastos.carrier.webrtc.util.Benchmark;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.webrtc.DataChannel;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sustained throughput of bulk sends over a loopback data channel pair. The
+ * native SCTP transport is replaced by a send buffer of the libwebrtc size,
+ * drained by a receiving thread that checks the order of the messages, so the
+ * numbers measure the flow control rather than a network.
+ *
+ * <p>Sends half a gigabyte per run. The flow control over the loopback is
+ * covered by {@link DataChannelSenderTest}.
+ */
+@Ignore("Benchmark, run manually")
+public class DataChannelSenderBenchmark {
+    private static final int MESSAGE_SIZE = 64 * 1024;
+    private static final long TOTAL_BYTES = 512L * 1024 * 1024;
+
+    @Test
+    public void flowControlledThroughput() throws InterruptedException {
+        LoopbackChannel channel = new LoopbackChannel(MESSAGE_SIZE);
+        DataChannelSender sender = new DataChannelSender(channel);
+        channel.observer = sender::onBufferedAmountChange;
+        channel.start();
+        // Sends block once the queue holds |maxPendingBytes|, the backpressure
+        // an app sending a file applies.
+        Semaphore window = new Semaphore((int) (DataChannelSender.DEFAULT_MAX_PENDING_BYTES
+                / MESSAGE_SIZE));
+        SendCallback callback = new SendCallback() {
+            @Override
+            public void onSent() {
+                window.release();
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                window.release();
+            }
+        };
+
+        long count = TOTAL_BYTES / MESSAGE_SIZE;
+        long start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            window.acquire();
+            sender.send(channel.message(i), callback);
+        }
+        assertTrue("receiver stalled", channel.awaitReceived(count, 30));
+        long elapsedNanos = System.nanoTime() - start;
+        channel.stop();
+
+        Benchmark.report(DataChannelSenderBenchmark.class, "flow controlled: "
+                + throughput(TOTAL_BYTES, elapsedNanos) + ", max buffered "
+                + channel.maxBufferedAmount / 1024 + " KiB, " + sender);
+    }
+
+    @Test
+    public void unthrottledSends() throws InterruptedException {
+        LoopbackChannel channel = new LoopbackChannel(MESSAGE_SIZE);
+        channel.start();
+        long count = TOTAL_BYTES / MESSAGE_SIZE;
+        long start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            channel.send(new DataChannel.Buffer(channel.message(i).data, true));
+        }
+        long sent = count - channel.overruns.get();
+        assertTrue("receiver stalled", channel.awaitReceived(sent, 30));
+        long elapsedNanos = System.nanoTime() - start;
+        channel.stop();
+
+        Benchmark.report(DataChannelSenderBenchmark.class, "unthrottled: "
+                + throughput(sent * MESSAGE_SIZE, elapsedNanos)
+                + ", " + channel.overruns.get() + " of " + count + " messages dropped");
+    }
+
+    private static String throughput(long bytes, long elapsedNanos) {
+        return bytes * 1000 / elapsedNanos + " MB/s";
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import org.junit.Test;
+import org.webrtc.DataChannel;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DataChannelSenderTest {
+    private final FakeChannel channel = new FakeChannel();
+    private final List<String> events = new ArrayList<>();
+    private String failure;
+    private final DataChannelSender sender = new DataChannelSender(channel, 1000, 200, 2000);
+
+    @Test
+    public void sendsWhileUnderTheHighWatermark() {
+        assertTrue(send(0, 400));
+        assertTrue(send(1, 600));
+        assertEquals(2, channel.sent.size());
+        assertEquals("[0 sent, 1 sent]", events.toString());
+        assertEquals(0, sender.getQueuedCount());
+    }
+
+    @Test
+    public void queuesUntilTheLowWatermark() {
+        send(0, 800);
+        send(1, 400);
+        send(2, 100);
+        // The small message waits behind the queued one to keep the order.
+        assertEquals(1, channel.sent.size());
+        assertEquals(2, sender.getPendingCount());
+        assertEquals(500, sender.getPendingBytes());
+
+        channel.drain(500);
+        sender.onBufferedAmountChange();
+        assertEquals(1, channel.sent.size());
+
+        channel.drain(100);
+        sender.onBufferedAmountChange();
+        assertEquals(3, channel.sent.size());
+        assertEquals(0, sender.getPendingCount());
+        assertEquals("[0 sent, 1 sent, 2 sent]", events.toString());
+        assertEquals(2, sender.getQueuedCount());
+        assertEquals(1300, sender.getSentBytes());
+    }
+
+    @Test
+    public void rejectsWhenTheQueueIsFull() {
+        send(0, 1000);
+        assertTrue(send(1, 1500));
+        assertFalse(send(2, 600));
+        assertEquals("[0 sent, 2 failed]", events.toString());
+        assertEquals(1, sender.getRejectedCount());
+        assertTrue(send(3, 500));
+    }
+
+    @Test
+    public void notifiesTheDrainAfterARejectedSend() {
+        AtomicLong drains = new AtomicLong();
+        sender.setDrainListener(drains::incrementAndGet);
+        send(0, 1000);
+        send(1, 1500);
+        assertFalse(send(2, 600));
+        assertTrue(DataChannelSender.isQueueFull(failure));
+        assertTrue(send(3, 400));
+
+        channel.drain(1000);
+        sender.onBufferedAmountChange();
+        assertEquals(0, drains.get());
+
+        channel.drain(1500);
+        sender.onBufferedAmountChange();
+        assertEquals(0, sender.getPendingCount());
+        assertEquals(1, drains.get());
+
+        channel.drain(400);
+        sender.onBufferedAmountChange();
+        assertEquals(1, drains.get());
+        assertFalse(DataChannelSender.isQueueFull("Data channel send failed"));
+    }
+
+    @Test
+    public void sendsLargeMessagesOnceEmpty() {
+        send(0, 100);
+        send(1, 1500);
+        assertEquals(1, channel.sent.size());
+
+        channel.drain(100);
+        sender.onBufferedAmountChange();
+        assertEquals(2, channel.sent.size());
+    }
+
+    @Test
+    public void failsPendingMessagesOnClose() {
+        send(0, 1000);
+        send(1, 100);
+        send(2, 100);
+        sender.close("closed");
+        assertFalse(send(3, 100));
+        assertEquals("[0 sent, 1 failed, 2 failed, 3 failed]", events.toString());
+        assertEquals(0, sender.getPendingBytes());
+    }
+
+    @Test
+    public void failsTheRestWhenTheChannelFails() {
+        send(0, 1000);
+        send(1, 100);
+        send(2, 100);
+        channel.failing = true;
+        channel.drain(1000);
+        sender.onBufferedAmountChange();
+        assertEquals("[0 sent, 1 failed, 2 failed]", events.toString());
+        assertEquals(0, sender.getPendingCount());
+    }
+
+    @Test
+    public void flowControlOverLoopback() throws InterruptedException {
+        // Several times the high watermark and the pending limit, in default sized windows.
+        int messageSize = 64 * 1024;
+        long count = 4 * DataChannelSender.DEFAULT_MAX_PENDING_BYTES / messageSize;
+        LoopbackChannel loopback = new LoopbackChannel(messageSize);
+        DataChannelSender flowControlled = new DataChannelSender(loopback);
+        loopback.observer = flowControlled::onBufferedAmountChange;
+        loopback.start();
+        Semaphore window = new Semaphore((int) (DataChannelSender.DEFAULT_MAX_PENDING_BYTES
+                / messageSize));
+        AtomicLong failed = new AtomicLong();
+        SendCallback callback = new SendCallback() {
+            @Override
+            public void onSent() {
+                window.release();
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                failed.incrementAndGet();
+                window.release();
+            }
+        };
+        for (long i = 0; i < count; i++) {
+            window.acquire();
+            assertTrue(flowControlled.send(loopback.message(i), callback));
+        }
+        assertTrue("receiver stalled", loopback.awaitReceived(count, 30));
+        loopback.stop();
+
+        assertEquals(0, failed.get());
+        assertEquals(0, loopback.overruns.get());
+        assertEquals(0, loopback.outOfOrder.get());
+        assertEquals(count, loopback.received.get());
+        assertTrue(loopback.maxBufferedAmount <= DataChannelSender.DEFAULT_HIGH_WATERMARK);
+    }
+
+    private boolean send(int id, int size) {
+        DataChannel.Buffer buffer = new DataChannel.Buffer(ByteBuffer.allocate(size), true);
+        return sender.send(buffer, new SendCallback() {
+            @Override
+            public void onSent() {
+                events.add(id + " sent");
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                events.add(id + " failed");
+                failure = reason;
+            }
+        });
+    }
+
+    private static class FakeChannel implements DataChannelSender.Channel {
+        final List<DataChannel.Buffer> sent = new ArrayList<>();
+        long bufferedAmount;
+        boolean failing;
+
+        @Override
+        public long bufferedAmount() {
+            return bufferedAmount;
+        }
+
+        @Override
+        public boolean send(DataChannel.Buffer buffer) {
+            if (failing) {
+                return false;
+            }
+            sent.add(buffer);
+            bufferedAmount += buffer.data.remaining();
+            return true;
+        }
+
+        void drain(long bytes) {
+            bufferedAmount -= bytes;
+        }
+    }
+}
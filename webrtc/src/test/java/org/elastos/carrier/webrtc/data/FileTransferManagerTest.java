@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileTransferManagerTest {
+    private static final int CHUNK_SIZE = 1024;
+    private static final int WINDOW = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService senderExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService receiverExecutor = Executors.newSingleThreadExecutor();
+    private final LoopbackLink senderLink = new LoopbackLink();
+    private final LoopbackLink receiverLink = new LoopbackLink();
+    private final FileTransferManager sender =
+            new FileTransferManager(senderLink, senderExecutor, CHUNK_SIZE, WINDOW);
+    private final FileTransferManager receiver =
+            new FileTransferManager(receiverLink, receiverExecutor, CHUNK_SIZE, WINDOW);
+    private final RecordingListener senderListener = new RecordingListener(null);
+    private RecordingListener receiverListener;
+    private File received;
+
+    @After
+    public void tearDown() {
+        senderExecutor.shutdownNow();
+        receiverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void transfersLargeFiles() throws Exception {
+        byte[] content = setUp(200 * CHUNK_SIZE + 123);
+        FileTransfer transfer = send(content);
+
+        assertTrue(senderListener.done.await(10, TimeUnit.SECONDS));
+        assertTrue(receiverListener.done.await(10, TimeUnit.SECONDS));
+        assertEquals(FileTransfer.State.COMPLETED, transfer.getState());
+        assertEquals(content.length, transfer.getTransferredBytes());
+        assertArrayEquals(content, Files.readAllBytes(received.toPath()));
+        assertEquals("photo.jpg", receiverListener.transfers.get(0).getName());
+        assertEquals(201, senderLink.count(FileTransferFrame.CHUNK));
+    }
+
+    @Test
+    public void sendsBadChunksAgain() throws Exception {
+        byte[] content = setUp(50 * CHUNK_SIZE);
+        senderLink.corruptChunk = 10;
+        send(content);
+
+        assertTrue(receiverListener.done.await(10, TimeUnit.SECONDS));
+        assertArrayEquals(content, Files.readAllBytes(received.toPath()));
+        assertEquals(1, receiverLink.count(FileTransferFrame.NACK));
+        assertTrue(senderLink.count(FileTransferFrame.CHUNK) > 50);
+    }
+
+    @Test
+    public void resumesFromTheLastAcknowledgedOffset() throws Exception {
+        byte[] content = setUp(100 * CHUNK_SIZE);
+        senderLink.failAfterChunk = 40;
+        FileTransfer transfer = send(content);
+
+        waitFor(() -> transfer.getState() == FileTransfer.State.SUSPENDED);
+        long resumedOffset = transfer.getTransferredBytes();
+        assertTrue(resumedOffset > 0 && resumedOffset < content.length);
+        senderLink.down = false;
+        sender.resumeAll();
+
+        assertTrue(senderListener.done.await(10, TimeUnit.SECONDS));
+        assertTrue(receiverListener.done.await(10, TimeUnit.SECONDS));
+        assertEquals(FileTransfer.State.COMPLETED, transfer.getState());
+        assertArrayEquals(content, Files.readAllBytes(received.toPath()));
+        assertEquals(2, senderLink.count(FileTransferFrame.OFFER));
+        assertEquals(2, receiverLink.count(FileTransferFrame.ACCEPT));
+        // Only the chunks in flight at the failure are sent again.
+        assertTrue(senderLink.count(FileTransferFrame.CHUNK) <= 100 + WINDOW + 1);
+        assertEquals(1, receiverListener.transfers.size());
+    }
+
+    @Test
+    public void pausesWhileTheSendQueueIsFull() throws Exception {
+        byte[] content = setUp(100 * CHUNK_SIZE);
+        senderLink.queueFullAtChunk = 30;
+        FileTransfer transfer = send(content);
+
+        waitFor(() -> senderLink.rejected.get() > 0);
+        // The acknowledgments of the chunks in flight do not send more.
+        waitFor(() -> receiverLink.count(FileTransferFrame.ACK) == 29);
+        assertEquals(FileTransfer.State.TRANSFERRING, transfer.getState());
+        assertEquals(1, senderLink.rejected.get());
+        senderLink.full = false;
+        sender.onSendQueueDrained();
+
+        assertTrue(senderListener.done.await(10, TimeUnit.SECONDS));
+        assertTrue(receiverListener.done.await(10, TimeUnit.SECONDS));
+        assertEquals(FileTransfer.State.COMPLETED, transfer.getState());
+        assertArrayEquals(content, Files.readAllBytes(received.toPath()));
+        // Continued from the rejected chunk, without offering the file again.
+        assertEquals(1, senderLink.count(FileTransferFrame.OFFER));
+        assertEquals(100, senderLink.count(FileTransferFrame.CHUNK));
+    }
+
+    @Test
+    public void answersARepeatedOfferOfACompletedFile() throws Exception {
+        byte[] content = setUp(10 * CHUNK_SIZE);
+        FileTransfer transfer = send(content);
+        assertTrue(receiverListener.done.await(10, TimeUnit.SECONDS));
+
+        receiver.onMessage(FileTransferFrame.offer(transfer.getId(), content.length, CHUNK_SIZE,
+                "photo.jpg"));
+        waitFor(() -> receiverLink.count(FileTransferFrame.ACCEPT) == 2);
+        assertEquals(1, receiverListener.transfers.size());
+    }
+
+    @Test
+    public void reportsRejectedFiles() throws Exception {
+        setUp(10);
+        receiverListener = new RecordingListener(null);
+        receiver.setListener(receiverListener);
+        FileTransfer transfer = send(new byte[10]);
+
+        assertTrue(senderListener.done.await(10, TimeUnit.SECONDS));
+        assertEquals(FileTransfer.State.CANCELLED, transfer.getState());
+        assertEquals("Cancelled by peer: Rejected", senderListener.failures.get(0));
+        assertEquals(0, senderLink.count(FileTransferFrame.CHUNK));
+    }
+
+    @Test
+    public void ignoresOtherMessages() {
+        assertTrue(!sender.onMessage(ByteBuffer.wrap("hello".getBytes())));
+        assertTrue(!sender.onMessage(ByteBuffer.allocate(64)));
+    }
+
+    private byte[] setUp(int size) throws IOException {
+        senderLink.peer = receiver;
+        receiverLink.peer = sender;
+        received = folder.newFile();
+        receiverListener = new RecordingListener(received);
+        sender.setListener(senderListener);
+        receiver.setListener(receiverListener);
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    private FileTransfer send(byte[] content) throws IOException {
+        File source = folder.newFile();
+        Files.write(source.toPath(), content);
+        return sender.send(FileChannel.open(source.toPath(), StandardOpenOption.READ), "photo.jpg");
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.isMet()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    // Delivers the frames to the peer manager right away, optionally
+    // corrupting a chunk, failing from a chunk on or rejecting the frames
+    // as a full send queue from a chunk on.
+    private static class LoopbackLink implements FileTransferManager.Link {
+        private final List<Byte> types = new CopyOnWriteArrayList<>();
+        private final AtomicInteger chunks = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        volatile FileTransferManager peer;
+        volatile int corruptChunk = -1;
+        volatile int failAfterChunk = -1;
+        volatile int queueFullAtChunk = -1;
+        volatile boolean down;
+        volatile boolean full;
+
+        @Override
+        public boolean send(ByteBuffer frame, @Nullable SendCallback callback) {
+            byte type = frame.get(frame.position() + 4);
+            if (type == FileTransferFrame.CHUNK && chunks.incrementAndGet() == failAfterChunk) {
+                down = true;
+            }
+            if (type == FileTransferFrame.CHUNK && chunks.get() == queueFullAtChunk) {
+                full = true;
+            }
+            if (full) {
+                rejected.incrementAndGet();
+                if (callback != null) {
+                    callback.onFailed("Send queue full: 0 bytes pending");
+                }
+                return false;
+            }
+            if (down) {
+                if (callback != null) {
+                    callback.onFailed("Link down");
+                }
+                return false;
+            }
+            types.add(type);
+            if (type == FileTransferFrame.CHUNK && chunks.get() == corruptChunk) {
+                ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+                copy.put(frame.duplicate()).flip();
+                copy.put(copy.limit() - 1, (byte) ~copy.get(copy.limit() - 1));
+                frame = copy;
+            }
+            peer.onMessage(frame);
+            if (callback != null) {
+                callback.onSent();
+            }
+            return true;
+        }
+
+        int count(byte type) {
+            int count = 0;
+            for (byte sent : types) {
+                count += sent == type ? 1 : 0;
+            }
+            return count;
+        }
+    }
+
+    private static class RecordingListener implements FileTransferManager.Listener {
+        final List<FileTransfer> transfers = new CopyOnWriteArrayList<>();
+        final List<String> failures = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        @Nullable
+        private final File destination;
+
+        RecordingListener(@Nullable File destination) {
+            this.destination = destination;
+        }
+
+        @Nullable
+        @Override
+        public FileChannel onIncomingTransfer(FileTransfer transfer) {
+            if (destination == null) {
+                return null;
+            }
+            transfers.add(transfer);
+            try {
+                return FileChannel.open(destination.toPath(), StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void onProgress(FileTransfer transfer) {
+        }
+
+        @Override
+        public void onCompleted(FileTransfer transfer) {
+            done.countDown();
+        }
+
+        @Override
+        public void onFailed(FileTransfer transfer, String reason) {
+            failures.add(reason);
+            done.countDown();
+        }
+    }
+}
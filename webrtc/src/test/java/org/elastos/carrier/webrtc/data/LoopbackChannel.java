@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import org.webrtc.DataChannel;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loopback stand-in for a native data channel, with its threading. Like the
+ * proxy of {@code org.webrtc.DataChannel}, {@link #send} and
+ * {@link #bufferedAmount()} run on a "signaling" thread and the caller waits
+ * for them, and the observer is called on that thread: from inside a send,
+ * and when the receiving thread drains the buffer. Sends go to a buffer of
+ * the libwebrtc size, drained by a receiving thread that checks the order of
+ * the sequence numbered messages built by {@link #message(long)}.
+ *
+ * <p>Unlike a peer connection pair there is no SCTP association: the buffer
+ * drains as fast as the receiving thread runs, without congestion control.
+ */
+final class LoopbackChannel implements DataChannelSender.Channel {
+    // libwebrtc closes the channel when more than 16 MiB are buffered.
+    static final long SCTP_SEND_BUFFER = 16 * 1024 * 1024;
+
+    final AtomicLong received = new AtomicLong();
+    final AtomicLong overruns = new AtomicLong();
+    final AtomicLong outOfOrder = new AtomicLong();
+    volatile long maxBufferedAmount;
+    volatile Runnable observer;
+
+    private final int messageSize;
+    private final BlockingQueue<ByteBuffer> inFlight = new LinkedBlockingQueue<>();
+    private final ExecutorService signaling = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "loopback-signaling"));
+    private volatile Thread signalingThread;
+    // Confined to the signaling thread.
+    private long bufferedAmount;
+    private final byte[] receiveBuffer;
+    private Thread receiver;
+
+    LoopbackChannel(int messageSize) {
+        this.messageSize = messageSize;
+        this.receiveBuffer = new byte[messageSize];
+        signaling.execute(() -> signalingThread = Thread.currentThread());
+    }
+
+    DataChannel.Buffer message(long sequence) {
+        ByteBuffer data = ByteBuffer.allocate(messageSize);
+        data.putLong(0, sequence);
+        return new DataChannel.Buffer(data, true);
+    }
+
+    @Override
+    public long bufferedAmount() {
+        return onSignalingThread(() -> bufferedAmount);
+    }
+
+    @Override
+    public boolean send(DataChannel.Buffer buffer) {
+        return onSignalingThread(() -> {
+            int size = buffer.data.remaining();
+            if (bufferedAmount + size > SCTP_SEND_BUFFER) {
+                overruns.incrementAndGet();
+                return false;
+            }
+            bufferedAmount += size;
+            if (bufferedAmount > maxBufferedAmount) {
+                maxBufferedAmount = bufferedAmount;
+            }
+            inFlight.add(buffer.data);
+            notifyObserver();
+            return true;
+        });
+    }
+
+    void start() {
+        receiver = new Thread(() -> {
+            long expected = 0;
+            try {
+                while (true) {
+                    ByteBuffer data = inFlight.take();
+                    int size = data.remaining();
+                    data.get(receiveBuffer, 0, size);
+                    long sequence = ByteBuffer.wrap(receiveBuffer).getLong();
+                    if (sequence < expected) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    expected = sequence + 1;
+                    received.incrementAndGet();
+                    signaling.execute(() -> {
+                        bufferedAmount -= size;
+                        notifyObserver();
+                    });
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }, "loopback-receiver");
+        receiver.start();
+    }
+
+    boolean awaitReceived(long count, int timeoutSeconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (received.get() < count) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    void stop() throws InterruptedException {
+        receiver.interrupt();
+        receiver.join();
+        signaling.shutdownNow();
+    }
+
+    private void notifyObserver() {
+        Runnable observer = this.observer;
+        if (observer != null) {
+            observer.run();
+        }
+    }
+
+    // Runs |call| on the signaling thread and waits for it, as the native proxy does.
+    private <T> T onSignalingThread(Callable<T> call) {
+        try {
+            if (Thread.currentThread() == signalingThread) {
+                return call.call();
+            }
+            return signaling.submit(call).get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException("Signaling thread call failed", e);
+        }
+    }
+}
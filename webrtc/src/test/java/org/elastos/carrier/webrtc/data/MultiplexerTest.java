@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.data;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MultiplexerTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long NEVER_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    private final List<Integer> packetSizes = new ArrayList<>();
+    private final List<String> events = new ArrayList<>();
+    private Multiplexer alice;
+    private Multiplexer bob;
+    private volatile boolean linkDown;
+
+    private void connect(int maxPacketSize, long flushDelayMs) {
+        alice = new Multiplexer(this::toBob, scheduler, maxPacketSize, flushDelayMs);
+        bob = new Multiplexer((packet, callback) -> {
+            alice.onMessage(packet);
+            return true;
+        }, scheduler, maxPacketSize, flushDelayMs);
+        bob.setHandler(new Multiplexer.Handler() {
+            @Override
+            public void onMessage(int streamId, int type, ByteBuffer payload) {
+                events.add("message " + streamId + "/" + type + " " + text(payload));
+            }
+
+            @Override
+            public void onRequest(int streamId, int type, ByteBuffer payload,
+                                  Multiplexer.Responder responder) {
+                events.add("request " + streamId + "/" + type + " " + text(payload));
+                if (text(payload).equals("fail")) {
+                    responder.fail("refused");
+                } else if (!text(payload).equals("ignore")) {
+                    responder.respond(ByteBuffer.wrap(("re: " + text(payload)).getBytes(UTF_8)));
+                }
+            }
+        });
+    }
+
+    private synchronized boolean toBob(ByteBuffer packet, SendCallback callback) {
+        if (linkDown) {
+            if (callback != null) {
+                callback.onFailed("link down");
+            }
+            return false;
+        }
+        packetSizes.add(packet.remaining());
+        bob.onMessage(packet);
+        return true;
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(UTF_8));
+    }
+
+    private static String text(ByteBuffer payload) {
+        return UTF_8.decode(payload.duplicate()).toString();
+    }
+
+    private Multiplexer.ResponseCallback record(String name) {
+        return new Multiplexer.ResponseCallback() {
+            @Override
+            public void onResponse(ByteBuffer payload) {
+                events.add(name + " response " + text(payload));
+            }
+
+            @Override
+            public void onError(String reason) {
+                events.add(name + " error " + reason);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void coalescesMessagesUntilFlushed() {
+        connect(Multiplexer.DEFAULT_MAX_PACKET_SIZE, NEVER_MS);
+        assertTrue(alice.send(1, 7, bytes("hello")));
+        assertTrue(alice.send(2, 300, bytes("")));
+        assertTrue(alice.send(200000, 0, bytes("world")));
+        assertTrue(packetSizes.isEmpty());
+
+        alice.flush();
+        assertEquals(1, packetSizes.size());
+        // Magic, then per message length, kind, stream, type and payload.
+        assertEquals(4 + (1 + 1 + 1 + 1 + 5) + (1 + 1 + 1 + 2) + (1 + 1 + 3 + 1 + 5),
+                (int) packetSizes.get(0));
+        assertEquals(3, events.size());
+        assertEquals("message 1/7 hello", events.get(0));
+        assertEquals("message 2/300 ", events.get(1));
+        assertEquals("message 200000/0 world", events.get(2));
+        assertEquals(3, alice.getMessagesSent());
+        assertEquals(1, alice.getPacketsSent());
+        assertEquals(3, bob.getMessagesReceived());
+        assertEquals(1, bob.getPacketsReceived());
+    }
+
+    @Test
+    public void flushesFullPacketsAndSendsLargeMessagesAlone() {
+        connect(64, NEVER_MS);
+        for (int i = 0; i < 10; i++) {
+            alice.send(1, 1, bytes("0123456789"));
+        }
+        // 14 bytes per message, 4 fit after the magic.
+        assertEquals(2, packetSizes.size());
+        assertEquals(4 + 4 * 14, (int) packetSizes.get(0));
+
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            large.append('x');
+        }
+        alice.send(1, 2, bytes(large.toString()));
+        // Flushes the pending two, then the large one alone.
+        assertEquals(4, packetSizes.size());
+        assertEquals(4 + 2 * 14, (int) packetSizes.get(2));
+        assertEquals(4 + 1 + 1 + 1 + 1 + 100, (int) packetSizes.get(3));
+        assertEquals(11, events.size());
+        assertEquals("message 1/2 " + large, events.get(10));
+    }
+
+    @Test
+    public void flushesAfterTheDelay() throws InterruptedException {
+        CountDownLatch received = new CountDownLatch(2);
+        connect(Multiplexer.DEFAULT_MAX_PACKET_SIZE, 20);
+        bob.setHandler(new Multiplexer.Handler() {
+            @Override
+            public void onMessage(int streamId, int type, ByteBuffer payload) {
+                received.countDown();
+            }
+
+            @Override
+            public void onRequest(int streamId, int type, ByteBuffer payload,
+                                  Multiplexer.Responder responder) {
+            }
+        });
+        alice.send(1, 1, bytes("a"));
+        alice.send(1, 1, bytes("b"));
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertEquals(1, alice.getPacketsSent());
+    }
+
+    @Test
+    public void correlatesResponsesAndErrors() {
+        connect(Multiplexer.DEFAULT_MAX_PACKET_SIZE, 0);
+        alice.request(3, 1, bytes("first"), 0, record("r1"));
+        alice.request(3, 1, bytes("fail"), 0, record("r2"));
+        alice.request(4, 1, bytes("second"), 0, record("r3"));
+
+        assertEquals("request 3/1 first", events.get(0));
+        assertEquals("r1 response re: first", events.get(1));
+        assertEquals("request 3/1 fail", events.get(2));
+        assertEquals("r2 error refused", events.get(3));
+        assertEquals("request 4/1 second", events.get(4));
+        assertEquals("r3 response re: second", events.get(5));
+        assertEquals(0, alice.getPendingRequestCount());
+    }
+
+    @Test
+    public void failsRequestsOnTimeoutLinkFailureAndClose() throws InterruptedException {
+        connect(Multiplexer.DEFAULT_MAX_PACKET_SIZE, 0);
+        CountDownLatch timedOut = new CountDownLatch(1);
+        alice.request(1, 1, bytes("ignore"), 20, new Multiplexer.ResponseCallback() {
+            @Override
+            public void onResponse(ByteBuffer payload) {
+            }
+
+            @Override
+            public void onError(String reason) {
+                timedOut.countDown();
+            }
+        });
+        assertTrue(timedOut.await(5, TimeUnit.SECONDS));
+
+        linkDown = true;
+        alice.request(1, 1, bytes("lost"), 0, record("lost"));
+        assertEquals("lost error link down", events.get(events.size() - 1));
+
+        linkDown = false;
+        alice.request(1, 1, bytes("ignore"), 0, record("pending"));
+        assertEquals(1, alice.getPendingRequestCount());
+        alice.close("closed");
+        assertEquals("pending error closed", events.get(events.size() - 1));
+        assertFalse(alice.send(1, 1, bytes("late")));
+        alice.request(1, 1, bytes("late"), 0, record("late"));
+        assertEquals("late error Multiplexer closed: closed", events.get(events.size() - 1));
+    }
+
+    @Test
+    public void answersOnTheSignalingThreadWhileASendWaitsForIt() {
+        // Like the native data channel, a send runs on the signaling thread and
+        // waits for it; a request of the peer arrives there meanwhile.
+        ExecutorService signaling = Executors.newSingleThreadExecutor();
+        List<String> sent = new CopyOnWriteArrayList<>();
+        AtomicReference<ByteBuffer> incoming = new AtomicReference<>();
+        AtomicReference<Multiplexer> local = new AtomicReference<>();
+        Multiplexer peer = new Multiplexer((packet, callback) -> {
+            incoming.set(packet);
+            return true;
+        }, scheduler, 1024, 0);
+        peer.request(1, 1, bytes("ping"), NEVER_MS, record("ping"));
+        local.set(new Multiplexer((packet, callback) -> {
+            try {
+                signaling.submit(() -> {
+                    sent.add(packet.remaining() + " bytes");
+                    ByteBuffer request = incoming.getAndSet(null);
+                    if (request != null) {
+                        local.get().onMessage(request);
+                    }
+                }).get(5, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException("Signaling thread blocked", e);
+            }
+            return true;
+        }, scheduler, 1024, 0));
+        local.get().setHandler(new Multiplexer.Handler() {
+            @Override
+            public void onMessage(int streamId, int type, ByteBuffer payload) {
+            }
+
+            @Override
+            public void onRequest(int streamId, int type, ByteBuffer payload,
+                                  Multiplexer.Responder responder) {
+                responder.respond(bytes("pong"));
+            }
+        });
+        try {
+            assertTrue(local.get().send(2, 1, bytes("hello")));
+            // The response is left to the thread sending, after its own packet.
+            assertEquals(2, sent.size());
+            assertEquals(2, local.get().getPacketsSent());
+        } finally {
+            signaling.shutdownNow();
+        }
+    }
+
+    @Test
+    public void ignoresOtherMessages() {
+        connect(Multiplexer.DEFAULT_MAX_PACKET_SIZE, 0);
+        assertFalse(bob.onMessage(bytes("plain text")));
+        assertFalse(bob.onMessage(ByteBuffer.allocate(0)));
+        ByteBuffer garbage = ByteBuffer.allocate(8);
+        garbage.putInt(MuxFrame.MAGIC).put((byte) 100).flip();
+        assertTrue(bob.onMessage(garbage));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void encodesVarints() {
+        int[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE};
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        for (int value : values) {
+            MuxFrame.putVarint(buffer, value);
+        }
+        int size = 0;
+        for (int value : values) {
+            size += MuxFrame.varintSize(value);
+        }
+        assertEquals(buffer.position(), size);
+        buffer.flip();
+        for (int value : values) {
+            assertEquals(value, MuxFrame.getVarint(buffer));
+        }
+    }
+}
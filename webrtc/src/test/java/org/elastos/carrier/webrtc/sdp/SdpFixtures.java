@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.sdp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * SDP fixtures and the string based rewrites that {@link SdpMunger} replaced,
+ * kept as a reference for the tests and the benchmark.
+ */
+public final class SdpFixtures {
+    public static final String OFFER = load("sdp/offer.sdp");
+    public static final String ANSWER = load("sdp/answer.sdp");
+
+    private SdpFixtures() {
+    }
+
+    private static String load(String name) {
+        try (InputStream in = SdpFixtures.class.getClassLoader().getResourceAsStream(name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), Charset.forName("UTF-8"));
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not load " + name, e);
+        }
+    }
+
+    /**
+     * The rewrites the client applied to a remote description: ISAC and VP8
+     * first, and an opus bitrate of 32 kbps.
+     */
+    static String legacyRemoteRewrite(String sdpDescription) {
+        String description = legacyPreferCodec(sdpDescription, "ISAC", true);
+        description = legacyPreferCodec(description, "VP8", false);
+        return legacySetStartBitrate("opus", false, description, 32);
+    }
+
+    static String legacySetStartBitrate(
+            String codec, boolean isVideoCodec, String sdpDescription, int bitrateKbps) {
+        String[] lines = sdpDescription.split("\r\n");
+        int rtpmapLineIndex = -1;
+        boolean sdpFormatUpdated = false;
+        String codecRtpMap = null;
+        String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
+        Pattern codecPattern = Pattern.compile(regex);
+        for (int i = 0; i < lines.length; i++) {
+            Matcher codecMatcher = codecPattern.matcher(lines[i]);
+            if (codecMatcher.matches()) {
+                codecRtpMap = codecMatcher.group(1);
+                rtpmapLineIndex = i;
+                break;
+            }
+        }
+        if (codecRtpMap == null) {
+            return sdpDescription;
+        }
+        regex = "^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$";
+        codecPattern = Pattern.compile(regex);
+        for (int i = 0; i < lines.length; i++) {
+            Matcher codecMatcher = codecPattern.matcher(lines[i]);
+            if (codecMatcher.matches()) {
+                if (isVideoCodec) {
+                    lines[i] += "; x-google-start-bitrate=" + bitrateKbps;
+                } else {
+                    lines[i] += "; maxaveragebitrate=" + (bitrateKbps * 1000);
+                }
+                sdpFormatUpdated = true;
+                break;
+            }
+        }
+        StringBuilder newSdpDescription = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            newSdpDescription.append(lines[i]).append("\r\n");
+            if (!sdpFormatUpdated && i == rtpmapLineIndex) {
+                String bitrateSet;
+                if (isVideoCodec) {
+                    bitrateSet = "a=fmtp:" + codecRtpMap + " x-google-start-bitrate=" + bitrateKbps;
+                } else {
+                    bitrateSet = "a=fmtp:" + codecRtpMap + " maxaveragebitrate=" + (bitrateKbps * 1000);
+                }
+                newSdpDescription.append(bitrateSet).append("\r\n");
+            }
+        }
+        return newSdpDescription.toString();
+    }
+
+    static String legacyPreferCodec(String sdpDescription, String codec, boolean isAudio) {
+        final String[] lines = sdpDescription.split("\r\n");
+        final String mediaDescription = isAudio ? "m=audio " : "m=video ";
+        int mLineIndex = -1;
+        for (int i = 0; i < lines.length; ++i) {
+            if (lines[i].startsWith(mediaDescription)) {
+                mLineIndex = i;
+                break;
+            }
+        }
+        if (mLineIndex == -1) {
+            return sdpDescription;
+        }
+        final List<String> codecPayloadTypes = new ArrayList<>();
+        final Pattern codecPattern = Pattern.compile("^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$");
+        for (String line : lines) {
+            Matcher codecMatcher = codecPattern.matcher(line);
+            if (codecMatcher.matches()) {
+                codecPayloadTypes.add(codecMatcher.group(1));
+            }
+        }
+        if (codecPayloadTypes.isEmpty()) {
+            return sdpDescription;
+        }
+        final List<String> origLineParts = Arrays.asList(lines[mLineIndex].split(" "));
+        if (origLineParts.size() <= 3) {
+            return sdpDescription;
+        }
+        final List<String> unpreferredPayloadTypes =
+                new ArrayList<>(origLineParts.subList(3, origLineParts.size()));
+        unpreferredPayloadTypes.removeAll(codecPayloadTypes);
+        final List<String> newLineParts = new ArrayList<>(origLineParts.subList(0, 3));
+        newLineParts.addAll(codecPayloadTypes);
+        newLineParts.addAll(unpreferredPayloadTypes);
+        lines[mLineIndex] = joinString(newLineParts, " ", false);
+        return joinString(Arrays.asList(lines), "\r\n", true);
+    }
+
+    private static String joinString(
+            Iterable<? extends CharSequence> s, String delimiter, boolean delimiterAtEnd) {
+        Iterator<? extends CharSequence> iter = s.iterator();
+        if (!iter.hasNext()) {
+            return "";
+        }
+        StringBuilder buffer = new StringBuilder(iter.next());
+        while (iter.hasNext()) {
+            buffer.append(delimiter).append(iter.next());
+        }
+        if (delimiterAtEnd) {
+            buffer.append(delimiter);
+        }
+        return buffer.toString();
+    }
+}
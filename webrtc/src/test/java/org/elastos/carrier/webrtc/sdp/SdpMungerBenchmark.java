@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.sdp;
+
+import org.elastos.carrier.webrtc.util.Benchmark;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares the single pass {@link SdpMunger} with the previous chain of
+ * split/regex/join rewrites on the offer/answer path.
+ *
+ * <p>The output matching the legacy rewrites, and the munger allocating less,
+ * are covered by {@link SdpMungerTest}.
+ */
+@Ignore("Benchmark, run manually")
+public class SdpMungerBenchmark {
+    private static final int WARMUP_ITERATIONS = 1000;
+    private static final int ITERATIONS = 5000;
+
+    private final SdpMunger remoteMunger = SdpMunger.builder()
+            .preferCodec("ISAC", true)
+            .preferCodec("VP8", false)
+            .setFmtpParameter("opus", "maxaveragebitrate", "32000")
+            .build();
+
+    @Test
+    public void remoteDescriptionRewrite() throws Exception {
+        for (String sdp : new String[]{SdpFixtures.OFFER, SdpFixtures.ANSWER}) {
+            Benchmark.Result legacy = Benchmark.measure(WARMUP_ITERATIONS, ITERATIONS,
+                    () -> SdpFixtures.legacyRemoteRewrite(sdp).length());
+            Benchmark.Result munger = Benchmark.measure(WARMUP_ITERATIONS, ITERATIONS,
+                    () -> remoteMunger.munge(sdp).length());
+            Benchmark.report(SdpMungerBenchmark.class, "legacy: " + legacy + ", munger: " + munger);
+        }
+    }
+}
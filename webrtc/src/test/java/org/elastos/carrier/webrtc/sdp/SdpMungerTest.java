@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.sdp;
+
+import org.elastos.carrier.webrtc.util.Benchmark;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class SdpMungerTest {
+
+    @Test
+    public void preferVideoCodecMatchesLegacyRewrite() {
+        SdpMunger munger = SdpMunger.builder().preferCodec("VP9", false).build();
+        assertEquals(SdpFixtures.legacyPreferCodec(SdpFixtures.OFFER, "VP9", false),
+                munger.munge(SdpFixtures.OFFER));
+        assertTrue(munger.munge(SdpFixtures.OFFER)
+                .contains("m=video 9 UDP/TLS/RTP/SAVPF 98 96 97 99 100 101 127 124 125\r\n"));
+    }
+
+    @Test
+    public void remoteDescriptionRewriteMatchesLegacyRewrites() {
+        for (String videoCodec : new String[]{"VP8", "H264"}) {
+            SdpMunger munger = SdpMunger.builder()
+                    .preferCodec("ISAC", true)
+                    .preferCodec(videoCodec, false)
+                    .setFmtpParameter("opus", "maxaveragebitrate", "32000")
+                    .build();
+            for (String sdp : new String[]{SdpFixtures.OFFER, SdpFixtures.ANSWER}) {
+                String legacy = SdpFixtures.legacyPreferCodec(sdp, "ISAC", true);
+                legacy = SdpFixtures.legacyPreferCodec(legacy, videoCodec, false);
+                legacy = SdpFixtures.legacySetStartBitrate("opus", false, legacy, 32);
+                assertEquals(videoCodec, legacy, munger.munge(sdp));
+            }
+        }
+    }
+
+    // The munger indexes the description once instead of splitting and
+    // joining it for every rewrite.
+    @Test
+    public void remoteDescriptionRewriteAllocatesLessThanLegacyRewrites() throws Exception {
+        assumeTrue("Per thread allocations are not reported", Benchmark.allocatedBytes() >= 0);
+        final SdpMunger munger = SdpMunger.builder()
+                .preferCodec("ISAC", true)
+                .preferCodec("VP8", false)
+                .setFmtpParameter("opus", "maxaveragebitrate", "32000")
+                .build();
+        for (final String sdp : new String[]{SdpFixtures.OFFER, SdpFixtures.ANSWER}) {
+            Benchmark.Result legacy = Benchmark.measure(20, 100,
+                    () -> SdpFixtures.legacyRemoteRewrite(sdp).length());
+            Benchmark.Result result = Benchmark.measure(20, 100, () -> munger.munge(sdp).length());
+            assertTrue("munger: " + result + ", legacy: " + legacy,
+                    result.bytesPerOp < legacy.bytesPerOp);
+        }
+    }
+
+    @Test
+    public void fmtpLineIsInsertedAfterRtpmap() {
+        SdpMunger munger = SdpMunger.builder()
+                .setFmtpParameter("VP8", "x-google-start-bitrate", "1000")
+                .build();
+        assertEquals(SdpFixtures.legacySetStartBitrate("VP8", true, SdpFixtures.OFFER, 1000),
+                munger.munge(SdpFixtures.OFFER));
+        assertTrue(munger.munge(SdpFixtures.OFFER)
+                .contains("a=rtpmap:96 VP8/90000\r\na=fmtp:96 x-google-start-bitrate=1000\r\n"));
+    }
+
+    @Test
+    public void unknownCodecLeavesDescriptionUntouched() {
+        SdpMunger munger = SdpMunger.builder()
+                .preferCodec("AV1X", false)
+                .setFmtpParameter("AV1X", "x-google-start-bitrate", "1000")
+                .build();
+        assertSame(SdpFixtures.OFFER, munger.munge(SdpFixtures.OFFER));
+    }
+
+    @Test
+    public void alreadyPreferredCodecIsNotRewritten() {
+        SdpMunger munger = SdpMunger.builder().preferCodec("opus", true).build();
+        assertSame(SdpFixtures.OFFER, munger.munge(SdpFixtures.OFFER));
+    }
+}
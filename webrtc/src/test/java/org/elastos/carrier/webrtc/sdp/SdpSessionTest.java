@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.sdp;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SdpSessionTest {
+
+    @Test
+    public void unmodifiedSessionSerializesToInput() {
+        SdpSession sdp = SdpSession.parse(SdpFixtures.OFFER);
+        assertEquals(3, sdp.getMediaSections().size());
+        // Lookups parse the sections but must not change the serialized form.
+        assertEquals("111", sdp.findMediaSection("audio").getPayloadType("opus"));
+        assertFalse(sdp.isModified());
+        assertSame(SdpFixtures.OFFER, sdp.toString());
+    }
+
+    @Test
+    public void unmodifiedSectionsKeepOriginalLineEndings() {
+        String lf = SdpFixtures.ANSWER.replace("\r\n", "\n");
+        SdpSession sdp = SdpSession.parse(lf);
+        sdp.findMediaSection("video").addFmtpParameter("96", "x-google-start-bitrate", "800");
+        String serialized = sdp.toString();
+        assertTrue(serialized.startsWith(lf.substring(0, lf.indexOf("m=video"))));
+        assertTrue(serialized.endsWith(lf.substring(lf.indexOf("m=application"))));
+        assertTrue(serialized.contains("a=rtpmap:96 VP8/90000\r\na=fmtp:96 x-google-start-bitrate=800\r\n"));
+    }
+
+    @Test
+    public void payloadTypeLookups() {
+        SdpSession sdp = SdpSession.parse(SdpFixtures.OFFER);
+        SdpMediaSection video = sdp.findMediaSection("video");
+        assertEquals("[100]", video.getPayloadTypes("h264").toString());
+        assertEquals("level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f",
+                video.getFmtp("100"));
+        assertEquals("101", video.getRtxPayloadType("100"));
+        assertEquals("97", video.getRtxPayloadType("96"));
+        assertNull(video.getFmtp("96"));
+        assertTrue(sdp.findMediaSection("audio").getPayloadTypes("VP8").isEmpty());
+        assertSame(sdp.findMediaSection("audio"), sdp.findMediaSectionWithCodec("ISAC"));
+        assertEquals("webrtc-datachannel", sdp.findMediaSection("application").getFormats().get(0));
+    }
+
+    @Test
+    public void fmtpEditsKeepLookupsInSync() {
+        SdpMediaSection video = SdpSession.parse(SdpFixtures.OFFER).findMediaSection("video");
+        assertTrue(video.setFmtp("96", "x-google-start-bitrate=800"));
+        assertEquals("x-google-start-bitrate=800", video.getFmtp("96"));
+        // Indices after the inserted line must still resolve to the right lines.
+        assertEquals("apt=96", video.getFmtp("97"));
+        assertTrue(video.addFmtpParameter("100", "x-google-max-bitrate", "2000"));
+        assertTrue(video.getFmtp("100").endsWith("; x-google-max-bitrate=2000"));
+        assertFalse(video.setFmtp("35", "foo=1"));
+    }
+
+    @Test
+    public void addFmtpParameterReplacesExistingKey() {
+        SdpSession sdp = SdpSession.parse(SdpFixtures.OFFER);
+        SdpMediaSection video = sdp.findMediaSection("video");
+        // Setting the current value again leaves the session untouched.
+        assertTrue(video.addFmtpParameter("100", "packetization-mode", "1"));
+        assertFalse(sdp.isModified());
+        assertTrue(video.addFmtpParameter("100", "packetization-mode", "0"));
+        assertEquals("level-asymmetry-allowed=1;packetization-mode=0;profile-level-id=42e01f",
+                video.getFmtp("100"));
+        assertTrue(video.addFmtpParameter("100", "x-google-max-bitrate", "2000"));
+        assertTrue(video.addFmtpParameter("100", "x-google-max-bitrate", "1500"));
+        assertEquals("level-asymmetry-allowed=1;packetization-mode=0;profile-level-id=42e01f;"
+                + " x-google-max-bitrate=1500", video.getFmtp("100"));
+    }
+
+    @Test
+    public void preferPayloadTypes() {
+        SdpMediaSection video = SdpSession.parse(SdpFixtures.OFFER).findMediaSection("video");
+        assertFalse(video.preferPayloadTypes(Collections.singletonList("96")));
+        assertTrue(video.preferPayloadTypes(video.getPayloadTypes("VP9")));
+        assertEquals("m=video 9 UDP/TLS/RTP/SAVPF 98 96 97 99 100 101 127 124 125", video.getMLine());
+        assertEquals("98", video.getFormats().get(0));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.signaling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * In-memory stand-in for the carrier friend invite channel. Invites are
+ * queued per receiver and delivered on {@link #deliver()}, optionally
+ * shuffled; payloads above the invite limit are rejected like carrier does.
+ */
+final class InMemoryCarrier {
+    interface Receiver {
+        void onFriendInvite(String from, String data);
+    }
+
+    private final int maxInviteLength;
+    private final Random random;
+    private final Map<String, Receiver> receivers = new HashMap<>();
+    private final List<String[]> queue = new ArrayList<>();
+    private int invites;
+
+    InMemoryCarrier(int maxInviteLength, Random random) {
+        this.maxInviteLength = maxInviteLength;
+        this.random = random;
+    }
+
+    void register(String userId, Receiver receiver) {
+        receivers.put(userId, receiver);
+    }
+
+    void inviteFriend(String from, String to, String data) {
+        if (data.length() > maxInviteLength) {
+            throw new IllegalArgumentException("Invite data too long: " + data.length());
+        }
+        invites++;
+        queue.add(new String[]{from, to, data});
+    }
+
+    int getInvites() {
+        return invites;
+    }
+
+    void deliver() {
+        if (random != null) {
+            Collections.shuffle(queue, random);
+        }
+        List<String[]> invites = new ArrayList<>(queue);
+        queue.clear();
+        for (String[] invite : invites) {
+            receivers.get(invite[1]).onFriendInvite(invite[0], invite[2]);
+        }
+    }
+}
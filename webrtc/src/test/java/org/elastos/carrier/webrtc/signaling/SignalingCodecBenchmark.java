@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.signaling;
+
+import org.elastos.carrier.webrtc.sdp.SdpFixtures;
+import org.elastos.carrier.webrtc.util.Benchmark;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * Compares the encoded size and the encode/decode time of the json and the
+ * binary signaling formats for the messages of a typical call setup.
+ *
+ * <p>The binary format being smaller is covered by {@link SignalingCodecTest}.
+ */
+@Ignore("Benchmark, run manually")
+public class SignalingCodecBenchmark {
+    private static final int WARMUP_ITERATIONS = 500;
+    private static final int ITERATIONS = 2000;
+
+    private final SignalingCodec json = new JsonSignalingCodec();
+    private final SignalingCodec binary = new BinarySignalingCodec();
+
+    @Test
+    public void callSetupMessages() throws Exception {
+        SignalingMessage[] messages = {
+                SignalingMessage.offer(SdpFixtures.OFFER, true, true, true,
+                        Collections.singleton(SignalingMessage.CAPABILITY_BINARY_CODEC)),
+                SignalingMessage.answer(SdpFixtures.ANSWER,
+                        Collections.singleton(SignalingMessage.CAPABILITY_BINARY_CODEC)),
+                SignalingMessage.candidates(SignalingCodecTest.CANDIDATES),
+        };
+        for (SignalingMessage message : messages) {
+            Benchmark.report(SignalingCodecBenchmark.class, message.getType()
+                    + " json: " + measure(json, message)
+                    + "; binary: " + measure(binary, message));
+        }
+    }
+
+    private static String measure(SignalingCodec codec, SignalingMessage message)
+            throws Exception {
+        String encoded = codec.encode(message);
+        Benchmark.Result encode = Benchmark.measure(WARMUP_ITERATIONS, ITERATIONS,
+                () -> codec.encode(message).length());
+        Benchmark.Result decode = Benchmark.measure(WARMUP_ITERATIONS, ITERATIONS,
+                () -> codec.decode(encoded).getType().getCode());
+        return encoded.length() + " B, encode " + encode + ", decode " + decode;
+    }
+}
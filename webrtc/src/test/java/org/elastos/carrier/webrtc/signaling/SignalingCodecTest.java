@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.signaling;
+
+import org.elastos.carrier.webrtc.exception.WebrtcException;
+import org.elastos.carrier.webrtc.sdp.SdpFixtures;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SignalingCodecTest {
+    static final IceCandidate[] CANDIDATES = {
+            new IceCandidate("0", 0, "candidate:842163049 1 udp 1677729535 203.0.113.7 51734 typ srflx raddr 192.168.1.23 rport 51734 generation 0 ufrag EsAw network-id 1 network-cost 10"),
+            new IceCandidate("0", 0, "candidate:1510613869 1 udp 2122260223 192.168.1.23 51734 typ host generation 0 ufrag EsAw network-id 1 network-cost 10"),
+            new IceCandidate("1", 1, "candidate:3885250869 1 tcp 1518280447 192.168.1.23 9 typ host tcptype active generation 0 ufrag EsAw network-id 1 network-cost 10"),
+    };
+
+    private final SignalingCodec json = new JsonSignalingCodec();
+    private final SignalingCodec binary = new BinarySignalingCodec();
+
+    @Test
+    public void offerRoundTrip() throws WebrtcException {
+        SignalingMessage offer = SignalingMessage.offer(SdpFixtures.OFFER, true, false, true,
+                Collections.singleton(SignalingMessage.CAPABILITY_BINARY_CODEC));
+        for (SignalingCodec codec : new SignalingCodec[]{json, binary}) {
+            SignalingMessage decoded = codec.decode(codec.encode(offer));
+            assertEquals(SignalingMessage.Type.OFFER, decoded.getType());
+            assertEquals(SdpFixtures.OFFER, decoded.getSdp());
+            assertTrue(decoded.isAudio());
+            assertFalse(decoded.isVideo());
+            assertTrue(decoded.isData());
+            assertTrue(decoded.hasCapability(SignalingMessage.CAPABILITY_BINARY_CODEC));
+        }
+    }
+
+    @Test
+    public void answerRoundTrip() throws WebrtcException {
+        SignalingMessage answer = SignalingMessage.answer(SdpFixtures.ANSWER,
+                Collections.<String>emptySet());
+        for (SignalingCodec codec : new SignalingCodec[]{json, binary}) {
+            SignalingMessage decoded = codec.decode(codec.encode(answer));
+            assertEquals(SignalingMessage.Type.ANSWER, decoded.getType());
+            assertEquals(SdpFixtures.ANSWER, decoded.getSdp());
+            assertTrue(decoded.getCapabilities().isEmpty());
+        }
+    }
+
+    @Test
+    public void candidatesRoundTrip() throws WebrtcException {
+        for (SignalingCodec codec : new SignalingCodec[]{json, binary}) {
+            SignalingMessage decoded = codec.decode(
+                    codec.encode(SignalingMessage.removalCandidates(CANDIDATES)));
+            assertEquals(SignalingMessage.Type.REMOVAL_CANDIDATES, decoded.getType());
+            List<IceCandidate> candidates = decoded.getCandidates();
+            assertEquals(CANDIDATES.length, candidates.size());
+            for (int i = 0; i < CANDIDATES.length; i++) {
+                assertEquals(CANDIDATES[i].sdpMid, candidates.get(i).sdpMid);
+                assertEquals(CANDIDATES[i].sdpMLineIndex, candidates.get(i).sdpMLineIndex);
+                assertEquals(CANDIDATES[i].sdp, candidates.get(i).sdp);
+            }
+        }
+    }
+
+    @Test
+    public void byeRoundTrip() throws WebrtcException {
+        for (SignalingCodec codec : new SignalingCodec[]{json, binary}) {
+            SignalingMessage decoded = codec.decode(codec.encode(SignalingMessage.bye(3)));
+            assertEquals(SignalingMessage.Type.BYE, decoded.getType());
+            assertEquals(3, decoded.getReason());
+        }
+    }
+
+    @Test
+    public void decodesLegacyJson() throws WebrtcException {
+        SignalingMessage decoded = json.decode(
+                "{\"type\":\"offer\",\"sdp\":\"v=0\\r\\n\",\"options\":[\"audio\",\"video\"]}");
+        assertEquals(SignalingMessage.Type.OFFER, decoded.getType());
+        assertEquals("v=0\r\n", decoded.getSdp());
+        assertTrue(decoded.isAudio());
+        assertTrue(decoded.isVideo());
+        assertFalse(decoded.isData());
+        assertTrue(decoded.getCapabilities().isEmpty());
+    }
+
+    @Test
+    public void binaryIsSmallerThanJson() {
+        SignalingMessage[] messages = {
+                SignalingMessage.offer(SdpFixtures.OFFER, true, true, true,
+                        Collections.singleton(SignalingMessage.CAPABILITY_BINARY_CODEC)),
+                SignalingMessage.answer(SdpFixtures.ANSWER,
+                        Collections.singleton(SignalingMessage.CAPABILITY_BINARY_CODEC)),
+                SignalingMessage.candidates(CANDIDATES),
+        };
+        for (SignalingMessage message : messages) {
+            assertTrue("binary " + message.getType() + " should be smaller than json",
+                    binary.encode(message).length() < json.encode(message).length());
+        }
+    }
+
+    @Test
+    public void formatsAreDistinguishable() {
+        String encodedJson = json.encode(SignalingMessage.bye(0));
+        String encodedBinary = binary.encode(SignalingMessage.bye(0));
+        assertTrue(json.canDecode(encodedJson));
+        assertFalse(binary.canDecode(encodedJson));
+        assertTrue(binary.canDecode(encodedBinary));
+        assertFalse(json.canDecode(encodedBinary));
+    }
+
+    @Test
+    public void rejectsCorruptedBinary() {
+        String encoded = binary.encode(SignalingMessage.answer(SdpFixtures.ANSWER,
+                Collections.<String>emptySet()));
+        String[] corrupted = {
+                encoded.substring(0, encoded.length() / 2),
+                BinarySignalingCodec.PREFIX + "not base64 ~~",
+                BinarySignalingCodec.PREFIX,
+        };
+        for (String data : corrupted) {
+            try {
+                binary.decode(data);
+                fail("decoded corrupted message " + data);
+            } catch (WebrtcException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.signaling;
+
+import org.elastos.carrier.webrtc.sdp.SdpFixtures;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SignalingFragmentationTest {
+    private static final int MAX_INVITE_LENGTH = 1024;
+
+    private final SignalingCodec codec = new JsonSignalingCodec();
+
+    @Test
+    public void shortMessagesAreNotFragmented() {
+        String bye = codec.encode(SignalingMessage.bye(0));
+        assertEquals(Collections.singletonList(bye),
+                new SignalingFragmenter(MAX_INVITE_LENGTH).fragment(bye));
+        assertEquals(bye, new SignalingReassembler().receive("peer", bye, 0));
+    }
+
+    @Test
+    public void largeOfferOverInMemoryCarrier() {
+        Random random = new Random(42);
+        InMemoryCarrier carrier = new InMemoryCarrier(MAX_INVITE_LENGTH, random);
+        SignalingFragmenter fragmenter = new SignalingFragmenter(MAX_INVITE_LENGTH);
+        SignalingReassembler reassembler = new SignalingReassembler();
+        final List<String> received = new ArrayList<>();
+        carrier.register("callee", (from, data) -> {
+            String message = reassembler.receive(from, data, 0);
+            if (message != null) {
+                received.add(message);
+            }
+        });
+
+        // A real offer plus one padded to many KB with extra codec lines.
+        StringBuilder padded = new StringBuilder(SdpFixtures.OFFER);
+        for (int i = 0; i < 400; i++) {
+            padded.append("a=rtpmap:").append(i).append(" codec").append(i).append("/90000\r\n");
+        }
+        List<String> sent = new ArrayList<>();
+        for (String sdp : new String[]{SdpFixtures.OFFER, padded.toString()}) {
+            String data = codec.encode(SignalingMessage.offer(sdp, true, true, false,
+                    Collections.<String>emptySet()));
+            sent.add(data);
+            for (String fragment : fragmenter.fragment(data)) {
+                carrier.inviteFriend("caller", "callee", fragment);
+            }
+        }
+        carrier.deliver();
+
+        assertTrue(carrier.getInvites() > 10);
+        Collections.sort(sent);
+        Collections.sort(received);
+        assertEquals(sent, received);
+        assertEquals(0, reassembler.getPendingMessages());
+    }
+
+    @Test
+    public void interleavedPeersAndDuplicates() {
+        SignalingFragmenter fragmenter = new SignalingFragmenter(64);
+        SignalingReassembler reassembler = new SignalingReassembler();
+        String message = SdpFixtures.ANSWER.substring(0, 600);
+        List<String> fragments = fragmenter.fragment(message);
+        List<String> reversed = new ArrayList<>(fragments);
+        Collections.reverse(reversed);
+
+        String fromA = null;
+        String fromB = null;
+        for (int i = 0; i < fragments.size(); i++) {
+            // Same message id from two peers must not mix, duplicates are ignored.
+            assertNull(fromA);
+            fromA = reassembler.receive("a", fragments.get(i), 0);
+            assertNull(reassembler.receive("a", fragments.get(i), 0));
+            fromB = reassembler.receive("b", reversed.get(i), 0);
+        }
+        assertEquals(message, fromA);
+        assertEquals(message, fromB);
+    }
+
+    @Test
+    public void incompleteMessagesExpire() {
+        SignalingFragmenter fragmenter = new SignalingFragmenter(64);
+        SignalingReassembler reassembler = new SignalingReassembler(1000, 16, 1 << 16);
+        List<String> fragments = fragmenter.fragment(SdpFixtures.ANSWER.substring(0, 300));
+        for (int i = 1; i < fragments.size(); i++) {
+            assertNull(reassembler.receive("a", fragments.get(i), 0));
+        }
+        assertEquals(1, reassembler.getPendingMessages());
+
+        // The missing first fragment arrives too late and starts a new partial message.
+        assertNull(reassembler.receive("a", fragments.get(0), 1000));
+        assertEquals(1, reassembler.getDroppedMessages());
+        assertEquals(1, reassembler.getPendingMessages());
+    }
+
+    @Test
+    public void bufferIsBounded() {
+        SignalingFragmenter fragmenter = new SignalingFragmenter(64);
+        SignalingReassembler reassembler = new SignalingReassembler(10000, 4, 1 << 16);
+        String message = SdpFixtures.OFFER.substring(0, 200);
+        List<String> first = fragmenter.fragment(message);
+        // Start more partial messages than the buffer holds.
+        assertNull(reassembler.receive("a", first.get(0), 0));
+        for (int i = 1; i < 6; i++) {
+            assertNull(reassembler.receive("a", fragmenter.fragment(message).get(0), i));
+        }
+        assertEquals(4, reassembler.getPendingMessages());
+        assertEquals(2, reassembler.getDroppedMessages());
+
+        // The oldest message was evicted, completing it is no longer possible.
+        for (int i = 1; i < first.size(); i++) {
+            assertNull(reassembler.receive("a", first.get(i), 10));
+        }
+
+        SignalingReassembler small = new SignalingReassembler(10000, 16, 100);
+        for (String fragment : fragmenter.fragment(SdpFixtures.OFFER)) {
+            assertNull(small.receive("a", fragment, 0));
+        }
+        assertTrue(small.getDroppedMessages() > 0);
+    }
+
+    @Test
+    public void invalidFragmentsAreIgnored() {
+        SignalingReassembler reassembler = new SignalingReassembler();
+        String[] invalid = {"#", "#1", "#1:x:2:data", "#1:2:2:data", "#1:0:0:", "#1:-1:2:data"};
+        for (String data : invalid) {
+            assertNull(data, reassembler.receive("a", data, 0));
+        }
+        assertEquals(0, reassembler.getPendingMessages());
+    }
+}
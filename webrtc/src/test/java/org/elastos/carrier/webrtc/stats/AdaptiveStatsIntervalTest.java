@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.stats;
+
+import org.junit.Test;
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveStatsIntervalTest {
+    private static final int MIN_MS = 1000;
+    private static final int MAX_MS = 8000;
+    private static final int BACKGROUND_MS = 30000;
+
+    private final AdaptiveStatsInterval interval =
+            new AdaptiveStatsInterval(MIN_MS, MAX_MS, BACKGROUND_MS);
+    private final RtcStatsCollector collector = new RtcStatsCollector();
+    private long timestampUs;
+    private long bytesSent;
+    private long packetsReceived;
+    private long packetsLost;
+
+    @Test
+    public void backsOffWhileStable() {
+        assertEquals(MIN_MS, interval.next(null));
+        for (int i = 0; i < AdaptiveStatsInterval.RAMP_UP_POLLS; i++) {
+            assertEquals(MIN_MS, interval.next(poll(100000, 0, 0.05)));
+        }
+        assertEquals(2000, interval.next(poll(100000, 0, 0.05)));
+        assertEquals(4000, interval.next(poll(100000, 0, 0.05)));
+        assertEquals(MAX_MS, interval.next(poll(100000, 0, 0.05)));
+        assertEquals(MAX_MS, interval.next(poll(100000, 0, 0.05)));
+    }
+
+    @Test
+    public void pollsFastOnDegradation() {
+        rampUp();
+        // Packet loss.
+        assertEquals(MIN_MS, interval.next(poll(100000, 10, 0.05)));
+        assertEquals(2000, interval.next(poll(100000, 0, 0.05)));
+        // Round trip time well above its average.
+        assertEquals(MIN_MS, interval.next(poll(100000, 0, 0.2)));
+        interval.reset();
+        rampUp();
+        // Send bitrate well below its average.
+        assertEquals(MIN_MS, interval.next(poll(20000, 0, 0.05)));
+    }
+
+    @Test
+    public void pollsFastWhileReconnecting() {
+        rampUp();
+        assertEquals(MIN_MS, interval.next(null));
+        for (int i = 0; i < AdaptiveStatsInterval.RAMP_UP_POLLS; i++) {
+            assertEquals(MIN_MS, interval.next(poll(100000, 0, 0.05)));
+        }
+    }
+
+    @Test
+    public void pollsRarelyInTheBackground() {
+        interval.setBackground(true);
+        assertEquals(BACKGROUND_MS, interval.next(null));
+        assertEquals(BACKGROUND_MS, interval.next(poll(100000, 10, 0.05)));
+        interval.setBackground(false);
+        assertEquals(MIN_MS, interval.next(poll(100000, 10, 0.05)));
+    }
+
+    private void rampUp() {
+        for (int i = 0; i <= AdaptiveStatsInterval.RAMP_UP_POLLS; i++) {
+            interval.next(poll(100000, 0, 0.05));
+        }
+    }
+
+    // One second of a connected call sending |bytes|, losing |lost| of 100 packets.
+    private RtcStatsSnapshot poll(long bytes, int lost, double roundTripTime) {
+        timestampUs += 1000000;
+        bytesSent += bytes;
+        packetsReceived += 100 - lost;
+        packetsLost += lost;
+        Map<String, RTCStats> stats = new HashMap<>();
+        Map<String, Object> outbound = new HashMap<>();
+        outbound.put("ssrc", 1L);
+        outbound.put("kind", "video");
+        outbound.put("bytesSent", BigInteger.valueOf(bytesSent));
+        stats.put("out", new RTCStats(timestampUs, "outbound-rtp", "out", outbound));
+        Map<String, Object> inbound = new HashMap<>();
+        inbound.put("ssrc", 2L);
+        inbound.put("kind", "video");
+        inbound.put("packetsReceived", packetsReceived);
+        inbound.put("packetsLost", (int) packetsLost);
+        stats.put("in", new RTCStats(timestampUs, "inbound-rtp", "in", inbound));
+        Map<String, Object> pair = new HashMap<>();
+        pair.put("state", "succeeded");
+        pair.put("nominated", true);
+        pair.put("currentRoundTripTime", roundTripTime);
+        stats.put("pair", new RTCStats(timestampUs, "candidate-pair", "pair", pair));
+        return collector.update(new RTCStatsReport(timestampUs, stats));
+    }
+}
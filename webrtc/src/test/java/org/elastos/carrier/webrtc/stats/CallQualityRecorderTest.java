@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.stats;
+
+import org.junit.Test;
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CallQualityRecorderTest {
+    private final RtcStatsCollector collector = new RtcStatsCollector();
+    private float cpuUsage = Float.NaN;
+    private long timestampUs;
+    private long bytesSent;
+    private long framesDecoded;
+    private long freezeCount;
+    private double jitterBufferDelay;
+    private long jitterBufferEmittedCount;
+
+    @Test
+    public void recordsKeyMetrics() {
+        CallQualityRecorder recorder = new CallQualityRecorder(10, () -> cpuUsage);
+        recorder.record(collector.update(new RTCStatsReport(1000, new HashMap<>())));
+        cpuUsage = 42;
+        recorder.record(poll(1000000, 0.05, 30));
+        recorder.record(poll(1000000, 0.08, 25));
+
+        assertEquals(3, recorder.size());
+        assertEquals(0, recorder.getDroppedCount());
+        assertTrue(Float.isNaN(recorder.getValue(CallQualityRecorder.Metric.ROUND_TRIP_TIME_MS, 0)));
+        assertTrue(Float.isNaN(recorder.getValue(CallQualityRecorder.Metric.CPU_PERCENT, 0)));
+        assertEquals(80, recorder.getValue(CallQualityRecorder.Metric.ROUND_TRIP_TIME_MS, 2), 0.01);
+        assertEquals(8000, recorder.getValue(CallQualityRecorder.Metric.SEND_BITRATE_KBPS, 2), 0.01);
+        assertEquals(25, recorder.getValue(CallQualityRecorder.Metric.FRAME_RATE, 2), 0.01);
+        assertEquals(2, recorder.getValue(CallQualityRecorder.Metric.FREEZE_COUNT, 2), 0);
+        assertEquals(40, recorder.getValue(CallQualityRecorder.Metric.JITTER_BUFFER_DELAY_MS, 2), 0.01);
+        assertEquals(0, recorder.getValue(CallQualityRecorder.Metric.PACKET_LOSS_PERCENT, 2), 0);
+        assertEquals(42, recorder.getValue(CallQualityRecorder.Metric.CPU_PERCENT, 2), 0);
+    }
+
+    @Test
+    public void overwritesTheOldestSamples() {
+        CallQualityRecorder recorder = new CallQualityRecorder(3, null);
+        for (int i = 1; i <= 5; i++) {
+            recorder.record(poll(1000000, 0.01 * i, 30));
+        }
+
+        assertEquals(3, recorder.size());
+        assertEquals(2, recorder.getDroppedCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(3000 + i * 1000, recorder.getTimestampMs(i));
+            assertEquals(30 + i * 10,
+                    recorder.getValue(CallQualityRecorder.Metric.ROUND_TRIP_TIME_MS, i), 0.01);
+        }
+        try {
+            recorder.getTimestampMs(3);
+            fail("read past the samples");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void exportsCsv() throws IOException {
+        CallQualityRecorder recorder = new CallQualityRecorder(2, null);
+        recorder.record(poll(1000000, 0.05, 30));
+        recorder.record(poll(500000, 0.0625, 30));
+
+        StringWriter writer = new StringWriter();
+        recorder.writeCsv(writer);
+        assertEquals("timestamp_ms,rtt_ms,send_kbps,receive_kbps,fps,freezes,loss_pct,"
+                        + "jitter_buffer_ms,cpu_pct\n"
+                        + "1000,50,0,0,0,1,0,40,\n"
+                        + "2000,62.5,4000,0,30,2,0,40,\n",
+                writer.toString());
+    }
+
+    @Test
+    public void exportsBinary() throws IOException {
+        CallQualityRecorder recorder = new CallQualityRecorder(4, () -> cpuUsage);
+        for (int i = 0; i < 6; i++) {
+            cpuUsage = i;
+            recorder.record(poll(1000000, 0.05, 30));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.writeBinary(out);
+        // The header, then 36 bytes per sample but the first timestamp is a long.
+        assertEquals(18 + 4 + 4 * 36, out.size());
+
+        CallQualityRecorder read = CallQualityRecorder.readBinary(
+                new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(4, read.size());
+        assertEquals(2, read.getDroppedCount());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(recorder.getTimestampMs(i), read.getTimestampMs(i));
+            for (CallQualityRecorder.Metric metric : CallQualityRecorder.Metric.values()) {
+                assertEquals(recorder.getValue(metric, i), read.getValue(metric, i), 0);
+            }
+        }
+
+        try {
+            CallQualityRecorder.readBinary(new ByteArrayInputStream(new byte[] {1, 2, 3, 4}));
+            fail("read a malformed series");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rejectsOversizedBinarySeries() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CallQualityRecorder(1, null).writeBinary(out);
+        byte[] series = out.toByteArray();
+        // The sample count follows the magic, version and metric count bytes.
+        ByteBuffer.wrap(series).putInt(6, CallQualityRecorder.MAX_BINARY_SAMPLES + 1);
+        try {
+            CallQualityRecorder.readBinary(new ByteArrayInputStream(series));
+            fail("read an oversized series");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    // One second of a connected call sending |bytes| with a video stream
+    // received at |frameRate|, each poll adding a freeze and 40ms per frame
+    // in the jitter buffer.
+    private RtcStatsSnapshot poll(long bytes, double roundTripTime, int frameRate) {
+        timestampUs += 1000000;
+        bytesSent += bytes;
+        framesDecoded += frameRate;
+        freezeCount++;
+        jitterBufferDelay += frameRate * 0.04;
+        jitterBufferEmittedCount += frameRate;
+        Map<String, RTCStats> stats = new HashMap<>();
+        Map<String, Object> inbound = new HashMap<>();
+        inbound.put("ssrc", 2L);
+        inbound.put("kind", "video");
+        inbound.put("framesDecoded", framesDecoded);
+        inbound.put("freezeCount", freezeCount);
+        inbound.put("jitterBufferDelay", jitterBufferDelay);
+        inbound.put("jitterBufferEmittedCount", BigInteger.valueOf(jitterBufferEmittedCount));
+        stats.put("in", new RTCStats(timestampUs, "inbound-rtp", "in", inbound));
+        Map<String, Object> pair = new HashMap<>();
+        pair.put("state", "succeeded");
+        pair.put("nominated", true);
+        pair.put("bytesSent", BigInteger.valueOf(bytesSent));
+        pair.put("currentRoundTripTime", roundTripTime);
+        stats.put("pair", new RTCStats(timestampUs, "candidate-pair", "pair", pair));
+        return collector.update(new RTCStatsReport(timestampUs, stats));
+    }
+}
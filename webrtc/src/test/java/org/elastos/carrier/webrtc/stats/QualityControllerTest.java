@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.stats;
+
+import org.junit.Test;
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QualityControllerTest {
+    private final List<QualityController.Level> applied = new ArrayList<>();
+    private final QualityController controller = new QualityController(
+            QualityController.DEFAULT_LEVELS, applied::add);
+    private final RtcStatsCollector collector = new RtcStatsCollector();
+    private long timestampUs;
+    private long bytesSent;
+
+    @Test
+    public void appliesTheTopLevelOnceConnected() {
+        controller.onStats(null);
+        assertTrue(applied.isEmpty());
+        poll(5000, "none");
+        assertEquals(1, applied.size());
+        assertEquals(1280, applied.get(0).width);
+        assertEquals(2500, applied.get(0).maxBitrateKbps);
+    }
+
+    @Test
+    public void stepsDownToTheLevelTheBandwidthCovers() {
+        poll(5000, "none");
+        // One short poll is not enough.
+        poll(900, "bandwidth");
+        assertEquals(0, controller.getLevelIndex());
+        poll(900, "bandwidth");
+        // 900 kbps covers 600 kbps at 640x480@15 but not 1000 kbps.
+        assertEquals(3, controller.getLevelIndex());
+        assertEquals(2, applied.size());
+        assertEquals(600, applied.get(1).maxBitrateKbps);
+    }
+
+    @Test
+    public void stepsDownOneLevelWhenCpuLimited() {
+        poll(5000, "none");
+        // Polls one second apart, the first starting the run.
+        for (int i = 0; i < QualityController.CPU_DOWNGRADE_DELAY_MS / 1000; i++) {
+            poll(5000, "cpu");
+        }
+        assertEquals(0, controller.getLevelIndex());
+        poll(5000, "cpu");
+        assertEquals(1, controller.getLevelIndex());
+        // The counts start over at the new level.
+        poll(5000, "cpu");
+        assertEquals(1, controller.getLevelIndex());
+    }
+
+    @Test
+    public void stepsUpGraduallyOnceStable() {
+        poll(5000, "none");
+        poll(300, "bandwidth");
+        poll(300, "bandwidth");
+        assertEquals(5, controller.getLevelIndex());
+
+        // Bandwidth back, one level per UPGRADE_DELAY_MS.
+        for (int level = 4; level >= 0; level--) {
+            for (int i = 0; i < QualityController.UPGRADE_DELAY_MS / 1000; i++) {
+                poll(5000, "none");
+            }
+            assertEquals(level + 1, controller.getLevelIndex());
+            poll(5000, "none");
+            assertEquals(level, controller.getLevelIndex());
+        }
+        assertEquals(7, applied.size());
+    }
+
+    @Test
+    public void doesNotStepUpWithoutRoomForTheNextLevel() {
+        poll(5000, "none");
+        poll(700, "bandwidth");
+        poll(700, "bandwidth");
+        assertEquals(3, controller.getLevelIndex());
+        // 1100 kbps covers 1000 kbps, but not with the upgrade margin.
+        for (int i = 0; i < 20; i++) {
+            poll(1100, "none");
+        }
+        assertEquals(3, controller.getLevelIndex());
+    }
+
+    @Test
+    public void backsOffUpgradesThatFail() {
+        poll(5000, "none");
+        poll(1200, "bandwidth");
+        poll(1200, "bandwidth");
+        assertEquals(2, controller.getLevelIndex());
+
+        // The estimate swings above the upgrade margin, then falls short again.
+        long expectedDelayMs = QualityController.UPGRADE_DELAY_MS;
+        for (int round = 0; round < 3; round++) {
+            assertEquals(expectedDelayMs, controller.getUpgradeDelayMs());
+            for (int i = 0; i <= expectedDelayMs / 1000; i++) {
+                poll(2000, "none");
+            }
+            assertEquals(1, controller.getLevelIndex());
+            poll(1200, "bandwidth");
+            poll(1200, "bandwidth");
+            assertEquals(2, controller.getLevelIndex());
+            expectedDelayMs *= 2;
+        }
+        assertEquals(expectedDelayMs, controller.getUpgradeDelayMs());
+    }
+
+    @Test
+    public void keepsItsDelaysWithABackedOffStatsInterval() {
+        AdaptiveStatsInterval interval = new AdaptiveStatsInterval(1000);
+        RtcStatsSnapshot snapshot = poll(1000, 5000, "none");
+        int intervalMs = interval.next(snapshot);
+        while (intervalMs < AdaptiveStatsInterval.DEFAULT_MAX_INTERVAL_MS) {
+            snapshot = poll(intervalMs, 5000, "none");
+            intervalMs = interval.next(snapshot);
+        }
+        // One short poll is still not enough.
+        snapshot = poll(intervalMs, 300, "bandwidth");
+        assertEquals(0, controller.getLevelIndex());
+        snapshot = poll(interval.next(snapshot), 300, "bandwidth");
+        assertEquals(5, controller.getLevelIndex());
+
+        // Every level is back after UPGRADE_DELAY_MS and at most one more poll,
+        // not after a number of polls 8 or 30 seconds apart.
+        interval.setBackground(true);
+        long startUs = timestampUs;
+        for (int level = 4; level >= 0; level--) {
+            snapshot = poll(interval.next(snapshot), 5000, "none");
+            assertEquals(level + 1, controller.getLevelIndex());
+            snapshot = poll(interval.next(snapshot), 5000, "none");
+            assertEquals(level, controller.getLevelIndex());
+        }
+        assertEquals(10L * AdaptiveStatsInterval.DEFAULT_BACKGROUND_INTERVAL_MS,
+                (timestampUs - startUs) / 1000);
+    }
+
+    @Test
+    public void buildsLevelsUpToTheCaptureFormat() {
+        List<QualityController.Level> levels = QualityController.levelsUpTo(640, 480, 30);
+        assertEquals(5, levels.size());
+        assertEquals(1000, levels.get(0).maxBitrateKbps);
+
+        levels = QualityController.levelsUpTo(800, 600, 24);
+        assertEquals(800, levels.get(0).width);
+        assertEquals(24, levels.get(0).fps);
+        // 2500 kbps scaled by the pixel rate.
+        assertEquals(2500L * 800 * 600 * 24 / (1280 * 720 * 30), levels.get(0).maxBitrateKbps);
+        assertEquals(640, levels.get(1).width);
+        assertEquals(15, levels.get(1).fps);
+    }
+
+    // One second of a call sending video with |availableKbps| of estimated bandwidth.
+    private void poll(long availableKbps, String limitation) {
+        poll(1000, availableKbps, limitation);
+    }
+
+    // |intervalMs| of a call sending video at 800 kbps.
+    private RtcStatsSnapshot poll(int intervalMs, long availableKbps, String limitation) {
+        timestampUs += intervalMs * 1000L;
+        bytesSent += intervalMs * 100L;
+        Map<String, RTCStats> stats = new HashMap<>();
+        Map<String, Object> outbound = new HashMap<>();
+        outbound.put("ssrc", 1L);
+        outbound.put("kind", "video");
+        outbound.put("bytesSent", BigInteger.valueOf(bytesSent));
+        outbound.put("qualityLimitationReason", limitation);
+        stats.put("out", new RTCStats(timestampUs, "outbound-rtp", "out", outbound));
+        Map<String, Object> pair = new HashMap<>();
+        pair.put("state", "succeeded");
+        pair.put("nominated", true);
+        pair.put("availableOutgoingBitrate", availableKbps * 1000.0);
+        stats.put("pair", new RTCStats(timestampUs, "candidate-pair", "pair", pair));
+        RtcStatsSnapshot snapshot = collector.update(new RTCStatsReport(timestampUs, stats));
+        controller.onStats(snapshot);
+        return snapshot;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.stats;
+
+import org.junit.Test;
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RtcStatsCollectorTest {
+    private static final long SECOND_US = 1000000;
+
+    private final RtcStatsCollector collector = new RtcStatsCollector();
+
+    @Test
+    public void computesRatesBetweenReports() {
+        RtcStatsSnapshot first = collector.update(new ReportBuilder(SECOND_US)
+                .outbound(1111, "video", 10000, 100, 30)
+                .inbound(2222, "video", 20000, 200, 0, 0.004, 30)
+                .candidates()
+                .pair("pair", "succeeded", true, 0.05, 1500000, 5000, 9000)
+                .transport("pair", "connected", 5000, 9000)
+                .build());
+        assertEquals(1, first.getOutboundRtp().size());
+        assertEquals(1, first.getInboundRtp().size());
+        // Nothing to compare the first report with.
+        assertEquals(0, first.getOutboundRtp("video").getBitrateBps());
+        assertEquals(0, first.getInboundRtp("video").getPacketLossRate(), 0);
+
+        RtcStatsSnapshot second = collector.update(new ReportBuilder(3 * SECOND_US)
+                .outbound(1111, "video", 260000, 300, 90)
+                .inbound(2222, "video", 520000, 380, 20, 0.012, 90)
+                .candidates()
+                .pair("pair", "succeeded", true, 0.08, 1200000, 255000, 509000)
+                .transport("pair", "connected", 255000, 509000)
+                .build());
+        // Objects are reused from poll to poll.
+        assertSame(first, second);
+
+        OutboundRtpStats outbound = second.getOutboundRtp("video");
+        assertEquals(1111, outbound.getSsrc());
+        assertTrue(outbound.isVideo());
+        assertEquals(1000000, outbound.getBitrateBps());
+        assertEquals(100, outbound.getPacketRate(), 0.001);
+        assertEquals(30, outbound.getFrameRate(), 0.001);
+
+        InboundRtpStats inbound = second.getInboundRtp("video");
+        assertEquals(2000000, inbound.getBitrateBps());
+        assertEquals(20.0 / 200, inbound.getPacketLossRate(), 0.0001);
+        assertEquals(12, inbound.getJitterMs(), 0.0001);
+        assertEquals(30, inbound.getFrameRate(), 0.001);
+        assertNull(second.getInboundRtp("audio"));
+
+        CandidatePairStats pair = second.getCandidatePair();
+        assertNotNull(pair);
+        assertEquals("host", pair.getLocalCandidateType());
+        assertEquals("relay", pair.getRemoteCandidateType());
+        assertTrue(pair.isRelayed());
+        assertEquals(80, pair.getRoundTripTimeMs(), 0.0001);
+        assertEquals(1200000, pair.getAvailableOutgoingBitrateBps());
+        assertEquals(1000000, pair.getSendBitrateBps());
+        assertEquals(2000000, pair.getReceiveBitrateBps());
+
+        TransportStats transport = second.getTransport();
+        assertEquals("connected", transport.getDtlsState());
+        assertEquals(2000000, transport.getReceiveBitrateBps());
+    }
+
+    @Test
+    public void dropsStreamsThatAreGone() {
+        collector.update(new ReportBuilder(SECOND_US)
+                .outbound(1111, "audio", 1000, 50, 0)
+                .outbound(3333, "video", 1000, 10, 3)
+                .build());
+        RtcStatsSnapshot snapshot = collector.update(new ReportBuilder(2 * SECOND_US)
+                .outbound(1111, "audio", 5000, 100, 0)
+                .build());
+        assertEquals(1, snapshot.getOutboundRtp().size());
+        assertNull(snapshot.getOutboundRtp("video"));
+        assertNull(snapshot.getCandidatePair());
+        assertNull(snapshot.getTransport());
+
+        // A stream coming back starts over.
+        snapshot = collector.update(new ReportBuilder(3 * SECOND_US)
+                .outbound(3333, "video", 9000, 30, 9)
+                .build());
+        assertEquals(0, snapshot.getOutboundRtp("video").getBitrateBps());
+    }
+
+    @Test
+    public void lostCountGoingDownIsNoLoss() {
+        collector.update(new ReportBuilder(SECOND_US)
+                .inbound(2222, "audio", 1000, 100, 5, 0, 0)
+                .build());
+        RtcStatsSnapshot snapshot = collector.update(new ReportBuilder(2 * SECOND_US)
+                .inbound(2222, "audio", 2000, 150, 3, 0, 0)
+                .build());
+        assertEquals(0, snapshot.getInboundRtp("audio").getPacketLossRate(), 0);
+    }
+
+    @Test
+    public void restartsRatesWhenThePairChanges() {
+        collector.update(new ReportBuilder(SECOND_US)
+                .candidates()
+                .pair("pair1", "succeeded", true, 0.05, 0, 1000, 1000)
+                .build());
+        RtcStatsSnapshot snapshot = collector.update(new ReportBuilder(2 * SECOND_US)
+                .candidates()
+                .pair("pair2", "succeeded", true, 0.05, 0, 90000, 90000)
+                .build());
+        assertEquals("pair2", snapshot.getCandidatePair().getId());
+        assertEquals(0, snapshot.getCandidatePair().getSendBitrateBps());
+    }
+
+    private static class ReportBuilder {
+        private final long timestampUs;
+        private final Map<String, RTCStats> stats = new HashMap<>();
+
+        ReportBuilder(long timestampUs) {
+            this.timestampUs = timestampUs;
+        }
+
+        // Counter types follow the native ones: uint64 is BigInteger, uint32 Long, int32 Integer.
+        ReportBuilder outbound(long ssrc, String kind, long bytes, long packets, long frames) {
+            Map<String, Object> members = new HashMap<>();
+            members.put("ssrc", ssrc);
+            members.put("kind", kind);
+            members.put("bytesSent", BigInteger.valueOf(bytes));
+            members.put("packetsSent", packets);
+            if ("video".equals(kind)) {
+                members.put("framesEncoded", frames);
+            }
+            return add("RTCOutboundRTP" + ssrc, "outbound-rtp", members);
+        }
+
+        ReportBuilder inbound(long ssrc, String kind, long bytes, long packets, int lost,
+                              double jitter, long frames) {
+            Map<String, Object> members = new HashMap<>();
+            members.put("ssrc", ssrc);
+            members.put("mediaType", kind);
+            members.put("bytesReceived", BigInteger.valueOf(bytes));
+            members.put("packetsReceived", packets);
+            members.put("packetsLost", lost);
+            members.put("jitter", jitter);
+            members.put("framesDecoded", frames);
+            return add("RTCInboundRTP" + ssrc, "inbound-rtp", members);
+        }
+
+        ReportBuilder candidates() {
+            Map<String, Object> local = new HashMap<>();
+            local.put("candidateType", "host");
+            add("local", "local-candidate", local);
+            Map<String, Object> remote = new HashMap<>();
+            remote.put("candidateType", "relay");
+            return add("remote", "remote-candidate", remote);
+        }
+
+        ReportBuilder pair(String id, String state, boolean nominated, double rtt,
+                           double availableOutgoingBitrate, long bytesSent, long bytesReceived) {
+            Map<String, Object> members = new HashMap<>();
+            members.put("state", state);
+            members.put("nominated", nominated);
+            members.put("localCandidateId", "local");
+            members.put("remoteCandidateId", "remote");
+            members.put("currentRoundTripTime", rtt);
+            members.put("availableOutgoingBitrate", availableOutgoingBitrate);
+            members.put("bytesSent", BigInteger.valueOf(bytesSent));
+            members.put("bytesReceived", BigInteger.valueOf(bytesReceived));
+            return add(id, "candidate-pair", members);
+        }
+
+        ReportBuilder transport(String pairId, String dtlsState, long bytesSent,
+                                long bytesReceived) {
+            Map<String, Object> members = new HashMap<>();
+            members.put("selectedCandidatePairId", pairId);
+            members.put("dtlsState", dtlsState);
+            members.put("bytesSent", BigInteger.valueOf(bytesSent));
+            members.put("bytesReceived", BigInteger.valueOf(bytesReceived));
+            return add("RTCTransport_0_1", "transport", members);
+        }
+
+        RTCStatsReport build() {
+            return new RTCStatsReport(timestampUs, stats);
+        }
+
+        private ReportBuilder add(String id, String type, Map<String, Object> members) {
+            stats.put(id, new RTCStats(timestampUs, type, id, members));
+            return this;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Logger;
+
+/**
+ * Timing and allocation harness of the benchmarks, which are JVM unit tests
+ * since JMH does not fit the Android Gradle build of the SDK.
+ *
+ * <p>The benchmarks are {@code @Ignore}d as their timings depend on the
+ * machine: remove the annotation to run one, the results are logged through
+ * {@code java.util.logging}. The allocation counts are stable enough for the
+ * unit tests to assert on.
+ */
+public final class Benchmark {
+    private Benchmark() {
+    }
+
+    public interface Operation {
+        /**
+         * Run the operation once and return a value depending on its result,
+         * so the JIT can not drop the work.
+         */
+        int run() throws Exception;
+    }
+
+    public static final class Result {
+        public final long nanosPerOp;
+        public final long bytesPerOp;
+
+        Result(long nanosPerOp, long bytesPerOp) {
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return nanosPerOp + " ns/op, " + bytesPerOp + " B/op";
+        }
+    }
+
+    /**
+     * Average time and bytes allocated on the calling thread per run of
+     * {@code operation}, after {@code warmupIterations} runs. The bytes are
+     * -1 when the JVM can not report them.
+     */
+    public static Result measure(int warmupIterations, int iterations, Operation operation)
+            throws Exception {
+        int sink = 0;
+        for (int i = 0; i < warmupIterations; i++) {
+            sink += operation.run();
+        }
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += operation.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytes = allocatedBytes() - bytesBefore;
+        if (sink == 42) {
+            // Keeps |sink| alive, whatever its value.
+            Thread.yield();
+        }
+        return new Result(elapsed / iterations, bytesBefore < 0 ? -1 : bytes / iterations);
+    }
+
+    /**
+     * Bytes allocated so far by the calling thread, or -1 when the JVM can not
+     * report per thread allocations.
+     */
+    public static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    public static void report(Class<?> benchmark, String message) {
+        Logger.getLogger(benchmark.getName()).info(message);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2018 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.carrier.webrtc.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SerialExecutorTest {
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void runsTasksInOrderOneAtATime() throws InterruptedException {
+        SerialExecutor executor = new SerialExecutor("test", pool);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        int tasks = SerialExecutor.MAX_TASKS_PER_TURN * 5;
+        final CountDownLatch done = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            final int index = i;
+            executor.execute(() -> {
+                maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+                order.add(index);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        awaitCompleted(executor, tasks);
+        assertEquals(1, maxRunning.get());
+        for (int i = 0; i < tasks; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+        ExecutorStats stats = executor.getStats();
+        assertEquals(tasks, stats.getCompletedTasks());
+        assertEquals(0, stats.getQueueDepth());
+        assertTrue(stats.getMaxQueueDepth() >= 1);
+    }
+
+    @Test
+    public void blockedExecutorDoesNotBlockOthers() throws InterruptedException {
+        SerialExecutor slow = new SerialExecutor("slow", pool);
+        SerialExecutor fast = new SerialExecutor("fast", pool);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        slow.execute(() -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        slow.execute(() -> {
+        });
+        fast.execute(fastDone::countDown);
+        assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+        assertEquals(1, slow.getStats().getQueueDepth());
+        release.countDown();
+    }
+
+    @Test
+    public void recordsStallsAndSurvivesFailures() throws InterruptedException {
+        SerialExecutor executor = new SerialExecutor("stall", pool);
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(() -> {
+            throw new IllegalStateException("expected");
+        });
+        executor.execute(() -> {
+            try {
+                Thread.sleep(SerialExecutor.STALL_THRESHOLD_MS + 20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        awaitCompleted(executor, 3);
+        ExecutorStats stats = executor.getStats();
+        assertEquals(1, stats.getStalledTasks());
+        assertTrue(stats.getMaxRunTimeUs() >= SerialExecutor.STALL_THRESHOLD_MS * 1000);
+        // The last task waited behind the stalled one.
+        assertTrue(stats.getMaxQueueDelayUs() >= SerialExecutor.STALL_THRESHOLD_MS * 1000);
+    }
+
+    @Test
+    public void keepsRunningAfterError() throws InterruptedException {
+        SerialExecutor executor = new SerialExecutor("error", pool);
+        final CountDownLatch queued = new CountDownLatch(1);
+        executor.execute(() -> {
+            throw new AssertionError("expected");
+        });
+        executor.execute(queued::countDown);
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        // Submitted after the error: runs only if the executor is not stuck scheduled.
+        final CountDownLatch later = new CountDownLatch(1);
+        executor.execute(later::countDown);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        awaitCompleted(executor, 3);
+        assertEquals(3, executor.getStats().getCompletedTasks());
+    }
+
+    @Test
+    public void runsQueuedTasksAfterShutdown() throws InterruptedException {
+        SerialExecutor executor = new SerialExecutor("shutdown", pool);
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(() -> {
+            runs.incrementAndGet();
+            done.countDown();
+        });
+        executor.shutdown();
+        executor.execute(runs::incrementAndGet);
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(executor.isShutdown());
+        assertEquals(1, runs.get());
+        assertEquals(0, executor.getStats().getQueueDepth());
+    }
+
+    // Metrics are recorded right after a task returns, wait until they are.
+    private static void awaitCompleted(SerialExecutor executor, long tasks)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getStats().getCompletedTasks() < tasks
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+}